@@ -0,0 +1,11 @@
+#!/bin/sh
+
+source_user=$1
+source_password=$2
+source_host=$3
+source_port=$4
+source_schema=$5
+directory=$6
+jobs=$7
+
+pg_dump --dbname=postgresql://${source_user}:${source_password}@${source_host}:${source_port}/${source_schema} -Fd -j ${jobs} -f ${directory}
\ No newline at end of file
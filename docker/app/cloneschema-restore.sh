@@ -0,0 +1,11 @@
+#!/bin/sh
+
+target_user=$1
+target_password=$2
+target_host=$3
+target_port=$4
+target_schema=$5
+directory=$6
+jobs=$7
+
+pg_restore --dbname=postgresql://${target_user}:${target_password}@${target_host}:${target_port}/${target_schema} -Fd -j ${jobs} -n public -O -e ${directory}
\ No newline at end of file
@@ -6,7 +6,16 @@ import com.jivesoftware.cloud.mako.bundle.MakoBundle;
 import com.jivesoftware.data.health.SharedCapacityHealthCheck;
 import com.jivesoftware.data.impl.DatabaseCreateRequestProcessor;
 import com.jivesoftware.data.impl.EnhancedMetricsProcessor;
+import com.jivesoftware.data.impl.FencedDatabaseRecovery;
+import com.jivesoftware.data.impl.HardDeleteReaper;
+import com.jivesoftware.data.impl.InstanceTagCache;
+import com.jivesoftware.data.impl.MasterConnectionPool;
+import com.jivesoftware.data.impl.SharedInstanceIndex;
+import com.jivesoftware.data.impl.StatusWatcher;
+import com.jivesoftware.data.impl.WarmInstancePool;
+import com.jivesoftware.data.impl.WarmSchemaPool;
 import com.jivesoftware.data.impl.deletion.InstanceDeleteRequestProcessor;
+import com.jivesoftware.data.impl.message_serializer.ReloadEncryptionKeysTask;
 import com.jivesoftware.data.resources.DatabaseResource;
 import com.jivesoftware.data.resources.RuntimeExceptionMapper;
 import com.jivesoftware.data.resources.ScheduledServiceInstaller;
@@ -14,6 +23,7 @@ import io.dropwizard.Application;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import ru.vyarus.dropwizard.guice.GuiceBundle;
+import ru.vyarus.dropwizard.guice.module.installer.feature.ManagedInstaller;
 import ru.vyarus.dropwizard.guice.module.installer.feature.TaskInstaller;
 import ru.vyarus.dropwizard.guice.module.installer.feature.health.HealthCheckInstaller;
 import ru.vyarus.dropwizard.guice.module.installer.feature.jersey.ResourceInstaller;
@@ -31,13 +41,22 @@ public class DBaaSApplication extends Application<DBaaSConfiguration> {
         GuiceBundle<DBaaSConfiguration> guiceBundle = GuiceBundle.<DBaaSConfiguration>builder()
                 .modules(new DBaaSModule())
                 .installers(ResourceInstaller.class, TaskInstaller.class,
-                        HealthCheckInstaller.class,
+                        HealthCheckInstaller.class, ManagedInstaller.class,
                         ScheduledServiceInstaller.class)
                 .extensions(DatabaseResource.class,
                         SharedCapacityHealthCheck.class,
                         EnhancedMetricsProcessor.class,
                         DatabaseCreateRequestProcessor.class,
-                        InstanceDeleteRequestProcessor.class)
+                        InstanceDeleteRequestProcessor.class,
+                        SharedInstanceIndex.class,
+                        InstanceTagCache.class,
+                        StatusWatcher.class,
+                        HardDeleteReaper.class,
+                        MasterConnectionPool.class,
+                        FencedDatabaseRecovery.class,
+                        WarmSchemaPool.class,
+                        WarmInstancePool.class,
+                        ReloadEncryptionKeysTask.class)
                 .build();
 
         bootstrap.getObjectMapper().registerModules(new ParameterNamesModule(), new Jdk8Module());
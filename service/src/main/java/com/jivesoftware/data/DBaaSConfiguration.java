@@ -4,9 +4,13 @@ import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
 import io.dropwizard.Configuration;
 
 import java.util.List;
+import java.util.Map;
 
 @SuppressWarnings("unused")
 @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -31,8 +35,24 @@ public class DBaaSConfiguration extends Configuration {
     private String makoEnvironment;
     private DomainDetails domainDetails;
     private Integer queuePollFrequencySeconds;
+    private String creationMessageVersion = "v1";
     private DatabaseDaoConfiguration databaseDaoConfiguration;
     private CloneConfiguration cloneConfiguration;
+    private SharedInstanceIndexConfiguration sharedInstanceIndex =
+            new SharedInstanceIndexConfiguration();
+    private InstanceMetricsConfiguration instanceMetrics = new InstanceMetricsConfiguration();
+    private PlacementConfiguration placement = new PlacementConfiguration();
+    private InstanceTagsConfiguration instanceTags = new InstanceTagsConfiguration();
+    private CreationWorkersConfiguration creationWorkers = new CreationWorkersConfiguration();
+    private PollingBackoffConfiguration pollingBackoff = new PollingBackoffConfiguration();
+    private DatabaseCacheConfiguration databaseCache = new DatabaseCacheConfiguration();
+    private StatusWatchConfiguration statusWatch = new StatusWatchConfiguration();
+    private HardDeleteConfiguration hardDelete = new HardDeleteConfiguration();
+    private ConnectionPoolConfiguration connectionPool = new ConnectionPoolConfiguration();
+    private SchemaTemplateConfiguration schemaTemplate = new SchemaTemplateConfiguration();
+    private WarmPoolConfiguration warmPool = new WarmPoolConfiguration();
+    private WarmInstancePoolConfiguration warmInstancePool = new WarmInstancePoolConfiguration();
+    private DumpCacheConfiguration dumpCache = new DumpCacheConfiguration();
     private InstanceTemplate instanceTemplate;
     private List<String> defaultInstances;
     private List<InstanceType> instanceTypes;
@@ -119,6 +139,85 @@ public class DBaaSConfiguration extends Configuration {
         return cloneConfiguration;
     }
 
+    @JsonProperty
+    public SharedInstanceIndexConfiguration getSharedInstanceIndex() {
+        return sharedInstanceIndex;
+    }
+
+    @JsonProperty
+    public InstanceMetricsConfiguration getInstanceMetrics() {
+        return instanceMetrics;
+    }
+
+    @JsonProperty
+    public PlacementConfiguration getPlacement() {
+        return placement;
+    }
+
+    @JsonProperty
+    public InstanceTagsConfiguration getInstanceTags() {
+        return instanceTags;
+    }
+
+    /**
+     * Format of the creation messages sent, v1 for JSON with AES/CBC or v2 for binary Ion with
+     * AES/GCM. Both are always received; v1 stays the default until every consumer decodes v2.
+     */
+    @JsonProperty
+    public String getCreationMessageVersion() {
+        return creationMessageVersion;
+    }
+
+    @JsonProperty
+    public CreationWorkersConfiguration getCreationWorkers() {
+        return creationWorkers;
+    }
+
+    @JsonProperty
+    public PollingBackoffConfiguration getPollingBackoff() {
+        return pollingBackoff;
+    }
+
+    @JsonProperty
+    public DatabaseCacheConfiguration getDatabaseCache() {
+        return databaseCache;
+    }
+
+    @JsonProperty
+    public StatusWatchConfiguration getStatusWatch() {
+        return statusWatch;
+    }
+
+    @JsonProperty
+    public HardDeleteConfiguration getHardDelete() {
+        return hardDelete;
+    }
+
+    @JsonProperty
+    public ConnectionPoolConfiguration getConnectionPool() {
+        return connectionPool;
+    }
+
+    @JsonProperty
+    public SchemaTemplateConfiguration getSchemaTemplate() {
+        return schemaTemplate;
+    }
+
+    @JsonProperty
+    public WarmPoolConfiguration getWarmPool() {
+        return warmPool;
+    }
+
+    @JsonProperty
+    public WarmInstancePoolConfiguration getWarmInstancePool() {
+        return warmInstancePool;
+    }
+
+    @JsonProperty
+    public DumpCacheConfiguration getDumpCache() {
+        return dumpCache;
+    }
+
     @JsonProperty
     public InstanceTemplate getInstanceTemplate() {
         return instanceTemplate;
@@ -199,6 +298,8 @@ public class DBaaSConfiguration extends Configuration {
         private String tableName;
         private Long readUnits;
         private Long writeUnits;
+        private Long statusIndexReadUnits = 25L;
+        private Long statusIndexWriteUnits = 25L;
 
         public String getTableName() {
             return tableName;
@@ -211,12 +312,31 @@ public class DBaaSConfiguration extends Configuration {
         public Long getWriteUnits() {
             return writeUnits;
         }
+
+        public Long getStatusIndexReadUnits() {
+            return statusIndexReadUnits;
+        }
+
+        public Long getStatusIndexWriteUnits() {
+            return statusIndexWriteUnits;
+        }
     }
 
     public static class CloneConfiguration {
 
         private String command;
+        private String sectionCommand;
+        private String parallelDumpCommand;
+        private String parallelRestoreCommand;
         private Long executionTimeout;
+        private DatabaseCreationRequest.CloneEngine engine = DatabaseCreationRequest.CloneEngine.DUMP;
+        private Integer copyThreads = 4;
+        private Integer progressIntervalSeconds = 10;
+        private String scratchDirectory = "/tmp/dbaas-clone";
+        private Long scratchQuotaBytes = 50L * 1024 * 1024 * 1024;
+        private Integer maxJobs = 8;
+        private Boolean sameHostTemplate = false;
+        private Boolean fanOut = false;
 
         public Long getExecutionTimeout() {
             return executionTimeout;
@@ -225,16 +345,477 @@ public class DBaaSConfiguration extends Configuration {
         public String getCommand() {
             return command;
         }
+
+        /**
+         * Restores one section (pre-data or post-data) of the source schema, used by the COPY
+         * engine for everything but the table data
+         */
+        public String getSectionCommand() {
+            return sectionCommand;
+        }
+
+        /** Dumps the source into a directory archive with several jobs, for the PARALLEL engine */
+        public String getParallelDumpCommand() {
+            return parallelDumpCommand;
+        }
+
+        /** Restores a directory archive into the target with several jobs */
+        public String getParallelRestoreCommand() {
+            return parallelRestoreCommand;
+        }
+
+        /** Engine used when the creation request doesn't pick one */
+        public DatabaseCreationRequest.CloneEngine getEngine() {
+            return engine;
+        }
+
+        /** Tables the COPY engine copies at the same time, each over its own connections */
+        public Integer getCopyThreads() {
+            return copyThreads;
+        }
+
+        /** Least time between two progress updates of the status message */
+        public Integer getProgressIntervalSeconds() {
+            return progressIntervalSeconds;
+        }
+
+        /** Local directory the PARALLEL engine dumps into */
+        public String getScratchDirectory() {
+            return scratchDirectory;
+        }
+
+        /** Most scratch space the clones running on one node may hold at once */
+        public Long getScratchQuotaBytes() {
+            return scratchQuotaBytes;
+        }
+
+        /** Upper bound on the dump and restore jobs of one clone, whatever the instance size */
+        public Integer getMaxJobs() {
+            return maxJobs;
+        }
+
+        /**
+         * Clones within a host by copying the source database's files, which ends the sessions
+         * open on the source
+         */
+        public Boolean getSameHostTemplate() {
+            return sameHostTemplate;
+        }
+
+        /**
+         * Lets PARALLEL clones of a source that is being dumped on this node restore from that
+         * dump rather than dumping the source again. That dump was started for an earlier request,
+         * so such a clone can miss writes made to the source before its own request. Off by
+         * default, only turn it on where clones may be that stale.
+         */
+        public Boolean getFanOut() {
+            return fanOut;
+        }
+    }
+
+    public static class SharedInstanceIndexConfiguration {
+
+        private Integer refreshIntervalSeconds = 60;
+        private Integer tagRefreshSeconds = 900;
+        private Integer maxStalenessSeconds = 600;
+
+        public Integer getRefreshIntervalSeconds() { return refreshIntervalSeconds; }
+
+        public Integer getTagRefreshSeconds() { return tagRefreshSeconds; }
+
+        public Integer getMaxStalenessSeconds() { return maxStalenessSeconds; }
+    }
+
+    public static class InstanceMetricsConfiguration {
+
+        private Integer periodSeconds = 3600;
+        private Integer windowSeconds = 7200;
+        private boolean includeConnections = true;
+        private boolean includeFreeStorage = true;
+
+        public Integer getPeriodSeconds() { return periodSeconds; }
+
+        public Integer getWindowSeconds() { return windowSeconds; }
+
+        public boolean isIncludeConnections() { return includeConnections; }
+
+        public boolean isIncludeFreeStorage() { return includeFreeStorage; }
+    }
+
+    public static class PlacementConfiguration {
+
+        public enum Strategy { LEAST_CPU, WEIGHTED }
+
+        private Strategy strategy = Strategy.WEIGHTED;
+        private double cpuWeight = 0.4;
+        private double schemaCountWeight = 0.3;
+        private double storageWeight = 0.2;
+        private double connectionsWeight = 0.1;
+        private Integer schemaCountRefreshSeconds = 300;
+
+        public Strategy getStrategy() { return strategy; }
+
+        public double getCpuWeight() { return cpuWeight; }
+
+        public double getSchemaCountWeight() { return schemaCountWeight; }
+
+        public double getStorageWeight() { return storageWeight; }
+
+        public double getConnectionsWeight() { return connectionsWeight; }
+
+        public Integer getSchemaCountRefreshSeconds() { return schemaCountRefreshSeconds; }
+    }
+
+    public static class InstanceTagsConfiguration {
+
+        private Integer threads = 8;
+        private Long callTimeoutMillis = 5000L;
+        private Integer ttlSeconds = 900;
+        private Long maximumSize = 1000L;
+
+        public Integer getThreads() { return threads; }
+
+        public Long getCallTimeoutMillis() { return callTimeoutMillis; }
+
+        public Integer getTtlSeconds() { return ttlSeconds; }
+
+        public Long getMaximumSize() { return maximumSize; }
+    }
+
+    public static class DatabaseCacheConfiguration {
+
+        private Long maximumSize = 10000L;
+        private Integer pendingTtlSeconds = 2;
+        private Integer settledTtlSeconds = 60;
+
+        public Long getMaximumSize() { return maximumSize; }
+
+        /**
+         * How long a database still CREATING or DELETING is served from the cache.
+         */
+        public Integer getPendingTtlSeconds() { return pendingTtlSeconds; }
+
+        /**
+         * How long a READY, ERROR or DELETED database is served from the cache. Writes made on this
+         * node invalidate it right away, this bounds how late writes from other nodes are seen.
+         */
+        public Integer getSettledTtlSeconds() { return settledTtlSeconds; }
+    }
+
+    public static class StatusWatchConfiguration {
+
+        private Integer pollSeconds = 5;
+        private Integer defaultTimeoutSeconds = 30;
+        private Integer maxTimeoutSeconds = 60;
+        private Integer maxWatches = 10000;
+
+        /**
+         * How often the watched databases are read again, to catch changes made on other nodes.
+         */
+        public Integer getPollSeconds() { return pollSeconds; }
+
+        public Integer getDefaultTimeoutSeconds() { return defaultTimeoutSeconds; }
+
+        public Integer getMaxTimeoutSeconds() { return maxTimeoutSeconds; }
+
+        public Integer getMaxWatches() { return maxWatches; }
+    }
+
+    public static class HardDeleteConfiguration {
+
+        private Integer intervalSeconds = 300;
+        private Integer threads = 8;
+        private Integer hostConcurrency = 2;
+        private Double deletesPerSecond = 5.0;
+
+        /**
+         * Time between the end of one hard delete pass and the start of the next.
+         */
+        public Integer getIntervalSeconds() { return intervalSeconds; }
+
+        public Integer getThreads() { return threads; }
+
+        /**
+         * Most databases dropped on the same host at once.
+         */
+        public Integer getHostConcurrency() { return hostConcurrency; }
+
+        /**
+         * Most databases dropped per second across all hosts.
+         */
+        public Double getDeletesPerSecond() { return deletesPerSecond; }
+    }
+
+    public static class ConnectionPoolConfiguration {
+
+        private Integer maxPerHost = 4;
+        private Integer maxIdlePerHost = 2;
+        private Integer maxWaitMillis = 10000;
+        private Integer idleEvictSeconds = 300;
+        private Integer evictionIntervalSeconds = 60;
+        private Integer validationIntervalSeconds = 30;
+        private Integer unusedPoolEvictSeconds = 900;
+
+        /**
+         * Most connections open to the master database of one host.
+         */
+        public Integer getMaxPerHost() { return maxPerHost; }
+
+        public Integer getMaxIdlePerHost() { return maxIdlePerHost; }
+
+        /**
+         * How long a caller waits for a connection once the host has maxPerHost in use.
+         */
+        public Integer getMaxWaitMillis() { return maxWaitMillis; }
+
+        /**
+         * Connections idle for longer are closed.
+         */
+        public Integer getIdleEvictSeconds() { return idleEvictSeconds; }
+
+        public Integer getEvictionIntervalSeconds() { return evictionIntervalSeconds; }
+
+        /**
+         * A connection validated more recently is handed out without checking it again.
+         */
+        public Integer getValidationIntervalSeconds() { return validationIntervalSeconds; }
+
+        /**
+         * The pool of a host not used for longer is closed, hosts come and go with instances.
+         */
+        public Integer getUnusedPoolEvictSeconds() { return unusedPoolEvictSeconds; }
+    }
+
+    public static class SchemaTemplateConfiguration {
+
+        private Boolean enabled = false;
+        private String templateName = "dbaas_template";
+        private List<String> extensions = ImmutableList.of("hstore", "pg_buffercache",
+                "pg_stat_statements", "pgstattuple", "postgres_fdw");
+
+        /**
+         * Creates schemas as copies of a template database kept on every shared instance, instead
+         * of installing the extensions into each new schema.
+         */
+        public Boolean getEnabled() { return enabled; }
+
+        public String getTemplateName() { return templateName; }
+
+        /**
+         * Extensions installed into every schema. The template is rebuilt when this list changes.
+         */
+        public List<String> getExtensions() { return extensions; }
+    }
+
+    public static class WarmPoolConfiguration {
+
+        private Boolean enabled = false;
+        private String tableName;
+        private Long readUnits = 5L;
+        private Long writeUnits = 5L;
+        private Integer perInstance = 5;
+        private Integer refillIntervalSeconds = 60;
+        private Integer maxCreatesPerRefill = 10;
+
+        public Boolean getEnabled() { return enabled; }
+
+        /**
+         * DynamoDB table listing the unclaimed warm schemas of each shared instance.
+         */
+        public String getTableName() { return tableName; }
+
+        public Long getReadUnits() { return readUnits; }
+
+        public Long getWriteUnits() { return writeUnits; }
+
+        /**
+         * Unclaimed schemas kept ready on every eligible shared instance.
+         */
+        public Integer getPerInstance() { return perInstance; }
+
+        public Integer getRefillIntervalSeconds() { return refillIntervalSeconds; }
+
+        /**
+         * Most schemas created by one refill, across all instances.
+         */
+        public Integer getMaxCreatesPerRefill() { return maxCreatesPerRefill; }
+    }
+
+    public static class WarmInstancePoolConfiguration {
+
+        private Boolean enabled = false;
+        private String tableName;
+        private Long readUnits = 5L;
+        private Long writeUnits = 5L;
+        private List<String> instanceClasses = ImmutableList.of();
+        private Integer minPerClass = 0;
+        private Integer maxPerClass = 2;
+        private Integer forecastWindowHours = 168;
+        private Integer leadTimeMinutes = 30;
+        private Integer idleReclaimHours = 24;
+        private Integer refillIntervalSeconds = 300;
+        private Integer maxCreatesPerRefill = 2;
+        private Map<String, Double> hourlyCost = ImmutableMap.of();
+
+        public Boolean getEnabled() { return enabled; }
+
+        /**
+         * DynamoDB table listing the unclaimed warm instances and the recent dedicated creates.
+         */
+        public String getTableName() { return tableName; }
+
+        public Long getReadUnits() { return readUnits; }
+
+        public Long getWriteUnits() { return writeUnits; }
+
+        /**
+         * Instance classes kept warm, as they are requested, e.g. m4.large. Warm instances get the
+         * storage of the instance template, creates asking for other storage never use them.
+         */
+        public List<String> getInstanceClasses() { return instanceClasses; }
+
+        public Integer getMinPerClass() { return minPerClass; }
+
+        public Integer getMaxPerClass() { return maxPerClass; }
+
+        /**
+         * Dedicated creates of the last hours the demand of each class is forecast from.
+         */
+        public Integer getForecastWindowHours() { return forecastWindowHours; }
+
+        /**
+         * About how long a new instance takes to come up. The pool keeps enough warm instances for
+         * the creates forecast over that time.
+         */
+        public Integer getLeadTimeMinutes() { return leadTimeMinutes; }
+
+        /**
+         * Warm instances above the forecast that have been idle this long are deleted.
+         */
+        public Integer getIdleReclaimHours() { return idleReclaimHours; }
+
+        public Integer getRefillIntervalSeconds() { return refillIntervalSeconds; }
+
+        /**
+         * Most instances created by one refill, across all classes.
+         */
+        public Integer getMaxCreatesPerRefill() { return maxCreatesPerRefill; }
+
+        /**
+         * Hourly price of each instance class, used to report what idle warm instances cost.
+         */
+        public Map<String, Double> getHourlyCost() { return hourlyCost; }
+    }
+
+    public static class DumpCacheConfiguration {
+
+        private Boolean enabled = false;
+        private String directory = "/tmp/dbaas-dump-cache";
+        private Long maxBytes = 20L * 1024 * 1024 * 1024;
+        private String bucket;
+        private String prefix = "dump-cache/";
+        private String kmsKeyId;
+
+        public Boolean getEnabled() { return enabled; }
+
+        /**
+         * Local directory the dumps are kept in. It has to be on the same file system as the clone
+         * scratch directory, as dumps are moved from one to the other.
+         */
+        public String getDirectory() { return directory; }
+
+        /**
+         * Most bytes kept locally, the least recently used dumps are evicted past it.
+         */
+        public Long getMaxBytes() { return maxBytes; }
+
+        /**
+         * S3 bucket every dump is also uploaded to, so other nodes and evicted dumps can be
+         * downloaded rather than dumped again. Unset keeps the cache local. The bucket should
+         * expire old objects, nothing is ever deleted from it.
+         */
+        public String getBucket() { return bucket; }
+
+        public String getPrefix() { return prefix; }
+
+        /**
+         * KMS key the uploaded dumps are encrypted with. Unset encrypts them with S3 managed keys.
+         */
+        public String getKmsKeyId() { return kmsKeyId; }
+    }
+
+    public static class CreationWorkersConfiguration {
+
+        private Integer threads;
+        private Integer threadsPerCore = 2;
+        private Map<String, Integer> stepConcurrency = ImmutableMap.of(
+                "CLONE", 2, "INSTANCE", 4, "SCHEMA", 8, "INSTANCE_READY", 16);
+        private Integer visibilityTimeoutSeconds = 300;
+        private Integer busyRetrySeconds = 30;
+        private Integer drainTimeoutSeconds = 300;
+
+        /**
+         * Worker threads running creation steps. Unset sizes the pool by the available cores.
+         */
+        public Integer getThreads() { return threads; }
+
+        public Integer getThreadsPerCore() { return threadsPerCore; }
+
+        /**
+         * Steps of each kind allowed to run at once, keyed by creation step name. A step that is
+         * not listed may use every worker.
+         */
+        public Map<String, Integer> getStepConcurrency() { return stepConcurrency; }
+
+        public Integer getVisibilityTimeoutSeconds() { return visibilityTimeoutSeconds; }
+
+        public Integer getBusyRetrySeconds() { return busyRetrySeconds; }
+
+        public Integer getDrainTimeoutSeconds() { return drainTimeoutSeconds; }
+    }
+
+    public static class PollingBackoffConfiguration {
+
+        private Integer initialDelaySeconds = 5;
+        private Integer maxDelaySeconds = 120;
+        private Double multiplier = 2.0;
+        private Integer maxAttempts = 60;
+
+        public Integer getInitialDelaySeconds() { return initialDelaySeconds; }
+
+        /**
+         * Longest delay between two checks, SQS allows at most 900 seconds.
+         */
+        public Integer getMaxDelaySeconds() { return maxDelaySeconds; }
+
+        public Double getMultiplier() { return multiplier; }
+
+        /**
+         * Checks of a step still waiting on RDS before the database is moved to ERROR.
+         */
+        public Integer getMaxAttempts() { return maxAttempts; }
     }
 
     public static class QueueConfig {
 
         private String queueName;
         private Integer queuePollFrequencySeconds;
+        private Integer maxNumberOfMessages;
+        private Integer waitTimeSeconds;
 
         public String getQueueName() { return queueName; }
 
         public Integer getQueuePollFrequencySeconds() { return queuePollFrequencySeconds; }
+
+        /**
+         * Messages to receive per poll, up to 10. Unset receives a single message.
+         */
+        public Integer getMaxNumberOfMessages() { return maxNumberOfMessages; }
+
+        /**
+         * Long poll wait, up to 20 seconds. Unset short polls.
+         */
+        public Integer getWaitTimeSeconds() { return waitTimeSeconds; }
     }
 
     public static class DomainDetails {
@@ -5,12 +5,19 @@ import com.amazonaws.services.cloudwatch.AmazonCloudWatchClient;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.logs.AWSLogsClient;
 import com.amazonaws.services.rds.AmazonRDSClient;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.AmazonSQSClient;
 import com.codahale.metrics.MetricRegistry;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import com.jivesoftware.data.impl.metrics.CloudWatchInstanceMetricsClient;
+import com.jivesoftware.data.impl.metrics.InstanceMetricsClient;
+import com.jivesoftware.data.impl.placement.LeastCpuPlacementStrategy;
+import com.jivesoftware.data.impl.placement.PlacementStrategy;
+import com.jivesoftware.data.impl.placement.WeightedPlacementStrategy;
 
 public class DBaaSModule extends AbstractModule {
 
@@ -18,9 +25,22 @@ public class DBaaSModule extends AbstractModule {
     protected void configure() {
         requireBinding(DBaaSConfiguration.class);
         requireBinding(MetricRegistry.class);
+        bind(InstanceMetricsClient.class).to(CloudWatchInstanceMetricsClient.class);
     }
 
 
+    @Provides
+    @Singleton
+    public PlacementStrategy providePlacementStrategy(DBaaSConfiguration dBaaSConfiguration) {
+        DBaaSConfiguration.PlacementConfiguration placement = dBaaSConfiguration.getPlacement();
+        switch (placement.getStrategy()) {
+            case LEAST_CPU:
+                return new LeastCpuPlacementStrategy();
+            default:
+                return new WeightedPlacementStrategy(placement);
+        }
+    }
+
     @Provides
     @Singleton
     public AmazonDynamoDBClient provideAmazonDynamo(DBaaSConfiguration dBaaSConfiguration) {
@@ -47,6 +67,15 @@ public class DBaaSModule extends AbstractModule {
         return amazonSQS;
     }
 
+    @Provides
+    @Singleton
+    public AmazonS3 provideAmazonS3(DBaaSConfiguration dBaaSConfiguration) {
+        AmazonS3 amazonS3
+                = new AmazonS3Client(new DefaultAWSCredentialsProviderChain());
+        amazonS3.setRegion(dBaaSConfiguration.getAwsRegion());
+        return amazonS3;
+    }
+
     @Provides
     @Singleton
     public AmazonCloudWatchClient provideAmazonCloudWatchClient(DBaaSConfiguration dBaaSConfiguration) {
@@ -0,0 +1,8 @@
+package com.jivesoftware.data.exceptions;
+
+public class StatusLookupException extends RuntimeException {
+
+    public StatusLookupException(String message) {
+        super(message);
+    }
+}
@@ -1,17 +1,18 @@
 package com.jivesoftware.data.health;
 
-import com.jivesoftware.data.impl.InstanceManager;
+import com.jivesoftware.data.impl.SharedInstanceIndex;
 import ru.vyarus.dropwizard.guice.module.installer.feature.health.NamedHealthCheck;
 
 import javax.inject.Inject;
+import java.util.stream.Collectors;
 
 public class SharedCapacityHealthCheck extends NamedHealthCheck {
 
-    private final InstanceManager instanceManager;
+    private final SharedInstanceIndex sharedInstanceIndex;
 
     @Inject
-    public SharedCapacityHealthCheck(InstanceManager instanceManager) {
-        this.instanceManager = instanceManager;
+    public SharedCapacityHealthCheck(SharedInstanceIndex sharedInstanceIndex) {
+        this.sharedInstanceIndex = sharedInstanceIndex;
     }
 
     @Override
@@ -21,7 +22,20 @@ public class SharedCapacityHealthCheck extends NamedHealthCheck {
 
     @Override
     protected Result check() throws Exception {
-        return true /* seems to take longer than a min - instanceManager.findSharedInstance().isPresent() */ ? Result.healthy() :
-                Result.unhealthy("No shared instance to place a shared schema is found");
+        if (!sharedInstanceIndex.isPopulated()) {
+            return Result.healthy("Shared instance index has not been populated yet");
+        }
+        if (!sharedInstanceIndex.isFresh()) {
+            return Result.unhealthy(String.format("Shared instance index is %d ms stale",
+                    sharedInstanceIndex.getStalenessMillis()));
+        }
+        if (sharedInstanceIndex.getEligibleEntries().isEmpty()) {
+            return Result.unhealthy("No shared instance to place a shared schema is found");
+        }
+        return Result.healthy(sharedInstanceIndex.getEntries().stream()
+                .map(entry -> String.format("%s holding %d schemas refreshed %d ms ago",
+                        entry.getInstanceIdentifier(), entry.getSchemaCount(),
+                        entry.getAgeMillis()))
+                .collect(Collectors.joining(", ")));
     }
 }
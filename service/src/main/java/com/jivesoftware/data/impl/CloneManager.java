@@ -5,6 +5,7 @@ import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableMap;
 import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.CloneException;
+import com.jivesoftware.data.exceptions.SchemaOperationException;
 import com.jivesoftware.data.resources.entities.Database;
 import org.apache.commons.exec.*;
 import org.apache.log4j.Priority;
@@ -24,35 +25,151 @@ public class CloneManager {
     private final static Logger logger = LoggerFactory.getLogger(DatabaseManager.class);
 
     private final DBaaSConfiguration.CloneConfiguration cloneConfiguration;
+    private final SchemaManager schemaManager;
+    private final DatabaseDAO databaseDAO;
     private final Timer cloneTimer;
+    private final Timer dumpTimer;
+    private final Timer restoreTimer;
+    private final Timer templateTimer;
 
     @Inject
     public CloneManager(DBaaSConfiguration dBaaSConfiguration,
-                        MetricRegistry metricRegistry) {
+                        MetricRegistry metricRegistry,
+                        SchemaManager schemaManager,
+                        DatabaseDAO databaseDAO) {
         this.cloneConfiguration = dBaaSConfiguration.getCloneConfiguration();
+        this.schemaManager = schemaManager;
+        this.databaseDAO = databaseDAO;
         cloneTimer = metricRegistry.timer(name(CloneManager
                 .class, "cloneCommand"));
+        dumpTimer = metricRegistry.timer(name(CloneManager.class, "cloneCommand", "dump"));
+        restoreTimer = metricRegistry.timer(name(CloneManager.class, "cloneCommand", "restore"));
+        templateTimer = metricRegistry.timer(name(CloneManager.class, "cloneCommand", "template"));
+    }
+
+    /**
+     * Clones a schema into another of the same host by copying its files, see
+     * {@link SchemaManager#cloneSchemaFromTemplate}.
+     *
+     * The source is recorded as fenced before it is closed to new sessions and only taken off the
+     * record once it is open again, so {@link FencedDatabaseRecovery} can open it should this node
+     * die halfway.
+     *
+     * @return false if the copy failed and the target was left empty for another kind of clone
+     */
+    protected boolean cloneSameHost(MasterDatabase masterDatabase, String sourceDatabaseId,
+                                    String sourceSchema, String sourceUser,
+                                    Database targetDatabase) {
+        String fence = FencedDatabaseRecovery.getFence(sourceDatabaseId, targetDatabase.getId());
+        try {
+            databaseDAO.addFence(fence);
+        } catch (Exception e) {
+            logger.warn(String.format("Could not record the fence of %s, cloning it the usual way",
+                    sourceDatabaseId), e);
+            return false;
+        }
+
+        final Timer.Context context = templateTimer.time();
+        try {
+            schemaManager.cloneSchemaFromTemplate(masterDatabase, sourceSchema, sourceUser,
+                    targetDatabase.getSchema(), targetDatabase.getUser());
+            removeFence(fence);
+            return true;
+        } catch (SchemaOperationException e) {
+            logger.warn(String.format("Copying %s into %s on %s failed, cloning it the usual way",
+                    sourceSchema, targetDatabase.getSchema(), masterDatabase.getHost()), e);
+            // the copy may have failed opening the source again
+            try {
+                schemaManager.allowConnections(masterDatabase, sourceSchema);
+                removeFence(fence);
+            } catch (SchemaOperationException soe) {
+                logger.error(String.format("%s is still closed to new sessions, leaving it to " +
+                        "be opened on the next start", sourceDatabaseId));
+            }
+            return false;
+        } finally {
+            context.stop();
+        }
+    }
+
+    private void removeFence(String fence) {
+        try {
+            databaseDAO.removeFence(fence);
+        } catch (Exception e) {
+            logger.warn(String.format("Could not remove fence %s", fence), e);
+        }
     }
 
     protected void clone(MasterDatabase sourceDatabase, String sourceSchema,
                          Database targetDatabase, String targetPassword) throws CloneException {
+        execute(cloneConfiguration.getCommand(), getParams(sourceDatabase, sourceSchema,
+                targetDatabase, targetPassword).build(), sourceDatabase, targetDatabase,
+                cloneTimer);
+    }
+
+    /**
+     * Dumps the source into a directory format archive, the directory must not exist yet.
+     */
+    protected void dumpDirectory(MasterDatabase sourceDatabase, String sourceSchema,
+                                 Database targetDatabase, String targetPassword,
+                                 String directory, int jobs) throws CloneException {
+        execute(cloneConfiguration.getParallelDumpCommand(), getParams(sourceDatabase,
+                sourceSchema, targetDatabase, targetPassword)
+                        .put("directory", directory)
+                        .put("jobs", String.valueOf(jobs)).build(),
+                sourceDatabase, targetDatabase, dumpTimer);
+    }
+
+    /**
+     * Restores a directory format archive written by {@link #dumpDirectory} into the target.
+     */
+    protected void restoreDirectory(MasterDatabase sourceDatabase, String sourceSchema,
+                                    Database targetDatabase, String targetPassword,
+                                    String directory, int jobs) throws CloneException {
+        execute(cloneConfiguration.getParallelRestoreCommand(), getParams(sourceDatabase,
+                sourceSchema, targetDatabase, targetPassword)
+                        .put("directory", directory)
+                        .put("jobs", String.valueOf(jobs)).build(),
+                sourceDatabase, targetDatabase, restoreTimer);
+    }
+
+    /**
+     * Restores a single section of the source, pre-data for the tables, sequences and types or
+     * post-data for the indexes and constraints, leaving the table data to the caller.
+     */
+    protected void cloneSection(MasterDatabase sourceDatabase, String sourceSchema,
+                                Database targetDatabase, String targetPassword, String section)
+            throws CloneException {
+        execute(cloneConfiguration.getSectionCommand(), getParams(sourceDatabase, sourceSchema,
+                targetDatabase, targetPassword).put("section", section).build(),
+                sourceDatabase, targetDatabase, cloneTimer);
+    }
+
+    private ImmutableMap.Builder<String, String> getParams(MasterDatabase sourceDatabase,
+                                                           String sourceSchema,
+                                                           Database targetDatabase,
+                                                           String targetPassword) {
+        return ImmutableMap.<String, String>builder()
+                .put("source_user", sourceDatabase.getUsername())
+                .put("source_password", sourceDatabase.getPassword())
+                .put("source_host", sourceDatabase.getHost())
+                .put("source_port", String.valueOf(sourceDatabase.getPort()))
+                .put("source_schema", sourceSchema)
+                .put("target_user", targetDatabase.getUser())
+                .put("target_password", targetPassword)
+                .put("target_host", targetDatabase.getHost())
+                .put("target_port", String.valueOf(targetDatabase.getPort()))
+                .put("target_schema", targetDatabase.getSchema());
+    }
+
+    private void execute(String commandLine, Map<String, String> params,
+                         MasterDatabase sourceDatabase, Database targetDatabase, Timer timer)
+            throws CloneException {
 
         final AtomicReference<String> error = new AtomicReference<>();
 
         try {
-            Map<String, String> params = ImmutableMap.<String, String>builder()
-                    .put("source_user", sourceDatabase.getUsername())
-                    .put("source_password", sourceDatabase.getPassword())
-                    .put("source_host", sourceDatabase.getHost())
-                    .put("source_port", String.valueOf(sourceDatabase.getPort()))
-                    .put("source_schema", sourceSchema)
-                    .put("target_user", targetDatabase.getUser())
-                    .put("target_password", targetPassword)
-                    .put("target_host", targetDatabase.getHost())
-                    .put("target_port", String.valueOf(targetDatabase.getPort()))
-                    .put("target_schema", targetDatabase.getSchema()).build();
-
-            CommandLine command = CommandLine.parse(cloneConfiguration.getCommand(), params);
+            CommandLine command = CommandLine.parse(commandLine, params);
             DefaultExecuteResultHandler resultHandler = getNewResultHandler();
             ExecuteWatchdog watchdog = new ExecuteWatchdog(cloneConfiguration.getExecutionTimeout());
             org.apache.commons.exec.Executor executor = getNewExecutor();
@@ -90,7 +207,7 @@ public class CloneManager {
             executor.setProcessDestroyer(new ShutdownHookProcessDestroyer());
             executor.setWatchdog(watchdog);
 
-            final Timer.Context context = cloneTimer.time();
+            final Timer.Context context = timer.time();
             try {
                 executor.execute(command, resultHandler);
                 resultHandler.waitFor(cloneConfiguration.getExecutionTimeout());
@@ -1,6 +1,7 @@
 package com.jivesoftware.data.impl;
 
 import com.amazonaws.services.rds.model.DBInstance;
+import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.DatabaseNotFoundException;
 import com.jivesoftware.data.resources.entities.Database;
 import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
@@ -18,18 +19,27 @@ public class CloneProcessor implements CreateCommandProcessor {
     private final DatabaseIDHelper databaseIDHelper;
     private final CloneManager cloneManager;
     private final PasswordManager passwordManager;
+    private final CopyCloneManager copyCloneManager;
+    private final ParallelCloneManager parallelCloneManager;
+    private final DBaaSConfiguration.CloneConfiguration cloneConfiguration;
 
     @Inject
     public CloneProcessor(InstanceManager instanceManager,
                           DatabaseDAO databaseDAO,
                           DatabaseIDHelper databaseIDHelper,
                           CloneManager cloneManager,
-                          PasswordManager passwordManager){
+                          PasswordManager passwordManager,
+                          CopyCloneManager copyCloneManager,
+                          ParallelCloneManager parallelCloneManager,
+                          DBaaSConfiguration dBaaSConfiguration){
         this.instanceManager = instanceManager;
         this.databaseDAO = databaseDAO;
         this.databaseIDHelper = databaseIDHelper;
         this.cloneManager = cloneManager;
         this.passwordManager = passwordManager;
+        this.copyCloneManager = copyCloneManager;
+        this.parallelCloneManager = parallelCloneManager;
+        this.cloneConfiguration = dBaaSConfiguration.getCloneConfiguration();
     }
 
     @Override
@@ -49,6 +59,7 @@ public class CloneProcessor implements CreateCommandProcessor {
                 MasterDatabase targetMasterDatabase = getMasterDatabase(
                         targetInstanceOptional.get());
                 MasterDatabase sourceMasterDatabase = null;
+                String sourceInstanceClass = null;
                 Optional<DatabaseInfo> sourceDatabaseOptional =
                         databaseDAO.getDatabaseInfo(
                                 databaseCreationRequest.getSourceDatabaseIdOptional().get());
@@ -58,19 +69,42 @@ public class CloneProcessor implements CreateCommandProcessor {
                     // If cloning within same host
                     if (sourceDatabase.getHost().equals(targetMasterDatabase.getHost())) {
                         sourceMasterDatabase = targetMasterDatabase;
+                        sourceInstanceClass = targetInstanceOptional.get().getDBInstanceClass();
+                        if (cloneConfiguration.getSameHostTemplate() &&
+                                cloneManager.cloneSameHost(targetMasterDatabase,
+                                        databaseCreationRequest.getSourceDatabaseIdOptional().get(),
+                                        sourceDatabase.getSchema(), sourceDatabase.getUser(),
+                                        targetDatabaseOptional.get().getDatabase())) {
+                            return Optional.empty();
+                        }
                     } else {
                         Optional<DBInstance> sourceInstanceOptional =
                                 instanceManager.getDBInstance(sourceDatabase.getId());
 
                         if (sourceInstanceOptional.isPresent()) {
                             sourceMasterDatabase = getMasterDatabase(sourceInstanceOptional.get());
+                            sourceInstanceClass =
+                                    sourceInstanceOptional.get().getDBInstanceClass();
                         }
                     }
 
                     logger.debug(String.format("Cloning starting now for source: %s target: %s", sourceDatabase.getSchema(), targetMasterDatabase.getSchema()));
 
-                    cloneManager.clone(sourceMasterDatabase, sourceDatabase.getSchema(),
-                            targetDatabaseOptional.get().getDatabase(), password);
+                    DatabaseCreationRequest.CloneEngine cloneEngine = databaseCreationRequest
+                            .getCloneEngineOptional().orElse(cloneConfiguration.getEngine());
+                    if (cloneEngine == DatabaseCreationRequest.CloneEngine.COPY) {
+                        copyCloneManager.clone(databaseId, sourceMasterDatabase,
+                                sourceDatabase.getSchema(),
+                                targetDatabaseOptional.get().getDatabase(), password);
+                    } else if (cloneEngine == DatabaseCreationRequest.CloneEngine.PARALLEL) {
+                        parallelCloneManager.clone(sourceMasterDatabase,
+                                sourceDatabase.getSchema(), sourceInstanceClass,
+                                targetDatabaseOptional.get().getDatabase(), password,
+                                targetInstanceOptional.get().getDBInstanceClass());
+                    } else {
+                        cloneManager.clone(sourceMasterDatabase, sourceDatabase.getSchema(),
+                                targetDatabaseOptional.get().getDatabase(), password);
+                    }
 
                     return Optional.empty();
                 } else {
@@ -0,0 +1,353 @@
+package com.jivesoftware.data.impl;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.CloneException;
+import com.jivesoftware.data.resources.entities.Database;
+import com.jivesoftware.data.resources.entities.DatabaseStatus;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOut;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Clones a schema without the pg_dump | pg_restore pipe for the data. The tables, sequences and
+ * types are still restored from pg_dump's pre-data section, then every table is streamed with
+ * COPY from the source straight into the target, several tables at a time over their own
+ * connections, and the indexes and constraints of the post-data section are only built once all
+ * the rows are in.
+ *
+ * All the tables are read from one snapshot exported by the source, so the clone is as consistent
+ * as a single pg_dump.
+ */
+public class CopyCloneManager {
+
+    private final static Logger logger = LoggerFactory.getLogger(CopyCloneManager.class);
+
+    static final String PRE_DATA = "pre-data";
+    static final String POST_DATA = "post-data";
+
+    private static final String LIST_TABLES_SQL = "SELECT quote_ident(c.relname) FROM pg_class c " +
+            "JOIN pg_namespace n ON n.oid = c.relnamespace " +
+            "WHERE n.nspname = 'public' AND c.relkind = 'r' " +
+            "ORDER BY pg_total_relation_size(c.oid) DESC;";
+    private static final String LIST_SEQUENCES_SQL = "SELECT quote_ident(c.relname) " +
+            "FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace " +
+            "WHERE n.nspname = 'public' AND c.relkind = 'S';";
+    private static final String READ_SEQUENCE_SQL = "SELECT last_value, is_called FROM public.%s;";
+    private static final String SET_SEQUENCE_SQL = "SELECT setval(?::regclass, ?, ?);";
+    private static final String EXPORT_SNAPSHOT_SQL = "SELECT pg_export_snapshot();";
+    private static final String SET_SNAPSHOT_SQL = "SET TRANSACTION SNAPSHOT '%s';";
+    private static final String COPY_OUT_SQL = "COPY public.%s TO STDOUT (FORMAT binary)";
+    private static final String COPY_IN_SQL = "COPY public.%s FROM STDIN (FORMAT binary)";
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final CloneManager cloneManager;
+    private final DatabaseDAO databaseDAO;
+    private final DBaaSConfiguration.CloneConfiguration cloneConfiguration;
+    private final Timer cloneTimer;
+    private final Timer tableTimer;
+    private final Meter bytesMeter;
+    private final Meter rowsMeter;
+    private final Histogram tableBytes;
+
+    @Inject
+    public CopyCloneManager(CloneManager cloneManager,
+                            DatabaseDAO databaseDAO,
+                            DBaaSConfiguration dBaaSConfiguration,
+                            MetricRegistry metricRegistry) {
+        this.cloneManager = cloneManager;
+        this.databaseDAO = databaseDAO;
+        this.cloneConfiguration = dBaaSConfiguration.getCloneConfiguration();
+        this.cloneTimer = metricRegistry.timer(name(CopyCloneManager.class, "clone"));
+        this.tableTimer = metricRegistry.timer(name(CopyCloneManager.class, "tableCopy"));
+        this.bytesMeter = metricRegistry.meter(name(CopyCloneManager.class, "copiedBytes"));
+        this.rowsMeter = metricRegistry.meter(name(CopyCloneManager.class, "copiedRows"));
+        this.tableBytes = metricRegistry.histogram(name(CopyCloneManager.class, "tableBytes"));
+    }
+
+    protected void clone(String databaseId, MasterDatabase sourceDatabase, String sourceSchema,
+                         Database targetDatabase, String targetPassword) throws CloneException {
+
+        MasterDatabase source = new MasterDatabase(sourceDatabase.getHost(),
+                sourceDatabase.getUsername(), sourceDatabase.getPassword(),
+                sourceDatabase.getPort(), sourceSchema);
+        MasterDatabase target = new MasterDatabase(targetDatabase.getHost(),
+                targetDatabase.getUser(), targetPassword, targetDatabase.getPort(),
+                targetDatabase.getSchema());
+
+        final Timer.Context context = cloneTimer.time();
+        try {
+            cloneManager.cloneSection(sourceDatabase, sourceSchema, targetDatabase,
+                    targetPassword, PRE_DATA);
+
+            // the snapshot only lives as long as the transaction exporting it
+            try (Connection snapshotConnection = getConnection(source)) {
+                snapshotConnection.setAutoCommit(false);
+                snapshotConnection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                String snapshot = querySingle(snapshotConnection, EXPORT_SNAPSHOT_SQL);
+                List<String> tables = queryAll(snapshotConnection, LIST_TABLES_SQL);
+
+                copyTables(databaseId, source, target, snapshot, tables);
+                copySequences(snapshotConnection, target);
+                snapshotConnection.rollback();
+            }
+
+            cloneManager.cloneSection(sourceDatabase, sourceSchema, targetDatabase,
+                    targetPassword, POST_DATA);
+        } catch (SQLException e) {
+            logger.error(String.format("Error copying %s of %s into %s of %s", sourceSchema,
+                    source.getHost(), target.getSchema(), target.getHost()), e);
+            throw new CloneException(e.getMessage());
+        } finally {
+            context.stop();
+        }
+    }
+
+    private void copyTables(String databaseId, MasterDatabase source, MasterDatabase target,
+                            String snapshot, List<String> tables) {
+
+        if (tables.isEmpty()) {
+            return;
+        }
+        Progress progress = new Progress(databaseId, tables.size());
+
+        ExecutorService executorService = Executors.newFixedThreadPool(
+                Math.min(cloneConfiguration.getCopyThreads(), tables.size()),
+                new ThreadFactoryBuilder().setNameFormat("copy-clone-" + databaseId + "-%d")
+                        .setDaemon(true).build());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String table : tables) {
+                futures.add(executorService.submit(() -> {
+                    copyTable(source, target, snapshot, table, progress);
+                    return null;
+                }));
+            }
+
+            long deadline = System.currentTimeMillis() + cloneConfiguration.getExecutionTimeout();
+            for (Future<?> future : futures) {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            }
+        } catch (ExecutionException e) {
+            progress.cancel();
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            logger.error(String.format("Error copying the tables of %s into %s",
+                    source.getSchema(), target.getSchema()), cause);
+            throw new CloneException(cause.getMessage());
+        } catch (TimeoutException e) {
+            progress.cancel();
+            throw new CloneException(String.format("Copying %s of %s into %s of %s produced no " +
+                    "result in %d", source.getSchema(), source.getHost(), target.getSchema(),
+                    target.getHost(), cloneConfiguration.getExecutionTimeout()));
+        } catch (InterruptedException e) {
+            progress.cancel();
+            Thread.currentThread().interrupt();
+            throw new CloneException(e.getMessage());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void copyTable(MasterDatabase source, MasterDatabase target, String snapshot,
+                           String table, Progress progress) throws SQLException {
+
+        final Timer.Context context = tableTimer.time();
+        try (Connection sourceConnection = getConnection(source);
+             Connection targetConnection = getConnection(target)) {
+
+            sourceConnection.setAutoCommit(false);
+            sourceConnection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try (Statement statement = sourceConnection.createStatement()) {
+                statement.execute(String.format(SET_SNAPSHOT_SQL, snapshot));
+            }
+
+            CopyOut copyOut = getCopyManager(sourceConnection)
+                    .copyOut(String.format(COPY_OUT_SQL, table));
+            CopyIn copyIn = getCopyManager(targetConnection)
+                    .copyIn(String.format(COPY_IN_SQL, table));
+            long bytes = 0;
+            try {
+                byte[] buffer;
+                while ((buffer = copyOut.readFromCopy()) != null) {
+                    if (progress.isCancelled()) {
+                        throw new SQLException(String.format("Copy of table %s cancelled", table));
+                    }
+                    copyIn.writeToCopy(buffer, 0, buffer.length);
+                    bytes += buffer.length;
+                    bytesMeter.mark(buffer.length);
+                    progress.addBytes(buffer.length);
+                }
+                long rows = copyIn.endCopy();
+                // another table failed while this one was finishing, its rows are going away
+                if (progress.isCancelled()) {
+                    throw new SQLException(String.format("Copy of table %s cancelled", table));
+                }
+
+                rowsMeter.mark(rows);
+                tableBytes.update(bytes);
+                progress.tableDone(rows);
+                logger.info(String.format("Copied table %s of %s into %s of %s: %d rows, %d bytes",
+                        table, source.getSchema(), target.getSchema(), target.getHost(), rows,
+                        bytes));
+            } finally {
+                if (copyOut.isActive()) {
+                    copyOut.cancelCopy();
+                }
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+            sourceConnection.rollback();
+        } finally {
+            context.stop();
+        }
+    }
+
+    private void copySequences(Connection sourceConnection, MasterDatabase target)
+            throws SQLException {
+        List<String> sequences = queryAll(sourceConnection, LIST_SEQUENCES_SQL);
+        if (sequences.isEmpty()) {
+            return;
+        }
+
+        try (Connection targetConnection = getConnection(target);
+             PreparedStatement setSequence = targetConnection.prepareStatement(SET_SEQUENCE_SQL)) {
+            for (String sequence : sequences) {
+                try (Statement statement = sourceConnection.createStatement();
+                     ResultSet resultSet = statement.executeQuery(
+                             String.format(READ_SEQUENCE_SQL, sequence))) {
+                    if (resultSet.next()) {
+                        setSequence.setString(1, "public." + sequence);
+                        setSequence.setLong(2, resultSet.getLong(1));
+                        setSequence.setBoolean(3, resultSet.getBoolean(2));
+                        setSequence.execute();
+                    }
+                }
+            }
+        }
+    }
+
+    private String querySingle(Connection connection, String sql) throws SQLException {
+        List<String> values = queryAll(connection, sql);
+        if (values.isEmpty()) {
+            throw new SQLException(String.format("No result for %s", sql));
+        }
+        return values.get(0);
+    }
+
+    private List<String> queryAll(Connection connection, String sql) throws SQLException {
+        List<String> values = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            while (resultSet.next()) {
+                values.add(resultSet.getString(1));
+            }
+        }
+        return values;
+    }
+
+    Connection getConnection(MasterDatabase database) throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("user", database.getUsername());
+        props.setProperty("password", database.getPassword());
+        return DriverManager.getConnection(
+                SchemaManager.connectionUrl(database, database.getSchema()), props);
+    }
+
+    CopyManager getCopyManager(Connection connection) throws SQLException {
+        return connection.unwrap(PGConnection.class).getCopyAPI();
+    }
+
+    /**
+     * What the copy threads of one clone have done so far, reported in the status message of the
+     * database being created at most every progressIntervalSeconds.
+     */
+    private class Progress {
+
+        private final String databaseId;
+        private final int tables;
+        private final AtomicInteger tablesDone = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong lastReport = new AtomicLong();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        Progress(String databaseId, int tables) {
+            this.databaseId = databaseId;
+            this.tables = tables;
+        }
+
+        void addBytes(long copied) {
+            bytes.addAndGet(copied);
+            report(false);
+        }
+
+        void tableDone(long copied) {
+            rows.addAndGet(copied);
+            tablesDone.incrementAndGet();
+            report(tablesDone.get() == tables);
+        }
+
+        void cancel() {
+            cancelled.set(true);
+        }
+
+        boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        private void report(boolean force) {
+            // the clone failed, its error replaces whatever progress is left to report
+            if (cancelled.get()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long last = lastReport.get();
+            if (!force && now - last < TimeUnit.SECONDS.toMillis(
+                    cloneConfiguration.getProgressIntervalSeconds())) {
+                return;
+            }
+            if (!lastReport.compareAndSet(last, now)) {
+                return;
+            }
+            try {
+                databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.CREATING,
+                        String.format("Cloning: %d of %d tables copied, %d MB and %d rows so far",
+                                tablesDone.get(), tables, bytes.get() / MEGABYTE, rows.get()),
+                        databaseId));
+            } catch (Exception e) {
+                logger.warn(String.format("Could not report clone progress of %s", databaseId), e);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.jivesoftware.data.impl;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
 
@@ -11,16 +12,19 @@ public class CreationRequestMessage {
     private final String databaseId;
     private final String password;
     private final CreationStep creationStep;
+    private final Integer attempt;
 
     @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
     public CreationRequestMessage(@JsonProperty("databaseId") String databaseId,
                                   @JsonProperty("password") String password,
                                   @JsonProperty("creationStep") CreationStep creationStep,
-                                  @JsonProperty("databaseCreationRequest") DatabaseCreationRequest databaseCreationRequest) {
+                                  @JsonProperty("databaseCreationRequest") DatabaseCreationRequest databaseCreationRequest,
+                                  @JsonProperty("attempt") Integer attempt) {
         this.databaseId = databaseId;
         this.password = password;
         this.creationStep = creationStep;
         this.databaseCreationRequest = databaseCreationRequest;
+        this.attempt = attempt;
     }
 
     @JsonProperty(required = true)
@@ -43,4 +47,14 @@ public class CreationRequestMessage {
         return creationStep;
     }
 
+    /**
+     * @return how many times in a row the step came back not done yet, null for a step requested
+     * for the first time
+     */
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getAttempt() {
+        return attempt;
+    }
+
 }
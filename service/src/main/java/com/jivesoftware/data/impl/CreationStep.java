@@ -1,5 +1,5 @@
 package com.jivesoftware.data.impl;
 
 public enum CreationStep {
-    INSTANCE, SCHEMA, CLONE, INSTANCE_READY
+    INSTANCE, SCHEMA, CLONE, INSTANCE_READY, CREDENTIALS
 }
@@ -0,0 +1,93 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.jivesoftware.data.exceptions.DatabaseNotFoundException;
+import com.jivesoftware.data.resources.entities.Database;
+import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.Optional;
+
+/**
+ * Last step of a storage clone. Waits for the restored instance to take its new master password,
+ * then hands the source's schema and user over to the new database under its own name.
+ */
+public class CredentialsProcessor implements CreateCommandProcessor {
+
+    private final static Logger logger = LoggerFactory.getLogger(CredentialsProcessor.class);
+    private final InstanceManager instanceManager;
+    private final DatabaseDAO databaseDAO;
+    private final DatabaseIDHelper databaseIDHelper;
+    private final SchemaManager schemaManager;
+
+    @Inject
+    public CredentialsProcessor(InstanceManager instanceManager,
+                                DatabaseDAO databaseDAO,
+                                DatabaseIDHelper databaseIDHelper,
+                                SchemaManager schemaManager){
+        this.instanceManager = instanceManager;
+        this.databaseDAO = databaseDAO;
+        this.databaseIDHelper = databaseIDHelper;
+        this.schemaManager = schemaManager;
+    }
+
+    @Override
+    public Optional<CreationStep> process(String databaseId, String password,
+                                          DatabaseCreationRequest databaseCreationRequest){
+
+        logger.debug(String.format("Credentials step beginning for database %s", databaseId));
+
+        Optional<DatabaseInfo> databaseInfo = databaseDAO.getDatabaseInfo(databaseId);
+        if (!databaseInfo.isPresent()) {
+            throw new DatabaseNotFoundException(String.format(
+                    "Specified databaseId (%s) not found in Dynamo table", databaseId));
+        }
+        Optional<DBInstance> dbInstanceOptional = instanceManager.getDBInstance(
+                databaseIDHelper.getDBInstanceId(databaseInfo.get().getInstanceId()));
+        if (!dbInstanceOptional.isPresent()) {
+            throw new DatabaseNotFoundException(String.format(
+                    "Specified instance not found in this RDS client for database %s", databaseId));
+        }
+
+        DBInstance dbInstance = dbInstanceOptional.get();
+        if (!instanceManager.isReady(dbInstance)
+                || instanceManager.isMasterPasswordPending(dbInstance)) {
+            return Optional.of(CreationStep.CREDENTIALS);
+        }
+
+        MasterDatabase masterDatabase = new MasterDatabase(dbInstance.getEndpoint().getAddress(),
+                dbInstance.getMasterUsername(), password, dbInstance.getEndpoint().getPort(),
+                "postgres");
+        // RDS can take a moment to list the password change after it was asked for
+        if (!schemaManager.acceptsPassword(masterDatabase)) {
+            logger.debug(String.format("Restored instance of %s still has the source's password",
+                    databaseId));
+            return Optional.of(CreationStep.CREDENTIALS);
+        }
+
+        String sourceDatabaseId = databaseCreationRequest.getSourceDatabaseIdOptional().get();
+        Optional<DatabaseInfo> sourceDatabaseInfo = databaseDAO.getDatabaseInfo(sourceDatabaseId);
+        if (!sourceDatabaseInfo.isPresent()) {
+            throw new DatabaseNotFoundException(String.format(
+                    "Database source %s does not exist", sourceDatabaseId));
+        }
+        Database sourceDatabase = sourceDatabaseInfo.get().getDatabase();
+        schemaManager.renameRestoredSchema(masterDatabase, sourceDatabase.getSchema(),
+                sourceDatabase.getUser(), databaseId, databaseId, password);
+        databaseDAO.putDatabase(databaseId,
+                databaseIDHelper.getDatabaseInstanceId(dbInstance),
+                new Database(databaseId,
+                        databaseId,
+                        dbInstance.getEndpoint().getAddress(),
+                        dbInstance.getEndpoint().getPort(),
+                        databaseId),
+                databaseCreationRequest.getDataLocality(),
+                databaseCreationRequest.getTenancyType(),
+                databaseCreationRequest.getServiceTag());
+        logger.debug("Credentials step completed");
+
+        return Optional.empty();
+    }
+}
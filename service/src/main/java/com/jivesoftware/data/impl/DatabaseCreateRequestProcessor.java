@@ -2,7 +2,15 @@ package com.jivesoftware.data.impl;
 
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.*;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.EncryptionException;
 import com.jivesoftware.data.exceptions.QueueSendingException;
@@ -15,19 +23,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import java.nio.ByteBuffer;
-import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
+@Singleton
 public class DatabaseCreateRequestProcessor extends AbstractScheduledService {
 
     private final static Logger logger = LoggerFactory.getLogger(DatabaseCreateRequestProcessor.class);
 
     private static final String RECEIVE_ALL_MESSAGE_ATTRIBUTES = "All";
+    private static final String SENT_TIMESTAMP = "SentTimestamp";
+    // DeleteMessageBatch and ChangeMessageVisibilityBatch accept at most 10 entries per request
+    private static final int MAX_DELETE_BATCH = 10;
+    private static final long ACK_FLUSH_SECONDS = 1;
     private static final String INITIALIZATION_VECTOR = "iv";
-    private static final String CURRENT_VERSION = "v1";
+    private static final String JSON_CBC_VERSION = "v1";
+    private static final String CURRENT_VERSION = "v2";
     private static final String VERSION = "version";
+    private static final String KEY_VERSION_SEPARATOR = ".";
     private static final String CREATEREQUEST = "createRequest";
     private static final String MESSAGEBODY = "blah blah I'm a body that can be checksummed with md5";
     private static final String CREATEMESSAGE = "%s is still being created";
@@ -40,6 +58,25 @@ public class DatabaseCreateRequestProcessor extends AbstractScheduledService {
     private final DBaaSConfiguration.QueueConfig createQueue;
     private final EncryptionManager encryptionManager;
     private final CreationMessageSerializer messageSerializer;
+    private final PollingBackoff pollingBackoff;
+    private final String sendVersion;
+    private final Histogram receiveToAckHistogram;
+    private final Histogram sentToAckHistogram;
+    private final Histogram receiveBatchHistogram;
+    private final Meter stepLimitedMeter;
+    private final Meter visibilityExtendedMeter;
+    private final Map<CreationStep, Timer> stepTimers = new EnumMap<>(CreationStep.class);
+    private final DBaaSConfiguration.CreationWorkersConfiguration workersConfiguration;
+    private final int workers;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService heartbeat;
+    private final Map<CreationStep, Semaphore> stepPermits = new EnumMap<>(CreationStep.class);
+    private final AtomicInteger busyWorkers = new AtomicInteger();
+    private final Set<InFlightMessage> inFlight = ConcurrentHashMap.newKeySet();
+    private final Queue<InFlightMessage> pendingAcknowledgements = new ConcurrentLinkedQueue<>();
+    private final Object idle = new Object();
+
+    private volatile String queueUrl;
 
     @Inject
     public DatabaseCreateRequestProcessor(AmazonSQS sqs,
@@ -49,7 +86,8 @@ public class DatabaseCreateRequestProcessor extends AbstractScheduledService {
                                           PasswordManager passwordManager,
                                           StepProcessorFactory stepProcessorFactory,
                                           EncryptionManager encryptionManager,
-                                          CreationMessageSerializer messageSerializer) {
+                                          CreationMessageSerializer messageSerializer,
+                                          MetricRegistry metricRegistry) {
         this.sqs = sqs;
         this.databaseDAO = databaseDAO;
         this.databaseIDHelper = databaseIDHelper;
@@ -58,13 +96,45 @@ public class DatabaseCreateRequestProcessor extends AbstractScheduledService {
         this.encryptionManager = encryptionManager;
         this.messageSerializer = messageSerializer;
         this.createQueue = dBaaSConfiguration.getCreationQueue();
+        this.pollingBackoff = new PollingBackoff(dBaaSConfiguration.getPollingBackoff());
+        this.sendVersion = JSON_CBC_VERSION.equals(dBaaSConfiguration.getCreationMessageVersion())
+                ? JSON_CBC_VERSION : CURRENT_VERSION;
+        this.receiveToAckHistogram = metricRegistry.histogram(
+                name(DatabaseCreateRequestProcessor.class, "receiveToAckMillis"));
+        this.sentToAckHistogram = metricRegistry.histogram(
+                name(DatabaseCreateRequestProcessor.class, "sentToAckMillis"));
+        this.receiveBatchHistogram = metricRegistry.histogram(
+                name(DatabaseCreateRequestProcessor.class, "receiveBatchSize"));
+        this.stepLimitedMeter = metricRegistry.meter(
+                name(DatabaseCreateRequestProcessor.class, "stepLimited"));
+        this.visibilityExtendedMeter = metricRegistry.meter(
+                name(DatabaseCreateRequestProcessor.class, "visibilityExtended"));
+
+        this.workersConfiguration = dBaaSConfiguration.getCreationWorkers();
+        this.workers = workersConfiguration.getThreads() != null
+                ? workersConfiguration.getThreads()
+                : Runtime.getRuntime().availableProcessors() * workersConfiguration.getThreadsPerCore();
+        for (CreationStep step : CreationStep.values()) {
+            stepPermits.put(step, new Semaphore(Math.min(workers,
+                    workersConfiguration.getStepConcurrency().getOrDefault(step.name(), workers))));
+            stepTimers.put(step, metricRegistry.timer(
+                    name(DatabaseCreateRequestProcessor.class, "step", step.name())));
+        }
+        this.executor = Executors.newFixedThreadPool(workers, new ThreadFactoryBuilder()
+                .setNameFormat("creation-worker-%d").setDaemon(true).build());
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("creation-visibility-%d").setDaemon(true).build());
+        metricRegistry.register(name(DatabaseCreateRequestProcessor.class, "busyWorkers"),
+                (Gauge<Integer>) busyWorkers::get);
+        metricRegistry.register(name(DatabaseCreateRequestProcessor.class, "inFlight"),
+                (Gauge<Integer>) inFlight::size);
 
         try {
-            this.sqs.getQueueUrl(createQueue.getQueueName());
+            this.queueUrl = this.sqs.getQueueUrl(createQueue.getQueueName()).getQueueUrl();
         } catch (QueueDoesNotExistException e) {
             try {
                 CreateQueueRequest createQueueRequest = new CreateQueueRequest(createQueue.getQueueName());
-                this.sqs.createQueue(createQueueRequest);
+                this.queueUrl = this.sqs.createQueue(createQueueRequest).getQueueUrl();
             } catch (QueueNameExistsException r) {
 
             }
@@ -93,92 +163,339 @@ public class DatabaseCreateRequestProcessor extends AbstractScheduledService {
         return new DatabaseCreateResponse(databaseId, password);
     }
 
+    @Override
+    protected void startUp() throws Exception {
+        long heartbeatSeconds = Math.max(1, workersConfiguration.getVisibilityTimeoutSeconds() / 2);
+        heartbeat.scheduleWithFixedDelay(this::extendVisibility, heartbeatSeconds,
+                heartbeatSeconds, TimeUnit.SECONDS);
+        heartbeat.scheduleWithFixedDelay(this::flushAcknowledgements, ACK_FLUSH_SECONDS,
+                ACK_FLUSH_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Receives as many messages as there are idle workers and hands each one to a worker. The
+     * message is acknowledged once its step has run, until then its visibility is extended.
+     */
     @Override
     protected void runOneIteration() throws Exception {
 
-        String myQueueUrl = sqs.getQueueUrl(createQueue.getQueueName()).getQueueUrl();
+        String myQueueUrl = getQueueUrl();
+
+        int idleWorkers = workers - busyWorkers.get();
+        if (idleWorkers <= 0) {
+            logger.debug("All creation workers are busy, not receiving");
+            return;
+        }
+        Integer maxNumberOfMessages = createQueue.getMaxNumberOfMessages();
+
         ReceiveMessageRequest receiveMessageRequest = new ReceiveMessageRequest(myQueueUrl)
                 .withMessageAttributeNames(
-                        RECEIVE_ALL_MESSAGE_ATTRIBUTES);
-        List<Message> messages = sqs.receiveMessage(receiveMessageRequest).getMessages();
+                        RECEIVE_ALL_MESSAGE_ATTRIBUTES)
+                .withAttributeNames(SENT_TIMESTAMP)
+                .withMaxNumberOfMessages(maxNumberOfMessages == null ? 1
+                        : Math.min(maxNumberOfMessages, idleWorkers))
+                .withWaitTimeSeconds(createQueue.getWaitTimeSeconds())
+                .withVisibilityTimeout(workersConfiguration.getVisibilityTimeoutSeconds());
+        List<Message> messages;
+        try {
+            messages = sqs.receiveMessage(receiveMessageRequest).getMessages();
+        } catch (QueueDoesNotExistException e) {
+            queueUrl = null;
+            throw e;
+        }
+        long receivedAt = System.currentTimeMillis();
+        receiveBatchHistogram.update(messages.size());
+
         for (Message message : messages) {
             if (message.getMessageAttributes().isEmpty()) {
                 continue;
             }
-            String databaseId = "";
+            InFlightMessage inFlightMessage = new InFlightMessage(message, receivedAt);
+            CreationRequestMessage receivedMessage;
             try {
-                DatabaseCreationRequest databaseCreationRequest;
-                String password;
-                CreationStep step;
-                CreationRequestMessage receivedMessage;
-
-                MessageAttributeValue messageVersion = message.getMessageAttributes().get(VERSION);
-                if(messageVersion == null){
-                    throw new EncryptionException("No version was sent with your message.  This " +
-                            "could be due to an upgrade while your message was in flight.");
-                }
-                String version = messageVersion.getStringValue();
-
-                if ("v1".equals(version)) {
-                    EncryptionObject receivedObject =
-                            new EncryptionObject(message.getMessageAttributes()
-                                    .get(INITIALIZATION_VECTOR).getBinaryValue().array(),
-                                    message.getMessageAttributes().get(CREATEREQUEST)
-                                            .getBinaryValue().array());
-                    String decryptedMessage = encryptionManager.decrypt(receivedObject);
-                    receivedMessage = messageSerializer.deserialize(decryptedMessage, CreationRequestMessage.class);
-
-                    databaseCreationRequest = receivedMessage.getDatabaseCreationRequest();
-                    databaseId = receivedMessage.getDatabaseId();
-                    password = receivedMessage.getPassword();
-                    step = receivedMessage.getCreationStep();
-                }
-                else {
-                    throw new EncryptionException("The system's queue messaging system was upgraded " +
-                            "while your message was in flight, OR an unexpected value was received " +
-                            "for message version. Please request a new database.");
-                }
+                receivedMessage = decode(message);
+            } catch (EncryptionException ee) {
+                databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.ERROR,
+                        ee.getMessage(), ""));
+                logger.error(String.format("Error decrypting received create message"));
+                pendingAcknowledgements.add(inFlightMessage);
+                continue;
+            } catch (Exception e) {
+                databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.ERROR,
+                        e.getMessage(), ""));
+                logger.error("Error processing creation step.", e.getMessage());
+                pendingAcknowledgements.add(inFlightMessage);
+                continue;
+            }
 
-                logger.debug(String.format("Step: %s DatabaseID: %s", step.name(), databaseId));
+            CreationStep step = receivedMessage.getCreationStep();
+            Semaphore permits = stepPermits.get(step);
+            if (!permits.tryAcquire()) {
+                // the step is at its concurrency limit, let the message come back on a later poll
+                stepLimitedMeter.mark();
+                sqs.changeMessageVisibility(myQueueUrl, message.getReceiptHandle(),
+                        workersConfiguration.getBusyRetrySeconds());
+                continue;
+            }
+
+            inFlight.add(inFlightMessage);
+            busyWorkers.incrementAndGet();
+            try {
+                executor.execute(() -> runStep(receivedMessage, inFlightMessage, permits));
+            } catch (RejectedExecutionException e) {
+                // shutting down, the message becomes visible again once its timeout runs out
+                permits.release();
+                inFlight.remove(inFlightMessage);
+                workerDone();
+            }
+        }
+
+        flushAcknowledgements();
+    }
+
+    private CreationRequestMessage decode(Message message) {
+
+        MessageAttributeValue messageVersion = message.getMessageAttributes().get(VERSION);
+        if(messageVersion == null){
+            throw new EncryptionException("No version was sent with your message.  This " +
+                    "could be due to an upgrade while your message was in flight.");
+        }
+        // the version is the message format, followed by the key version for a versioned key
+        List<String> version = Splitter.on(KEY_VERSION_SEPARATOR).limit(2)
+                .splitToList(messageVersion.getStringValue());
+
+        if (JSON_CBC_VERSION.equals(version.get(0)) || CURRENT_VERSION.equals(version.get(0))) {
+            EncryptionObject receivedObject =
+                    new EncryptionObject(message.getMessageAttributes()
+                            .get(INITIALIZATION_VECTOR).getBinaryValue().array(),
+                            message.getMessageAttributes().get(CREATEREQUEST)
+                                    .getBinaryValue().array(),
+                            version.size() > 1 ? Optional.of(version.get(1)) : Optional.empty());
+            if (JSON_CBC_VERSION.equals(version.get(0))) {
+                String decryptedMessage = encryptionManager.decrypt(receivedObject);
+                return messageSerializer.deserialize(decryptedMessage,
+                        CreationRequestMessage.class);
+            }
+            return messageSerializer.deserializeBinary(encryptionManager.open(receivedObject),
+                    CreationRequestMessage.class);
+        }
+        else {
+            throw new EncryptionException("The system's queue messaging system was upgraded " +
+                    "while your message was in flight, OR an unexpected value was received " +
+                    "for message version. Please request a new database.");
+        }
+    }
 
-                Optional<CreationStep> nextStep = stepProcessorFactory.getStep(step)
-                        .process(databaseId, password, databaseCreationRequest);
+    private void runStep(CreationRequestMessage receivedMessage, InFlightMessage inFlightMessage,
+                         Semaphore permits) {
 
-                if (nextStep.isPresent()) {
-                    requestStep(databaseId, password, nextStep.get(), databaseCreationRequest);
+        String databaseId = receivedMessage.getDatabaseId();
+        CreationStep step = receivedMessage.getCreationStep();
+        final Timer.Context context = stepTimers.get(step).time();
+        try {
+            logger.debug(String.format("Step: %s DatabaseID: %s", step.name(), databaseId));
+
+            DatabaseCreationRequest databaseCreationRequest =
+                    receivedMessage.getDatabaseCreationRequest();
+            String password = receivedMessage.getPassword();
+            Optional<CreationStep> nextStep = stepProcessorFactory.getStep(step)
+                    .process(databaseId, password, databaseCreationRequest);
+
+            if (nextStep.isPresent()) {
+                // a step handing back itself is waiting on RDS, check again after a growing delay
+                int attempt = nextStep.get() != step ? 0
+                        : receivedMessage.getAttempt() == null ? 1 : receivedMessage.getAttempt() + 1;
+                if (pollingBackoff.isExhausted(attempt)) {
+                    String errorMessage = String.format("Step %s still not done after %d checks",
+                            step.name(), pollingBackoff.getMaxAttempts());
+                    logger.error(String.format("%s for %s", errorMessage, databaseId));
+                    databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.ERROR,
+                            errorMessage, databaseId));
                 }
                 else {
-                    databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.READY,
-                            null, databaseId));
+                    requestStep(databaseId, password, nextStep.get(), databaseCreationRequest,
+                            attempt);
                 }
-            } catch (EncryptionException ee) {
-                databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.ERROR,
-                        ee.getMessage(), databaseId));
-                logger.error(String.format("Error decrypting received create message"));
             }
-            catch (Exception e) {
-                databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.ERROR,
-                        e.getMessage(), databaseId));
-                logger.error("Error processing creation step.", e.getMessage());
+            else {
+                databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.READY,
+                        null, databaseId));
+            }
+        } catch (Exception e) {
+            databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.ERROR,
+                    e.getMessage(), databaseId));
+            logger.error("Error processing creation step.", e.getMessage());
+        } finally {
+            context.stop();
+            permits.release();
+            pendingAcknowledgements.add(inFlightMessage);
+            if (pendingAcknowledgements.size() >= MAX_DELETE_BATCH) {
+                flushAcknowledgements();
             }
+            workerDone();
+        }
+    }
 
-            String messageReceiptHandle = message.getReceiptHandle();
-            sqs.deleteMessage(new DeleteMessageRequest(myQueueUrl, messageReceiptHandle));
+    private void workerDone() {
+        if (busyWorkers.decrementAndGet() == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for the running steps to finish, at most the given time, then acknowledges everything
+     * that completed.
+     */
+    void drain(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (idle) {
+            while (busyWorkers.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                idle.wait(remaining);
+            }
+        }
+        flushAcknowledgements();
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        drain(TimeUnit.SECONDS.toMillis(workersConfiguration.getDrainTimeoutSeconds()));
+        if (busyWorkers.get() > 0) {
+            logger.warn(String.format("%d creation steps still running after the drain timeout, " +
+                    "their messages will be received again", busyWorkers.get()));
+        }
+        executor.shutdown();
+        heartbeat.shutdownNow();
+    }
+
+    void flushAcknowledgements() {
+
+        List<InFlightMessage> processed = new ArrayList<>();
+        InFlightMessage next;
+        while ((next = pendingAcknowledgements.poll()) != null) {
+            processed.add(next);
+        }
+        if (processed.isEmpty()) {
+            return;
+        }
+
+        try {
+            acknowledge(getQueueUrl(), processed);
+        } catch (Exception e) {
+            logger.error("Error acknowledging creation messages", e);
+        } finally {
+            inFlight.removeAll(processed);
+        }
+    }
+
+    private void acknowledge(String myQueueUrl, List<InFlightMessage> processed) {
+
+        for (List<InFlightMessage> batch : Lists.partition(processed, MAX_DELETE_BATCH)) {
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                entries.add(new DeleteMessageBatchRequestEntry(String.valueOf(i),
+                        batch.get(i).message.getReceiptHandle()));
+            }
+
+            DeleteMessageBatchResult result = sqs.deleteMessageBatch(
+                    new DeleteMessageBatchRequest(myQueueUrl, entries));
+            long ackedAt = System.currentTimeMillis();
+
+            // a message that failed to delete becomes visible again and is processed once more
+            for (BatchResultErrorEntry failed : result.getFailed()) {
+                logger.error(String.format("Could not delete creation message %s: %s %s",
+                        batch.get(Integer.parseInt(failed.getId())).message.getMessageId(),
+                        failed.getCode(), failed.getMessage()));
+            }
+            for (InFlightMessage acked : batch) {
+                receiveToAckHistogram.update(ackedAt - acked.receivedAt);
+                String sentTimestamp = acked.message.getAttributes().get(SENT_TIMESTAMP);
+                if (sentTimestamp != null) {
+                    sentToAckHistogram.update(ackedAt - Long.parseLong(sentTimestamp));
+                }
+            }
+        }
+    }
+
+    /**
+     * Pushes the visibility timeout of every message still being worked on, so a long step such
+     * as a clone is not handed to another consumer half way through.
+     */
+    void extendVisibility() {
+
+        List<InFlightMessage> extending = new ArrayList<>(inFlight);
+        if (extending.isEmpty()) {
+            return;
+        }
+
+        try {
+            String myQueueUrl = getQueueUrl();
+            for (List<InFlightMessage> batch : Lists.partition(extending, MAX_DELETE_BATCH)) {
+                List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    entries.add(new ChangeMessageVisibilityBatchRequestEntry(String.valueOf(i),
+                            batch.get(i).message.getReceiptHandle())
+                            .withVisibilityTimeout(workersConfiguration.getVisibilityTimeoutSeconds()));
+                }
+                ChangeMessageVisibilityBatchResult result = sqs.changeMessageVisibilityBatch(
+                        new ChangeMessageVisibilityBatchRequest(myQueueUrl, entries));
+                visibilityExtendedMeter.mark(entries.size() - result.getFailed().size());
+                for (BatchResultErrorEntry failed : result.getFailed()) {
+                    logger.warn(String.format("Could not extend visibility of creation message " +
+                                    "%s: %s %s",
+                            batch.get(Integer.parseInt(failed.getId())).message.getMessageId(),
+                            failed.getCode(), failed.getMessage()));
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error extending visibility of creation messages", e);
+        }
+    }
 
+    /**
+     * The queue url is resolved once and reused by every poll and send, it is resolved again
+     * only if the queue turned out to be gone.
+     */
+    private String getQueueUrl() {
+        String url = queueUrl;
+        if (url == null) {
+            url = sqs.getQueueUrl(createQueue.getQueueName()).getQueueUrl();
+            queueUrl = url;
         }
+        return url;
     }
 
     public void requestStep(String databaseId, String password, CreationStep creationStep,
                             DatabaseCreationRequest databaseCreationRequest) {
+        requestStep(databaseId, password, creationStep, databaseCreationRequest, 0);
+    }
+
+    /**
+     * Sends the step, held back by the polling backoff for the given attempt. The first attempt
+     * is sent without a delay.
+     */
+    void requestStep(String databaseId, String password, CreationStep creationStep,
+                     DatabaseCreationRequest databaseCreationRequest, int attempt) {
 
         CreationRequestMessage rawMessage = new CreationRequestMessage(
-                databaseId, password, creationStep, databaseCreationRequest);
+                databaseId, password, creationStep, databaseCreationRequest,
+                attempt == 0 ? null : attempt);
 
         EncryptionObject encryptedMessage;
 
         try {
-            String serializedMessage = messageSerializer.serialize(rawMessage);
-            encryptedMessage = encryptionManager.encrypt(serializedMessage);
+            // v1 is JSON encrypted with AES/CBC, v2 binary Ion sealed with AES/GCM
+            if (JSON_CBC_VERSION.equals(sendVersion)) {
+                encryptedMessage = encryptionManager.encrypt(messageSerializer.serialize(rawMessage));
+            }
+            else {
+                encryptedMessage = encryptionManager.seal(messageSerializer.serializeBinary(rawMessage));
+            }
         } catch (EncryptionException ee) {
             logger.error(String.format("Error encrypting create message for %s", databaseId));
             throw new QueueSendingException(ee.getMessage());
@@ -188,11 +505,14 @@ public class DatabaseCreateRequestProcessor extends AbstractScheduledService {
             ByteBuffer encryptedIVBuffer = ByteBuffer.wrap(encryptedMessage.getIV());
             ByteBuffer encyrptedMessageBuffer = ByteBuffer.wrap(encryptedMessage.getEncryptedMessage());
 
-            sqs.sendMessage(new SendMessageRequest(sqs.getQueueUrl(
-                    createQueue.getQueueName()).getQueueUrl(), MESSAGEBODY)
+            sqs.sendMessage(new SendMessageRequest(getQueueUrl(), MESSAGEBODY)
+                    .withDelaySeconds(pollingBackoff.getDelaySeconds(attempt))
                     .addMessageAttributesEntry(VERSION,
                             new MessageAttributeValue().withDataType("String")
-                                    .withStringValue(CURRENT_VERSION))
+                                    .withStringValue(encryptedMessage.getKeyVersion()
+                                            .map(keyVersion -> sendVersion
+                                                    + KEY_VERSION_SEPARATOR + keyVersion)
+                                            .orElse(sendVersion)))
                     .addMessageAttributesEntry(INITIALIZATION_VECTOR,
                             new MessageAttributeValue().withDataType("Binary")
                                     .withBinaryValue(encryptedIVBuffer))
@@ -208,6 +528,17 @@ public class DatabaseCreateRequestProcessor extends AbstractScheduledService {
 
     }
 
+    private static class InFlightMessage {
+
+        private final Message message;
+        private final long receivedAt;
+
+        private InFlightMessage(Message message, long receivedAt) {
+            this.message = message;
+            this.receivedAt = receivedAt;
+        }
+    }
+
     @Override
     protected AbstractScheduledService.Scheduler scheduler() {
         return AbstractScheduledService.Scheduler.newFixedRateSchedule(0,
@@ -4,14 +4,23 @@ package com.jivesoftware.data.impl;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.document.*;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.document.spec.ScanSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
-import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
 import com.amazonaws.services.dynamodbv2.model.*;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.StatusLookupException;
 import com.jivesoftware.data.resources.entities.Database;
 import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
 import com.jivesoftware.data.resources.entities.DatabaseStatus;
@@ -19,29 +28,125 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import javax.validation.constraints.NotNull;
 import java.util.Optional;
 import java.util.*;
-
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Reads and writes the database records in DynamoDB through table and index handles made once
+ * and shared by every call, with a latency timer per operation.
+ *
+ * {@link #getCachedDatabaseRecord(String)} serves the records polled by clients from a bounded
+ * cache. Records still CREATING or DELETING are only kept for a couple of seconds, settled ones a
+ * little longer, and every write through this DAO drops the record it changed.
+ */
+@Singleton
 public class DatabaseDAO {
 
     private final static Logger LOG = LoggerFactory.getLogger(DatabaseDAO.class);
 
     private static final String MANAGED_BY_SERVICE_COMPONENT_TAG_KEY = "managed_by_service";
     private static final String MAKO_ENVIRONMENT = "mako-environment";
+    // keyed on status and update time, so the hard delete age cutoff is part of the key condition
+    private static final String STATUS_INDEX = "dbStatusUpdateTime";
+    private static final int DELETED_PAGE_SIZE = 100;
+    private static final String RECORD_PROJECTION = "dbStatus,message,host,username,port," +
+            "schemaName,instanceId,tenancyType,dataLocality";
+    private static final String BATCH_RECORD_PROJECTION = "databaseId," + RECORD_PROJECTION;
+    // the most keys a single BatchGetItem accepts
+    private static final int BATCH_GET_SIZE = 100;
+    private static final int UNPROCESSED_RETRIES = 5;
+    private static final long UNPROCESSED_BACKOFF_MILLIS = 50;
+    private static final String DELETED_PROJECTION =
+            "databaseId,host,username,port,schemaName,updateTime";
+    private static final String DELETED_KEY_CONDITION =
+            "dbStatus = :deleted AND updateTime < :deletedBefore";
+    private static final String UPDATE_STATUS_EXPRESSION =
+            "SET #S = :dbStatus, #M = :message, #T = :updateTime";
+    private static final Map<String, String> UPDATE_STATUS_NAMES =
+            ImmutableMap.of("#S", "dbStatus", "#M", "message", "#T", "updateTime");
+    private static final String PUT_DATABASE_EXPRESSION = "SET #H = :host, #U = :username, " +
+            "#PO = :port, #ST = :serviceTag, #SN = :schemaName, #I = :instanceId, " +
+            "#TT = :tenancyType, #DL = :dataLocality";
+    private static final Map<String, String> PUT_DATABASE_NAMES =
+            new ImmutableMap.Builder<String, String>()
+                    .put("#H", "host")
+                    .put("#U", "username")
+                    .put("#PO", "port")
+                    .put("#SN", "schemaName")
+                    .put("#I", "instanceId")
+                    .put("#TT", "tenancyType")
+                    .put("#DL", "dataLocality")
+                    .put("#ST", "serviceTag")
+                    .build();
+    // items of their own in the databases table, with no status so the index never lists them
+    private static final String HARD_DELETE_LEASE = "lease:hardDelete";
+    private static final String LEASE_CONDITION =
+            "attribute_not_exists(databaseId) OR expiresAt < :now OR holder = :holder";
+    // the databases closed to new sessions while a same host clone copies them
+    private static final String FENCES_ITEM = "fences:sameHostTemplate";
+    private static final String ADD_FENCE_EXPRESSION = "ADD fences :fences";
+    private static final String REMOVE_FENCE_EXPRESSION = "DELETE fences :fences";
+    private static final Map<String, Object> DELETED_VALUES =
+            ImmutableMap.of(":deleted", DatabaseStatus.Status.DELETED.name());
 
     private final AmazonDynamoDBClient client;
     private final DBaaSConfiguration dBaaSConfiguration;
     private final DBaaSConfiguration.DatabaseDaoConfiguration databaseDaoConfiguration;
+    private final DynamoDB dynamoDB;
+    private final Table table;
+    private final Index statusIndex;
+    private final Cache<String, CachedRecord> records;
+    private final long pendingTtlNanos;
+    private final AtomicLong writes = new AtomicLong();
+    private final List<Consumer<DatabaseStatus>> statusListeners = new CopyOnWriteArrayList<>();
+    private final Meter hitMeter;
+    private final Meter missMeter;
+    private final Timer getTimer;
+    private final Timer batchGetTimer;
+    private final Meter unprocessedMeter;
+    private final Timer updateStatusTimer;
+    private final Timer putDatabaseTimer;
+    private final Meter deletedPageMeter;
+    private final Meter deletedCandidateMeter;
+    private final Timer schemaCountScanTimer;
+    private final Timer deleteTimer;
 
     @Inject
-    public DatabaseDAO(AmazonDynamoDBClient client, DBaaSConfiguration dbaasConfig) {
+    public DatabaseDAO(AmazonDynamoDBClient client, DBaaSConfiguration dbaasConfig,
+                       MetricRegistry metricRegistry) {
         this.client = client;
         this.dBaaSConfiguration = dbaasConfig;
         this.databaseDaoConfiguration = dbaasConfig.getDatabaseDaoConfiguration();
+        DBaaSConfiguration.DatabaseCacheConfiguration cacheConfiguration =
+                dbaasConfig.getDatabaseCache();
+        this.records = CacheBuilder.newBuilder()
+                .expireAfterWrite(cacheConfiguration.getSettledTtlSeconds(), TimeUnit.SECONDS)
+                .maximumSize(cacheConfiguration.getMaximumSize())
+                .build();
+        this.pendingTtlNanos = TimeUnit.SECONDS.toNanos(cacheConfiguration.getPendingTtlSeconds());
+        this.hitMeter = metricRegistry.meter(name(DatabaseDAO.class, "cache", "hits"));
+        this.missMeter = metricRegistry.meter(name(DatabaseDAO.class, "cache", "misses"));
+        this.getTimer = metricRegistry.timer(name(DatabaseDAO.class, "get"));
+        this.batchGetTimer = metricRegistry.timer(name(DatabaseDAO.class, "batchGet"));
+        this.unprocessedMeter = metricRegistry.meter(name(DatabaseDAO.class, "unprocessedKeys"));
+        this.updateStatusTimer = metricRegistry.timer(name(DatabaseDAO.class, "updateStatus"));
+        this.putDatabaseTimer = metricRegistry.timer(name(DatabaseDAO.class, "putDatabase"));
+        this.deletedPageMeter = metricRegistry.meter(name(DatabaseDAO.class, "deleted", "pages"));
+        this.deletedCandidateMeter = metricRegistry.meter(name(DatabaseDAO.class, "deleted",
+                "candidates"));
+        this.schemaCountScanTimer = metricRegistry.timer(name(DatabaseDAO.class, "schemaCountScan"));
+        this.deleteTimer = metricRegistry.timer(name(DatabaseDAO.class, "delete"));
+        this.dynamoDB = makeDynamo();
         Table table;
         try {
-            DynamoDB dynamoDB = makeDynamo();
             CreateTableRequest request = new CreateTableRequest()
                     .withTableName(databaseDaoConfiguration.getTableName())
                     .withKeySchema(ImmutableList.of(new KeySchemaElement()
@@ -57,8 +162,9 @@ public class DatabaseDAO {
             table = dynamoDB.createTable(request);
         } catch (ResourceInUseException e) {
             // wait to become active
-           table = getDatabaseTable();
+           table = dynamoDB.getTable(databaseDaoConfiguration.getTableName());
         }
+        this.table = table;
 
         try {
             table.waitForActive();
@@ -79,24 +185,30 @@ public class DatabaseDAO {
         boolean indexExists = false;
 
         if(indexList == null){
-            LOG.debug("Global secondary index 'dbStatus' is null");
+            LOG.debug(String.format("Global secondary index '%s' is null", STATUS_INDEX));
             indexList = ImmutableList.of();
         }
 
         for (GlobalSecondaryIndexDescription index : indexList) {
-            if(index.getIndexName().equals("dbStatus")){
+            if(index.getIndexName().equals(STATUS_INDEX)){
                 indexExists = true;
             }
         }
 
         if(!indexExists){
             Index index = table.createGSI(new CreateGlobalSecondaryIndexAction()
-                            .withIndexName("dbStatus")
-                            .withKeySchema(new KeySchemaElement("dbStatus", KeyType.HASH))
-                            .withProvisionedThroughput(new ProvisionedThroughput(25l, 25l))
+                            .withIndexName(STATUS_INDEX)
+                            .withKeySchema(new KeySchemaElement("dbStatus", KeyType.HASH),
+                                    new KeySchemaElement("updateTime", KeyType.RANGE))
+                            .withProvisionedThroughput(new ProvisionedThroughput(
+                                    databaseDaoConfiguration.getStatusIndexReadUnits(),
+                                    databaseDaoConfiguration.getStatusIndexWriteUnits()))
                             .withProjection(new Projection()
-                                    .withProjectionType(ProjectionType.ALL)),
-                    new AttributeDefinition("dbStatus", ScalarAttributeType.S));
+                                    .withProjectionType(ProjectionType.INCLUDE)
+                                    .withNonKeyAttributes("host", "username", "port",
+                                            "schemaName")),
+                    new AttributeDefinition("dbStatus", ScalarAttributeType.S),
+                    new AttributeDefinition("updateTime", ScalarAttributeType.N));
 
             try {
                 index.waitForActive();
@@ -105,54 +217,198 @@ public class DatabaseDAO {
             }
         }
 
+        this.statusIndex = table.getIndex(STATUS_INDEX);
     }
 
     public Optional<DatabaseInfo> getDatabaseInfo(String databaseId) {
+        return getDatabaseRecord(databaseId).flatMap(DatabaseRecord::getInfo);
+    }
+
+    public Optional<DatabaseStatus> getDatabaseStatus(String databaseId) {
+        return getDatabaseRecord(databaseId).flatMap(DatabaseRecord::getStatus);
+    }
+
+    /**
+     * Reads the status and connection information of a database with a single consistent read.
+     *
+     * @param databaseId id of the database
+     * @return the record, empty if there is no item for the database
+     */
+    public Optional<DatabaseRecord> getDatabaseRecord(String databaseId) {
 
         GetItemSpec spec = new GetItemSpec()
                 .withPrimaryKey("databaseId", databaseId)
-                .withProjectionExpression("host,username,port,schemaName,dbStatus,instanceId,tenancyType,dataLocality")
+                .withProjectionExpression(RECORD_PROJECTION)
                 .withConsistentRead(true);
 
-        Item item = getDatabaseTable().getItem(spec);
+        Item item;
+        final Timer.Context context = getTimer.time();
+        try {
+            item = table.getItem(spec);
+        } finally {
+            context.stop();
+        }
 
         if (item == null) {
             return Optional.empty();
         }
 
-        return Optional.of(
-                new DatabaseInfo(
-                    new Database(
-                        databaseId,
-                        item.getString("username"),
-                        item.getString("host"),
-                        item.getInt("port"),
-                        item.getString("schemaName")
-                    ),
-                    item.getString("instanceId"),
-                    DatabaseCreationRequest.TenancyType.create(item.getString("tenancyType")),
-                    DatabaseCreationRequest.DataLocality.create(item.getString("dataLocality"))));
+        return Optional.of(toRecord(databaseId, item));
     }
 
-    public Optional<DatabaseStatus> getDatabaseStatus(String databaseId) {
+    private DatabaseRecord toRecord(String databaseId, Item item) {
 
-        GetItemSpec spec = new GetItemSpec()
-                .withPrimaryKey("databaseId", databaseId)
-                .withProjectionExpression("dbStatus,message")
+        Optional<DatabaseStatus> status = Optional.empty();
+        if (item.isPresent("dbStatus")) {
+            status = Optional.of(new DatabaseStatus(
+                    DatabaseStatus.Status.valueOf(item.getString("dbStatus")),
+                    (item.getString("message")), databaseId
+            ));
+        }
+
+        Optional<DatabaseInfo> info = Optional.empty();
+        if (item.isPresent("port")) {
+            info = Optional.of(
+                    new DatabaseInfo(
+                        new Database(
+                            databaseId,
+                            item.getString("username"),
+                            item.getString("host"),
+                            item.getInt("port"),
+                            item.getString("schemaName")
+                        ),
+                        item.getString("instanceId"),
+                        DatabaseCreationRequest.TenancyType.create(item.getString("tenancyType")),
+                        DatabaseCreationRequest.DataLocality.create(item.getString("dataLocality"))));
+        }
+
+        return new DatabaseRecord(status, info);
+    }
+
+    /**
+     * Same as {@link #getDatabaseRecord(String)}, but answered from the cache when the record was
+     * read recently enough. Meant for the client facing reads only, the creation and deletion
+     * steps keep reading consistently.
+     *
+     * @param databaseId id of the database
+     * @return the record, empty if there is no item for the database
+     */
+    public Optional<DatabaseRecord> getCachedDatabaseRecord(String databaseId) {
+
+        CachedRecord cached = records.getIfPresent(databaseId);
+        if (cached != null && cached.isFresh(pendingTtlNanos)) {
+            hitMeter.mark();
+            return Optional.of(cached.record);
+        }
+        missMeter.mark();
+
+        long writesBefore = writes.get();
+        Optional<DatabaseRecord> record = getDatabaseRecord(databaseId);
+        record.ifPresent(found -> cache(databaseId, found, writesBefore));
+        return record;
+    }
+
+    /**
+     * Looks up the status of many databases at once. Statuses cached recently enough are used as
+     * they are, the rest are read consistently with BatchGetItem, retrying the keys DynamoDB
+     * leaves unprocessed.
+     *
+     * @param databaseIds ids of the databases
+     * @return statuses keyed by database id, without the databases that don't exist or have no
+     * status yet
+     *
+     * @throws StatusLookupException if some keys were still unprocessed after the retries
+     */
+    public Map<String, DatabaseStatus> getDatabaseStatuses(Collection<String> databaseIds) {
+
+        Map<String, DatabaseStatus> statuses = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String databaseId : new LinkedHashSet<>(databaseIds)) {
+            CachedRecord cached = records.getIfPresent(databaseId);
+            if (cached != null && cached.isFresh(pendingTtlNanos)) {
+                hitMeter.mark();
+                cached.record.getStatus().ifPresent(status -> statuses.put(databaseId, status));
+            } else {
+                missMeter.mark();
+                missing.add(databaseId);
+            }
+        }
+
+        for (List<String> batch : Lists.partition(missing, BATCH_GET_SIZE)) {
+            long writesBefore = writes.get();
+            for (Item item : batchGet(batch)) {
+                String databaseId = item.getString("databaseId");
+                DatabaseRecord record = toRecord(databaseId, item);
+                cache(databaseId, record, writesBefore);
+                record.getStatus().ifPresent(status -> statuses.put(databaseId, status));
+            }
+        }
+        return statuses;
+    }
+
+    private List<Item> batchGet(List<String> databaseIds) {
+
+        String tableName = databaseDaoConfiguration.getTableName();
+        TableKeysAndAttributes keys = new TableKeysAndAttributes(tableName)
+                .withHashOnlyKeys("databaseId", databaseIds.toArray())
+                .withProjectionExpression(BATCH_RECORD_PROJECTION)
                 .withConsistentRead(true);
 
-        Item item = getDatabaseTable().getItem(spec);
+        List<Item> items = new ArrayList<>();
+        final Timer.Context context = batchGetTimer.time();
+        try {
+            BatchGetItemOutcome outcome = dynamoDB.batchGetItem(keys);
+            for (int retry = 0; ; retry++) {
+                List<Item> tableItems = outcome.getTableItems().get(tableName);
+                if (tableItems != null) {
+                    items.addAll(tableItems);
+                }
+
+                Map<String, KeysAndAttributes> unprocessed = outcome.getUnprocessedKeys();
+                if (unprocessed == null || unprocessed.isEmpty()) {
+                    return items;
+                }
+                int unprocessedKeys = unprocessed.get(tableName).getKeys().size();
+                unprocessedMeter.mark(unprocessedKeys);
+                if (retry == UNPROCESSED_RETRIES) {
+                    throw new StatusLookupException(String.format(
+                            "%d of %d database statuses still unprocessed after %d retries",
+                            unprocessedKeys, databaseIds.size(), retry));
+                }
+
+                LOG.debug(String.format("Retrying %d unprocessed database status keys",
+                        unprocessedKeys));
+                Thread.sleep(UNPROCESSED_BACKOFF_MILLIS << retry);
+                outcome = dynamoDB.batchGetItemUnprocessed(unprocessed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StatusLookupException("Interrupted while looking up database statuses");
+        } finally {
+            context.stop();
+        }
+    }
 
-        if (item == null) {
-            return Optional.empty();
+    private void cache(String databaseId, DatabaseRecord record, long writesBefore) {
+        records.put(databaseId, new CachedRecord(record));
+        // a write that raced the read may have invalidated before this put
+        if (writes.get() != writesBefore) {
+            records.invalidate(databaseId);
         }
+    }
 
-        return Optional.of(new DatabaseStatus(
-                DatabaseStatus.Status.valueOf(item.getString("dbStatus")),
-                (item.getString("message")), databaseId
-        ));
+    /**
+     * @param listener called with every status this DAO writes, on the writing thread and after
+     *                 the write succeeded
+     */
+    public void addStatusListener(Consumer<DatabaseStatus> listener) {
+        statusListeners.add(listener);
     }
 
+    private void invalidate(String databaseId) {
+        writes.incrementAndGet();
+        records.invalidate(databaseId);
+    }
 
     public void updateStatus(DatabaseStatus databaseStatus) {
 
@@ -162,13 +418,28 @@ public class DatabaseDAO {
 
         UpdateItemSpec updateItemSpec = new UpdateItemSpec()
                 .withPrimaryKey(primaryKey)
-                .withUpdateExpression("SET #S = :dbStatus, #M = :message, #T = :updateTime")
-                .withNameMap(ImmutableMap.of("#S", "dbStatus", "#M", "message", "#T", "updateTime"))
+                .withUpdateExpression(UPDATE_STATUS_EXPRESSION)
+                .withNameMap(UPDATE_STATUS_NAMES)
                 .withValueMap(ImmutableMap.of(":dbStatus", databaseStatus.getStatus().name(),
                         ":message", databaseStatus.getMessageOptional().orElse("message"),
                         ":updateTime", currentTime))
                 .withReturnValues(ReturnValue.NONE);
-        getDatabaseTable().updateItem(updateItemSpec);
+        final Timer.Context context = updateStatusTimer.time();
+        try {
+            table.updateItem(updateItemSpec);
+        } finally {
+            context.stop();
+            invalidate(databaseStatus.getDatabaseId());
+        }
+
+        for (Consumer<DatabaseStatus> listener : statusListeners) {
+            try {
+                listener.accept(databaseStatus);
+            } catch (Exception e) {
+                LOG.error(String.format("Status listener failed for database %s",
+                        databaseStatus.getDatabaseId()), e);
+            }
+        }
     }
 
 
@@ -183,18 +454,8 @@ public class DatabaseDAO {
 
         UpdateItemSpec updateItemSpec = new UpdateItemSpec()
                 .withPrimaryKey(primaryKey)
-                .withUpdateExpression("SET #H = :host, #U = :username, #PO = :port, #ST = :serviceTag, " +
-                        "#SN = :schemaName, #I = :instanceId, #TT = :tenancyType, #DL = :dataLocality")
-                .withNameMap(new ImmutableMap.Builder<String, String>()
-                        .put("#H", "host")
-                        .put("#U", "username")
-                        .put("#PO", "port")
-                        .put("#SN", "schemaName")
-                        .put("#I", "instanceId")
-                        .put("#TT", "tenancyType")
-                        .put("#DL", "dataLocality")
-                        .put("#ST", "serviceTag")
-                        .build())
+                .withUpdateExpression(PUT_DATABASE_EXPRESSION)
+                .withNameMap(PUT_DATABASE_NAMES)
                 .withValueMap(new ImmutableMap.Builder<String, Object>()
                         .put(":host", database.getHost())
                         .put(":username", database.getUser())
@@ -206,73 +467,149 @@ public class DatabaseDAO {
                         .put(":serviceTag", serviceTag)
                         .build())
                 .withReturnValues(ReturnValue.NONE);
-        UpdateItemOutcome outcome = getDatabaseTable().updateItem(updateItemSpec);
+        final Timer.Context context = putDatabaseTimer.time();
+        try {
+            table.updateItem(updateItemSpec);
+        } finally {
+            context.stop();
+            invalidate(databaseId);
+        }
 
         LOG.debug(String.format("Created a record for the database: %s", databaseId));
 
 
     }
 
-    public List<Database> getDeletedDatabases() {
-
-        List<Database> deletables = new ArrayList<>();
-        long currentEpoch = System.currentTimeMillis();
-        long fifteenMinutes = dBaaSConfiguration.getHardDeleteDelay();
+    /**
+     * @return the databases deleted longer than the hard delete delay ago, a page of at most
+     * {@value #DELETED_PAGE_SIZE} per query. Each page is read when the caller iterates to it.
+     */
+    public Iterable<List<Database>> getDeletedDatabasePages() {
 
-        Table table = getDatabaseTable();
-        Index index = table.getIndex("dbStatus");
+        long deletedBefore = System.currentTimeMillis() - dBaaSConfiguration.getHardDeleteDelay();
 
         QuerySpec spec = new QuerySpec()
-                .withKeyConditionExpression("dbStatus = :deleted")
-                .withValueMap(new ValueMap()
-                    .withString(":deleted", "DELETED"))
-                .withProjectionExpression("databaseId,host,username,port,schemaName,dbStatus,updateTime");
+                .withKeyConditionExpression(DELETED_KEY_CONDITION)
+                .withValueMap(new ImmutableMap.Builder<String, Object>()
+                        .putAll(DELETED_VALUES)
+                        .put(":deletedBefore", deletedBefore)
+                        .build())
+                .withProjectionExpression(DELETED_PROJECTION)
+                .withMaxPageSize(DELETED_PAGE_SIZE);
 
-        ItemCollection<QueryOutcome> deletedDatabases = index.query(spec);
+        return Iterables.transform(statusIndex.query(spec).pages(), this::readDeletedPage);
+    }
 
-        for(Item item : deletedDatabases) {
+    List<Database> readDeletedPage(Iterable<Item> page) {
+        List<Database> deletables = new ArrayList<>();
+        for(Item item : page) {
+            Database deletedDB = new Database(item.getString("databaseId"),
+                    item.getString("username"),
+                    item.getString("host"),
+                    // records of creations that failed early never got connection info
+                    item.isPresent("port") ? item.getInt("port") : null,
+                    item.getString("schemaName")
+            );
+            LOG.debug(String.format("%s set to be deleted in hard delete", item.getString("schemaName")));
+            deletables.add(deletedDB);
+        }
+        deletedPageMeter.mark();
+        deletedCandidateMeter.mark(deletables.size());
+        return deletables;
+    }
 
-            if(item.getLong("updateTime") < (currentEpoch - fifteenMinutes)){
+    /**
+     * Counts the databases recorded on each instance, keyed by the instanceId attribute. Deleted
+     * databases are left out, they no longer hold a schema once hard delete reaped them.
+     */
+    public Map<String, Integer> getSchemaCountsByInstance() {
 
-                Database deletedDB = new Database(item.getString("databaseId"),
-                        item.getString("username"),
-                        item.getString("host"),
-                        item.getInt("port"),
-                        item.getString("schemaName")
-                );
-                LOG.debug(String.format("%s set to be deleted in hard delete", item.getString("schemaName")));
-                deletables.add(deletedDB);
-            } else {
-                LOG.debug(String.format("%s was deleted too recently to be reaped by hard delete", item.getString("schemaName")));
-            }
+        Map<String, Integer> schemaCounts = new HashMap<>();
 
-        }
+        ScanSpec spec = new ScanSpec()
+                .withProjectionExpression("instanceId")
+                .withFilterExpression("attribute_exists(instanceId) AND dbStatus <> :deleted")
+                .withValueMap(DELETED_VALUES);
 
-        return deletables;
+        final Timer.Context context = schemaCountScanTimer.time();
+        try {
+            for (Item item : table.scan(spec)) {
+                String instanceId = item.getString("instanceId");
+                Integer count = schemaCounts.get(instanceId);
+                schemaCounts.put(instanceId, count == null ? 1 : count + 1);
+            }
+        } finally {
+            context.stop();
+        }
 
+        LOG.debug(String.format("Counted schemas on %d instances", schemaCounts.size()));
+        return schemaCounts;
     }
 
     public void deleteDatabaseRecord(String databaseId) {
 
-        Table table = getDatabaseTable();
-        Map<String, AttributeValue> key = new HashMap<>();
-        key.put("databaseId", new AttributeValue().withS(databaseId));
-        DeleteItemRequest deleteRequest = new DeleteItemRequest()
-                .withTableName(table.getTableName())
-                .withKey(key);
-
         LOG.debug(String.format("Attempting to delete item %s from Dynamo", databaseId));
 
-        client.deleteItem(deleteRequest);
+        final Timer.Context context = deleteTimer.time();
+        try {
+            table.deleteItem("databaseId", databaseId);
+        } finally {
+            context.stop();
+            invalidate(databaseId);
+        }
     }
 
+    /**
+     * Takes or renews the hard delete lease, so only one node reaps deleted databases at a time.
+     *
+     * @return whether the caller holds the lease until the given number of seconds from now
+     */
+    public boolean tryHardDeleteLease(String holder, long seconds) {
+        long now = System.currentTimeMillis();
+        try {
+            table.putItem(new PutItemSpec()
+                    .withItem(new Item()
+                            .withPrimaryKey("databaseId", HARD_DELETE_LEASE)
+                            .withString("holder", holder)
+                            .withLong("expiresAt", now + seconds * 1000))
+                    .withConditionExpression(LEASE_CONDITION)
+                    .withValueMap(ImmutableMap.of(":now", now, ":holder", holder)));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
 
-    Table getDatabaseTable() {
-        DynamoDB dynamoDB = makeDynamo();
+    /**
+     * Records that a clone is about to close its source to new sessions, so the source can be
+     * opened again should the node cloning it die before it does.
+     */
+    public void addFence(String fence) {
+        updateFences(ADD_FENCE_EXPRESSION, fence);
+    }
 
-        String tableName = databaseDaoConfiguration.getTableName();
+    public void removeFence(String fence) {
+        updateFences(REMOVE_FENCE_EXPRESSION, fence);
+    }
+
+    /**
+     * @return the fences recorded and not removed yet
+     */
+    public Set<String> getFences() {
+        Item item = table.getItem(new GetItemSpec()
+                .withPrimaryKey("databaseId", FENCES_ITEM)
+                .withConsistentRead(true));
+        if (item == null || item.getStringSet("fences") == null) {
+            return ImmutableSet.of();
+        }
+        return item.getStringSet("fences");
+    }
 
-        return dynamoDB.getTable(tableName);
+    private void updateFences(String updateExpression, String fence) {
+        table.updateItem(new UpdateItemSpec()
+                .withPrimaryKey("databaseId", FENCES_ITEM)
+                .withUpdateExpression(updateExpression)
+                .withValueMap(ImmutableMap.of(":fences", ImmutableSet.of(fence))));
     }
 
     private ImmutableSet<Tag> getTags() {
@@ -288,4 +625,27 @@ public class DatabaseDAO {
     DynamoDB makeDynamo() {
         return new DynamoDB(client);
     }
+
+    private static class CachedRecord {
+
+        private final DatabaseRecord record;
+        private final long readAt = System.nanoTime();
+
+        private CachedRecord(DatabaseRecord record) {
+            this.record = record;
+        }
+
+        private boolean isFresh(long pendingTtlNanos) {
+            if (!record.getStatus().isPresent()) {
+                return System.nanoTime() - readAt < pendingTtlNanos;
+            }
+            switch (record.getStatus().get().getStatus()) {
+                case CREATING:
+                case DELETING:
+                    return System.nanoTime() - readAt < pendingTtlNanos;
+                default:
+                    return true;
+            }
+        }
+    }
 }
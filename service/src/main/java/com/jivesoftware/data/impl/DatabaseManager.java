@@ -10,12 +10,14 @@ import com.jivesoftware.data.resources.entities.Database;
 import com.jivesoftware.data.resources.entities.DatabaseCreateResponse;
 import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
 import com.jivesoftware.data.resources.entities.DatabaseStatus;
+import com.jivesoftware.data.resources.entities.HardDeleteProgress;
 import com.jivesoftware.data.resources.entities.UserCreateResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.text.SimpleDateFormat;
 
 public class DatabaseManager {
@@ -34,6 +36,9 @@ public class DatabaseManager {
     private final InstanceDeleteRequestProcessor instanceDeleteRequestProcessor;
     private final DBaaSConfiguration dBaaSConfiguration;
     private final DefaultInstanceLoader defaultInstanceLoader;
+    private final StatusWatcher statusWatcher;
+    private final HardDeleteReaper hardDeleteReaper;
+    private final WarmSchemaPool warmSchemaPool;
 
     @Inject
     public DatabaseManager(DBaaSConfiguration dBaaSConfiguration,
@@ -45,7 +50,10 @@ public class DatabaseManager {
                            DatabaseCreateRequestProcessor databaseCreateRequestProcessor,
                            PermissionManager permissionManager,
                            InstanceDeleteRequestProcessor instanceDeleteRequestProcessor,
-                           DefaultInstanceLoader defaultInstanceLoader) {
+                           DefaultInstanceLoader defaultInstanceLoader,
+                           StatusWatcher statusWatcher,
+                           HardDeleteReaper hardDeleteReaper,
+                           WarmSchemaPool warmSchemaPool) {
         this.dBaaSConfiguration = dBaaSConfiguration;
         this.databaseIDHelper = databaseIDHelper;
         this.passwordManager = passwordManager;
@@ -56,9 +64,33 @@ public class DatabaseManager {
         this.permissionManager = permissionManager;
         this.instanceDeleteRequestProcessor = instanceDeleteRequestProcessor;
         this.defaultInstanceLoader = defaultInstanceLoader;
+        this.statusWatcher = statusWatcher;
+        this.hardDeleteReaper = hardDeleteReaper;
+        this.warmSchemaPool = warmSchemaPool;
 
+        Map<DefaultInstanceLoader.DefaultInstance, Optional<DBInstance>> configDefaultInstances =
+                new LinkedHashMap<>();
         for (DefaultInstanceLoader.DefaultInstance defaultInstance :
                 defaultInstanceLoader.getInstanceList()) {
+            configDefaultInstances.put(defaultInstance, instanceManager.getDBInstance(
+                    databaseIDHelper.getDBInstanceId(String.format(COLORED_FORMAT,
+                            dBaaSConfiguration.getSharedInstanceDeployColor(),
+                            defaultInstance.getIdentifier()))));
+        }
+
+        // warm the tag cache for all existing default instances at once before checking each
+        List<DBInstance> existingDefaultInstances = new ArrayList<>();
+        for (Optional<DBInstance> configDefaultInstance : configDefaultInstances.values()) {
+            configDefaultInstance.ifPresent(existingDefaultInstances::add);
+        }
+        if (!existingDefaultInstances.isEmpty()) {
+            instanceManager.getTagsByInstance(existingDefaultInstances);
+        }
+
+        for (Map.Entry<DefaultInstanceLoader.DefaultInstance, Optional<DBInstance>> entry :
+                configDefaultInstances.entrySet()) {
+
+            DefaultInstanceLoader.DefaultInstance defaultInstance = entry.getKey();
 
             String colorCodedId = String.format(COLORED_FORMAT,
                     dBaaSConfiguration.getSharedInstanceDeployColor(),
@@ -67,7 +99,7 @@ public class DatabaseManager {
             String realID = databaseIDHelper
                     .getDBInstanceId(colorCodedId);
 
-            Optional<DBInstance> configDefaultInstance = instanceManager.getDBInstance(realID);
+            Optional<DBInstance> configDefaultInstance = entry.getValue();
 
             if (!configDefaultInstance.isPresent()) {
                 try {
@@ -137,6 +169,11 @@ public class DatabaseManager {
             }
         }
 
+        Optional<DatabaseCreateResponse> warmResponse = warmSchemaPool.claim(databaseCreationRequest);
+        if (warmResponse.isPresent()) {
+            return warmResponse.get();
+        }
+
         return databaseCreateRequestProcessor.requestDatabaseCreation(databaseCreationRequest);
     }
 
@@ -151,7 +188,13 @@ public class DatabaseManager {
      *
      */
     public DatabaseStatus getDatabaseStatus(String databaseId) {
-        Optional<DatabaseStatus> statusOptional = databaseDAO.getDatabaseStatus(databaseId);
+        return getDatabaseStatus(databaseId, databaseDAO.getCachedDatabaseRecord(databaseId));
+    }
+
+    private DatabaseStatus getDatabaseStatus(String databaseId,
+                                             Optional<DatabaseRecord> recordOptional) {
+        Optional<DatabaseStatus> statusOptional =
+                recordOptional.flatMap(DatabaseRecord::getStatus);
         if (!statusOptional.isPresent()) {
             logger.error(String.format("Status for database with id %s not found",
                     databaseId));
@@ -161,6 +204,44 @@ public class DatabaseManager {
         return statusOptional.get();
     }
 
+    /**
+     *
+     * Wait for a database to reach one of the given statuses
+     *
+     * @param databaseId database id
+     * @param waitFor statuses to wait for, empty waits for any change of the current status
+     * @param timeoutSeconds how long to wait, unset waits the configured default. Capped at the
+     *                       configured maximum.
+     * @return completes with the status waited for, or with the latest status at the timeout
+     *
+     * @throws DatabaseNotFoundException if the status for the database id is not found
+     *
+     */
+    public CompletableFuture<DatabaseStatus> watchDatabaseStatus(String databaseId,
+                                                                 Set<DatabaseStatus.Status> waitFor,
+                                                                 Integer timeoutSeconds) {
+        DBaaSConfiguration.StatusWatchConfiguration watchConfiguration =
+                dBaaSConfiguration.getStatusWatch();
+        int timeout = Math.min(timeoutSeconds == null
+                        ? watchConfiguration.getDefaultTimeoutSeconds() : timeoutSeconds,
+                watchConfiguration.getMaxTimeoutSeconds());
+        return statusWatcher.watch(getDatabaseStatus(databaseId), waitFor, timeout);
+    }
+
+    /**
+     *
+     * Get the status of many databases at once
+     *
+     * @param databaseIds ids of the databases
+     * @return statuses keyed by database id. Databases that don't exist are left out.
+     *
+     * @throws StatusLookupException if the statuses could not all be read
+     *
+     */
+    public Map<String, DatabaseStatus> getDatabaseStatuses(List<String> databaseIds) {
+        return databaseDAO.getDatabaseStatuses(databaseIds);
+    }
+
     /**
      *
      * Get the database connection information for a READY database
@@ -172,16 +253,21 @@ public class DatabaseManager {
      *
      */
     public Database getDatabase(String databaseId) {
-        Optional<DatabaseStatus> databaseOptional = databaseDAO.getDatabaseStatus(databaseId);
+        Optional<DatabaseRecord> recordOptional = databaseDAO.getCachedDatabaseRecord(databaseId);
+        Optional<DatabaseStatus> databaseOptional =
+                recordOptional.flatMap(DatabaseRecord::getStatus);
+        Optional<DatabaseInfo> databaseInfoOptional =
+                recordOptional.flatMap(DatabaseRecord::getInfo);
         if (!databaseOptional.isPresent()
-                || DatabaseStatus.Status.READY != databaseOptional.get().getStatus()) {
+                || DatabaseStatus.Status.READY != databaseOptional.get().getStatus()
+                || !databaseInfoOptional.isPresent()) {
             logger.error(String.format("Database with id %s not found or still being created",
                     databaseId));
             throw new DatabaseNotFoundException(String.format(
                     "Database with id %s not found or still being created", databaseId));
         }
 
-        return databaseDAO.getDatabaseInfo(databaseId).get().getDatabase();
+        return databaseInfoOptional.get().getDatabase();
     }
 
     /**
@@ -191,8 +277,10 @@ public class DatabaseManager {
      * @param databaseId id of the database
      */
     public void deleteDatabase(String databaseId) {
-        Optional<DatabaseInfo> databaseInfoOptional = databaseDAO.getDatabaseInfo(databaseId);
-        DatabaseStatus status = getDatabaseStatus(databaseId);
+        Optional<DatabaseRecord> recordOptional = databaseDAO.getDatabaseRecord(databaseId);
+        Optional<DatabaseInfo> databaseInfoOptional =
+                recordOptional.flatMap(DatabaseRecord::getInfo);
+        DatabaseStatus status = getDatabaseStatus(databaseId, recordOptional);
         if (status.getStatus()!= DatabaseStatus.Status.DELETED) {
             if (databaseInfoOptional.isPresent()) {
                 DatabaseInfo databaseInfo = databaseInfoOptional.get();
@@ -269,8 +357,10 @@ public class DatabaseManager {
 
         UserCreateResponse userCreateResponse = new UserCreateResponse("mq2user",password);
 
-        Optional<DatabaseInfo> databaseInfoOptional = databaseDAO.getDatabaseInfo(databaseId);
-        DatabaseStatus status = getDatabaseStatus(databaseId);
+        Optional<DatabaseRecord> recordOptional = databaseDAO.getDatabaseRecord(databaseId);
+        Optional<DatabaseInfo> databaseInfoOptional =
+                recordOptional.flatMap(DatabaseRecord::getInfo);
+        DatabaseStatus status = getDatabaseStatus(databaseId, recordOptional);
 
         if (databaseInfoOptional.isPresent()) {
             if (status.getStatus()== DatabaseStatus.Status.READY) {
@@ -323,65 +413,26 @@ public class DatabaseManager {
                 host.getMasterUsername(), password, host.getEndpoint().getPort(), host.getDBName());
     }
 
-    public void hardDeleteDatabase(String token) {
+    /**
+     * Starts a hard delete pass now, unless one is running already.
+     */
+    public HardDeleteProgress hardDeleteDatabase(String token) {
+        checkHardDeleteAllowed(token);
+        if (!hardDeleteReaper.trigger()) {
+            logger.debug("Hard delete pass already running");
+        }
+        return hardDeleteReaper.getProgress();
+    }
 
+    public HardDeleteProgress getHardDeleteProgress(String token) {
+        checkHardDeleteAllowed(token);
+        return hardDeleteReaper.getProgress();
+    }
+
+    private void checkHardDeleteAllowed(String token) {
         if(!permissionManager.isAllowed(token)){
             throw new TokenNotAuthorizedException("Your token does not match the authorized" +
                     " admin token to allow hard deletion");
-        } else {
-            List<Database> deleted = databaseDAO.getDeletedDatabases();
-
-            for(Database deleteDB : deleted){
-                try {
-                    logger.debug(String.format("Hard deleting %s", deleteDB.getId()));
-
-                    Optional<DatabaseInfo> databaseInfoOptional = databaseDAO.getDatabaseInfo(
-                            deleteDB.getId());
-                    if (databaseInfoOptional.isPresent()) {
-                        DatabaseInfo databaseInfo = databaseInfoOptional.get();
-
-                        Optional<DBInstance> dbInstanceOptional =
-                                instanceManager.getDBInstance(databaseIDHelper.getDBInstanceId(
-                                        databaseInfo.getInstanceId()));
-                        if(dbInstanceOptional.isPresent()) {
-                            if(databaseInfo.getTenancyType() ==
-                                    DatabaseCreationRequest.TenancyType.DEDICATED) {
-                                logger.debug(String.format("Attempting to delete instance with " +
-                                        "instanceId %s", databaseInfo.getInstanceId()));
-                                instanceManager.deleteInstance(databaseInfo.getInstanceId());
-                            }
-                            else {
-                                Database database = databaseInfo.getDatabase();
-                                MasterDatabase masterDatabase = getMasterDatabase(
-                                        dbInstanceOptional.get(), databaseInfo.getTenancyType());
-                                if(schemaManager.isSchemaExists(masterDatabase, deleteDB.getSchema())){
-                                    schemaManager.hardDeleteSchema(masterDatabase,
-                                            database.getUser(), database.getSchema());
-                                    logger.warn(String.format("Schema %s deleted on instance %s",
-                                            database.getSchema(), database.getId()));
-                                } else {
-                                    logger.warn(String.format("Schema %s not found on instance %s",
-                                            database.getSchema(), database.getId()));
-                                }
-                            }
-                        } else {
-                            logger.warn(String.format("DBInstance not found for %s",
-                                    databaseInfo.getInstanceId()));
-                        }
-                    }
-                    databaseDAO.deleteDatabaseRecord(deleteDB.getId());
-                } catch (SchemaOperationException soe) {
-                    logger.error(String.format("Error performing SQL to delete database %s",
-                            deleteDB.getId()));
-                } catch (DatabaseDeletionException dde) {
-                    logger.error(String.format("Error deleting dedicated instance- %s", dde));
-                }
-                catch (Exception e) {
-                    logger.error(String.format("Error deleting database %s. Host: %s, User: %s, " +
-                                    "Schema: %s", deleteDB.getId(), deleteDB.getHost(),
-                            deleteDB.getUser(), deleteDB.getSchema()));
-                }
-            }
         }
     }
 
@@ -0,0 +1,34 @@
+package com.jivesoftware.data.impl;
+
+
+import com.jivesoftware.data.resources.entities.DatabaseStatus;
+
+import java.util.Optional;
+
+/**
+ * Status and connection information of a database, as read from its single DynamoDB item.
+ */
+class DatabaseRecord {
+
+    private final Optional<DatabaseStatus> status;
+    private final Optional<DatabaseInfo> info;
+
+    public DatabaseRecord(Optional<DatabaseStatus> status, Optional<DatabaseInfo> info) {
+        this.status = status;
+        this.info = info;
+    }
+
+    /**
+     * @return the status, empty if none was recorded yet
+     */
+    public Optional<DatabaseStatus> getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the connection information, empty until the schema or instance was recorded
+     */
+    public Optional<DatabaseInfo> getInfo() {
+        return info;
+    }
+}
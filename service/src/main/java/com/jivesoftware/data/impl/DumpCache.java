@@ -0,0 +1,392 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.SSEAwsKeyManagementParams;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jivesoftware.data.DBaaSConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Keeps the directory archives the PARALLEL clone engine dumps, so sources cloned over and over
+ * are restored from the last dump for as long as they don't change.
+ *
+ * Dumps are keyed by a hash of the source and its change marker, kept on local disk up to a size
+ * and evicted least recently used first. A dump being restored from is never evicted. With a
+ * bucket configured every dump is also uploaded to S3, where a node missing it locally looks next.
+ * Uploads are encrypted at rest, as the instances the dumps come from are.
+ */
+@Singleton
+public class DumpCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(DumpCache.class);
+
+    // written last by pg_dump and uploaded last, a dump without it is incomplete
+    static final String TOC_FILE = "toc.dat";
+    private static final String PARTIAL_PREFIX = ".partial-";
+
+    private final DBaaSConfiguration.DumpCacheConfiguration cacheConfiguration;
+    private final AmazonS3 amazonS3;
+    private final File directory;
+    private final ExecutorService uploadExecutor;
+    // access ordered, least recently used first
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Meter hitMeter;
+    private final Meter remoteHitMeter;
+    private final Meter missMeter;
+    private final Meter bytesSavedMeter;
+    private long cachedBytes;
+
+    @Inject
+    public DumpCache(DBaaSConfiguration dBaaSConfiguration,
+                     AmazonS3 amazonS3,
+                     MetricRegistry metricRegistry) {
+        this.cacheConfiguration = dBaaSConfiguration.getDumpCache();
+        this.amazonS3 = amazonS3;
+        this.directory = new File(cacheConfiguration.getDirectory());
+        this.uploadExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("dump-cache-upload-%d")
+                .setDaemon(true)
+                .build());
+        this.hitMeter = metricRegistry.meter(name(DumpCache.class, "hits"));
+        this.remoteHitMeter = metricRegistry.meter(name(DumpCache.class, "remoteHits"));
+        this.missMeter = metricRegistry.meter(name(DumpCache.class, "misses"));
+        this.bytesSavedMeter = metricRegistry.meter(name(DumpCache.class, "bytesSaved"));
+        metricRegistry.register(name(DumpCache.class, "hitRatio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                long hits = hitMeter.getCount() + remoteHitMeter.getCount();
+                return Ratio.of(hits, hits + missMeter.getCount());
+            }
+        });
+        metricRegistry.register(name(DumpCache.class, "cachedBytes"),
+                (Gauge<Long>) this::getCachedBytes);
+
+        if (isEnabled()) {
+            load();
+        }
+    }
+
+    public boolean isEnabled() {
+        return cacheConfiguration.getEnabled();
+    }
+
+    /**
+     * @return the key of the dump of a schema as of the given change marker. The dump command is
+     * part of it, so a change to how dumps are taken doesn't restore old ones.
+     */
+    public String getKey(MasterDatabase sourceDatabase, String sourceSchema, String changeMarker,
+                         String dumpCommand) {
+        return Hashing.sha256().hashString(String.join("\n", sourceDatabase.getHost(),
+                String.valueOf(sourceDatabase.getPort()), sourceSchema, changeMarker, dumpCommand),
+                StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * @return the dump of the key, held until the lease is closed, or empty when neither this node
+     * nor the bucket has it
+     */
+    public Optional<Lease> acquire(String key) {
+        Optional<Lease> lease = acquireLocal(key);
+        if (lease.isPresent()) {
+            hitMeter.mark();
+        } else if (isRemote() && download(key)) {
+            lease = acquireLocal(key);
+            lease.ifPresent(l -> remoteHitMeter.mark());
+        }
+
+        if (lease.isPresent()) {
+            bytesSavedMeter.mark(lease.get().getBytes());
+        } else {
+            missMeter.mark();
+        }
+        return lease;
+    }
+
+    /**
+     * Moves a finished dump into the cache.
+     *
+     * @return whether the cache took the dump, if not it is still the caller's to delete
+     */
+    public boolean put(String key, File dump) {
+        long bytes = getSize(dump);
+        Path target = new File(directory, key).toPath();
+        Optional<Lease> uploadLease;
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                return false;
+            }
+            try {
+                Files.move(dump.toPath(), target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.warn(String.format("Could not move dump %s into the cache", dump), e);
+                return false;
+            }
+            entries.put(key, new Entry(bytes));
+            cachedBytes += bytes;
+            // held so it isn't evicted halfway through the upload
+            uploadLease = isRemote() ? acquireLocal(key) : Optional.empty();
+        }
+        logger.info(String.format("Cached dump %s of %d bytes", key, bytes));
+
+        if (uploadLease.isPresent()) {
+            Lease lease = uploadLease.get();
+            uploadExecutor.execute(() -> {
+                try {
+                    upload(key, lease.getDirectory());
+                } finally {
+                    lease.close();
+                }
+            });
+        }
+        evict();
+        return true;
+    }
+
+    synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    private boolean isRemote() {
+        return !StringUtils.isEmpty(cacheConfiguration.getBucket());
+    }
+
+    private synchronized Optional<Lease> acquireLocal(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        entry.leases++;
+        return Optional.of(new Lease(key, new File(directory, key), entry.bytes));
+    }
+
+    private synchronized void release(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.leases--;
+        }
+    }
+
+    private void evict() {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (cachedBytes > cacheConfiguration.getMaxBytes() && iterator.hasNext()) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (entry.getValue().leases == 0) {
+                    iterator.remove();
+                    cachedBytes -= entry.getValue().bytes;
+                    evicted.add(entry.getKey());
+                }
+            }
+        }
+        for (String key : evicted) {
+            logger.info(String.format("Evicting cached dump %s", key));
+            deleteDirectory(new File(directory, key));
+        }
+    }
+
+    /**
+     * Picks up the dumps left by the last run, oldest first so they are evicted first.
+     */
+    private synchronized void load() {
+        try {
+            Files.createDirectories(directory.toPath());
+        } catch (IOException e) {
+            logger.error(String.format("Could not create dump cache directory %s", directory), e);
+            return;
+        }
+        File[] dumps = directory.listFiles(File::isDirectory);
+        if (dumps == null) {
+            return;
+        }
+        Arrays.sort(dumps, Comparator.comparingLong(File::lastModified));
+        for (File dump : dumps) {
+            if (dump.getName().startsWith(PARTIAL_PREFIX)) {
+                deleteDirectory(dump);
+                continue;
+            }
+            long bytes = getSize(dump);
+            entries.put(dump.getName(), new Entry(bytes));
+            cachedBytes += bytes;
+        }
+        logger.info(String.format("Loaded %d cached dumps of %d bytes", entries.size(),
+                cachedBytes));
+    }
+
+    private void upload(String key, File dump) {
+        File[] files = dump.listFiles();
+        if (files == null) {
+            return;
+        }
+        try {
+            for (File file : files) {
+                if (!TOC_FILE.equals(file.getName())) {
+                    amazonS3.putObject(newPutRequest(key, file));
+                }
+            }
+            amazonS3.putObject(newPutRequest(key, new File(dump, TOC_FILE)));
+            logger.debug(String.format("Uploaded dump %s", key));
+        } catch (Exception e) {
+            logger.warn(String.format("Could not upload dump %s", key), e);
+        }
+    }
+
+    private boolean download(String key) {
+        String prefix = cacheConfiguration.getPrefix() + key + "/";
+        File partial = new File(directory, PARTIAL_PREFIX + UUID.randomUUID());
+        try {
+            List<S3ObjectSummary> objects = new ArrayList<>();
+            ObjectListing listing = amazonS3.listObjects(cacheConfiguration.getBucket(), prefix);
+            objects.addAll(listing.getObjectSummaries());
+            while (listing.isTruncated()) {
+                listing = amazonS3.listNextBatchOfObjects(listing);
+                objects.addAll(listing.getObjectSummaries());
+            }
+            if (objects.stream().noneMatch(o -> o.getKey().equals(prefix + TOC_FILE))) {
+                return false;
+            }
+
+            Files.createDirectories(partial.toPath());
+            long bytes = 0;
+            for (S3ObjectSummary object : objects) {
+                amazonS3.getObject(new GetObjectRequest(cacheConfiguration.getBucket(),
+                        object.getKey()), new File(partial, object.getKey().substring(prefix.length())));
+                bytes += object.getSize();
+            }
+            synchronized (this) {
+                if (!entries.containsKey(key)) {
+                    Files.move(partial.toPath(), new File(directory, key).toPath(),
+                            StandardCopyOption.ATOMIC_MOVE);
+                    entries.put(key, new Entry(bytes));
+                    cachedBytes += bytes;
+                }
+            }
+            logger.info(String.format("Downloaded dump %s of %d bytes", key, bytes));
+        } catch (Exception e) {
+            logger.warn(String.format("Could not download dump %s", key), e);
+            return false;
+        } finally {
+            deleteDirectory(partial);
+        }
+        evict();
+        return true;
+    }
+
+    private PutObjectRequest newPutRequest(String key, File file) {
+        PutObjectRequest request = new PutObjectRequest(cacheConfiguration.getBucket(),
+                getObjectKey(key, file), file);
+        if (StringUtils.isEmpty(cacheConfiguration.getKmsKeyId())) {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+            request.setMetadata(metadata);
+        } else {
+            request.setSSEAwsKeyManagementParams(
+                    new SSEAwsKeyManagementParams(cacheConfiguration.getKmsKeyId()));
+        }
+        return request;
+    }
+
+    private String getObjectKey(String key, File file) {
+        return cacheConfiguration.getPrefix() + key + "/" + file.getName();
+    }
+
+    private long getSize(File dump) {
+        try (Stream<Path> paths = Files.walk(dump.toPath())) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length())
+                    .sum();
+        } catch (IOException e) {
+            logger.warn(String.format("Could not measure dump %s", dump), e);
+            return 0;
+        }
+    }
+
+    private void deleteDirectory(File dump) {
+        if (!dump.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dump.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            logger.error(String.format("Could not delete dump %s", dump), e);
+        }
+    }
+
+    private static class Entry {
+
+        private final long bytes;
+        private int leases;
+
+        private Entry(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A cached dump in use, it stays on disk until closed.
+     */
+    public class Lease implements AutoCloseable {
+
+        private final String key;
+        private final File directory;
+        private final long bytes;
+        private boolean closed;
+
+        private Lease(String key, File directory, long bytes) {
+            this.key = key;
+            this.directory = directory;
+            this.bytes = bytes;
+        }
+
+        public File getDirectory() {
+            return directory;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(key);
+                evict();
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.jivesoftware.data.resources.entities.Database;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Optional;
+
+/**
+ * Opens the sources a same host clone closed to new sessions and never opened again, because the
+ * node cloning them died in between.
+ *
+ * Every fence is recorded before its source is closed and removed once it is open again, so on
+ * start whatever is still recorded is opened. Opening the source of a copy another node is still
+ * making can at worst fail that copy, which then falls back to the usual clone.
+ */
+@Singleton
+public class FencedDatabaseRecovery implements Managed {
+
+    private final static Logger logger = LoggerFactory.getLogger(FencedDatabaseRecovery.class);
+
+    private static final String FENCE_SEPARATOR = "/";
+
+    private final DatabaseDAO databaseDAO;
+    private final DatabaseIDHelper databaseIDHelper;
+    private final InstanceManager instanceManager;
+    private final SchemaManager schemaManager;
+    private final PasswordManager passwordManager;
+
+    @Inject
+    public FencedDatabaseRecovery(DatabaseDAO databaseDAO,
+                                  DatabaseIDHelper databaseIDHelper,
+                                  InstanceManager instanceManager,
+                                  SchemaManager schemaManager,
+                                  PasswordManager passwordManager) {
+        this.databaseDAO = databaseDAO;
+        this.databaseIDHelper = databaseIDHelper;
+        this.instanceManager = instanceManager;
+        this.schemaManager = schemaManager;
+        this.passwordManager = passwordManager;
+    }
+
+    /**
+     * @return the fence a clone of the source into the target records
+     */
+    static String getFence(String sourceDatabaseId, String targetDatabaseId) {
+        return sourceDatabaseId + FENCE_SEPARATOR + targetDatabaseId;
+    }
+
+    @Override
+    public void start() throws Exception {
+        try {
+            for (String fence : databaseDAO.getFences()) {
+                open(fence);
+            }
+        } catch (Exception e) {
+            logger.error("Error reading the fenced databases", e);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+    }
+
+    void open(String fence) {
+        String sourceDatabaseId = fence.substring(0, fence.indexOf(FENCE_SEPARATOR));
+        try {
+            Optional<DatabaseInfo> databaseInfo = databaseDAO.getDatabaseInfo(sourceDatabaseId);
+            if (databaseInfo.isPresent()) {
+                Optional<DBInstance> dbInstance = instanceManager.getDBInstance(
+                        databaseIDHelper.getDBInstanceId(databaseInfo.get().getInstanceId()));
+                if (!dbInstance.isPresent()) {
+                    logger.warn(String.format("DBInstance not found for fenced database %s",
+                            sourceDatabaseId));
+                    return;
+                }
+                Database database = databaseInfo.get().getDatabase();
+                logger.warn(String.format("Opening %s to new sessions, a clone left it closed",
+                        database.getSchema()));
+                schemaManager.allowConnections(getMasterDatabase(dbInstance.get()),
+                        database.getSchema());
+            }
+            databaseDAO.removeFence(fence);
+        } catch (Exception e) {
+            logger.error(String.format("Error opening fenced database %s", sourceDatabaseId), e);
+        }
+    }
+
+    private MasterDatabase getMasterDatabase(DBInstance host) {
+        String password = passwordManager.getInstance(databaseIDHelper.getDatabaseInstanceId(host))
+                .get().getPassword();
+        return new MasterDatabase(host.getEndpoint().getAddress(),
+                host.getMasterUsername(), password, host.getEndpoint().getPort(), host.getDBName());
+    }
+}
@@ -0,0 +1,342 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.DatabaseDeletionException;
+import com.jivesoftware.data.exceptions.SchemaOperationException;
+import com.jivesoftware.data.resources.entities.Database;
+import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
+import com.jivesoftware.data.resources.entities.HardDeleteProgress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Drops the schemas and instances of databases deleted longer than the hard delete delay ago,
+ * then removes their records.
+ *
+ * A pass reads the deleted databases a page at a time and splits each page by host. A host gets
+ * at most hostConcurrency lanes, each dropping its databases one after the other, so one host
+ * with many deletions can't take every worker. All lanes share a single rate limit.
+ *
+ * Each record is removed as soon as its database is dropped, which makes the deleted index the
+ * checkpoint. A pass that stops halfway leaves the remaining records for the next one.
+ *
+ * Every node runs the reaper, but a pass only goes ahead on the node holding the hard delete
+ * lease. The lease is renewed after each page and outlasts the interval, so the node that reaped
+ * last keeps the job until it stops reaping. A pass skipped for the lease says so in its progress.
+ */
+@Singleton
+public class HardDeleteReaper extends AbstractScheduledService {
+
+    private final static Logger logger = LoggerFactory.getLogger(HardDeleteReaper.class);
+
+    private static final String NO_HOST = "";
+
+    private final DBaaSConfiguration.HardDeleteConfiguration hardDeleteConfiguration;
+    private final DatabaseDAO databaseDAO;
+    private final DatabaseIDHelper databaseIDHelper;
+    private final InstanceManager instanceManager;
+    private final SchemaManager schemaManager;
+    private final PasswordManager passwordManager;
+    private final RateLimiter rateLimiter;
+    private final ScheduledExecutorService passExecutor;
+    private final ExecutorService laneExecutor;
+    private final String leaseHolder = UUID.randomUUID().toString();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong reaped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile Long startedAt;
+    private volatile Long finishedAt;
+    private volatile boolean leaseHeldElsewhere;
+    private final Timer passTimer;
+    private final Meter reapedMeter;
+    private final Meter failedMeter;
+
+    @Inject
+    public HardDeleteReaper(DBaaSConfiguration dBaaSConfiguration,
+                            DatabaseDAO databaseDAO,
+                            DatabaseIDHelper databaseIDHelper,
+                            InstanceManager instanceManager,
+                            SchemaManager schemaManager,
+                            PasswordManager passwordManager,
+                            MetricRegistry metricRegistry) {
+        this.hardDeleteConfiguration = dBaaSConfiguration.getHardDelete();
+        this.databaseDAO = databaseDAO;
+        this.databaseIDHelper = databaseIDHelper;
+        this.instanceManager = instanceManager;
+        this.schemaManager = schemaManager;
+        this.passwordManager = passwordManager;
+        this.rateLimiter = RateLimiter.create(hardDeleteConfiguration.getDeletesPerSecond());
+        this.passExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("hard-delete-pass-%d")
+                .setDaemon(true)
+                .build());
+        this.laneExecutor = Executors.newFixedThreadPool(hardDeleteConfiguration.getThreads(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("hard-delete-lane-%d")
+                        .setDaemon(true)
+                        .build());
+        this.passTimer = metricRegistry.timer(name(HardDeleteReaper.class, "pass"));
+        this.reapedMeter = metricRegistry.meter(name(HardDeleteReaper.class, "reaped"));
+        this.failedMeter = metricRegistry.meter(name(HardDeleteReaper.class, "failed"));
+        metricRegistry.register(name(HardDeleteReaper.class, "running"),
+                (Gauge<Boolean>) running::get);
+    }
+
+    @Override
+    protected void runOneIteration() throws Exception {
+        reap();
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(hardDeleteConfiguration.getIntervalSeconds(),
+                hardDeleteConfiguration.getIntervalSeconds(), TimeUnit.SECONDS);
+    }
+
+    @Override
+    protected ScheduledExecutorService executor() {
+        return passExecutor;
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        laneExecutor.shutdownNow();
+        passExecutor.shutdown();
+    }
+
+    /**
+     * Starts a pass now, next to the scheduled ones. The lease is taken before returning, so a
+     * pass skipped because another node holds it already reads as such in the progress.
+     *
+     * @return false if a pass is running already
+     */
+    public boolean trigger() {
+        if (!start()) {
+            return false;
+        }
+        boolean leased;
+        try {
+            leased = takeLease();
+        } catch (RuntimeException e) {
+            finish();
+            throw e;
+        }
+        if (!leased) {
+            finish();
+            return true;
+        }
+        passExecutor.execute(this::runPass);
+        return true;
+    }
+
+    public HardDeleteProgress getProgress() {
+        return new HardDeleteProgress(running.get(), startedAt, finishedAt, pages.get(),
+                reaped.get(), failed.get(), leaseHeldElsewhere);
+    }
+
+    void reap() {
+        if (start()) {
+            runPass();
+        }
+    }
+
+    /**
+     * Marks a pass as running and resets its progress, before it is handed to the pass thread so
+     * the progress of a triggered pass reads as running straight away.
+     *
+     * @return false if a pass is running already
+     */
+    private boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        startedAt = System.currentTimeMillis();
+        finishedAt = null;
+        leaseHeldElsewhere = false;
+        pages.set(0);
+        reaped.set(0);
+        failed.set(0);
+        return true;
+    }
+
+    private void runPass() {
+        final Timer.Context context = passTimer.time();
+        try {
+            if (!takeLease()) {
+                return;
+            }
+            // every database on a host shares its instance, look it up once per pass
+            Map<String, Optional<DBInstance>> instances = new ConcurrentHashMap<>();
+            for (List<Database> page : databaseDAO.getDeletedDatabasePages()) {
+                reapPage(page, instances);
+                pages.incrementAndGet();
+                if (!tryLease()) {
+                    logger.warn("Lost the hard delete lease, leaving the rest to its holder");
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Error reading the databases to hard delete", e);
+        } finally {
+            context.stop();
+            finish();
+        }
+        if (!leaseHeldElsewhere) {
+            logger.info(String.format("Hard delete pass reaped %d databases, %d failed",
+                    reaped.get(), failed.get()));
+        }
+    }
+
+    private void finish() {
+        finishedAt = System.currentTimeMillis();
+        running.set(false);
+    }
+
+    /**
+     * Takes or renews the lease for the pass starting, recording in its progress if another node
+     * holds it.
+     */
+    private boolean takeLease() {
+        if (tryLease()) {
+            return true;
+        }
+        logger.info("Another node holds the hard delete lease, skipping the pass");
+        leaseHeldElsewhere = true;
+        return false;
+    }
+
+    private boolean tryLease() {
+        return databaseDAO.tryHardDeleteLease(leaseHolder,
+                2L * hardDeleteConfiguration.getIntervalSeconds());
+    }
+
+    private void reapPage(List<Database> page, Map<String, Optional<DBInstance>> instances)
+            throws InterruptedException {
+
+        Map<String, List<Database>> byHost = new LinkedHashMap<>();
+        for (Database deleted : page) {
+            String host = deleted.getHost() == null ? NO_HOST : deleted.getHost();
+            byHost.computeIfAbsent(host, h -> new ArrayList<>()).add(deleted);
+        }
+
+        List<Future<?>> lanes = new ArrayList<>();
+        for (List<Database> hostDatabases : byHost.values()) {
+            int laneCount = Math.min(hardDeleteConfiguration.getHostConcurrency(),
+                    hostDatabases.size());
+            for (int lane = 0; lane < laneCount; lane++) {
+                List<Database> laneDatabases = new ArrayList<>();
+                for (int i = lane; i < hostDatabases.size(); i += laneCount) {
+                    laneDatabases.add(hostDatabases.get(i));
+                }
+                lanes.add(laneExecutor.submit(() -> {
+                    for (Database deleted : laneDatabases) {
+                        reap(deleted, instances);
+                    }
+                }));
+            }
+        }
+
+        for (Future<?> lane : lanes) {
+            try {
+                lane.get();
+            } catch (ExecutionException e) {
+                logger.error("Hard delete lane failed", e.getCause());
+            }
+        }
+    }
+
+    void reap(Database deleteDB, Map<String, Optional<DBInstance>> instances) {
+        rateLimiter.acquire();
+        try {
+            logger.debug(String.format("Hard deleting %s", deleteDB.getId()));
+
+            Optional<DatabaseInfo> databaseInfoOptional = databaseDAO.getDatabaseInfo(
+                    deleteDB.getId());
+            if (databaseInfoOptional.isPresent()) {
+                DatabaseInfo databaseInfo = databaseInfoOptional.get();
+
+                Optional<DBInstance> dbInstanceOptional = instances.computeIfAbsent(
+                        databaseInfo.getInstanceId(), instanceId -> instanceManager.getDBInstance(
+                                databaseIDHelper.getDBInstanceId(instanceId)));
+                if(dbInstanceOptional.isPresent()) {
+                    if(databaseInfo.getTenancyType() ==
+                            DatabaseCreationRequest.TenancyType.DEDICATED) {
+                        logger.debug(String.format("Attempting to delete instance with " +
+                                "instanceId %s", databaseInfo.getInstanceId()));
+                        instanceManager.deleteInstance(databaseInfo.getInstanceId());
+                    }
+                    else {
+                        Database database = databaseInfo.getDatabase();
+                        MasterDatabase masterDatabase = getMasterDatabase(dbInstanceOptional.get());
+                        if(schemaManager.isSchemaExists(masterDatabase, deleteDB.getSchema())){
+                            schemaManager.hardDeleteSchema(masterDatabase,
+                                    database.getUser(), database.getSchema());
+                            logger.warn(String.format("Schema %s deleted on instance %s",
+                                    database.getSchema(), database.getId()));
+                        } else {
+                            logger.warn(String.format("Schema %s not found on instance %s",
+                                    database.getSchema(), database.getId()));
+                        }
+                    }
+                } else {
+                    logger.warn(String.format("DBInstance not found for %s",
+                            databaseInfo.getInstanceId()));
+                }
+            }
+            databaseDAO.deleteDatabaseRecord(deleteDB.getId());
+            reaped.incrementAndGet();
+            reapedMeter.mark();
+            return;
+        } catch (SchemaOperationException soe) {
+            logger.error(String.format("Error performing SQL to delete database %s",
+                    deleteDB.getId()));
+        } catch (DatabaseDeletionException dde) {
+            logger.error(String.format("Error deleting dedicated instance- %s", dde));
+        }
+        catch (Exception e) {
+            logger.error(String.format("Error deleting database %s. Host: %s, User: %s, " +
+                            "Schema: %s", deleteDB.getId(), deleteDB.getHost(),
+                    deleteDB.getUser(), deleteDB.getSchema()));
+        }
+        failed.incrementAndGet();
+        failedMeter.mark();
+    }
+
+    MasterDatabase getMasterDatabase(DBInstance host) {
+        String password = passwordManager.getInstance(databaseIDHelper.getDatabaseInstanceId(host))
+                .get().getPassword();
+        return new MasterDatabase(host.getEndpoint().getAddress(),
+                host.getMasterUsername(), password, host.getEndpoint().getPort(), host.getDBName());
+    }
+}
@@ -18,16 +18,22 @@ public class InstanceCreationProcessor implements CreateCommandProcessor {
     private final InstanceManager instanceManager;
     private final DatabaseDAO databaseDAO;
     private final DBaaSConfiguration dBaaSConfiguration;
+    private final WarmInstancePool warmInstancePool;
+    private final StorageCloneManager storageCloneManager;
 
     @Inject
     public InstanceCreationProcessor(DatabaseIDHelper databaseIDHelper,
                                      InstanceManager instanceManager,
                                      DatabaseDAO databaseDAO,
-                                     DBaaSConfiguration dBaaSConfiguration){
+                                     DBaaSConfiguration dBaaSConfiguration,
+                                     WarmInstancePool warmInstancePool,
+                                     StorageCloneManager storageCloneManager){
         this.databaseIDHelper = databaseIDHelper;
         this.instanceManager = instanceManager;
         this.databaseDAO = databaseDAO;
         this.dBaaSConfiguration = dBaaSConfiguration;
+        this.warmInstancePool = warmInstancePool;
+        this.storageCloneManager = storageCloneManager;
     }
 
     @Override
@@ -55,20 +61,30 @@ public class InstanceCreationProcessor implements CreateCommandProcessor {
         }
 
         try {
-            String realId = getRealId(databaseIDHelper.getDBInstanceId(databaseId));
-            DBInstance dbInstance = instanceManager.createDedicatedInstance(realId, password,
-                    databaseCreationRequest.getServiceTag(),
-                    databaseCreationRequest.getServiceComponentTag(),
-                    instanceClass, instanceStorage);
-            databaseDAO.putDatabase(databaseId,
-                    databaseIDHelper.getDatabaseInstanceId(dbInstance),
-                    new Database(databaseId,
-                            dbInstance.getMasterUsername(),
-                            "pending",
-                            -1,
-                            dbInstance.getDBName()), databaseCreationRequest.getDataLocality(),
-                    databaseCreationRequest.getTenancyType(),
-                    databaseCreationRequest.getServiceTag());
+            DBInstance dbInstance;
+            if (storageCloneManager.isStorageClone(databaseCreationRequest)) {
+                dbInstance = storageCloneManager.restoreInstance(
+                        getRealId(databaseIDHelper.getDBInstanceId(databaseId)), instanceClass,
+                        databaseCreationRequest);
+                putPendingDatabase(databaseId, dbInstance, databaseCreationRequest);
+                return Optional.of(CreationStep.INSTANCE_READY);
+            }
+
+            // a warm instance is already up, the ready step only waits for its new password
+            Optional<DBInstance> warmInstance = warmInstancePool.claim(databaseId, instanceClass,
+                    instanceStorage, databaseCreationRequest.getServiceTag(),
+                    databaseCreationRequest.getServiceComponentTag(), password);
+            if (warmInstance.isPresent()) {
+                dbInstance = warmInstance.get();
+            }
+            else {
+                String realId = getRealId(databaseIDHelper.getDBInstanceId(databaseId));
+                dbInstance = instanceManager.createDedicatedInstance(realId, password,
+                        databaseCreationRequest.getServiceTag(),
+                        databaseCreationRequest.getServiceComponentTag(),
+                        instanceClass, instanceStorage);
+            }
+            putPendingDatabase(databaseId, dbInstance, databaseCreationRequest);
         } catch (Exception e) {
             logger.error(String.format("Error creating instance %s", databaseId), e);
             throw new InstanceCreationException(e.getMessage());
@@ -77,6 +93,19 @@ public class InstanceCreationProcessor implements CreateCommandProcessor {
         return Optional.of(CreationStep.INSTANCE_READY);
     }
 
+    private void putPendingDatabase(String databaseId, DBInstance dbInstance,
+                                    DatabaseCreationRequest databaseCreationRequest) {
+        databaseDAO.putDatabase(databaseId,
+                databaseIDHelper.getDatabaseInstanceId(dbInstance),
+                new Database(databaseId,
+                        dbInstance.getMasterUsername(),
+                        "pending",
+                        -1,
+                        dbInstance.getDBName()), databaseCreationRequest.getDataLocality(),
+                databaseCreationRequest.getTenancyType(),
+                databaseCreationRequest.getServiceTag());
+    }
+
     private String getRealId(String dbInstanceId){
         return dbInstanceId.replace("_", "-");
     }
@@ -1,11 +1,6 @@
 package com.jivesoftware.data.impl;
 
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.services.cloudwatch.AmazonCloudWatchClient;
-import com.amazonaws.services.cloudwatch.model.Datapoint;
-import com.amazonaws.services.cloudwatch.model.Dimension;
-import com.amazonaws.services.cloudwatch.model.GetMetricStatisticsRequest;
-import com.amazonaws.services.cloudwatch.model.GetMetricStatisticsResult;
 import com.amazonaws.services.rds.AmazonRDSClient;
 import com.amazonaws.services.rds.model.*;
 import com.codahale.metrics.MetricRegistry;
@@ -15,6 +10,8 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.*;
+import com.jivesoftware.data.impl.metrics.InstanceMetrics;
+import com.jivesoftware.data.impl.metrics.InstanceMetricsClient;
 import com.jivesoftware.data.resources.entities.Instance;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -25,6 +22,7 @@ import javax.validation.constraints.NotNull;
 import java.util.*;
 
 import static com.codahale.metrics.MetricRegistry.name;
+import static java.util.stream.Collectors.toList;
 
 public class InstanceManager {
 
@@ -34,8 +32,6 @@ public class InstanceManager {
     private static final String MANAGED_BY_SERVICE_COMPONENT_TAG_KEY = "managed_by_service";
     private static final String DEFAULT_TAG_KEY = "default_by_service";
     private static final String MAKO_ENVIRONMENT = "mako-environment";
-    //private static final String CONNECTIONS_STATISTICS_NAME = "DatabaseConnections";
-    private static final String CPU_STATISTICS_NAME = "CPUUtilization";
     private static final String SSD_STORAGE = "gp2";
     private static final String RDS_UNITS = "GB";
     private static final Set<String> READY_RDS_STATUS_SET = ImmutableSet.of("available",
@@ -45,7 +41,8 @@ public class InstanceManager {
             ("db.t2.micro", "db.t2.small", "db.t2.medium");
 
     private final static Logger logger = LoggerFactory.getLogger(InstanceManager.class);
-    private final AmazonCloudWatchClient amazonCloudWatchClient;
+    private final InstanceMetricsClient instanceMetricsClient;
+    private final InstanceTagCache instanceTagCache;
     private final DBaaSConfiguration dBaaSConfiguration;
     private final AmazonRDSClient rdsClient;
     private final Timer findDefaultInstanceTimer;
@@ -54,10 +51,12 @@ public class InstanceManager {
     public InstanceManager(AmazonRDSClient rdsClient,
                            DBaaSConfiguration dBaaSConfiguration,
                            MetricRegistry metricRegistry,
-                           AmazonCloudWatchClient amazonCloudWatchClient) {
+                           InstanceMetricsClient instanceMetricsClient,
+                           InstanceTagCache instanceTagCache) {
         this.dBaaSConfiguration = dBaaSConfiguration;
         this.rdsClient = rdsClient;
-        this.amazonCloudWatchClient = amazonCloudWatchClient;
+        this.instanceMetricsClient = instanceMetricsClient;
+        this.instanceTagCache = instanceTagCache;
         this.findDefaultInstanceTimer = metricRegistry.timer(name(InstanceManager.class,"findLeastCPUInstance"));
     }
 
@@ -90,6 +89,24 @@ public class InstanceManager {
                 Optional.of(serviceComponentTag));
     }
 
+    /**
+     * Creates a dedicated instance nobody has asked for yet, tagged as this service's own until a
+     * create claims it.
+     */
+    public DBInstance createWarmInstance(@NotNull String instanceId,
+                                         @NotNull String masterPassword,
+                                         @NotNull String instanceClass,
+                                         @NotNull Integer instanceStorage) {
+        return createInstance(instanceId,
+                Optional.empty(),
+                masterPassword,
+                instanceClass,
+                instanceStorage,
+                Optional.empty(),
+                false,
+                Optional.empty(),
+                Optional.empty());
+    }
 
     private DBInstance createInstance(@NotNull String instanceId,
                                       @NotNull Optional<String> masterUser,
@@ -126,13 +143,8 @@ public class InstanceManager {
                 createDBInstanceRequest = createDBInstanceRequest.withStorageEncrypted(true);
             }
 
-            if ("data-dbaas-ms-pipeline-group".equals(instanceTemplate.getSubnetGroup())) {
-                createDBInstanceRequest.withMonitoringRoleArn("arn:aws:iam::811034720611:role/dbaas-emaccess-role");
-            } else if ("data-dbaas-ms-prod-group".equals(instanceTemplate.getSubnetGroup())) {
-                createDBInstanceRequest.withMonitoringRoleArn("arn:aws:iam::663559125979:role/dbaas-emaccess-role");
-            } else {
-                createDBInstanceRequest.withMonitoringRoleArn("arn:aws:iam::072535113705:role/dbaas-emaccess");
-            }
+            createDBInstanceRequest.withMonitoringRoleArn(
+                    getMonitoringRoleArn(instanceTemplate.getSubnetGroup()));
 
             if (!StringUtils.isEmpty(instanceTemplate.getSubnetGroup())) {
                 logger.debug(String.format("Setting subnet group to %s for instance %s",
@@ -169,6 +181,88 @@ public class InstanceManager {
         return dbInstance;
     }
 
+    /**
+     * Restores a new instance from the latest restorable point of a dedicated instance, so it
+     * comes up with a copy of all the source's data at the cost of an instance startup.
+     *
+     * The copy keeps the source's master password and storage, and security group and enhanced
+     * monitoring are only applied once it is available, see {@link #modifyRestoredInstance}.
+     */
+    public DBInstance restoreInstanceToPointInTime(@NotNull String sourceInstanceId,
+                                                   @NotNull String instanceId,
+                                                   @NotNull String instanceClass,
+                                                   @NotNull String serviceTag,
+                                                   @NotNull String serviceComponentTag) {
+        DBInstance dbInstance;
+
+        DBaaSConfiguration.InstanceTemplate instanceTemplate =
+                dBaaSConfiguration.getInstanceTemplate();
+        try {
+            RestoreDBInstanceToPointInTimeRequest restoreRequest =
+                    new RestoreDBInstanceToPointInTimeRequest()
+                            .withSourceDBInstanceIdentifier(sourceInstanceId)
+                            .withTargetDBInstanceIdentifier(instanceId)
+                            .withUseLatestRestorableTime(true)
+                            .withDBInstanceClass(instanceClass)
+                            .withMultiAZ(instanceTemplate.isMultiAZ())
+                            .withPubliclyAccessible(instanceTemplate.isPubliclyAccessible())
+                            .withTags(getTags(serviceTag, serviceComponentTag, false))
+                            .withPort(instanceTemplate.getPort())
+                            .withStorageType(SSD_STORAGE);
+
+            if (!StringUtils.isEmpty(instanceTemplate.getSubnetGroup())) {
+                restoreRequest = restoreRequest.withDBSubnetGroupName(
+                        instanceTemplate.getSubnetGroup());
+            }
+            logger.debug(String.format("Restoring %s from %s", instanceId, sourceInstanceId));
+            dbInstance = rdsClient.restoreDBInstanceToPointInTime(restoreRequest);
+            logger.debug(String.format("Restored %s", dbInstance.getDBInstanceIdentifier()));
+        } catch (Exception e) {
+            logger.error(String.format(
+                    "Error in the RDS client restore of %s from %s", instanceId, sourceInstanceId));
+            throw new InstanceCreationException(e.getMessage());
+        }
+
+        return dbInstance;
+    }
+
+    /**
+     * Gives a restored instance its own master password along with the template's security group
+     * and enhanced monitoring, none of which a restore takes.
+     */
+    public void modifyRestoredInstance(DBInstance dbInstance, String password) {
+        DBaaSConfiguration.InstanceTemplate instanceTemplate =
+                dBaaSConfiguration.getInstanceTemplate();
+        ModifyDBInstanceRequest modifyDBInstanceRequest =
+                new ModifyDBInstanceRequest()
+                        .withDBInstanceIdentifier(dbInstance.getDBInstanceIdentifier())
+                        .withMasterUserPassword(password)
+                        .withMonitoringInterval(dBaaSConfiguration.getEnhancedMetricsTiming())
+                        .withMonitoringRoleArn(getMonitoringRoleArn(instanceTemplate.getSubnetGroup()))
+                        .withApplyImmediately(true);
+        if (!StringUtils.isEmpty(instanceTemplate.getSecurityGroup())) {
+            modifyDBInstanceRequest = modifyDBInstanceRequest.withVpcSecurityGroupIds(
+                    ImmutableList.of(instanceTemplate.getSecurityGroup()));
+        }
+        try {
+            rdsClient.modifyDBInstance(modifyDBInstanceRequest);
+        } catch (Exception e) {
+            throw new InstanceCreationException(String.format("Error modifying restored " +
+                    "instance %s.  Cause- %s", dbInstance.getDBInstanceIdentifier(),
+                    e.getMessage()));
+        }
+    }
+
+    private String getMonitoringRoleArn(String subnetGroup) {
+        if ("data-dbaas-ms-pipeline-group".equals(subnetGroup)) {
+            return "arn:aws:iam::811034720611:role/dbaas-emaccess-role";
+        } else if ("data-dbaas-ms-prod-group".equals(subnetGroup)) {
+            return "arn:aws:iam::663559125979:role/dbaas-emaccess-role";
+        } else {
+            return "arn:aws:iam::072535113705:role/dbaas-emaccess";
+        }
+    }
+
     public boolean isReady(DBInstance dbInstance) {
         return READY_RDS_STATUS_SET.contains(dbInstance.getDBInstanceStatus());
     }
@@ -177,6 +271,14 @@ public class InstanceManager {
         return "available".equals(dbInstance.getDBInstanceStatus());
     }
 
+    /**
+     * @return whether a master password change has been requested but not applied yet
+     */
+    public boolean isMasterPasswordPending(DBInstance dbInstance) {
+        return dbInstance.getPendingModifiedValues() != null
+                && dbInstance.getPendingModifiedValues().getMasterUserPassword() != null;
+    }
+
     public Optional<DBInstance> findSharedInstance() {
 
         final Timer.Context context = findDefaultInstanceTimer.time();
@@ -185,50 +287,82 @@ public class InstanceManager {
             double leastCPU =  Double.MAX_VALUE;
             Optional<DBInstance> bestInstanceId = Optional.empty();
             double currentCPU;
-            //int currentConnections;
-            DescribeDBInstancesRequest request = new DescribeDBInstancesRequest();
-            DescribeDBInstancesResult result;
-
-            do{
-                result = rdsClient.describeDBInstances(request);
-
-                for (DBInstance dbInstance : result.getDBInstances()) {
-
-                    //Need to limit shared instance search to appropriate color of deploy
-                    if(!dbInstance.getDBInstanceIdentifier()
-                            .contains(dBaaSConfiguration.getSharedInstanceDeployColor())){
-                        logger.debug(String.format("%s deemed not an appropriate shared instance for " +
-                                "current deploy use", dbInstance.getDBInstanceIdentifier()));
-                        continue;
-                    }
-                    logger.debug(String.format("%s determined to be an appropriate instance for " +
-                            "shared databases this deploy", dbInstance.getDBInstanceIdentifier()));
-
-                    List<Tag> tags = getInstanceTags(dbInstance);
-
-                    Optional<String> managerTag = tags.stream().filter(t ->
-                            t.getKey().equals(DEFAULT_TAG_KEY)).map(Tag::getValue).findFirst();
-
-                    if (isReady(dbInstance) && managerTag.isPresent() &&
-                            managerTag.get().equals(dBaaSConfiguration.getManagedServiceTag())) {
-                        currentCPU = requestStat(dbInstance.getDBInstanceIdentifier(),
-                                CPU_STATISTICS_NAME).orElse(0d).intValue();
-                        if (currentCPU < leastCPU) {
-                            bestInstanceId = Optional.of(dbInstance);
-                            leastCPU = currentCPU;
-                        }
-                    }
 
+            List<DBInstance> readyInstances = describeDeployColorInstances().stream()
+                    .filter(this::isReady).collect(toList());
+            Map<String, List<Tag>> tags = getTagsByInstance(readyInstances);
+
+            List<DBInstance> candidates = new ArrayList<>();
+            for (DBInstance dbInstance : readyInstances) {
+                if (isSharedDefault(tags.getOrDefault(dbInstance.getDBInstanceIdentifier(),
+                        ImmutableList.of()))) {
+                    candidates.add(dbInstance);
                 }
+            }
 
-                request.setMarker(result.getMarker());
-            } while(result.getMarker() != null);
+            Map<String, InstanceMetrics> metrics = getInstanceMetrics(candidates);
+            for (DBInstance candidate : candidates) {
+                currentCPU = metrics.getOrDefault(candidate.getDBInstanceIdentifier(),
+                        InstanceMetrics.EMPTY).getCpuMaximum().orElse(0d).intValue();
+                if (currentCPU < leastCPU) {
+                    bestInstanceId = Optional.of(candidate);
+                    leastCPU = currentCPU;
+                }
+            }
             return bestInstanceId;
         } finally {
             context.stop();
         }
     }
 
+    /**
+     * Pages through every RDS instance and keeps the ones belonging to the current deploy color,
+     * i.e. the instances that may hold shared schemas for this deploy.
+     */
+    public List<DBInstance> describeDeployColorInstances() {
+
+        List<DBInstance> instances = new ArrayList<>();
+        DescribeDBInstancesRequest request = new DescribeDBInstancesRequest();
+        DescribeDBInstancesResult result;
+
+        do{
+            result = rdsClient.describeDBInstances(request);
+
+            for (DBInstance dbInstance : result.getDBInstances()) {
+
+                //Need to limit shared instance search to appropriate color of deploy
+                if(!dbInstance.getDBInstanceIdentifier()
+                        .contains(dBaaSConfiguration.getSharedInstanceDeployColor())){
+                    logger.debug(String.format("%s deemed not an appropriate shared instance for " +
+                            "current deploy use", dbInstance.getDBInstanceIdentifier()));
+                    continue;
+                }
+                logger.debug(String.format("%s determined to be an appropriate instance for " +
+                        "shared databases this deploy", dbInstance.getDBInstanceIdentifier()));
+                instances.add(dbInstance);
+            }
+
+            request.setMarker(result.getMarker());
+        } while(result.getMarker() != null);
+
+        return instances;
+    }
+
+    public boolean isSharedDefault(List<Tag> tags) {
+        Optional<String> managerTag = tags.stream().filter(t ->
+                t.getKey().equals(DEFAULT_TAG_KEY)).map(Tag::getValue).findFirst();
+        return managerTag.isPresent() &&
+                managerTag.get().equals(dBaaSConfiguration.getManagedServiceTag());
+    }
+
+    /**
+     * Fetches recent CloudWatch statistics for all the given instances in one batch.
+     */
+    public Map<String, InstanceMetrics> getInstanceMetrics(Collection<DBInstance> dbInstances) {
+        return instanceMetricsClient.fetchMetrics(dbInstances.stream()
+                .map(DBInstance::getDBInstanceIdentifier).collect(toList()));
+    }
+
     public Optional<DBInstance> getDBInstance(String instanceId) {
 
         DescribeDBInstancesRequest describeDBInstancesRequest = new DescribeDBInstancesRequest()
@@ -283,37 +417,62 @@ public class InstanceManager {
         }
     }
 
-    private Optional<Double> requestStat(final String instanceId, final String metric) {
-        final long twoHrs = 1000 * 60 * 60 * 2;
-        final int oneHour = 60 * 60;
-        GetMetricStatisticsRequest request = new GetMetricStatisticsRequest()
-                .withStartTime(new Date(new Date().getTime() - twoHrs))
-                .withNamespace("AWS/RDS")
-                .withPeriod(oneHour)
-                .withDimensions(new Dimension().withName("DBInstanceIdentifier")
-                        .withValue(instanceId))
-                .withMetricName(metric)
-                .withStatistics("Average", "Maximum")
-                .withEndTime(new Date());
-        GetMetricStatisticsResult result = amazonCloudWatchClient.getMetricStatistics(request);
-        return result.getDatapoints().stream().map(Datapoint::getMaximum).max(Double::compare);
+    /**
+     * Replaces the service and component tags of the instance, used when a warm instance is handed
+     * out to a service.
+     */
+    public void retagInstance(DBInstance dbInstance, String serviceTag, String componentTag) {
+        AddTagsToResourceRequest request = new AddTagsToResourceRequest()
+                .withResourceName(generateArn(dbInstance))
+                .withTags(getTags(serviceTag, componentTag, false));
+        try {
+            rdsClient.addTagsToResource(request);
+        } catch (Exception e) {
+            throw new InstanceCreationException(String.format("Error tagging instance %s for %s. " +
+                    "Cause- %s", dbInstance.getDBInstanceIdentifier(), serviceTag, e.getMessage()));
+        }
+        instanceTagCache.invalidate(generateArn(dbInstance));
+    }
+
+    public List<Tag> getInstanceTags(DBInstance dbInstance) {
+        return getTagsByInstance(ImmutableList.of(dbInstance)).getOrDefault(
+                dbInstance.getDBInstanceIdentifier(), ImmutableList.of());
     }
 
-    private List<Tag> getInstanceTags(DBInstance dbInstance) {
+    /**
+     * Looks up the tags of all the instances at once, from the tag cache or concurrently from RDS.
+     *
+     * @return tags keyed by instance identifier, instances whose lookup failed or timed out are
+     * left out
+     */
+    public Map<String, List<Tag>> getTagsByInstance(Collection<DBInstance> dbInstances) {
+
+        Map<String, String> identifiers = new HashMap<>();
+        for (DBInstance dbInstance : dbInstances) {
+            identifiers.put(generateArn(dbInstance), dbInstance.getDBInstanceIdentifier());
+        }
+
+        Map<String, List<Tag>> tags = new HashMap<>();
+        for (Map.Entry<String, List<Tag>> instanceTags :
+                instanceTagCache.getTags(identifiers.keySet(), this::fetchInstanceTags).entrySet()) {
+            tags.put(identifiers.get(instanceTags.getKey()), instanceTags.getValue());
+        }
+        return tags;
+    }
 
+    private List<Tag> fetchInstanceTags(String arn) {
         try {
-            String arn = generateArn(dbInstance);
             ListTagsForResourceResult tagsList
                     = rdsClient.listTagsForResource(new ListTagsForResourceRequest()
                     .withResourceName(arn));
             return tagsList.getTagList();
         } catch (AmazonServiceException e) {
-            if (!e.getErrorCode().equals("AccessDenied")) {
-                logger.error(String.format("Error getting tags for instance %s",
-                        dbInstance.getDBInstanceIdentifier()), e);
+            // instances of other services may not be readable by us, treat them as untagged
+            if ("AccessDenied".equals(e.getErrorCode())) {
+                return ImmutableList.of();
             }
+            throw e;
         }
-        return ImmutableList.of();
     }
 
     private ImmutableSet<Tag> getTags(String serviceTag, String componentTag, boolean isDefault) {
@@ -360,6 +519,7 @@ public class InstanceManager {
                     .withResourceName(generateArn(defaultInstance))
                     .withTagKeys(keys);
             rdsClient.removeTagsFromResource(removeRequest);
+            instanceTagCache.invalidate(generateArn(defaultInstance));
         }
 
         Set<Tag> toUpdate = new HashSet<>(configTags);
@@ -371,6 +531,7 @@ public class InstanceManager {
                     .withResourceName(generateArn(defaultInstance))
                     .withTags(configTags);
             rdsClient.addTagsToResource(request);
+            instanceTagCache.invalidate(generateArn(defaultInstance));
         }
 
     }
@@ -0,0 +1,141 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.Tag;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jivesoftware.data.DBaaSConfiguration;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Caches RDS instance tags by ARN and looks up the missing ones concurrently on a bounded pool.
+ *
+ * Every lookup is given the configured call timeout. Lookups that time out or fail are left out
+ * of the result and are not cached, so callers get whatever could be read and the next call tries
+ * the missing ones again.
+ */
+@Singleton
+public class InstanceTagCache implements Managed {
+
+    private final static Logger logger = LoggerFactory.getLogger(InstanceTagCache.class);
+
+    private final Cache<String, List<Tag>> tags;
+    private final ExecutorService executor;
+    private final int threads;
+    private final long callTimeoutMillis;
+    private final Timer lookupTimer;
+    private final Meter hitMeter;
+    private final Meter missMeter;
+    private final Meter timeoutMeter;
+    private final Meter failureMeter;
+
+    @Inject
+    public InstanceTagCache(DBaaSConfiguration dBaaSConfiguration, MetricRegistry metricRegistry) {
+        DBaaSConfiguration.InstanceTagsConfiguration tagsConfiguration =
+                dBaaSConfiguration.getInstanceTags();
+        this.threads = tagsConfiguration.getThreads();
+        this.callTimeoutMillis = tagsConfiguration.getCallTimeoutMillis();
+        this.tags = CacheBuilder.newBuilder()
+                .expireAfterWrite(tagsConfiguration.getTtlSeconds(), TimeUnit.SECONDS)
+                .maximumSize(tagsConfiguration.getMaximumSize())
+                .build();
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("instance-tags-%d")
+                .setDaemon(true)
+                .build());
+        this.lookupTimer = metricRegistry.timer(name(InstanceTagCache.class, "lookup"));
+        this.hitMeter = metricRegistry.meter(name(InstanceTagCache.class, "hits"));
+        this.missMeter = metricRegistry.meter(name(InstanceTagCache.class, "misses"));
+        this.timeoutMeter = metricRegistry.meter(name(InstanceTagCache.class, "timeouts"));
+        this.failureMeter = metricRegistry.meter(name(InstanceTagCache.class, "failures"));
+    }
+
+    /**
+     * @param arns resource names of the instances
+     * @param loader reads the tags of a single ARN from RDS
+     * @return tags keyed by ARN, without the ARNs whose lookup timed out or failed
+     */
+    public Map<String, List<Tag>> getTags(Collection<String> arns,
+                                          Function<String, List<Tag>> loader) {
+
+        Map<String, List<Tag>> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String arn : arns) {
+            List<Tag> cached = tags.getIfPresent(arn);
+            if (cached != null) {
+                hitMeter.mark();
+                found.put(arn, cached);
+            } else {
+                missMeter.mark();
+                missing.add(arn);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return found;
+        }
+
+        List<Callable<List<Tag>>> lookups = new ArrayList<>();
+        for (String arn : missing) {
+            lookups.add(() -> loader.apply(arn));
+        }
+
+        // lookups beyond the pool size queue up, give each wave of the pool a full call timeout
+        long waves = (missing.size() + threads - 1) / threads;
+        List<Future<List<Tag>>> results;
+        final Timer.Context context = lookupTimer.time();
+        try {
+            results = executor.invokeAll(lookups, callTimeoutMillis * waves, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return found;
+        } finally {
+            context.stop();
+        }
+
+        for (int i = 0; i < missing.size(); i++) {
+            String arn = missing.get(i);
+            try {
+                List<Tag> instanceTags = results.get(i).get();
+                tags.put(arn, instanceTags);
+                found.put(arn, instanceTags);
+            } catch (CancellationException e) {
+                timeoutMeter.mark();
+                logger.warn(String.format("Timed out getting tags for %s", arn));
+            } catch (ExecutionException e) {
+                failureMeter.mark();
+                logger.error(String.format("Error getting tags for %s", arn), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return found;
+            }
+        }
+        return found;
+    }
+
+    public void invalidate(String arn) {
+        tags.invalidate(arn);
+    }
+
+    @Override
+    public void start() throws Exception {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        executor.shutdownNow();
+    }
+}
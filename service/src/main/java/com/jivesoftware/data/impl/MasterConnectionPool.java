@@ -0,0 +1,204 @@
+package com.jivesoftware.data.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jivesoftware.data.DBaaSConfiguration;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.validation.constraints.NotNull;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Keeps a small pool of connections to the master database of every host SchemaManager works on,
+ * so schema operations don't pay for a new TLS and auth handshake each time.
+ *
+ * Pools are keyed by host, port, user and database. Connections are validated before they are
+ * handed out and closed once idle for a while. The password given with each call replaces the
+ * one the pool holds, so rotated master passwords are picked up by the next connection opened.
+ * A host's pool left unused for a while, as that of a deleted instance, is closed along with its
+ * gauges.
+ */
+@Singleton
+public class MasterConnectionPool implements Managed {
+
+    private final static Logger logger = LoggerFactory.getLogger(MasterConnectionPool.class);
+
+    private static final String DRIVER = "org.postgresql.Driver";
+    private static final String VALIDATION_QUERY = "SELECT 1";
+    // postgres invalid_password
+    private static final String INVALID_PASSWORD = "28P01";
+
+    private final DBaaSConfiguration.ConnectionPoolConfiguration poolConfiguration;
+    private final MetricRegistry metricRegistry;
+    private final Map<String, HostPool> pools = new ConcurrentHashMap<>();
+    private final Timer borrowTimer;
+    private final Meter authFailureMeter;
+    private final ScheduledExecutorService evictor;
+
+    @Inject
+    public MasterConnectionPool(DBaaSConfiguration dBaaSConfiguration,
+                                MetricRegistry metricRegistry) {
+        this.poolConfiguration = dBaaSConfiguration.getConnectionPool();
+        this.metricRegistry = metricRegistry;
+        this.borrowTimer = metricRegistry.timer(name(MasterConnectionPool.class, "borrow"));
+        this.authFailureMeter = metricRegistry.meter(name(MasterConnectionPool.class,
+                "authFailures"));
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("master-pool-evictor-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public void start() throws Exception {
+        long interval = poolConfiguration.getEvictionIntervalSeconds();
+        evictor.scheduleWithFixedDelay(() -> evictUnused(System.currentTimeMillis()), interval,
+                interval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        evictor.shutdownNow();
+        for (HostPool pool : pools.values()) {
+            pool.dataSource.close(true);
+        }
+        pools.clear();
+    }
+
+    /**
+     * @return a pooled connection to the master database, closing it hands it back to the pool
+     */
+    public Connection getConnection(@NotNull MasterDatabase database) throws SQLException {
+        // marked used in the same step it is looked up, so it can't be evicted in between
+        HostPool pool = pools.compute(poolKey(database), (key, existing) -> {
+            HostPool hostPool = existing != null ? existing : newPool(key, database);
+            hostPool.lastUsed = System.currentTimeMillis();
+            return hostPool;
+        });
+        pool.usePassword(database.getPassword());
+
+        final Timer.Context context = borrowTimer.time();
+        try {
+            return pool.dataSource.getConnection();
+        } catch (SQLException e) {
+            if (INVALID_PASSWORD.equals(e.getSQLState())) {
+                // drop whatever was opened with the old password, the next caller brings a new one
+                authFailureMeter.mark();
+                pool.dataSource.purge();
+            }
+            throw e;
+        } finally {
+            context.stop();
+        }
+    }
+
+    /**
+     * Closes the pools not used since longer than unusedPoolEvictSeconds before now and with no
+     * connection handed out.
+     */
+    void evictUnused(long now) {
+        long cutoff = now - TimeUnit.SECONDS.toMillis(poolConfiguration.getUnusedPoolEvictSeconds());
+        List<HostPool> evicted = new ArrayList<>();
+        for (String key : pools.keySet()) {
+            pools.computeIfPresent(key, (k, pool) -> {
+                if (pool.lastUsed >= cutoff || pool.dataSource.getActive() > 0) {
+                    return pool;
+                }
+                evicted.add(pool);
+                return null;
+            });
+        }
+        for (HostPool pool : evicted) {
+            String key = pool.dataSource.getPoolProperties().getName();
+            logger.debug(String.format("Closing unused connection pool for %s", key));
+            pool.dataSource.close(true);
+            metricRegistry.remove(name(MasterConnectionPool.class, key, "active"));
+            metricRegistry.remove(name(MasterConnectionPool.class, key, "idle"));
+            metricRegistry.remove(name(MasterConnectionPool.class, key, "waiting"));
+        }
+    }
+
+    DataSource getDataSource(MasterDatabase database) {
+        HostPool pool = pools.get(poolKey(database));
+        return pool == null ? null : pool.dataSource;
+    }
+
+    private String poolKey(MasterDatabase database) {
+        return String.format("%s@%s:%d/%s", database.getUsername(), database.getHost(),
+                database.getPort(), database.getSchema());
+    }
+
+    private HostPool newPool(String key, MasterDatabase database) {
+        PoolProperties properties = new PoolProperties();
+        properties.setName(key);
+        properties.setUrl(SchemaManager.connectionUrl(database, database.getSchema()));
+        properties.setDriverClassName(DRIVER);
+        properties.setUsername(database.getUsername());
+        properties.setPassword(database.getPassword());
+        properties.setInitialSize(0);
+        properties.setMinIdle(0);
+        properties.setMaxActive(poolConfiguration.getMaxPerHost());
+        properties.setMaxIdle(poolConfiguration.getMaxIdlePerHost());
+        properties.setMaxWait(poolConfiguration.getMaxWaitMillis());
+        properties.setTestOnBorrow(true);
+        properties.setTestWhileIdle(true);
+        properties.setValidationQuery(VALIDATION_QUERY);
+        properties.setValidationInterval(TimeUnit.SECONDS.toMillis(
+                poolConfiguration.getValidationIntervalSeconds()));
+        properties.setMinEvictableIdleTimeMillis((int) TimeUnit.SECONDS.toMillis(
+                poolConfiguration.getIdleEvictSeconds()));
+        properties.setTimeBetweenEvictionRunsMillis((int) TimeUnit.SECONDS.toMillis(
+                poolConfiguration.getEvictionIntervalSeconds()));
+        properties.setJmxEnabled(false);
+
+        DataSource dataSource = new DataSource(properties);
+        metricRegistry.register(name(MasterConnectionPool.class, key, "active"),
+                (Gauge<Integer>) dataSource::getActive);
+        metricRegistry.register(name(MasterConnectionPool.class, key, "idle"),
+                (Gauge<Integer>) dataSource::getIdle);
+        metricRegistry.register(name(MasterConnectionPool.class, key, "waiting"),
+                (Gauge<Integer>) dataSource::getWaitCount);
+
+        logger.debug(String.format("Created connection pool for %s", key));
+        return new HostPool(dataSource, database.getPassword());
+    }
+
+    private static class HostPool {
+
+        private final DataSource dataSource;
+        private String password;
+        private volatile long lastUsed;
+
+        private HostPool(DataSource dataSource, String password) {
+            this.dataSource = dataSource;
+            this.password = password;
+        }
+
+        private synchronized void usePassword(String current) {
+            if (current != null && !current.equals(password)) {
+                // open sessions stay valid, only new connections need the new password
+                logger.info(String.format("Master password changed for %s",
+                        dataSource.getPoolProperties().getName()));
+                dataSource.setPassword(current);
+                password = current;
+            }
+        }
+    }
+}
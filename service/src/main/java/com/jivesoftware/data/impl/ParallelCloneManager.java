@@ -0,0 +1,351 @@
+package com.jivesoftware.data.impl;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.CloneException;
+import com.jivesoftware.data.exceptions.SchemaOperationException;
+import com.jivesoftware.data.resources.entities.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Clones a schema by dumping it into a directory archive on local scratch space and restoring it
+ * from there, both with as many jobs as the smaller of the two instances has cores.
+ *
+ * The archive can't be larger than the source schema on disk, so that much scratch space is held
+ * for the length of the clone. A clone that doesn't fit next to the others running on this node
+ * goes through the single threaded pipe instead, which needs no scratch space.
+ *
+ * With the dump cache enabled, a source that hasn't changed since its last dump is restored from
+ * that dump without being dumped again, and every new dump is handed to the cache once restored.
+ *
+ * With fan-out, clones of a source that is already being dumped on this node wait for that dump
+ * and restore from it too, so a bulk clone reads the source once. The archive stays until the
+ * last of them is restored. The dump they join predates their own requests, so they can miss
+ * writes made to the source in between, which is why fan-out is off unless configured.
+ */
+@Singleton
+public class ParallelCloneManager {
+
+    private final static Logger logger = LoggerFactory.getLogger(ParallelCloneManager.class);
+
+    private final CloneManager cloneManager;
+    private final SchemaManager schemaManager;
+    private final DumpCache dumpCache;
+    private final DBaaSConfiguration dBaaSConfiguration;
+    private final DBaaSConfiguration.CloneConfiguration cloneConfiguration;
+    private final Timer totalTimer;
+    private final Meter scratchFallbackMeter;
+    private final Meter fanOutMeter;
+    // keyed by source, only while the dump is running
+    private final Map<String, SharedDump> dumpsInProgress = new HashMap<>();
+    private long reservedBytes;
+
+    @Inject
+    public ParallelCloneManager(CloneManager cloneManager,
+                                SchemaManager schemaManager,
+                                DumpCache dumpCache,
+                                DBaaSConfiguration dBaaSConfiguration,
+                                MetricRegistry metricRegistry) {
+        this.cloneManager = cloneManager;
+        this.schemaManager = schemaManager;
+        this.dumpCache = dumpCache;
+        this.dBaaSConfiguration = dBaaSConfiguration;
+        this.cloneConfiguration = dBaaSConfiguration.getCloneConfiguration();
+        this.totalTimer = metricRegistry.timer(name(CloneManager.class, "cloneCommand", "total"));
+        this.scratchFallbackMeter = metricRegistry.meter(
+                name(ParallelCloneManager.class, "scratchFallback"));
+        this.fanOutMeter = metricRegistry.meter(name(ParallelCloneManager.class, "fanOut"));
+    }
+
+    protected void clone(MasterDatabase sourceDatabase, String sourceSchema,
+                         String sourceInstanceClass, Database targetDatabase,
+                         String targetPassword, String targetInstanceClass)
+            throws CloneException {
+
+        Optional<String> cacheKey = getCacheKey(sourceDatabase, sourceSchema);
+        if (cacheKey.isPresent()) {
+            Optional<DumpCache.Lease> cachedDump = dumpCache.acquire(cacheKey.get());
+            if (cachedDump.isPresent()) {
+                restoreCached(sourceDatabase, sourceSchema, sourceInstanceClass, targetDatabase,
+                        targetPassword, targetInstanceClass, cachedDump.get());
+                return;
+            }
+        }
+
+        String source = String.format("%s:%d/%s", sourceDatabase.getHost(),
+                sourceDatabase.getPort(), sourceSchema);
+        SharedDump sharedDump;
+        boolean dumping;
+        synchronized (this) {
+            sharedDump = dumpsInProgress.get(source);
+            dumping = sharedDump == null;
+            if (dumping) {
+                sharedDump = new SharedDump(cacheKey);
+                if (cloneConfiguration.getFanOut()) {
+                    dumpsInProgress.put(source, sharedDump);
+                }
+            } else {
+                fanOutMeter.mark();
+            }
+            sharedDump.clones++;
+        }
+
+        final Timer.Context context = totalTimer.time();
+        try {
+            if (dumping) {
+                try {
+                    dump(sharedDump, sourceDatabase, sourceSchema, sourceInstanceClass,
+                            targetDatabase, targetPassword, targetInstanceClass);
+                } finally {
+                    synchronized (this) {
+                        dumpsInProgress.remove(source, sharedDump);
+                    }
+                    sharedDump.done.countDown();
+                }
+            } else {
+                logger.info(String.format("Waiting for the running dump of %s of %s to clone it " +
+                        "into %s", sourceSchema, sourceDatabase.getHost(),
+                        targetDatabase.getSchema()));
+                awaitDump(sharedDump);
+            }
+
+            File directory = sharedDump.directory;
+            if (directory == null) {
+                // no scratch space for the dump, or the one waited for failed
+                cloneManager.clone(sourceDatabase, sourceSchema, targetDatabase, targetPassword);
+            } else {
+                int jobs = getJobs(sourceInstanceClass, targetInstanceClass);
+                logger.info(String.format("Restoring %s of %s into %s of %s with %d jobs from %s",
+                        sourceSchema, sourceDatabase.getHost(), targetDatabase.getSchema(),
+                        targetDatabase.getHost(), jobs, directory));
+                cloneManager.restoreDirectory(sourceDatabase, sourceSchema, targetDatabase,
+                        targetPassword, directory.getPath(), jobs);
+                sharedDump.restored = true;
+            }
+        } finally {
+            context.stop();
+            leave(sharedDump);
+        }
+    }
+
+    private void dump(SharedDump sharedDump, MasterDatabase sourceDatabase, String sourceSchema,
+                      String sourceInstanceClass, Database targetDatabase,
+                      String targetPassword, String targetInstanceClass) throws CloneException {
+
+        long estimate = schemaManager.getSchemaSize(sourceDatabase, sourceSchema);
+        File scratch = new File(cloneConfiguration.getScratchDirectory());
+        if (!reserveScratch(scratch, estimate)) {
+            scratchFallbackMeter.mark();
+            logger.warn(String.format("Not enough scratch space to clone %s (%d bytes) in " +
+                    "parallel, cloning it through a pipe", sourceSchema, estimate));
+            return;
+        }
+
+        int jobs = getJobs(sourceInstanceClass, targetInstanceClass);
+        File directory = new File(scratch, targetDatabase.getSchema() + "-" + UUID.randomUUID());
+        logger.info(String.format("Dumping %s of %s with %d jobs into %s", sourceSchema,
+                sourceDatabase.getHost(), jobs, directory));
+
+        boolean dumped = false;
+        try {
+            cloneManager.dumpDirectory(sourceDatabase, sourceSchema, targetDatabase,
+                    targetPassword, directory.getPath(), jobs);
+            dumped = true;
+        } finally {
+            if (dumped) {
+                sharedDump.reservedBytes = estimate;
+                sharedDump.directory = directory;
+            } else {
+                deleteDirectory(directory);
+                releaseScratch(estimate);
+            }
+        }
+    }
+
+    private void awaitDump(SharedDump sharedDump) throws CloneException {
+        try {
+            if (!sharedDump.done.await(cloneConfiguration.getExecutionTimeout(),
+                    TimeUnit.MILLISECONDS)) {
+                logger.warn("Gave up waiting for a running dump, cloning through a pipe");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloneException("Interrupted waiting for a running dump");
+        }
+    }
+
+    /**
+     * The last clone done with a dump hands it to the cache, or deletes it if none of them could
+     * restore it.
+     */
+    private void leave(SharedDump sharedDump) {
+        synchronized (this) {
+            if (--sharedDump.clones > 0) {
+                return;
+            }
+        }
+        File directory = sharedDump.directory;
+        if (directory != null) {
+            boolean cached = sharedDump.restored && sharedDump.cacheKey.isPresent()
+                    && dumpCache.put(sharedDump.cacheKey.get(), directory);
+            if (!cached) {
+                deleteDirectory(directory);
+            }
+            releaseScratch(sharedDump.reservedBytes);
+        }
+    }
+
+    private void restoreCached(MasterDatabase sourceDatabase, String sourceSchema,
+                               String sourceInstanceClass, Database targetDatabase,
+                               String targetPassword, String targetInstanceClass,
+                               DumpCache.Lease cachedDump) throws CloneException {
+        int jobs = getJobs(sourceInstanceClass, targetInstanceClass);
+        logger.info(String.format("Restoring %s of %s into %s of %s with %d jobs from cached " +
+                "dump %s", sourceSchema, sourceDatabase.getHost(), targetDatabase.getSchema(),
+                targetDatabase.getHost(), jobs, cachedDump.getDirectory()));
+
+        final Timer.Context context = totalTimer.time();
+        try (DumpCache.Lease lease = cachedDump) {
+            cloneManager.restoreDirectory(sourceDatabase, sourceSchema, targetDatabase,
+                    targetPassword, lease.getDirectory().getPath(), jobs);
+        } finally {
+            context.stop();
+        }
+    }
+
+    // the cache only saves time, a source whose marker can't be read is dumped as usual
+    private Optional<String> getCacheKey(MasterDatabase sourceDatabase, String sourceSchema) {
+        if (!dumpCache.isEnabled()) {
+            return Optional.empty();
+        }
+        try {
+            String changeMarker = schemaManager.getChangeMarker(sourceDatabase, sourceSchema);
+            return Optional.of(dumpCache.getKey(sourceDatabase, sourceSchema, changeMarker,
+                    cloneConfiguration.getParallelDumpCommand()));
+        } catch (SchemaOperationException e) {
+            logger.warn(String.format("Not caching the dump of %s", sourceSchema), e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * One job per core of the smaller instance, as every job is a backend on the source and on
+     * the target.
+     */
+    int getJobs(String sourceInstanceClass, String targetInstanceClass) {
+        int cores = Math.min(getCores(sourceInstanceClass), getCores(targetInstanceClass));
+        return Math.max(1, Math.min(cores, cloneConfiguration.getMaxJobs()));
+    }
+
+    private int getCores(String instanceClass) {
+        if (instanceClass != null) {
+            String configuredClass = instanceClass.startsWith("db.")
+                    ? instanceClass.substring(3) : instanceClass;
+            for (DBaaSConfiguration.InstanceType instanceType : dBaaSConfiguration.getInstanceTypes()) {
+                if (configuredClass.equals(instanceType.getInstanceClass())) {
+                    return instanceType.getTotalCores();
+                }
+            }
+        }
+        logger.warn(String.format("No cores configured for instance class %s", instanceClass));
+        return 1;
+    }
+
+    synchronized boolean reserveScratch(File scratch, long bytes) {
+        try {
+            Files.createDirectories(scratch.toPath());
+        } catch (IOException e) {
+            logger.error(String.format("Could not create scratch directory %s", scratch), e);
+            return false;
+        }
+        if (reservedBytes == 0) {
+            // nothing is running, anything left was cut short by a restart
+            deleteContents(scratch);
+        }
+        if (reservedBytes + bytes > cloneConfiguration.getScratchQuotaBytes() ||
+                reservedBytes + bytes > getUsableSpace(scratch)) {
+            return false;
+        }
+        reservedBytes += bytes;
+        return true;
+    }
+
+    synchronized void releaseScratch(long bytes) {
+        reservedBytes -= bytes;
+    }
+
+    synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    // what running clones have written already is part of their reservation, so it is added back
+    long getUsableSpace(File scratch) {
+        return scratch.getUsableSpace() + getUsedSpace(scratch);
+    }
+
+    private long getUsedSpace(File scratch) {
+        try (Stream<Path> paths = Files.walk(scratch.toPath())) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length())
+                    .sum();
+        } catch (IOException e) {
+            logger.warn(String.format("Could not measure scratch directory %s", scratch), e);
+            return 0;
+        }
+    }
+
+    private void deleteContents(File scratch) {
+        File[] leftovers = scratch.listFiles();
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                logger.info(String.format("Removing leftover clone scratch %s", leftover));
+                deleteDirectory(leftover);
+            }
+        }
+    }
+
+    private void deleteDirectory(File directory) {
+        if (!directory.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            logger.error(String.format("Could not clean up scratch directory %s", directory), e);
+        }
+    }
+
+    private static class SharedDump {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final Optional<String> cacheKey;
+        // only set once the dump is complete
+        private volatile File directory;
+        private volatile boolean restored;
+        private long reservedBytes;
+        private int clones;
+
+        private SharedDump(Optional<String> cacheKey) {
+            this.cacheKey = cacheKey;
+        }
+    }
+}
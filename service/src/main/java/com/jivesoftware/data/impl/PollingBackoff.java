@@ -0,0 +1,42 @@
+package com.jivesoftware.data.impl;
+
+import com.jivesoftware.data.DBaaSConfiguration;
+
+/**
+ * Delays for checking again on a step that is still waiting on RDS, such as an instance that is
+ * still being created. The delay grows exponentially from the initial delay up to the configured
+ * cap, and a step still waiting after the maximum attempts is given up on.
+ */
+public class PollingBackoff {
+
+    // SQS refuses a DelaySeconds above 15 minutes
+    static final int MAX_SQS_DELAY_SECONDS = 900;
+
+    private final DBaaSConfiguration.PollingBackoffConfiguration configuration;
+
+    public PollingBackoff(DBaaSConfiguration.PollingBackoffConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * @param attempt how many times in a row the step came back not done yet, starting at 1
+     * @return seconds to hold the next check back for
+     */
+    public int getDelaySeconds(int attempt) {
+        if (attempt <= 0) {
+            return 0;
+        }
+        double delay = configuration.getInitialDelaySeconds()
+                * Math.pow(configuration.getMultiplier(), attempt - 1);
+        return (int) Math.min(delay,
+                Math.min(configuration.getMaxDelaySeconds(), MAX_SQS_DELAY_SECONDS));
+    }
+
+    public boolean isExhausted(int attempt) {
+        return attempt > configuration.getMaxAttempts();
+    }
+
+    public int getMaxAttempts() {
+        return configuration.getMaxAttempts();
+    }
+}
@@ -16,14 +16,20 @@ public class ReadyProcessor implements CreateCommandProcessor {
     private final InstanceManager instanceManager;
     private final DatabaseDAO databaseDAO;
     private final DatabaseIDHelper databaseIDHelper;
+    private final StorageCloneManager storageCloneManager;
+    private final SchemaManager schemaManager;
 
     @Inject
     public ReadyProcessor(InstanceManager instanceManager,
                           DatabaseDAO databaseDAO,
-                          DatabaseIDHelper databaseIDHelper){
+                          DatabaseIDHelper databaseIDHelper,
+                          StorageCloneManager storageCloneManager,
+                          SchemaManager schemaManager){
         this.instanceManager = instanceManager;
         this.databaseDAO = databaseDAO;
         this.databaseIDHelper = databaseIDHelper;
+        this.storageCloneManager = storageCloneManager;
+        this.schemaManager = schemaManager;
     }
 
     @Override
@@ -39,7 +45,19 @@ public class ReadyProcessor implements CreateCommandProcessor {
                             databaseIDHelper.getDBInstanceId(instanceIdOptional.get().getInstanceId()));
             if (dbInstanceOptional.isPresent()) {
                 DBInstance dbInstance = dbInstanceOptional.get();
-                if (instanceManager.isReady(dbInstance)) {
+                // a claimed warm instance is available before its new master password applies
+                if (instanceManager.isReady(dbInstance)
+                        && !instanceManager.isMasterPasswordPending(dbInstance)) {
+
+                    boolean storageClone = storageCloneManager.isStorageClone(databaseCreationRequest);
+                    // RDS can take a moment to list the password change after it was asked for
+                    if (!storageClone && !schemaManager.acceptsPassword(new MasterDatabase(
+                            dbInstance.getEndpoint().getAddress(), dbInstance.getMasterUsername(),
+                            password, dbInstance.getEndpoint().getPort(), "postgres"))) {
+                        logger.debug(String.format("Instance of %s still has its old password",
+                                databaseId));
+                        return Optional.of(CreationStep.INSTANCE_READY);
+                    }
 
                     databaseDAO.putDatabase(databaseId,
                             databaseIDHelper.getDatabaseInstanceId(dbInstance),
@@ -51,6 +69,11 @@ public class ReadyProcessor implements CreateCommandProcessor {
                             databaseCreationRequest.getDataLocality(),
                             databaseCreationRequest.getTenancyType(),
                             databaseCreationRequest.getServiceTag());
+                    // a restored instance already holds the schema, under the source's name
+                    if (storageClone) {
+                        instanceManager.modifyRestoredInstance(dbInstance, password);
+                        return Optional.of(CreationStep.CREDENTIALS);
+                    }
                     return Optional.of(CreationStep.SCHEMA);
                 }
                 else {
@@ -2,6 +2,7 @@ package com.jivesoftware.data.impl;
 
 import com.amazonaws.services.rds.model.DBInstance;
 import com.jivesoftware.data.exceptions.SchemaOperationException;
+import com.jivesoftware.data.impl.placement.PlacementStrategy;
 import com.jivesoftware.data.resources.entities.Database;
 import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
 import org.slf4j.Logger;
@@ -14,6 +15,8 @@ public class SchemaCreationProcessor implements CreateCommandProcessor {
 
     private final static Logger logger = LoggerFactory.getLogger(SchemaCreationProcessor.class);
     private final InstanceManager instanceManager;
+    private final SharedInstanceIndex sharedInstanceIndex;
+    private final PlacementStrategy placementStrategy;
     private final DatabaseDAO databaseDAO;
     private final DatabaseIDHelper databaseIDHelper;
     private final SchemaManager schemaManager;
@@ -24,8 +27,12 @@ public class SchemaCreationProcessor implements CreateCommandProcessor {
                                    DatabaseDAO databaseDAO,
                                    DatabaseIDHelper databaseIDHelper,
                                    SchemaManager schemaManager,
-                                   PasswordManager passwordManager){
+                                   PasswordManager passwordManager,
+                                   SharedInstanceIndex sharedInstanceIndex,
+                                   PlacementStrategy placementStrategy){
         this.instanceManager = instanceManager;
+        this.sharedInstanceIndex = sharedInstanceIndex;
+        this.placementStrategy = placementStrategy;
         this.databaseDAO = databaseDAO;
         this.databaseIDHelper = databaseIDHelper;
         this.schemaManager = schemaManager;
@@ -44,7 +51,7 @@ public class SchemaCreationProcessor implements CreateCommandProcessor {
         Optional<DBInstance> dbInstance = Optional.empty();
         if (databaseCreationRequest.getTenancyType() == DatabaseCreationRequest.TenancyType.SHARED) {
             logger.debug("Creating schema on shared instance");
-            dbInstance = instanceManager.findSharedInstance();
+            dbInstance = sharedInstanceIndex.findSharedInstance(placementStrategy);
             if (dbInstance.isPresent()) {
                 host = dbInstance.get().getEndpoint().getAddress();
                 targetMasterDatabase = getMasterDatabase(dbInstance.get());
@@ -67,7 +74,9 @@ public class SchemaCreationProcessor implements CreateCommandProcessor {
 
         if (dbInstance.isPresent()) {
             try {
-                schemaManager.createSchema(targetMasterDatabase, schemaName, user, password);
+                schemaManager.createSchema(targetMasterDatabase, schemaName, user, password,
+                        databaseCreationRequest.getTenancyType() ==
+                                DatabaseCreationRequest.TenancyType.SHARED);
                 Database database = new Database(databaseId,
                         user,
                         host,
@@ -79,6 +88,10 @@ public class SchemaCreationProcessor implements CreateCommandProcessor {
                         databaseCreationRequest.getDataLocality(),
                         databaseCreationRequest.getTenancyType(),
                         databaseCreationRequest.getServiceTag());
+                if (databaseCreationRequest.getTenancyType() ==
+                        DatabaseCreationRequest.TenancyType.SHARED) {
+                    sharedInstanceIndex.recordPlacement(dbInstance.get().getDBInstanceIdentifier());
+                }
                 logger.debug("Schema step completed");
             } catch (Exception e) {
                 logger.error(String.format("Error creating schema %s", databaseId), e);
@@ -1,12 +1,17 @@
 package com.jivesoftware.data.impl;
 
+import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.SchemaOperationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
 import javax.validation.constraints.NotNull;
 import java.sql.*;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SchemaManager {
     private final static Logger logger = LoggerFactory.getLogger(SchemaManager.class);
@@ -20,9 +25,42 @@ public class SchemaManager {
     private static final String ALTER_PERMS_SQL = "ALTER DEFAULT PRIVILEGES FOR ROLE %s GRANT SELECT ON TABLES TO %s;";
     private static final String CHECK_SCHEMA_EXISTS =
             "SELECT EXISTS(SELECT datname FROM pg_database WHERE datname = '%s')";
+    private static final String SCHEMA_SIZE_SQL = "SELECT pg_database_size('%s')";
+    // row changes only, reads and the dumps themselves commit transactions too
+    private static final String CHANGE_MARKER_SQL = "SELECT tup_inserted, tup_updated, " +
+            "tup_deleted, stats_reset, pg_postmaster_start_time() FROM pg_stat_database " +
+            "WHERE datname = '%s'";
     private static final String DROP_DATABASE_SQL = "DROP DATABASE %s;";
     private static final String DROP_USER_SQL = "DROP USER %s;";
     private static final String CREATE_EXTENSION = "CREATE EXTENSION IF NOT EXISTS %s;";
+    private static final String CREATE_USER_WITH_PASSWORD_SQL = "CREATE USER %s CREATEDB PASSWORD '%s';";
+    private static final String CREATE_DATABASE_FROM_TEMPLATE_SQL =
+            "CREATE DATABASE %s TEMPLATE %s OWNER = %s;";
+    private static final String TEMPLATE_VERSION_SQL =
+            "SELECT shobj_description(oid, 'pg_database') FROM pg_database WHERE datname = '%s'";
+    private static final String CREATE_TEMPLATE_SQL = "CREATE DATABASE %s;";
+    private static final String DROP_TEMPLATE_SQL = "DROP DATABASE IF EXISTS %s;";
+    private static final String VERSION_TEMPLATE_SQL = "COMMENT ON DATABASE %s IS '%s';";
+    private static final String LOCK_TEMPLATE_SQL = "SELECT pg_advisory_lock(%d)";
+    private static final String UNLOCK_TEMPLATE_SQL = "SELECT pg_advisory_unlock(%d)";
+    // serializes template rebuilds of all nodes on an instance
+    private static final long TEMPLATE_LOCK_KEY = 4207151L;
+    // bump when the way the template is built changes
+    private static final String TEMPLATE_FORMAT = "dbaas-template-1";
+    private static final String DROP_CLONE_SQL = "DROP DATABASE IF EXISTS %s;";
+    private static final String ALLOW_CONNECTIONS_SQL = "ALTER DATABASE %s ALLOW_CONNECTIONS %s;";
+    // only sessions of roles the master belongs to can be ended, any other one fails the copy
+    private static final String TERMINATE_SESSIONS_SQL = "SELECT pg_terminate_backend(pid) " +
+            "FROM pg_stat_activity WHERE datname = '%s' AND pid <> pg_backend_pid() " +
+            "AND pg_has_role(usesysid, 'MEMBER')";
+    private static final String RENAME_DATABASE_SQL = "ALTER DATABASE %s RENAME TO %s;";
+    private static final String REASSIGN_OWNED_SQL = "REASSIGN OWNED BY %s TO %s;";
+    private static final String DROP_OWNED_SQL = "DROP OWNED BY %s;";
+    private static final String DATABASE_OWNER_SQL = "ALTER DATABASE %s OWNER TO %s;";
+    private static final String CLONE_SUFFIX = "_clone";
+    private static final String RENAME_USER_SQL = "ALTER USER %s RENAME TO %s;";
+    // postgres invalid_password
+    private static final String INVALID_PASSWORD = "28P01";
     private static final String CREATE_MQ_USER_SQL =    "DO\n" +
                                                         "$$\n" +
                                                         "BEGIN\n" +
@@ -38,11 +76,51 @@ public class SchemaManager {
                                                         "   END IF;\n" +
                                                         "END\n" +
                                                         "$$;";
+    // the source's mq2user credentials come along with a restored instance
+    private static final String DISABLE_MQ_USER_SQL =   "DO\n" +
+                                                        "$$\n" +
+                                                        "BEGIN\n" +
+                                                        "   IF EXISTS (\n" +
+                                                        "      SELECT *\n" +
+                                                        "      FROM   pg_catalog.pg_roles\n" +
+                                                        "      WHERE  rolname = 'mq2user') THEN\n" +
+                                                        "      ALTER ROLE mq2user NOLOGIN PASSWORD NULL;\n" +
+                                                        "   END IF;\n" +
+                                                        "END\n" +
+                                                        "$$;";
 
+    private final MasterConnectionPool masterConnectionPool;
+    private final DBaaSConfiguration.SchemaTemplateConfiguration templateConfiguration;
+    private final List<String> extensions;
+    private final String templateVersion;
+    // template version last seen or built on each host
+    private final Map<String, String> templateVersions = new ConcurrentHashMap<>();
+
+    @Inject
+    public SchemaManager(MasterConnectionPool masterConnectionPool,
+                         DBaaSConfiguration dBaaSConfiguration) {
+        this.masterConnectionPool = masterConnectionPool;
+        this.templateConfiguration = dBaaSConfiguration.getSchemaTemplate();
+        this.extensions = templateConfiguration.getExtensions();
+        this.templateVersion = TEMPLATE_FORMAT + ":" + String.join(",", extensions);
+    }
+
+    /**
+     * @param sharedInstance whether the host is a shared instance. Only those are given a template,
+     *                       a dedicated instance gets a single schema and would only build it for
+     *                       that one copy.
+     */
     public void createSchema(@NotNull MasterDatabase masterDatabase,
                              @NotNull String schemaName,
                              @NotNull String schemaUser,
-                             @NotNull String schemaPassword) {
+                             @NotNull String schemaPassword,
+                             boolean sharedInstance) {
+        if (sharedInstance && templateConfiguration.getEnabled()
+                && isTemplateReady(masterDatabase)
+                && createSchemaFromTemplate(masterDatabase, schemaName, schemaUser, schemaPassword)) {
+            return;
+        }
+
         try (Connection connection = getConnection(masterDatabase, masterDatabase.getSchema());
              Statement statement = connection.createStatement()) {
             logger.debug(String.format("Creating %s on %s owned by %s",
@@ -62,11 +140,9 @@ public class SchemaManager {
         try (Connection connectionToNew = getConnection(masterDatabase, schemaName);
              Statement statement = connectionToNew.createStatement()) {
             logger.debug(String.format("Attempting to add extensions for %s", schemaName));
-            statement.executeUpdate(String.format(CREATE_EXTENSION, "hstore"));
-            statement.executeUpdate(String.format(CREATE_EXTENSION, "pg_buffercache"));
-            statement.executeUpdate(String.format(CREATE_EXTENSION, "pg_stat_statements"));
-            statement.executeUpdate(String.format(CREATE_EXTENSION, "pgstattuple"));
-            statement.executeUpdate(String.format(CREATE_EXTENSION, "postgres_fdw"));
+            for (String extension : extensions) {
+                statement.executeUpdate(String.format(CREATE_EXTENSION, extension));
+            }
         } catch (SQLException e) {
             logger.error(String.format("Error adding extensions %s", schemaName), e);
 
@@ -74,6 +150,254 @@ public class SchemaManager {
         }
     }
 
+    /**
+     * Copies the template, which already has the extensions, so the schema is done over the one
+     * master connection.
+     *
+     * @return false if the template could not be copied, as when another node is rebuilding it or
+     * it was dropped. The user is dropped again and the host checked anew on its next schema.
+     */
+    private boolean createSchemaFromTemplate(MasterDatabase masterDatabase,
+                                             String schemaName,
+                                             String schemaUser,
+                                             String schemaPassword) {
+        try (Connection connection = getConnection(masterDatabase, masterDatabase.getSchema());
+             Statement statement = connection.createStatement()) {
+            logger.debug(String.format("Creating %s on %s owned by %s from %s",
+                    schemaName, masterDatabase.getHost(), schemaUser,
+                    templateConfiguration.getTemplateName()));
+            statement.executeUpdate(String.format(CREATE_USER_WITH_PASSWORD_SQL, schemaUser,
+                    schemaPassword));
+            statement.executeUpdate(String.format(GRANT_ROLE_SQL, schemaName, SUPERUSER));
+            try {
+                statement.executeUpdate(String.format(CREATE_DATABASE_FROM_TEMPLATE_SQL, schemaName,
+                        templateConfiguration.getTemplateName(), schemaUser));
+            } catch (SQLException e) {
+                logger.warn(String.format("Could not copy the schema template on %s, creating %s " +
+                        "without it", masterDatabase.getHost(), schemaName), e);
+                templateVersions.remove(getHostKey(masterDatabase));
+                statement.executeUpdate(String.format(DROP_USER_SQL, schemaUser));
+                return false;
+            }
+            statement.executeUpdate(String.format(ALTER_PERMS_SQL, schemaUser, schemaUser));
+            logger.debug(String.format("%s created successfully", schemaName));
+            return true;
+        } catch (SQLException e) {
+            logger.error(String.format("There was a SQL exception creating schema %s", schemaName), e);
+
+            throw new SchemaOperationException(e.getMessage());
+        }
+    }
+
+    /**
+     * Makes sure the host has a template built for the configured extensions, building it if it
+     * is missing or was built for other extensions. Hosts are only checked again after a restart
+     * or a failed copy.
+     *
+     * @return false if the template could not be built, schemas are then created without it
+     */
+    boolean isTemplateReady(MasterDatabase masterDatabase) {
+        String hostKey = getHostKey(masterDatabase);
+        if (templateVersion.equals(templateVersions.get(hostKey))) {
+            return true;
+        }
+
+        try (Connection connection = getConnection(masterDatabase, masterDatabase.getSchema());
+             Statement statement = connection.createStatement()) {
+            statement.execute(String.format(LOCK_TEMPLATE_SQL, TEMPLATE_LOCK_KEY));
+            try {
+                if (!templateVersion.equals(getTemplateVersion(statement))) {
+                    buildTemplate(masterDatabase, statement);
+                }
+            } finally {
+                statement.execute(String.format(UNLOCK_TEMPLATE_SQL, TEMPLATE_LOCK_KEY));
+            }
+        } catch (SQLException e) {
+            logger.error(String.format("Error building the schema template on %s",
+                    masterDatabase.getHost()), e);
+            return false;
+        }
+        templateVersions.put(hostKey, templateVersion);
+        return true;
+    }
+
+    private String getHostKey(MasterDatabase masterDatabase) {
+        return String.format("%s:%d", masterDatabase.getHost(), masterDatabase.getPort());
+    }
+
+    private String getTemplateVersion(Statement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery(String.format(TEMPLATE_VERSION_SQL,
+                templateConfiguration.getTemplateName()))) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+
+    private void buildTemplate(MasterDatabase masterDatabase, Statement statement)
+            throws SQLException {
+        String templateName = templateConfiguration.getTemplateName();
+        logger.info(String.format("Building schema template %s on %s for %s", templateName,
+                masterDatabase.getHost(), templateVersion));
+        statement.executeUpdate(String.format(DROP_TEMPLATE_SQL, templateName));
+        statement.executeUpdate(String.format(CREATE_TEMPLATE_SQL, templateName));
+        // closed before the version is set, a template with sessions open can't be copied
+        try (Connection templateConnection = getConnection(masterDatabase, templateName);
+             Statement templateStatement = templateConnection.createStatement()) {
+            for (String extension : extensions) {
+                templateStatement.executeUpdate(String.format(CREATE_EXTENSION, extension));
+            }
+        }
+        statement.executeUpdate(String.format(VERSION_TEMPLATE_SQL, templateName, templateVersion));
+    }
+
+    /**
+     * Replaces an empty schema with a file level copy of another schema of the same host. The
+     * source is closed to new sessions and its open ones ended for as long as the copy takes.
+     *
+     * The copy is made under another name and only swapped in once it belongs to the target
+     * user, so the empty schema is still there to clone into some other way if the copy fails.
+     */
+    public void cloneSchemaFromTemplate(@NotNull MasterDatabase database,
+                                        @NotNull String sourceSchema,
+                                        @NotNull String sourceUser,
+                                        @NotNull String targetSchema,
+                                        @NotNull String targetUser) {
+        String copyName = targetSchema + CLONE_SUFFIX;
+        try (Connection connection = getConnection(database, database.getSchema());
+             Statement statement = connection.createStatement()) {
+            logger.debug(String.format("Copying %s into %s on %s", sourceSchema, targetSchema,
+                    database.getHost()));
+            statement.executeUpdate(String.format(DROP_CLONE_SQL, copyName));
+            logger.info(String.format("Closing %s on %s to new sessions while it is copied",
+                    sourceSchema, database.getHost()));
+            statement.executeUpdate(String.format(ALLOW_CONNECTIONS_SQL, sourceSchema, false));
+            try {
+                statement.execute(String.format(TERMINATE_SESSIONS_SQL, sourceSchema));
+                statement.executeUpdate(String.format(CREATE_DATABASE_FROM_TEMPLATE_SQL, copyName,
+                        sourceSchema, targetUser));
+            } finally {
+                statement.executeUpdate(String.format(ALLOW_CONNECTIONS_SQL, sourceSchema, true));
+            }
+
+            try {
+                handOver(database, copyName, sourceSchema, sourceUser, targetUser);
+            } catch (SQLException e) {
+                statement.executeUpdate(String.format(DROP_CLONE_SQL, copyName));
+                throw e;
+            }
+
+            statement.executeUpdate(String.format(DROP_DATABASE_SQL, targetSchema));
+            statement.executeUpdate(String.format(RENAME_DATABASE_SQL, copyName, targetSchema));
+        } catch (SQLException e) {
+            logger.error(String.format("Error copying %s into %s", sourceSchema, targetSchema), e);
+            throw new SchemaOperationException(e.getMessage());
+        }
+    }
+
+    /**
+     * Opens a schema closed by {@link #cloneSchemaFromTemplate} to new sessions again. Opening a
+     * schema that is open already does nothing.
+     */
+    public void allowConnections(@NotNull MasterDatabase database,
+                                 @NotNull String schemaName) {
+        try (Connection connection = getConnection(database, database.getSchema());
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate(String.format(ALLOW_CONNECTIONS_SQL, schemaName, true));
+        } catch (SQLException e) {
+            logger.error(String.format("Error opening %s to new sessions", schemaName), e);
+            throw new SchemaOperationException(e.getMessage());
+        }
+    }
+
+    /**
+     * Everything in the copy still belongs to the source user. Reassigning also hands over the
+     * source database, so it is given back in the same transaction.
+     */
+    private void handOver(MasterDatabase database, String copyName, String sourceSchema,
+                          String sourceUser, String targetUser) throws SQLException {
+        try (Connection connection = getConnection(database, copyName);
+             Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            statement.executeUpdate(String.format(REASSIGN_OWNED_SQL, sourceUser, targetUser));
+            statement.executeUpdate(String.format(DROP_OWNED_SQL, sourceUser));
+            statement.executeUpdate(String.format(DATABASE_OWNER_SQL, sourceSchema, sourceUser));
+            connection.commit();
+        }
+    }
+
+    /**
+     * @return whether the master database can be logged into with the password given, false while
+     * the instance still has another one
+     */
+    public boolean acceptsPassword(@NotNull MasterDatabase database) {
+        try (Connection connection = getConnection(database, database.getSchema())) {
+            return true;
+        } catch (SQLException e) {
+            if (INVALID_PASSWORD.equals(e.getSQLState())) {
+                return false;
+            }
+            logger.error(String.format("Error connecting to %s", database.getHost()), e);
+            throw new SchemaOperationException(e.getMessage());
+        }
+    }
+
+    /**
+     * Takes over a warm schema, giving it and its user new names and the user a new password.
+     * Renaming a user clears its password, so all of it is done in one transaction.
+     */
+    public void renameSchema(@NotNull MasterDatabase database,
+                             @NotNull String sourceSchema,
+                             @NotNull String sourceUser,
+                             @NotNull String targetSchema,
+                             @NotNull String targetUser,
+                             @NotNull String password) {
+        renameSchema(database, sourceSchema, sourceUser, targetSchema, targetUser, password,
+                false);
+    }
+
+    /**
+     * Takes over a schema restored along with its whole instance like {@link #renameSchema}, and
+     * in the same transaction disables the mq2user restored with it, whose password the users
+     * of the source know.
+     */
+    public void renameRestoredSchema(@NotNull MasterDatabase database,
+                                     @NotNull String sourceSchema,
+                                     @NotNull String sourceUser,
+                                     @NotNull String targetSchema,
+                                     @NotNull String targetUser,
+                                     @NotNull String password) {
+        renameSchema(database, sourceSchema, sourceUser, targetSchema, targetUser, password,
+                true);
+    }
+
+    private void renameSchema(MasterDatabase database, String sourceSchema, String sourceUser,
+                              String targetSchema, String targetUser, String password,
+                              boolean disableMqUser) {
+        try (Connection connection = getConnection(database, database.getSchema());
+             Statement statement = connection.createStatement()) {
+            logger.debug(String.format("Renaming %s to %s on %s", sourceSchema, targetSchema,
+                    database.getHost()));
+            connection.setAutoCommit(false);
+            try {
+                statement.executeUpdate(String.format(RENAME_DATABASE_SQL, sourceSchema,
+                        targetSchema));
+                statement.executeUpdate(String.format(RENAME_USER_SQL, sourceUser, targetUser));
+                statement.executeUpdate(String.format(ASSIGN_PASSWORD_SQL, targetUser, password));
+                if (disableMqUser) {
+                    statement.executeUpdate(DISABLE_MQ_USER_SQL);
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.error(String.format("Error renaming %s to %s", sourceSchema, targetSchema), e);
+            throw new SchemaOperationException(e.getMessage());
+        }
+    }
+
     public void createUser(@NotNull MasterDatabase database,
                            @NotNull String schemaName,
                            @NotNull String schemaPassword,
@@ -112,12 +436,61 @@ public class SchemaManager {
         }
     }
 
+    /**
+     * @return the size of the schema on disk in bytes, indexes included
+     */
+    public long getSchemaSize(@NotNull MasterDatabase database,
+                              @NotNull String schemaName) {
+        try (Connection connection = getConnection(database, database.getSchema());
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(String.format(SCHEMA_SIZE_SQL, schemaName))) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        } catch (SQLException e) {
+            logger.error(String.format("Error getting the size of schema %s", schemaName), e);
+            throw new SchemaOperationException(e.getMessage());
+        }
+    }
+
+    /**
+     * @return a marker that changes whenever rows of the schema are written, its catalogs included.
+     * Statistics are reported with a short delay, so a write in the last moment may not have
+     * changed it yet.
+     */
+    public String getChangeMarker(@NotNull MasterDatabase database,
+                                  @NotNull String schemaName) {
+        try (Connection connection = getConnection(database, database.getSchema());
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(String.format(CHANGE_MARKER_SQL, schemaName))) {
+            if (!resultSet.next()) {
+                throw new SchemaOperationException(String.format("Schema %s not found",
+                        schemaName));
+            }
+            return String.format("%d:%d:%d:%s:%s", resultSet.getLong(1), resultSet.getLong(2),
+                    resultSet.getLong(3), resultSet.getString(4), resultSet.getString(5));
+        } catch (SQLException e) {
+            logger.error(String.format("Error getting the change marker of schema %s", schemaName), e);
+            throw new SchemaOperationException(e.getMessage());
+        }
+    }
+
+    static String connectionUrl(@NotNull MasterDatabase database, String databaseName) {
+        return String.format("jdbc:postgresql://%s:%d/%s",
+                database.getHost(), database.getPort(), databaseName);
+    }
+
+    /**
+     * Connections to the master database come from the pool. Others, like the one adding
+     * extensions to a schema just created, are used once and opened directly.
+     */
     Connection getConnection(@NotNull MasterDatabase database, String databaseName) throws SQLException {
+        if (databaseName.equals(database.getSchema())) {
+            return masterConnectionPool.getConnection(database);
+        }
         Properties props = new Properties();
         props.setProperty("user", database.getUsername());
         props.setProperty("password", database.getPassword());
-        String connectionURL = String.format("jdbc:postgresql://%s:%d/%s",
-                database.getHost(), database.getPort(), databaseName);
+        String connectionURL = connectionUrl(database, databaseName);
         logger.debug(String.format("Attempting to connect to %s as user %s on %s",
                 databaseName, database.getUsername(), connectionURL));
         return DriverManager.getConnection(connectionURL, props);
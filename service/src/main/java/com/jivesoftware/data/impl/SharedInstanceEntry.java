@@ -0,0 +1,80 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.collect.ImmutableList;
+import com.jivesoftware.data.impl.metrics.InstanceMetrics;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Snapshot of a shared instance as last seen by the {@link SharedInstanceIndex}.
+ */
+public class SharedInstanceEntry {
+
+    private final DBInstance dbInstance;
+    private final List<Tag> tags;
+    private final long tagsRefreshedAt;
+    private final InstanceMetrics metrics;
+    private final int schemaCount;
+    private final long refreshedAt;
+
+    public SharedInstanceEntry(DBInstance dbInstance,
+                               List<Tag> tags,
+                               long tagsRefreshedAt,
+                               InstanceMetrics metrics,
+                               int schemaCount,
+                               long refreshedAt) {
+        this.dbInstance = dbInstance;
+        this.tags = ImmutableList.copyOf(tags);
+        this.tagsRefreshedAt = tagsRefreshedAt;
+        this.metrics = metrics;
+        this.schemaCount = schemaCount;
+        this.refreshedAt = refreshedAt;
+    }
+
+    public DBInstance getDbInstance() {
+        return dbInstance;
+    }
+
+    public String getInstanceIdentifier() {
+        return dbInstance.getDBInstanceIdentifier();
+    }
+
+    public List<Tag> getTags() {
+        return tags;
+    }
+
+    public long getTagsRefreshedAt() {
+        return tagsRefreshedAt;
+    }
+
+    public InstanceMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Optional<Double> getCpuMaximum() {
+        return metrics.getCpuMaximum();
+    }
+
+    /**
+     * @return the schemas recorded on this instance, not counting deleted ones
+     */
+    public int getSchemaCount() {
+        return schemaCount;
+    }
+
+    public SharedInstanceEntry withSchemaCount(int schemaCount) {
+        return new SharedInstanceEntry(dbInstance, tags, tagsRefreshedAt, metrics, schemaCount,
+                refreshedAt);
+    }
+
+    public long getRefreshedAt() {
+        return refreshedAt;
+    }
+
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - refreshedAt;
+    }
+}
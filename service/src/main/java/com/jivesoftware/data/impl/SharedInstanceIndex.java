@@ -0,0 +1,247 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.impl.metrics.InstanceMetrics;
+import com.jivesoftware.data.impl.placement.PlacementStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Keeps the shared instances of this deploy color, their tags and their recent CPU in memory so
+ * a shared schema placement doesn't have to walk RDS and CloudWatch on the request path.
+ *
+ * Every iteration describes the fleet once, re-reads tags only for new instances or ones whose
+ * tags are older than the configured tag refresh, and drops instances that went away. Schema
+ * counts are rescanned from the database table on their own, longer, interval and bumped locally
+ * for every placement in between.
+ */
+@Singleton
+public class SharedInstanceIndex extends AbstractScheduledService {
+
+    private final static Logger logger = LoggerFactory.getLogger(SharedInstanceIndex.class);
+
+    private final InstanceManager instanceManager;
+    private final DatabaseDAO databaseDAO;
+    private final DatabaseIDHelper databaseIDHelper;
+    private final DBaaSConfiguration.SharedInstanceIndexConfiguration indexConfiguration;
+    private final DBaaSConfiguration.PlacementConfiguration placementConfiguration;
+    private final Map<String, SharedInstanceEntry> entries = new ConcurrentHashMap<>();
+    private final Timer refreshTimer;
+    private final Timer fallbackTimer;
+
+    private volatile long lastRefreshed = 0;
+    private volatile long schemaCountsRefreshed = 0;
+
+    @Inject
+    public SharedInstanceIndex(InstanceManager instanceManager,
+                               DatabaseDAO databaseDAO,
+                               DatabaseIDHelper databaseIDHelper,
+                               DBaaSConfiguration dBaaSConfiguration,
+                               MetricRegistry metricRegistry) {
+        this.instanceManager = instanceManager;
+        this.databaseDAO = databaseDAO;
+        this.databaseIDHelper = databaseIDHelper;
+        this.indexConfiguration = dBaaSConfiguration.getSharedInstanceIndex();
+        this.placementConfiguration = dBaaSConfiguration.getPlacement();
+        this.refreshTimer = metricRegistry.timer(name(SharedInstanceIndex.class, "refresh"));
+        this.fallbackTimer = metricRegistry.timer(name(SharedInstanceIndex.class, "fallback"));
+        metricRegistry.register(name(SharedInstanceIndex.class, "stalenessMillis"),
+                (Gauge<Long>) this::getStalenessMillis);
+        metricRegistry.register(name(SharedInstanceIndex.class, "oldestEntryMillis"),
+                (Gauge<Long>) () -> entries.values().stream()
+                        .mapToLong(SharedInstanceEntry::getAgeMillis).max().orElse(0L));
+        metricRegistry.register(name(SharedInstanceIndex.class, "entries"),
+                (Gauge<Integer>) entries::size);
+    }
+
+    @Override
+    protected void runOneIteration() throws Exception {
+        try {
+            refresh();
+        } catch (Exception e) {
+            // keep the schedule alive, the previous entries stay usable until they are too stale
+            logger.error("Error refreshing the shared instance index", e);
+        }
+    }
+
+    void refresh() {
+        final Timer.Context context = refreshTimer.time();
+        try {
+            long now = System.currentTimeMillis();
+            long tagRefreshMillis = TimeUnit.SECONDS.toMillis(
+                    indexConfiguration.getTagRefreshSeconds());
+            Map<String, DBInstance> instances = new LinkedHashMap<>();
+            Map<String, List<Tag>> instanceTags = new HashMap<>();
+            Map<String, Long> instanceTagsRefreshedAt = new HashMap<>();
+            List<DBInstance> candidates = new ArrayList<>();
+
+            List<DBInstance> staleTags = new ArrayList<>();
+
+            for (DBInstance dbInstance : instanceManager.describeDeployColorInstances()) {
+                String identifier = dbInstance.getDBInstanceIdentifier();
+                instances.put(identifier, dbInstance);
+
+                SharedInstanceEntry previous = entries.get(identifier);
+                if (previous != null) {
+                    instanceTags.put(identifier, previous.getTags());
+                    instanceTagsRefreshedAt.put(identifier, previous.getTagsRefreshedAt());
+                }
+                if (previous == null || now - previous.getTagsRefreshedAt() >= tagRefreshMillis) {
+                    staleTags.add(dbInstance);
+                }
+            }
+
+            // tags of new instances and expired ones are looked up together, an instance whose
+            // lookup failed keeps its previous tags, or none, and is retried next iteration
+            if (!staleTags.isEmpty()) {
+                for (Map.Entry<String, List<Tag>> tags :
+                        instanceManager.getTagsByInstance(staleTags).entrySet()) {
+                    instanceTags.put(tags.getKey(), tags.getValue());
+                    instanceTagsRefreshedAt.put(tags.getKey(), now);
+                }
+            }
+
+            for (DBInstance dbInstance : instances.values()) {
+                String identifier = dbInstance.getDBInstanceIdentifier();
+                instanceTags.putIfAbsent(identifier, ImmutableList.of());
+                instanceTagsRefreshedAt.putIfAbsent(identifier, 0L);
+                if (instanceManager.isReady(dbInstance)
+                        && instanceManager.isSharedDefault(instanceTags.get(identifier))) {
+                    candidates.add(dbInstance);
+                }
+            }
+
+            // one batched metrics fetch for every candidate rather than a round trip per instance
+            Map<String, InstanceMetrics> metrics = candidates.isEmpty()
+                    ? ImmutableMap.of() : instanceManager.getInstanceMetrics(candidates);
+            Optional<Map<String, Integer>> schemaCounts = getSchemaCounts(now);
+
+            for (Map.Entry<String, DBInstance> instance : instances.entrySet()) {
+                String identifier = instance.getKey();
+                SharedInstanceEntry previous = entries.get(identifier);
+                int schemaCount = schemaCounts.isPresent()
+                        ? schemaCounts.get().getOrDefault(identifier, 0)
+                        : previous == null ? 0 : previous.getSchemaCount();
+                entries.put(identifier, new SharedInstanceEntry(instance.getValue(),
+                        instanceTags.get(identifier), instanceTagsRefreshedAt.get(identifier),
+                        metrics.getOrDefault(identifier, InstanceMetrics.EMPTY), schemaCount, now));
+            }
+
+            entries.keySet().retainAll(instances.keySet());
+            lastRefreshed = System.currentTimeMillis();
+            logger.debug(String.format("Shared instance index refreshed with %d instances",
+                    entries.size()));
+        } finally {
+            context.stop();
+        }
+    }
+
+    /**
+     * @return schema counts keyed by RDS instance identifier when they are due for a rescan, empty
+     * to keep the counts already held by the entries
+     */
+    private Optional<Map<String, Integer>> getSchemaCounts(long now) {
+        if (now - schemaCountsRefreshed < TimeUnit.SECONDS.toMillis(
+                placementConfiguration.getSchemaCountRefreshSeconds())) {
+            return Optional.empty();
+        }
+        try {
+            Map<String, Integer> schemaCounts = new HashMap<>();
+            for (Map.Entry<String, Integer> count :
+                    databaseDAO.getSchemaCountsByInstance().entrySet()) {
+                schemaCounts.put(databaseIDHelper.getDBInstanceId(count.getKey()), count.getValue());
+            }
+            schemaCountsRefreshed = now;
+            return Optional.of(schemaCounts);
+        } catch (Exception e) {
+            logger.warn("Error counting schemas per instance, keeping the previous counts", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Picks the shared instance to place a new schema on from the in memory index using the given
+     * strategy. Falls back to a live least CPU scan through
+     * {@link InstanceManager#findSharedInstance()} while the index has not been populated yet or is
+     * older than the configured maximum staleness.
+     */
+    public Optional<DBInstance> findSharedInstance(PlacementStrategy placementStrategy) {
+        if (!isFresh()) {
+            logger.warn(String.format("Shared instance index is %d ms stale, falling back to a " +
+                    "live scan", getStalenessMillis()));
+            final Timer.Context context = fallbackTimer.time();
+            try {
+                return instanceManager.findSharedInstance();
+            } finally {
+                context.stop();
+            }
+        }
+        return placementStrategy.choose(getEligibleEntries())
+                .map(SharedInstanceEntry::getDbInstance);
+    }
+
+    /**
+     * Counts a schema just placed on the instance so the following placements see it before the
+     * next rescan of the schema counts.
+     */
+    public void recordPlacement(String instanceIdentifier) {
+        entries.computeIfPresent(instanceIdentifier,
+                (identifier, entry) -> entry.withSchemaCount(entry.getSchemaCount() + 1));
+    }
+
+    /**
+     * @return the indexed instances that are ready and tagged as default shared instances
+     */
+    public List<SharedInstanceEntry> getEligibleEntries() {
+        List<SharedInstanceEntry> eligible = new ArrayList<>();
+        for (SharedInstanceEntry entry : entries.values()) {
+            if (instanceManager.isReady(entry.getDbInstance())
+                    && instanceManager.isSharedDefault(entry.getTags())) {
+                eligible.add(entry);
+            }
+        }
+        return eligible;
+    }
+
+    public List<SharedInstanceEntry> getEntries() {
+        return ImmutableList.copyOf(entries.values());
+    }
+
+    public boolean isPopulated() {
+        return lastRefreshed > 0;
+    }
+
+    public boolean isFresh() {
+        return isPopulated() && getStalenessMillis() <=
+                TimeUnit.SECONDS.toMillis(indexConfiguration.getMaxStalenessSeconds());
+    }
+
+    /**
+     * @return milliseconds since the last successful refresh, -1 if the index was never populated
+     */
+    public long getStalenessMillis() {
+        return lastRefreshed == 0 ? -1 : System.currentTimeMillis() - lastRefreshed;
+    }
+
+    @Override
+    protected AbstractScheduledService.Scheduler scheduler() {
+        return AbstractScheduledService.Scheduler.newFixedRateSchedule(0,
+                indexConfiguration.getRefreshIntervalSeconds(), TimeUnit.SECONDS);
+    }
+}
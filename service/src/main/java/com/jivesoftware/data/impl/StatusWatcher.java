@@ -0,0 +1,221 @@
+package com.jivesoftware.data.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.DatabaseNotFoundException;
+import com.jivesoftware.data.exceptions.StatusLookupException;
+import com.jivesoftware.data.resources.entities.DatabaseStatus;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Lets callers wait for a database to reach a status without polling for it.
+ *
+ * A watch is a future and a scheduled timeout, no thread is held while it waits. Status writes
+ * made on this node complete the matching watches right away. Writes made on other nodes are
+ * picked up by reading the statuses of every watched database together every few seconds.
+ */
+@Singleton
+public class StatusWatcher implements Managed {
+
+    private final static Logger logger = LoggerFactory.getLogger(StatusWatcher.class);
+
+    private final DatabaseDAO databaseDAO;
+    private final int pollSeconds;
+    private final int maxWatches;
+    private final Map<String, Set<Watch>> watches = new ConcurrentHashMap<>();
+    private final AtomicInteger watchCount = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Meter notifiedMeter;
+    private final Meter polledMeter;
+    private final Meter timedOutMeter;
+
+    @Inject
+    public StatusWatcher(DBaaSConfiguration dBaaSConfiguration,
+                         DatabaseDAO databaseDAO,
+                         MetricRegistry metricRegistry) {
+        DBaaSConfiguration.StatusWatchConfiguration watchConfiguration =
+                dBaaSConfiguration.getStatusWatch();
+        this.databaseDAO = databaseDAO;
+        this.pollSeconds = watchConfiguration.getPollSeconds();
+        this.maxWatches = watchConfiguration.getMaxWatches();
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("status-watcher-%d")
+                .setDaemon(true)
+                .build());
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        this.notifiedMeter = metricRegistry.meter(name(StatusWatcher.class, "notified"));
+        this.polledMeter = metricRegistry.meter(name(StatusWatcher.class, "polled"));
+        this.timedOutMeter = metricRegistry.meter(name(StatusWatcher.class, "timedOut"));
+        metricRegistry.register(name(StatusWatcher.class, "watches"),
+                (Gauge<Integer>) watchCount::get);
+
+        databaseDAO.addStatusListener(this::statusChanged);
+    }
+
+    @Override
+    public void start() throws Exception {
+        scheduler.scheduleWithFixedDelay(this::poll, pollSeconds, pollSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        scheduler.shutdownNow();
+        for (Set<Watch> databaseWatches : watches.values()) {
+            for (Watch watch : databaseWatches) {
+                watch.complete(watch.latest);
+            }
+        }
+    }
+
+    /**
+     * @param current status the caller last read
+     * @param waitFor statuses to wait for, empty waits for any status other than the current one
+     * @param timeoutSeconds how long to wait
+     * @return completes with the first matching status, or with the latest status seen once the
+     * timeout is over. Completes with {@link DatabaseNotFoundException} if the database record
+     * is removed meanwhile.
+     *
+     * @throws StatusLookupException if too many watches are waiting already
+     */
+    public CompletableFuture<DatabaseStatus> watch(DatabaseStatus current,
+                                                   Set<DatabaseStatus.Status> waitFor,
+                                                   int timeoutSeconds) {
+
+        Watch watch = new Watch(current, waitFor);
+        if (watch.isDone(current) || timeoutSeconds <= 0) {
+            return CompletableFuture.completedFuture(current);
+        }
+        if (watchCount.incrementAndGet() > maxWatches) {
+            watchCount.decrementAndGet();
+            throw new StatusLookupException(String.format("Already watching %d databases",
+                    maxWatches));
+        }
+
+        watches.compute(current.getDatabaseId(), (id, databaseWatches) -> {
+            Set<Watch> added = databaseWatches == null
+                    ? ConcurrentHashMap.newKeySet() : databaseWatches;
+            added.add(watch);
+            return added;
+        });
+        watch.timeout = scheduler.schedule(() -> {
+            timedOutMeter.mark();
+            watch.complete(watch.latest);
+        }, timeoutSeconds, TimeUnit.SECONDS);
+
+        // a write between the caller's read and the registration above notified nobody
+        offer(current.getDatabaseId(), databaseDAO.getCachedDatabaseRecord(current.getDatabaseId())
+                .flatMap(DatabaseRecord::getStatus));
+        return watch.future;
+    }
+
+    void statusChanged(DatabaseStatus status) {
+        if (watches.containsKey(status.getDatabaseId())) {
+            notifiedMeter.mark();
+            offer(status.getDatabaseId(), Optional.of(status));
+        }
+    }
+
+    void poll() {
+        try {
+            List<String> watched = new ArrayList<>(watches.keySet());
+            if (watched.isEmpty()) {
+                return;
+            }
+            polledMeter.mark(watched.size());
+            Map<String, DatabaseStatus> statuses = databaseDAO.getDatabaseStatuses(watched);
+            for (String databaseId : watched) {
+                offer(databaseId, Optional.ofNullable(statuses.get(databaseId)));
+            }
+        } catch (Exception e) {
+            logger.error("Error polling the statuses of watched databases", e);
+        }
+    }
+
+    private void offer(String databaseId, Optional<DatabaseStatus> status) {
+        Set<Watch> databaseWatches = watches.get(databaseId);
+        if (databaseWatches == null) {
+            return;
+        }
+        for (Watch watch : databaseWatches) {
+            if (!status.isPresent()) {
+                watch.fail(new DatabaseNotFoundException(String.format(
+                        "Status for database with id %s not found", databaseId)));
+            } else if (watch.isDone(status.get())) {
+                watch.complete(status.get());
+            } else {
+                watch.latest = status.get();
+            }
+        }
+    }
+
+    private void remove(Watch watch) {
+        String databaseId = watch.initial.getDatabaseId();
+        watches.computeIfPresent(databaseId, (id, databaseWatches) -> {
+            databaseWatches.remove(watch);
+            return databaseWatches.isEmpty() ? null : databaseWatches;
+        });
+        watchCount.decrementAndGet();
+    }
+
+    private class Watch {
+
+        private final DatabaseStatus initial;
+        private final Set<DatabaseStatus.Status> waitFor;
+        private final CompletableFuture<DatabaseStatus> future = new CompletableFuture<>();
+        private volatile DatabaseStatus latest;
+        private volatile ScheduledFuture<?> timeout;
+
+        private Watch(DatabaseStatus initial, Set<DatabaseStatus.Status> waitFor) {
+            this.initial = initial;
+            this.waitFor = waitFor;
+            this.latest = initial;
+        }
+
+        private boolean isDone(DatabaseStatus status) {
+            return waitFor.isEmpty()
+                    ? status.getStatus() != initial.getStatus()
+                    : waitFor.contains(status.getStatus());
+        }
+
+        private void complete(DatabaseStatus status) {
+            if (future.complete(status)) {
+                finish();
+            }
+        }
+
+        private void fail(RuntimeException e) {
+            if (future.completeExceptionally(e)) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            ScheduledFuture<?> scheduledTimeout = timeout;
+            if (scheduledTimeout != null) {
+                scheduledTimeout.cancel(false);
+            }
+            remove(this);
+        }
+    }
+}
@@ -14,12 +14,14 @@ public class StepProcessorFactory {
     public StepProcessorFactory(InstanceCreationProcessor instanceCreationProcessor,
                                 SchemaCreationProcessor schemaCreationProcessor,
                                 CloneProcessor cloneProcessor,
-                                ReadyProcessor readyProcessor){
+                                ReadyProcessor readyProcessor,
+                                CredentialsProcessor credentialsProcessor){
 
         stepMap = ImmutableMap.of(CreationStep.INSTANCE, instanceCreationProcessor,
                 CreationStep.SCHEMA, schemaCreationProcessor,
                 CreationStep.CLONE, cloneProcessor,
-                CreationStep.INSTANCE_READY, readyProcessor);
+                CreationStep.INSTANCE_READY, readyProcessor,
+                CreationStep.CREDENTIALS, credentialsProcessor);
     }
 
 
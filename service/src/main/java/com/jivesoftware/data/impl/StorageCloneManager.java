@@ -0,0 +1,77 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.DatabaseNotFoundException;
+import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.Optional;
+
+/**
+ * Clones a dedicated database by restoring its whole instance rather than copying its schema,
+ * which takes as long as an instance startup whatever the size of the data.
+ *
+ * A storage clone restores the instance in place of creating one, skips the SCHEMA and CLONE steps
+ * and only takes over the restored schema in the CREDENTIALS step.
+ */
+public class StorageCloneManager {
+
+    private final static Logger logger = LoggerFactory.getLogger(StorageCloneManager.class);
+
+    private final InstanceManager instanceManager;
+    private final DatabaseDAO databaseDAO;
+    private final DatabaseIDHelper databaseIDHelper;
+    private final DBaaSConfiguration.CloneConfiguration cloneConfiguration;
+
+    @Inject
+    public StorageCloneManager(InstanceManager instanceManager,
+                               DatabaseDAO databaseDAO,
+                               DatabaseIDHelper databaseIDHelper,
+                               DBaaSConfiguration dBaaSConfiguration) {
+        this.instanceManager = instanceManager;
+        this.databaseDAO = databaseDAO;
+        this.databaseIDHelper = databaseIDHelper;
+        this.cloneConfiguration = dBaaSConfiguration.getCloneConfiguration();
+    }
+
+    /**
+     * @return whether the request is a dedicated clone of a dedicated database using the STORAGE
+     * engine. Any other clone asking for it gets a dump instead.
+     */
+    public boolean isStorageClone(DatabaseCreationRequest databaseCreationRequest) {
+        if (databaseCreationRequest.getTenancyType() != DatabaseCreationRequest.TenancyType.DEDICATED
+                || !databaseCreationRequest.getSourceDatabaseIdOptional().isPresent()
+                || databaseCreationRequest.getCloneEngineOptional()
+                .orElse(cloneConfiguration.getEngine()) != DatabaseCreationRequest.CloneEngine.STORAGE) {
+            return false;
+        }
+        Optional<DatabaseInfo> sourceDatabaseInfo = databaseDAO.getDatabaseInfo(
+                databaseCreationRequest.getSourceDatabaseIdOptional().get());
+        if (sourceDatabaseInfo.isPresent() && sourceDatabaseInfo.get().getTenancyType() ==
+                DatabaseCreationRequest.TenancyType.DEDICATED) {
+            return true;
+        }
+        logger.warn(String.format("Source %s is not a dedicated database, cloning it with a dump",
+                databaseCreationRequest.getSourceDatabaseIdOptional().get()));
+        return false;
+    }
+
+    public DBInstance restoreInstance(String instanceId, String instanceClass,
+                                      DatabaseCreationRequest databaseCreationRequest) {
+        String sourceDatabaseId = databaseCreationRequest.getSourceDatabaseIdOptional().get();
+        Optional<DatabaseInfo> sourceDatabaseInfo = databaseDAO.getDatabaseInfo(sourceDatabaseId);
+        if (!sourceDatabaseInfo.isPresent()) {
+            throw new DatabaseNotFoundException(String.format(
+                    "Database source %s does not exist", sourceDatabaseId));
+        }
+        logger.info(String.format("Restoring %s from the instance of %s", instanceId,
+                sourceDatabaseId));
+        return instanceManager.restoreInstanceToPointInTime(
+                databaseIDHelper.getDBInstanceId(sourceDatabaseInfo.get().getInstanceId()),
+                instanceId, instanceClass, databaseCreationRequest.getServiceTag(),
+                databaseCreationRequest.getServiceComponentTag());
+    }
+}
@@ -0,0 +1,38 @@
+package com.jivesoftware.data.impl;
+
+import javax.annotation.Nonnull;
+import java.util.Optional;
+
+class WarmInstance {
+
+    private final String instanceIdentifier;
+    private final long createTime;
+    private final Optional<Long> readyTime;
+
+    public WarmInstance(String instanceIdentifier, long createTime, Optional<Long> readyTime) {
+        this.instanceIdentifier = instanceIdentifier;
+        this.createTime = createTime;
+        this.readyTime = readyTime;
+    }
+
+    @Nonnull
+    public String getInstanceIdentifier() {
+        return instanceIdentifier;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    /**
+     * @return when the instance was first seen available, empty while it is still coming up
+     */
+    @Nonnull
+    public Optional<Long> getReadyTime() {
+        return readyTime;
+    }
+
+    public boolean isReady() {
+        return readyTime.isPresent();
+    }
+}
@@ -0,0 +1,292 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.ListTagsOfResourceRequest;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
+import com.amazonaws.services.dynamodbv2.model.Tag;
+import com.amazonaws.services.dynamodbv2.model.TagResourceRequest;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.jivesoftware.data.DBaaSConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Keeps the dedicated instances created ahead of time, per instance class, along with the recent
+ * dedicated creates the size of the pool is forecast from.
+ *
+ * Like the warm schemas, an instance item only exists while nobody has claimed the instance and a
+ * claim is a conditional delete of it. Demand is kept in the same table under
+ * "demand:&lt;instance class&gt;", ordered by the time of the create.
+ */
+@Singleton
+public class WarmInstanceDAO {
+
+    private final static Logger LOG = LoggerFactory.getLogger(WarmInstanceDAO.class);
+
+    private static final String MANAGED_BY_SERVICE_COMPONENT_TAG_KEY = "managed_by_service";
+    private static final String MAKO_ENVIRONMENT = "mako-environment";
+    private static final String DEMAND_PREFIX = "demand:";
+    private static final String LEASE_POOL = "lease";
+    private static final String REFILL_LEASE = "refill";
+    private static final String EXISTS_CONDITION = "attribute_exists(entryId)";
+    private static final String READY_FILTER = "attribute_exists(readyTime)";
+    private static final String LEASE_CONDITION =
+            "attribute_not_exists(entryId) OR expiresAt < :now OR holder = :holder";
+    // candidates read per claim, shuffled so concurrent claims mostly try different instances
+    private static final int CLAIM_CANDIDATES = 5;
+
+    private final AmazonDynamoDBClient client;
+    private final DBaaSConfiguration dBaaSConfiguration;
+    private final DBaaSConfiguration.WarmInstancePoolConfiguration poolConfiguration;
+    private final Meter conflictMeter;
+    private volatile Table table;
+
+    @Inject
+    public WarmInstanceDAO(AmazonDynamoDBClient client, DBaaSConfiguration dBaaSConfiguration,
+                           MetricRegistry metricRegistry) {
+        this.client = client;
+        this.dBaaSConfiguration = dBaaSConfiguration;
+        this.poolConfiguration = dBaaSConfiguration.getWarmInstancePool();
+        this.conflictMeter = metricRegistry.meter(name(WarmInstanceDAO.class, "claimConflicts"));
+    }
+
+    /**
+     * Records an instance being created for the pool, it can't be claimed before
+     * {@link #markReady} is called.
+     */
+    public void putWarmInstance(String instanceClass, String instanceIdentifier) {
+        getTable().putItem(new Item()
+                .withPrimaryKey("poolName", instanceClass, "entryId", instanceIdentifier)
+                .withLong("createTime", System.currentTimeMillis()));
+    }
+
+    /**
+     * Makes an unclaimed instance claimable, an instance claimed or reclaimed in the meantime is
+     * left alone.
+     */
+    public void markReady(String instanceClass, String instanceIdentifier) {
+        try {
+            getTable().updateItem(new UpdateItemSpec()
+                    .withPrimaryKey("poolName", instanceClass, "entryId", instanceIdentifier)
+                    .withUpdateExpression("SET readyTime = :readyTime")
+                    .withConditionExpression(EXISTS_CONDITION)
+                    .withValueMap(ImmutableMap.of(":readyTime", System.currentTimeMillis())));
+        } catch (ConditionalCheckFailedException e) {
+            LOG.debug(String.format("Warm instance %s is gone", instanceIdentifier));
+        }
+    }
+
+    /**
+     * @return the unclaimed instances of the class, ready or not
+     */
+    public List<WarmInstance> getWarmInstances(String instanceClass) {
+        List<WarmInstance> warmInstances = new ArrayList<>();
+        for (Item item : getTable().query(new QuerySpec()
+                .withHashKey("poolName", instanceClass)
+                .withConsistentRead(true))) {
+            warmInstances.add(new WarmInstance(item.getString("entryId"),
+                    item.getLong("createTime"),
+                    item.isPresent("readyTime")
+                            ? Optional.of(item.getLong("readyTime")) : Optional.empty()));
+        }
+        return warmInstances;
+    }
+
+    /**
+     * Takes one ready instance of the class off the list.
+     *
+     * @return the identifier of the instance claimed, empty if none is ready
+     */
+    public Optional<String> claimWarmInstance(String instanceClass) {
+        List<String> candidates = new ArrayList<>();
+        for (Item item : getTable().query(new QuerySpec()
+                .withHashKey("poolName", instanceClass)
+                .withFilterExpression(READY_FILTER)
+                .withProjectionExpression("entryId")
+                .withMaxResultSize(CLAIM_CANDIDATES))) {
+            candidates.add(item.getString("entryId"));
+        }
+        Collections.shuffle(candidates);
+
+        for (String instanceIdentifier : candidates) {
+            if (removeWarmInstance(instanceClass, instanceIdentifier)) {
+                return Optional.of(instanceIdentifier);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Takes the instance off the list, unless someone else did first.
+     *
+     * @return whether this call removed it
+     */
+    public boolean removeWarmInstance(String instanceClass, String instanceIdentifier) {
+        try {
+            getTable().deleteItem(new DeleteItemSpec()
+                    .withPrimaryKey("poolName", instanceClass, "entryId", instanceIdentifier)
+                    .withConditionExpression(EXISTS_CONDITION));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            conflictMeter.mark();
+            LOG.debug(String.format("Warm instance %s was claimed by someone else",
+                    instanceIdentifier));
+            return false;
+        }
+    }
+
+    /**
+     * Records a dedicated create of the class, whether the pool served it or not.
+     */
+    public void recordDemand(String instanceClass, String databaseId) {
+        long now = System.currentTimeMillis();
+        getTable().putItem(new Item()
+                .withPrimaryKey("poolName", DEMAND_PREFIX + instanceClass,
+                        "entryId", demandKey(now) + ":" + databaseId)
+                .withLong("createTime", now));
+    }
+
+    /**
+     * @return the dedicated creates of the class since the given time
+     */
+    public int countDemand(String instanceClass, long since) {
+        int demand = 0;
+        for (Item ignored : getTable().query(new QuerySpec()
+                .withKeyConditionExpression("poolName = :poolName AND entryId > :since")
+                .withValueMap(ImmutableMap.of(":poolName", DEMAND_PREFIX + instanceClass,
+                        ":since", demandKey(since)))
+                .withProjectionExpression("entryId"))) {
+            demand++;
+        }
+        return demand;
+    }
+
+    /**
+     * Forgets the dedicated creates of the class older than the given time.
+     */
+    public void pruneDemand(String instanceClass, long before) {
+        String poolName = DEMAND_PREFIX + instanceClass;
+        for (Item item : getTable().query(new QuerySpec()
+                .withKeyConditionExpression("poolName = :poolName AND entryId < :before")
+                .withValueMap(ImmutableMap.of(":poolName", poolName, ":before", demandKey(before)))
+                .withProjectionExpression("entryId"))) {
+            getTable().deleteItem("poolName", poolName, "entryId", item.getString("entryId"));
+        }
+    }
+
+    /**
+     * Takes or renews the refill lease, so only one node provisions instances at a time.
+     *
+     * @return whether the caller holds the lease until the given number of seconds from now
+     */
+    public boolean tryRefillLease(String holder, long seconds) {
+        long now = System.currentTimeMillis();
+        try {
+            getTable().putItem(new PutItemSpec()
+                    .withItem(new Item()
+                            .withPrimaryKey("poolName", LEASE_POOL, "entryId", REFILL_LEASE)
+                            .withString("holder", holder)
+                            .withLong("expiresAt", now + seconds * 1000))
+                    .withConditionExpression(LEASE_CONDITION)
+                    .withValueMap(ImmutableMap.of(":now", now, ":holder", holder)));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    // zero padded so the keys sort by time
+    private String demandKey(long time) {
+        return String.format("%015d", time);
+    }
+
+    private Table getTable() {
+        if (table == null) {
+            synchronized (this) {
+                if (table == null) {
+                    table = createTable();
+                }
+            }
+        }
+        return table;
+    }
+
+    private Table createTable() {
+        DynamoDB dynamoDB = makeDynamo();
+        Table warmTable;
+        try {
+            CreateTableRequest request = new CreateTableRequest()
+                    .withTableName(poolConfiguration.getTableName())
+                    .withKeySchema(ImmutableList.of(
+                            new KeySchemaElement("poolName", KeyType.HASH),
+                            new KeySchemaElement("entryId", KeyType.RANGE)))
+                    .withAttributeDefinitions(ImmutableList.of(
+                            new AttributeDefinition().withAttributeName("poolName")
+                                    .withAttributeType("S"),
+                            new AttributeDefinition().withAttributeName("entryId")
+                                    .withAttributeType("S")))
+                    .withProvisionedThroughput(new ProvisionedThroughput()
+                            .withReadCapacityUnits(poolConfiguration.getReadUnits())
+                            .withWriteCapacityUnits(poolConfiguration.getWriteUnits()));
+
+            warmTable = dynamoDB.createTable(request);
+        } catch (ResourceInUseException e) {
+            warmTable = dynamoDB.getTable(poolConfiguration.getTableName());
+        }
+
+        try {
+            warmTable.waitForActive();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        TableDescription tableDescription = warmTable.getDescription();
+        String tableARN = tableDescription.getTableArn();
+        ListTagsOfResourceRequest tagQueryRequest = new ListTagsOfResourceRequest().withResourceArn(tableARN);
+        if(!client.listTagsOfResource(tagQueryRequest).getTags().removeAll(getTags())) {
+            LOG.debug(String.format("Adding tags to table %s", tableDescription.getTableName()));
+            client.tagResource(new TagResourceRequest().withResourceArn(tableARN).withTags(getTags()));
+        }
+        return warmTable;
+    }
+
+    private ImmutableSet<Tag> getTags() {
+        return new ImmutableSet.Builder<Tag>()
+                .add(new Tag().withKey(MAKO_ENVIRONMENT)
+                        .withValue(dBaaSConfiguration.getMakoEnvironment()))
+                .add(new Tag().withKey(MANAGED_BY_SERVICE_COMPONENT_TAG_KEY)
+                        .withValue(dBaaSConfiguration.getManagedServiceTag()))
+                .build();
+    }
+
+    DynamoDB makeDynamo() {
+        return new DynamoDB(client);
+    }
+}
@@ -0,0 +1,306 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.jivesoftware.data.DBaaSConfiguration;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Keeps dedicated instances of the most requested classes created ahead of time, so a dedicated
+ * create can skip the 10 to 20 minutes RDS takes to bring a new instance up.
+ *
+ * Every dedicated create of a pooled class is recorded. The pool of each class is sized for the
+ * creates forecast over the time a new instance takes to come up, from the rate of creates over
+ * the forecast window, and kept between minPerClass and maxPerClass. Warm instances above the
+ * forecast are deleted once they have been idle for idleReclaimHours. Only the node holding the
+ * refill lease creates or deletes instances.
+ */
+@Singleton
+public class WarmInstancePool extends AbstractScheduledService {
+
+    private final static Logger logger = LoggerFactory.getLogger(WarmInstancePool.class);
+
+    private static final String CLASS_PREFIX = "db.";
+    private static final String WARM_PREFIX = "warm-";
+    private static final int WARM_UNIQUE_LENGTH = 12;
+
+    private final DBaaSConfiguration.WarmInstancePoolConfiguration poolConfiguration;
+    private final WarmInstanceDAO warmInstanceDAO;
+    private final InstanceManager instanceManager;
+    private final DatabaseIDHelper databaseIDHelper;
+    private final PasswordManager passwordManager;
+    private final Integer instanceStorage;
+    private final Set<String> instanceClasses = new LinkedHashSet<>();
+    private final String leaseHolder = UUID.randomUUID().toString();
+    private final Map<String, Integer> idleInstances = new ConcurrentHashMap<>();
+    private final Map<String, Double> idleHours = new ConcurrentHashMap<>();
+    private final Meter hitMeter;
+    private final Meter missMeter;
+    private final Meter createdMeter;
+    private final Meter reclaimedMeter;
+
+    @Inject
+    public WarmInstancePool(DBaaSConfiguration dBaaSConfiguration,
+                            WarmInstanceDAO warmInstanceDAO,
+                            InstanceManager instanceManager,
+                            DatabaseIDHelper databaseIDHelper,
+                            PasswordManager passwordManager,
+                            MetricRegistry metricRegistry) {
+        this.poolConfiguration = dBaaSConfiguration.getWarmInstancePool();
+        this.warmInstanceDAO = warmInstanceDAO;
+        this.instanceManager = instanceManager;
+        this.databaseIDHelper = databaseIDHelper;
+        this.passwordManager = passwordManager;
+        this.instanceStorage = dBaaSConfiguration.getInstanceTemplate().getAllocatedStorage();
+        for (String instanceClass : poolConfiguration.getInstanceClasses()) {
+            instanceClasses.add(CLASS_PREFIX + instanceClass);
+        }
+
+        this.hitMeter = metricRegistry.meter(name(WarmInstancePool.class, "hits"));
+        this.missMeter = metricRegistry.meter(name(WarmInstancePool.class, "misses"));
+        this.createdMeter = metricRegistry.meter(name(WarmInstancePool.class, "created"));
+        this.reclaimedMeter = metricRegistry.meter(name(WarmInstancePool.class, "reclaimed"));
+        metricRegistry.register(name(WarmInstancePool.class, "hitRatio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hitMeter.getFifteenMinuteRate(),
+                        hitMeter.getFifteenMinuteRate() + missMeter.getFifteenMinuteRate());
+            }
+        });
+        metricRegistry.register(name(WarmInstancePool.class, "idle"),
+                (Gauge<Integer>) () -> idleInstances.values().stream()
+                        .mapToInt(Integer::intValue).sum());
+        metricRegistry.register(name(WarmInstancePool.class, "idleInstanceHours"),
+                (Gauge<Double>) () -> idleHours.values().stream()
+                        .mapToDouble(Double::doubleValue).sum());
+        metricRegistry.register(name(WarmInstancePool.class, "idleHourlyCost"),
+                (Gauge<Double>) this::getIdleHourlyCost);
+    }
+
+    /**
+     * Hands a ready warm instance to a dedicated create, with the create's master password and
+     * tags. The new password is applied by RDS shortly after, until then the instance shows it as
+     * pending.
+     *
+     * @param instanceClass the RDS instance class, e.g. db.m4.large
+     * @return the instance claimed, empty if the create has to make a new one
+     */
+    public Optional<DBInstance> claim(String databaseId,
+                                      String instanceClass,
+                                      Integer requestedStorage,
+                                      String serviceTag,
+                                      String componentTag,
+                                      String password) {
+
+        if (!poolConfiguration.getEnabled() || !instanceClasses.contains(instanceClass)) {
+            return Optional.empty();
+        }
+
+        try {
+            warmInstanceDAO.recordDemand(instanceClass, databaseId);
+        } catch (Exception e) {
+            logger.warn(String.format("Error recording the %s create of %s", instanceClass,
+                    databaseId), e);
+        }
+
+        if (!instanceStorage.equals(requestedStorage)) {
+            missMeter.mark();
+            return Optional.empty();
+        }
+
+        Optional<String> instanceIdentifier = warmInstanceDAO.claimWarmInstance(instanceClass);
+        if (!instanceIdentifier.isPresent()) {
+            missMeter.mark();
+            logger.debug(String.format("No warm %s instance ready for %s", instanceClass,
+                    databaseId));
+            return Optional.empty();
+        }
+
+        Optional<DBInstance> dbInstance = instanceManager.getDBInstance(instanceIdentifier.get());
+        if (!dbInstance.isPresent()) {
+            missMeter.mark();
+            logger.warn(String.format("Warm instance %s no longer exists",
+                    instanceIdentifier.get()));
+            return Optional.empty();
+        }
+
+        try {
+            instanceManager.modifyMasterPassword(dbInstance.get(), password);
+            instanceManager.retagInstance(dbInstance.get(), serviceTag, componentTag);
+        } catch (Exception e) {
+            logger.error(String.format("Error handing out warm instance %s to %s",
+                    instanceIdentifier.get(), databaseId), e);
+            discard(dbInstance.get());
+            missMeter.mark();
+            return Optional.empty();
+        }
+
+        hitMeter.mark();
+        logger.info(String.format("Warm instance %s claimed for %s", instanceIdentifier.get(),
+                databaseId));
+        return dbInstance;
+    }
+
+    /**
+     * Marks warm instances that came up as ready, then creates or reclaims instances of every
+     * pooled class to match its forecast.
+     */
+    @Override
+    protected void runOneIteration() throws Exception {
+        if (!poolConfiguration.getEnabled()) {
+            return;
+        }
+        if (!warmInstanceDAO.tryRefillLease(leaseHolder,
+                2L * poolConfiguration.getRefillIntervalSeconds())) {
+            logger.debug("Another node is refilling the warm instance pool");
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int budget = poolConfiguration.getMaxCreatesPerRefill();
+        for (String instanceClass : instanceClasses) {
+            try {
+                budget -= refill(instanceClass, budget, now);
+            } catch (Exception e) {
+                logger.error(String.format("Error refilling the warm %s instances",
+                        instanceClass), e);
+            }
+        }
+    }
+
+    private int refill(String instanceClass, int budget, long now) {
+        Map<String, DBInstance> dbInstances = new HashMap<>();
+        List<WarmInstance> warmInstances = new ArrayList<>();
+        for (WarmInstance warmInstance : warmInstanceDAO.getWarmInstances(instanceClass)) {
+            Optional<DBInstance> dbInstance =
+                    instanceManager.getDBInstance(warmInstance.getInstanceIdentifier());
+            if (!dbInstance.isPresent()) {
+                logger.warn(String.format("Warm instance %s was deleted outside the pool",
+                        warmInstance.getInstanceIdentifier()));
+                warmInstanceDAO.removeWarmInstance(instanceClass,
+                        warmInstance.getInstanceIdentifier());
+                continue;
+            }
+            if (!warmInstance.isReady() && instanceManager.isAvailable(dbInstance.get())) {
+                warmInstanceDAO.markReady(instanceClass, warmInstance.getInstanceIdentifier());
+                warmInstance = new WarmInstance(warmInstance.getInstanceIdentifier(),
+                        warmInstance.getCreateTime(), Optional.of(now));
+            }
+            dbInstances.put(warmInstance.getInstanceIdentifier(), dbInstance.get());
+            warmInstances.add(warmInstance);
+        }
+
+        int target = forecast(instanceClass, now);
+        int created = 0;
+        if (warmInstances.size() < target) {
+            int missing = Math.min(budget, target - warmInstances.size());
+            for (; created < missing; created++) {
+                String instanceIdentifier = databaseIDHelper.getDBInstanceId(WARM_PREFIX
+                        + RandomStringUtils.randomAlphanumeric(WARM_UNIQUE_LENGTH).toLowerCase());
+                instanceManager.createWarmInstance(instanceIdentifier,
+                        passwordManager.generatePassword(), instanceClass, instanceStorage);
+                warmInstanceDAO.putWarmInstance(instanceClass, instanceIdentifier);
+                createdMeter.mark();
+            }
+            logger.info(String.format("Creating %d warm %s instances, %d forecast", created,
+                    instanceClass, target));
+        }
+        else if (warmInstances.size() > target) {
+            long idleBefore = now - TimeUnit.HOURS.toMillis(poolConfiguration.getIdleReclaimHours());
+            warmInstances.sort(Comparator.comparing(WarmInstance::getCreateTime));
+            int surplus = warmInstances.size() - target;
+            for (WarmInstance warmInstance : new ArrayList<>(warmInstances)) {
+                if (surplus == 0) {
+                    break;
+                }
+                if (warmInstance.isReady() && warmInstance.getReadyTime().get() < idleBefore
+                        && warmInstanceDAO.removeWarmInstance(instanceClass,
+                        warmInstance.getInstanceIdentifier())) {
+                    logger.info(String.format("Reclaiming warm instance %s idle since %d",
+                            warmInstance.getInstanceIdentifier(),
+                            warmInstance.getReadyTime().get()));
+                    discard(dbInstances.get(warmInstance.getInstanceIdentifier()));
+                    warmInstances.remove(warmInstance);
+                    reclaimedMeter.mark();
+                    surplus--;
+                }
+            }
+        }
+
+        int idle = 0;
+        double hours = 0;
+        for (WarmInstance warmInstance : warmInstances) {
+            if (warmInstance.isReady()) {
+                idle++;
+                hours += (now - warmInstance.getReadyTime().get()) / (double) TimeUnit.HOURS.toMillis(1);
+            }
+        }
+        idleInstances.put(instanceClass, idle);
+        idleHours.put(instanceClass, hours);
+
+        warmInstanceDAO.pruneDemand(instanceClass,
+                now - TimeUnit.HOURS.toMillis(poolConfiguration.getForecastWindowHours()));
+        return created;
+    }
+
+    /**
+     * @return the warm instances of the class to keep, the creates expected over the lead time
+     * at the rate seen over the forecast window
+     */
+    int forecast(String instanceClass, long now) {
+        long windowMinutes = TimeUnit.HOURS.toMinutes(poolConfiguration.getForecastWindowHours());
+        int demand = warmInstanceDAO.countDemand(instanceClass,
+                now - TimeUnit.MINUTES.toMillis(windowMinutes));
+        int expected = (int) Math.ceil(
+                (double) demand * poolConfiguration.getLeadTimeMinutes() / windowMinutes);
+        return Math.max(poolConfiguration.getMinPerClass(),
+                Math.min(poolConfiguration.getMaxPerClass(), expected));
+    }
+
+    double getIdleHourlyCost() {
+        double cost = 0;
+        for (Map.Entry<String, Integer> idle : idleInstances.entrySet()) {
+            cost += idle.getValue() * poolConfiguration.getHourlyCost().getOrDefault(
+                    idle.getKey().substring(CLASS_PREFIX.length()), 0.0);
+        }
+        return cost;
+    }
+
+    private void discard(DBInstance dbInstance) {
+        try {
+            instanceManager.deleteInstance(databaseIDHelper.getDatabaseInstanceId(dbInstance));
+        } catch (Exception e) {
+            logger.error(String.format("Warm instance %s is off the pool but could not be deleted",
+                    dbInstance.getDBInstanceIdentifier()), e);
+        }
+    }
+
+    @Override
+    protected AbstractScheduledService.Scheduler scheduler() {
+        return AbstractScheduledService.Scheduler.newFixedDelaySchedule(
+                poolConfiguration.getRefillIntervalSeconds(),
+                poolConfiguration.getRefillIntervalSeconds(), TimeUnit.SECONDS);
+    }
+}
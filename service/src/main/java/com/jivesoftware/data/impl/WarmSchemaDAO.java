@@ -0,0 +1,212 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.ListTagsOfResourceRequest;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
+import com.amazonaws.services.dynamodbv2.model.Tag;
+import com.amazonaws.services.dynamodbv2.model.TagResourceRequest;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.jivesoftware.data.DBaaSConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Lists the warm schemas waiting to be claimed, keyed by the shared instance they were made on.
+ *
+ * An item only exists while its schema is unclaimed. Claiming deletes the item on the condition
+ * that it is still there, so of all the nodes trying the same schema exactly one gets it.
+ */
+@Singleton
+public class WarmSchemaDAO {
+
+    private final static Logger LOG = LoggerFactory.getLogger(WarmSchemaDAO.class);
+
+    private static final String MANAGED_BY_SERVICE_COMPONENT_TAG_KEY = "managed_by_service";
+    private static final String MAKO_ENVIRONMENT = "mako-environment";
+    private static final String CLAIMED_CONDITION = "attribute_exists(schemaName)";
+    // kept under an instanceId no shared instance has, so it never reads as a warm schema
+    private static final String LEASE_INSTANCE = "lease";
+    private static final String REFILL_LEASE = "refill";
+    private static final String LEASE_CONDITION =
+            "attribute_not_exists(schemaName) OR expiresAt < :now OR holder = :holder";
+    // candidates read per claim, shuffled so concurrent claims mostly try different schemas
+    private static final int CLAIM_CANDIDATES = 5;
+
+    private final AmazonDynamoDBClient client;
+    private final DBaaSConfiguration dBaaSConfiguration;
+    private final DBaaSConfiguration.WarmPoolConfiguration warmPoolConfiguration;
+    private final Meter conflictMeter;
+    private volatile Table table;
+
+    @Inject
+    public WarmSchemaDAO(AmazonDynamoDBClient client, DBaaSConfiguration dBaaSConfiguration,
+                         MetricRegistry metricRegistry) {
+        this.client = client;
+        this.dBaaSConfiguration = dBaaSConfiguration;
+        this.warmPoolConfiguration = dBaaSConfiguration.getWarmPool();
+        this.conflictMeter = metricRegistry.meter(name(WarmSchemaDAO.class, "claimConflicts"));
+    }
+
+    /**
+     * Records a schema created on the instance and not yet claimed.
+     */
+    public void putWarmSchema(String instanceId, String schemaName) {
+        getTable().putItem(new Item()
+                .withPrimaryKey("instanceId", instanceId, "schemaName", schemaName)
+                .withLong("createTime", System.currentTimeMillis()));
+    }
+
+    /**
+     * @return the unclaimed schemas of the instance
+     */
+    public List<String> getWarmSchemas(String instanceId) {
+        List<String> schemaNames = new ArrayList<>();
+        for (Item item : getTable().query(new QuerySpec()
+                .withHashKey("instanceId", instanceId)
+                .withProjectionExpression("schemaName")
+                .withConsistentRead(true))) {
+            schemaNames.add(item.getString("schemaName"));
+        }
+        return schemaNames;
+    }
+
+    /**
+     * Takes one unclaimed schema of the instance off the list.
+     *
+     * @return the schema claimed, empty if the instance has none left
+     */
+    public Optional<String> claimWarmSchema(String instanceId) {
+        List<String> candidates = new ArrayList<>();
+        for (Item item : getTable().query(new QuerySpec()
+                .withHashKey("instanceId", instanceId)
+                .withProjectionExpression("schemaName")
+                .withMaxResultSize(CLAIM_CANDIDATES))) {
+            candidates.add(item.getString("schemaName"));
+        }
+        Collections.shuffle(candidates);
+
+        for (String schemaName : candidates) {
+            try {
+                getTable().deleteItem(new DeleteItemSpec()
+                        .withPrimaryKey("instanceId", instanceId, "schemaName", schemaName)
+                        .withConditionExpression(CLAIMED_CONDITION));
+                return Optional.of(schemaName);
+            } catch (ConditionalCheckFailedException e) {
+                conflictMeter.mark();
+                LOG.debug(String.format("Warm schema %s was claimed by someone else", schemaName));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Takes or renews the refill lease, so only one node creates warm schemas at a time.
+     *
+     * @return whether the caller holds the lease until the given number of seconds from now
+     */
+    public boolean tryRefillLease(String holder, long seconds) {
+        long now = System.currentTimeMillis();
+        try {
+            getTable().putItem(new PutItemSpec()
+                    .withItem(new Item()
+                            .withPrimaryKey("instanceId", LEASE_INSTANCE,
+                                    "schemaName", REFILL_LEASE)
+                            .withString("holder", holder)
+                            .withLong("expiresAt", now + seconds * 1000))
+                    .withConditionExpression(LEASE_CONDITION)
+                    .withValueMap(ImmutableMap.of(":now", now, ":holder", holder)));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    private Table getTable() {
+        if (table == null) {
+            synchronized (this) {
+                if (table == null) {
+                    table = createTable();
+                }
+            }
+        }
+        return table;
+    }
+
+    private Table createTable() {
+        DynamoDB dynamoDB = makeDynamo();
+        Table warmTable;
+        try {
+            CreateTableRequest request = new CreateTableRequest()
+                    .withTableName(warmPoolConfiguration.getTableName())
+                    .withKeySchema(ImmutableList.of(
+                            new KeySchemaElement("instanceId", KeyType.HASH),
+                            new KeySchemaElement("schemaName", KeyType.RANGE)))
+                    .withAttributeDefinitions(ImmutableList.of(
+                            new AttributeDefinition().withAttributeName("instanceId")
+                                    .withAttributeType("S"),
+                            new AttributeDefinition().withAttributeName("schemaName")
+                                    .withAttributeType("S")))
+                    .withProvisionedThroughput(new ProvisionedThroughput()
+                            .withReadCapacityUnits(warmPoolConfiguration.getReadUnits())
+                            .withWriteCapacityUnits(warmPoolConfiguration.getWriteUnits()));
+
+            warmTable = dynamoDB.createTable(request);
+        } catch (ResourceInUseException e) {
+            warmTable = dynamoDB.getTable(warmPoolConfiguration.getTableName());
+        }
+
+        try {
+            warmTable.waitForActive();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        TableDescription tableDescription = warmTable.getDescription();
+        String tableARN = tableDescription.getTableArn();
+        ListTagsOfResourceRequest tagQueryRequest = new ListTagsOfResourceRequest().withResourceArn(tableARN);
+        if(!client.listTagsOfResource(tagQueryRequest).getTags().removeAll(getTags())) {
+            LOG.debug(String.format("Adding tags to table %s", tableDescription.getTableName()));
+            client.tagResource(new TagResourceRequest().withResourceArn(tableARN).withTags(getTags()));
+        }
+        return warmTable;
+    }
+
+    private ImmutableSet<Tag> getTags() {
+        return new ImmutableSet.Builder<Tag>()
+                .add(new Tag().withKey(MAKO_ENVIRONMENT)
+                        .withValue(dBaaSConfiguration.getMakoEnvironment()))
+                .add(new Tag().withKey(MANAGED_BY_SERVICE_COMPONENT_TAG_KEY)
+                        .withValue(dBaaSConfiguration.getManagedServiceTag()))
+                .build();
+    }
+
+    DynamoDB makeDynamo() {
+        return new DynamoDB(client);
+    }
+}
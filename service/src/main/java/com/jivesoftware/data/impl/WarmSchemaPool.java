@@ -0,0 +1,245 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.impl.placement.PlacementStrategy;
+import com.jivesoftware.data.resources.entities.Database;
+import com.jivesoftware.data.resources.entities.DatabaseCreateResponse;
+import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
+import com.jivesoftware.data.resources.entities.DatabaseStatus;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Keeps a few schemas created ahead of time on every eligible shared instance, with their
+ * extensions installed and a password nobody knows.
+ *
+ * A shared create claims one of them, renames it and its user after the new database, sets a
+ * new password and is READY before the request returns, instead of waiting for the creation queue
+ * and the schema step. Creates that clone another database, or find no warm schema on the instance
+ * chosen for them, take the queue. Only the node holding the refill lease creates warm schemas.
+ */
+@Singleton
+public class WarmSchemaPool extends AbstractScheduledService {
+
+    private final static Logger logger = LoggerFactory.getLogger(WarmSchemaPool.class);
+
+    private static final String WARM_PREFIX = "warm_";
+    private static final int WARM_UNIQUE_LENGTH = 12;
+
+    private final DBaaSConfiguration.WarmPoolConfiguration warmPoolConfiguration;
+    private final WarmSchemaDAO warmSchemaDAO;
+    private final DatabaseDAO databaseDAO;
+    private final DatabaseIDHelper databaseIDHelper;
+    private final SchemaManager schemaManager;
+    private final PasswordManager passwordManager;
+    private final SharedInstanceIndex sharedInstanceIndex;
+    private final PlacementStrategy placementStrategy;
+    private final Map<String, Integer> available = new ConcurrentHashMap<>();
+    private final String leaseHolder = UUID.randomUUID().toString();
+    private final Meter claimedMeter;
+    private final Meter missedMeter;
+    private final Meter createdMeter;
+    private final Timer claimTimer;
+
+    @Inject
+    public WarmSchemaPool(DBaaSConfiguration dBaaSConfiguration,
+                          WarmSchemaDAO warmSchemaDAO,
+                          DatabaseDAO databaseDAO,
+                          DatabaseIDHelper databaseIDHelper,
+                          SchemaManager schemaManager,
+                          PasswordManager passwordManager,
+                          SharedInstanceIndex sharedInstanceIndex,
+                          PlacementStrategy placementStrategy,
+                          MetricRegistry metricRegistry) {
+        this.warmPoolConfiguration = dBaaSConfiguration.getWarmPool();
+        this.warmSchemaDAO = warmSchemaDAO;
+        this.databaseDAO = databaseDAO;
+        this.databaseIDHelper = databaseIDHelper;
+        this.schemaManager = schemaManager;
+        this.passwordManager = passwordManager;
+        this.sharedInstanceIndex = sharedInstanceIndex;
+        this.placementStrategy = placementStrategy;
+        this.claimedMeter = metricRegistry.meter(name(WarmSchemaPool.class, "claimed"));
+        this.missedMeter = metricRegistry.meter(name(WarmSchemaPool.class, "missed"));
+        this.createdMeter = metricRegistry.meter(name(WarmSchemaPool.class, "created"));
+        this.claimTimer = metricRegistry.timer(name(WarmSchemaPool.class, "claim"));
+        metricRegistry.register(name(WarmSchemaPool.class, "available"),
+                (Gauge<Integer>) () -> available.values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    /**
+     * Serves a shared create from the warm pool.
+     *
+     * @return the new database, already READY. Empty if the request has to take the creation
+     * queue instead.
+     */
+    public Optional<DatabaseCreateResponse> claim(DatabaseCreationRequest databaseCreationRequest) {
+
+        if (!warmPoolConfiguration.getEnabled()
+                || databaseCreationRequest.getTenancyType() != DatabaseCreationRequest.TenancyType.SHARED
+                || databaseCreationRequest.getSourceDatabaseIdOptional().isPresent()) {
+            return Optional.empty();
+        }
+
+        final Timer.Context context = claimTimer.time();
+        try {
+            Optional<DBInstance> dbInstance = sharedInstanceIndex.findSharedInstance(
+                    placementStrategy);
+            if (!dbInstance.isPresent()) {
+                return Optional.empty();
+            }
+            String instanceId = databaseIDHelper.getDatabaseInstanceId(dbInstance.get());
+            Optional<String> warmSchema = warmSchemaDAO.claimWarmSchema(instanceId);
+            if (!warmSchema.isPresent()) {
+                missedMeter.mark();
+                logger.debug(String.format("No warm schema left on %s", instanceId));
+                return Optional.empty();
+            }
+            available.computeIfPresent(instanceId, (id, count) -> Math.max(0, count - 1));
+
+            String schemaName = warmSchema.get();
+            String databaseId = databaseIDHelper.generateDatabaseId(
+                    databaseCreationRequest.getCategory());
+            String password = passwordManager.generatePassword();
+            MasterDatabase masterDatabase = getMasterDatabase(dbInstance.get());
+            try {
+                // named after the database like any other schema, so hard delete, user creation
+                // and monitoring find it where they expect it
+                schemaManager.renameSchema(masterDatabase, schemaName, schemaName, databaseId,
+                        databaseId, password);
+                // from here on a failure has to drop the schema under its new name
+                schemaName = databaseId;
+                databaseDAO.putDatabase(databaseId, instanceId,
+                        new Database(databaseId, databaseId,
+                                dbInstance.get().getEndpoint().getAddress(),
+                                dbInstance.get().getEndpoint().getPort(),
+                                databaseId),
+                        databaseCreationRequest.getDataLocality(),
+                        databaseCreationRequest.getTenancyType(),
+                        databaseCreationRequest.getServiceTag());
+                databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.READY,
+                        null, databaseId));
+            } catch (Exception e) {
+                logger.error(String.format("Error handing out warm schema %s as %s",
+                        warmSchema.get(), databaseId), e);
+                discard(masterDatabase, schemaName);
+                return Optional.empty();
+            }
+
+            sharedInstanceIndex.recordPlacement(dbInstance.get().getDBInstanceIdentifier());
+            claimedMeter.mark();
+            logger.debug(String.format("Warm schema %s claimed as %s", warmSchema.get(),
+                    databaseId));
+            return Optional.of(new DatabaseCreateResponse(databaseId, password));
+        } finally {
+            context.stop();
+        }
+    }
+
+    /**
+     * Tops every eligible shared instance back up to perInstance warm schemas.
+     */
+    @Override
+    protected void runOneIteration() throws Exception {
+        if (!warmPoolConfiguration.getEnabled()) {
+            return;
+        }
+        if (!tryLease()) {
+            logger.debug("Another node is refilling the warm schema pool");
+            return;
+        }
+
+        int budget = warmPoolConfiguration.getMaxCreatesPerRefill();
+        for (SharedInstanceEntry entry : sharedInstanceIndex.getEligibleEntries()) {
+            if (budget <= 0) {
+                logger.debug("Warm pool refill budget used up, continuing on the next refill");
+                return;
+            }
+            budget -= refill(entry.getDbInstance(), budget);
+            if (!tryLease()) {
+                logger.warn("Lost the warm pool refill lease, leaving the rest to its holder");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes or renews the refill lease. It is renewed after every schema, one instance alone can
+     * take longer to top up than the lease lasts.
+     */
+    private boolean tryLease() {
+        return warmSchemaDAO.tryRefillLease(leaseHolder,
+                2L * warmPoolConfiguration.getRefillIntervalSeconds());
+    }
+
+    private int refill(DBInstance dbInstance, int budget) {
+        String instanceId = databaseIDHelper.getDatabaseInstanceId(dbInstance);
+        int created = 0;
+        try {
+            int warm = warmSchemaDAO.getWarmSchemas(instanceId).size();
+            available.put(instanceId, warm);
+            int missing = Math.min(budget, warmPoolConfiguration.getPerInstance() - warm);
+            if (missing <= 0) {
+                return 0;
+            }
+
+            MasterDatabase masterDatabase = getMasterDatabase(dbInstance);
+            for (; created < missing; created++) {
+                if (created > 0 && !tryLease()) {
+                    break;
+                }
+                String schemaName = WARM_PREFIX + RandomStringUtils.randomAlphanumeric(
+                        WARM_UNIQUE_LENGTH).toLowerCase();
+                schemaManager.createSchema(masterDatabase, schemaName, schemaName,
+                        passwordManager.generatePassword(), true);
+                warmSchemaDAO.putWarmSchema(instanceId, schemaName);
+                available.merge(instanceId, 1, Integer::sum);
+                createdMeter.mark();
+            }
+            logger.debug(String.format("Added %d warm schemas to %s", created, instanceId));
+        } catch (Exception e) {
+            logger.error(String.format("Error refilling the warm schemas of %s", instanceId), e);
+        }
+        return created;
+    }
+
+    private void discard(MasterDatabase masterDatabase, String schemaName) {
+        try {
+            schemaManager.hardDeleteSchema(masterDatabase, schemaName, schemaName);
+        } catch (Exception e) {
+            logger.error(String.format("Warm schema %s is claimed but could not be dropped",
+                    schemaName), e);
+        }
+    }
+
+    private MasterDatabase getMasterDatabase(DBInstance host) {
+        String password = passwordManager.getInstance(databaseIDHelper.getDatabaseInstanceId(host))
+                .get().getPassword();
+        return new MasterDatabase(host.getEndpoint().getAddress(),
+                host.getMasterUsername(), password, host.getEndpoint().getPort(), host.getDBName());
+    }
+
+    @Override
+    protected AbstractScheduledService.Scheduler scheduler() {
+        return AbstractScheduledService.Scheduler.newFixedDelaySchedule(
+                warmPoolConfiguration.getRefillIntervalSeconds(),
+                warmPoolConfiguration.getRefillIntervalSeconds(), TimeUnit.SECONDS);
+    }
+}
@@ -7,6 +7,7 @@ import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.QueueSendingException;
 import com.jivesoftware.data.impl.DatabaseDAO;
 import com.jivesoftware.data.impl.PasswordManager;
+import com.jivesoftware.data.impl.PollingBackoff;
 import com.jivesoftware.data.resources.entities.DatabaseStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,12 +23,14 @@ public class InstanceDeleteRequestProcessor extends AbstractScheduledService {
 
     private static final String STEP_REQUEST_KEY = "step";
     private static final String PASSWORD = "password";
+    private static final String ATTEMPT = "attempt";
 
     private final AmazonSQS sqs;
     private final DatabaseDAO databaseDAO;
     private final DeletionStepProcessorFactory deletionStepProcessorFactory;
     private final PasswordManager passwordManager;
     private final DBaaSConfiguration.QueueConfig deleteQueue;
+    private final PollingBackoff pollingBackoff;
 
     @Inject
     public InstanceDeleteRequestProcessor(AmazonSQS sqs,
@@ -41,6 +44,7 @@ public class InstanceDeleteRequestProcessor extends AbstractScheduledService {
         this.deletionStepProcessorFactory = deletionStepProcessorFactory;
         this.passwordManager = passwordManager;
         this.deleteQueue = dBaaSConfiguration.getDeletionQueue();
+        this.pollingBackoff = new PollingBackoff(dBaaSConfiguration.getPollingBackoff());
 
         try {
             this.sqs.getQueueUrl(deleteQueue.getQueueName());
@@ -70,7 +74,8 @@ public class InstanceDeleteRequestProcessor extends AbstractScheduledService {
                 ReceiveMessageRequest receiveMessageRequest = new ReceiveMessageRequest(myQueueUrl)
                         .withMessageAttributeNames(
                                 STEP_REQUEST_KEY,
-                                PASSWORD);
+                                PASSWORD,
+                                ATTEMPT);
         List<Message> messages = sqs.receiveMessage(receiveMessageRequest).getMessages();
         for (Message message : messages) {
             if (message.getMessageAttributes().isEmpty()) {
@@ -89,7 +94,14 @@ public class InstanceDeleteRequestProcessor extends AbstractScheduledService {
                         .process(databaseId, password);
 
                 if (nextStep.isPresent()) {
-                    requestStep(databaseId, nextStep.get(), password);
+                    // a step handing back itself is waiting on RDS, check again after a growing delay
+                    int attempt = nextStep.get() != step ? 0 : getAttempt(message) + 1;
+                    if (pollingBackoff.isExhausted(attempt)) {
+                        throw new IllegalStateException(String.format(
+                                "Step %s still not done after %d checks", step.name(),
+                                pollingBackoff.getMaxAttempts()));
+                    }
+                    requestStep(databaseId, nextStep.get(), password, attempt);
                 }
                 else {
                     databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.DELETED,
@@ -108,19 +120,39 @@ public class InstanceDeleteRequestProcessor extends AbstractScheduledService {
         }
     }
 
+    private int getAttempt(Message message) {
+        MessageAttributeValue attempt = message.getMessageAttributes().get(ATTEMPT);
+        return attempt == null ? 0 : Integer.parseInt(attempt.getStringValue());
+    }
+
     public void requestStep(String databaseId, DeletionStep deletionStep, String password) {
+        requestStep(databaseId, deletionStep, password, 0);
+    }
+
+    /**
+     * Sends the step, held back by the polling backoff for the given attempt. The first attempt
+     * is sent without a delay.
+     */
+    void requestStep(String databaseId, DeletionStep deletionStep, String password, int attempt) {
 
         try {
-            sqs.sendMessage(new SendMessageRequest(sqs.getQueueUrl(
+            SendMessageRequest sendMessageRequest = new SendMessageRequest(sqs.getQueueUrl(
                     deleteQueue.getQueueName())
                     .getQueueUrl(),
                     databaseId)
+                    .withDelaySeconds(pollingBackoff.getDelaySeconds(attempt))
                     .addMessageAttributesEntry(STEP_REQUEST_KEY,
                             new MessageAttributeValue().withDataType("String")
                                     .withStringValue(deletionStep.name()))
                     .addMessageAttributesEntry(PASSWORD,
                             new MessageAttributeValue().withDataType("String")
-                                    .withStringValue(password)));
+                                    .withStringValue(password));
+            if (attempt > 0) {
+                sendMessageRequest.addMessageAttributesEntry(ATTEMPT,
+                        new MessageAttributeValue().withDataType("Number")
+                                .withStringValue(String.valueOf(attempt)));
+            }
+            sqs.sendMessage(sendMessageRequest);
         }
         catch (Exception e) {
             logger.error(String.format("Step %s had an exception for %s",
@@ -1,23 +1,72 @@
 package com.jivesoftware.data.impl.message_serializer;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.jivesoftware.data.exceptions.EncryptionException;
-import com.jivesoftware.data.impl.CreationRequestMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.ion.IonReader;
+import software.amazon.ion.IonSystem;
+import software.amazon.ion.IonType;
+import software.amazon.ion.IonWriter;
+import software.amazon.ion.SymbolTable;
+import software.amazon.ion.system.IonSystemBuilder;
+import software.amazon.ion.system.SimpleCatalog;
 
 import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class CreationMessageSerializer {
 
     private final static Logger logger = LoggerFactory.getLogger(CreationMessageSerializer.class);
 
+    static final String SYMBOL_TABLE_NAME = "com.jivesoftware.data.creation";
+    private static final int SYMBOL_TABLE_VERSION = 2;
+
+    // Field names and enum values written as symbol ids of this shared table instead of text. A
+    // symbol's id is its position, so never reorder or remove one: new names go at the end under
+    // a new table version, with the previous version kept in the catalog for messages in flight.
+    static final List<String> SYMBOLS_V1 = ImmutableList.of(
+            "databaseId", "password", "creationStep", "attempt", "databaseCreationRequest",
+            "category", "tenancyType", "instanceClass", "instanceStorage", "dataLocality",
+            "serviceTag", "serviceComponentTag", "sourceDatabaseId", "highlyAvailable",
+            "INSTANCE", "INSTANCE_READY", "SCHEMA", "CLONE",
+            "SHARED", "DEDICATED", "US", "EU");
+    // appended by version 2, which Ion builds from version 1 plus these
+    private static final List<String> SYMBOLS_V2 = ImmutableList.of(
+            "cloneEngine", "DUMP", "COPY", "PARALLEL", "STORAGE", "CREDENTIALS");
+    private static final Set<String> SYMBOL_VALUES = new ImmutableSet.Builder<String>()
+            .addAll(SYMBOLS_V1)
+            .addAll(SYMBOLS_V2)
+            .build();
+
     private final ObjectMapper objectMapper;
+    private final IonSystem ionSystem;
+    private final SymbolTable creationSymbols;
 
     @Inject
     public CreationMessageSerializer(ObjectMapper objectMapper) {
         this.objectMapper = objectMapper;
+
+        SimpleCatalog catalog = new SimpleCatalog();
+        catalog.putTable(IonSystemBuilder.standard().build().newSharedSymbolTable(
+                SYMBOL_TABLE_NAME, 1, SYMBOLS_V1.iterator()));
+        this.creationSymbols = IonSystemBuilder.standard().withCatalog(catalog).build()
+                .newSharedSymbolTable(SYMBOL_TABLE_NAME, SYMBOL_TABLE_VERSION,
+                        SYMBOLS_V2.iterator());
+        catalog.putTable(creationSymbols);
+        this.ionSystem = IonSystemBuilder.standard().withCatalog(catalog).build();
     }
 
     public <T> String serialize(T message) {
@@ -40,4 +89,118 @@ public class CreationMessageSerializer {
             throw new EncryptionException(e.getMessage());
         }
     }
+
+    /**
+     * Writes the message as binary Ion, mapped the same way as {@link #serialize(Object)} but
+     * with the known field names and enum values taken from a shared symbol table.
+     */
+    public <T> byte[] serializeBinary(T message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (IonWriter writer = ionSystem.newBinaryWriter(out, creationSymbols)) {
+            writeNode(writer, objectMapper.valueToTree(message));
+        } catch (Exception e) {
+            logger.error(String.format("Failed to convert message to binary"));
+            throw new EncryptionException(e.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    public <T> T deserializeBinary(byte[] decryptedMessage, Class<T> deserializeType) {
+
+        try (IonReader reader = ionSystem.newReader(decryptedMessage)) {
+            if (reader.next() == null) {
+                throw new EncryptionException("Binary message is empty");
+            }
+            return objectMapper.treeToValue(readNode(reader), deserializeType);
+        } catch (EncryptionException ee) {
+            throw ee;
+        } catch (Exception e) {
+            logger.error(String.format("Failed to read binary message"));
+            throw new EncryptionException(e.getMessage());
+        }
+    }
+
+    private void writeNode(IonWriter writer, JsonNode node) throws IOException {
+        switch (node.getNodeType()) {
+            case OBJECT:
+                writer.stepIn(IonType.STRUCT);
+                Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    writer.setFieldName(field.getKey());
+                    writeNode(writer, field.getValue());
+                }
+                writer.stepOut();
+                break;
+            case ARRAY:
+                writer.stepIn(IonType.LIST);
+                for (JsonNode element : node) {
+                    writeNode(writer, element);
+                }
+                writer.stepOut();
+                break;
+            case STRING:
+                if (SYMBOL_VALUES.contains(node.textValue())) {
+                    writer.writeSymbol(node.textValue());
+                } else {
+                    writer.writeString(node.textValue());
+                }
+                break;
+            case NUMBER:
+                if (node.isIntegralNumber() && node.canConvertToLong()) {
+                    writer.writeInt(node.longValue());
+                } else if (node.isIntegralNumber()) {
+                    writer.writeInt(node.bigIntegerValue());
+                } else {
+                    writer.writeDecimal(node.decimalValue());
+                }
+                break;
+            case BOOLEAN:
+                writer.writeBool(node.booleanValue());
+                break;
+            case NULL:
+                writer.writeNull();
+                break;
+            default:
+                throw new EncryptionException(String.format("Can't write %s as binary",
+                        node.getNodeType()));
+        }
+    }
+
+    private JsonNode readNode(IonReader reader) {
+        JsonNodeFactory nodes = objectMapper.getNodeFactory();
+        if (reader.isNullValue()) {
+            return nodes.nullNode();
+        }
+        switch (reader.getType()) {
+            case STRUCT:
+                ObjectNode object = nodes.objectNode();
+                reader.stepIn();
+                while (reader.next() != null) {
+                    object.set(reader.getFieldName(), readNode(reader));
+                }
+                reader.stepOut();
+                return object;
+            case LIST:
+                ArrayNode array = nodes.arrayNode();
+                reader.stepIn();
+                while (reader.next() != null) {
+                    array.add(readNode(reader));
+                }
+                reader.stepOut();
+                return array;
+            case SYMBOL:
+            case STRING:
+                return nodes.textNode(reader.stringValue());
+            case INT:
+                return nodes.numberNode(reader.bigIntegerValue());
+            case DECIMAL:
+                return nodes.numberNode(reader.bigDecimalValue());
+            case BOOL:
+                return nodes.booleanNode(reader.booleanValue());
+            default:
+                throw new EncryptionException(String.format("Unexpected %s in binary message",
+                        reader.getType()));
+        }
+    }
 }
@@ -1,31 +1,44 @@
 package com.jivesoftware.data.impl.message_serializer;
 
-import com.amazonaws.services.sqs.model.Message;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.collect.ImmutableMap;
 import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.EncryptionException;
-import com.jivesoftware.data.impl.CreationRequestMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import java.io.File;
-import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.security.AlgorithmParameters;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.security.spec.KeySpec;
+import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Encrypts queue messages with AES keys derived from the AES file. Deriving a key is deliberately
+ * slow, so every key is derived once when the file is read and again only when it is reloaded,
+ * and each thread keeps its own {@link Cipher}.
+ *
+ * Besides the unversioned password and salt the file can hold versioned keys under {@code keys}
+ * and name the one to encrypt with as {@code currentKey}. The version of the key a message was
+ * encrypted with travels with the message so it can still be decrypted after a rotation, for as
+ * long as that key stays in the file.
+ */
+@Singleton
 public class EncryptionManager {
 
     private final static Logger logger = LoggerFactory.getLogger(EncryptionManager.class);
@@ -33,60 +46,189 @@ public class EncryptionManager {
     static final String INITIALIZATION_VECTOR = "iv";
     private final static int DERIVATION_ITERATION_COUNT = 65536;
     private final static int ENCRYPTION_BITS = 256;
+    private final static String TRANSFORMATION = "AES/CBC/PKCS5PADDING";
+    private final static String AUTHENTICATED_TRANSFORMATION = "AES/GCM/NoPadding";
+    private final static int GCM_IV_BYTES = 12;
+    private final static int GCM_TAG_BITS = 128;
 
-    private String aesPassword;
-    private String aesSalt;
+    private final String aesFile;
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(
+            () -> newCipher(TRANSFORMATION));
+    private final ThreadLocal<Cipher> authenticatedCiphers = ThreadLocal.withInitial(
+            () -> newCipher(AUTHENTICATED_TRANSFORMATION));
+    private final SecureRandom random = new SecureRandom();
+
+    private volatile KeyRing keyRing = KeyRing.EMPTY;
 
     @Inject
     public EncryptionManager(DBaaSConfiguration dBaaSConfiguration) {
+        this(dBaaSConfiguration.getAesFile());
+    }
 
-        AESValues aesValues;
-        String aesFile = dBaaSConfiguration.getAesFile();
-
+    EncryptionManager(String aesFile) {
+        this.aesFile = aesFile;
         try {
-            ObjectMapper objectMapper = new ObjectMapper(new YAMLFactory());
-            aesValues = objectMapper.readValue(new File(aesFile),
-                    AESValues.class);
-            this.aesPassword = aesValues.getPassword();
-            this.aesSalt = aesValues.getSalt();
+            reload();
         }
         catch (Exception e) {
             logger.error(String.format("Error reading instance crypto file %s", aesFile), e);
-            this.aesPassword = null;
-            this.aesSalt = null;
         }
     }
 
-    public EncryptionObject encrypt(String serializedMessage) {
-        if(aesPassword == null || aesSalt == null){
-            throw new EncryptionException("AES password and salt uninitialized on startup. Encryption impossible");
+    /**
+     * Reads the AES file again and derives its keys. The keys in use are only replaced once the
+     * whole file was read, a file that can't be read leaves them as they were.
+     */
+    public void reload() {
+        AESValues aesValues;
+        try {
+            ObjectMapper objectMapper = new ObjectMapper(new YAMLFactory());
+            aesValues = objectMapper.readValue(new File(aesFile), AESValues.class);
+        } catch (Exception e) {
+            throw new EncryptionException(String.format("Error reading instance crypto file %s: %s",
+                    aesFile, e.getMessage()));
+        }
+
+        Optional<SecretKey> unversionedKey = Optional.empty();
+        if (aesValues.getPassword() != null && aesValues.getSalt() != null) {
+            unversionedKey = Optional.of(deriveKey(aesValues.getPassword(), aesValues.getSalt()));
+        }
+        ImmutableMap.Builder<String, SecretKey> versionedKeys = ImmutableMap.builder();
+        for (Map.Entry<String, AESValues> key : aesValues.getKeys().entrySet()) {
+            versionedKeys.put(key.getKey(),
+                    deriveKey(key.getValue().getPassword(), key.getValue().getSalt()));
+        }
+
+        KeyRing reloaded = new KeyRing(unversionedKey, versionedKeys.build(),
+                Optional.ofNullable(aesValues.getCurrentKey()));
+        if (reloaded.currentKeyVersion.isPresent()
+                && !reloaded.versionedKeys.containsKey(reloaded.currentKeyVersion.get())) {
+            throw new EncryptionException(String.format("Current key %s is not in crypto file %s",
+                    reloaded.currentKeyVersion.get(), aesFile));
         }
+        keyRing = reloaded;
+        logger.info(String.format("Loaded %d versioned keys from %s, encrypting with %s",
+                reloaded.versionedKeys.size(), aesFile,
+                reloaded.currentKeyVersion.orElse("the unversioned key")));
+    }
+
+    public EncryptionObject encrypt(String serializedMessage) {
+        KeyRing keys = keyRing;
+        Optional<String> keyVersion = keys.currentKeyVersion;
+        SecretKey secret = getEncryptionKey(keys);
         try{
-            Cipher cipher = initializeCipher(Optional.empty());
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, secret);
 
-            AlgorithmParameters params = cipher.getParameters();
-            byte[] iv = params.getParameterSpec(IvParameterSpec.class).getIV();
-            byte[] encrypted = cipher.doFinal(serializedMessage.getBytes());
+            byte[] iv = cipher.getParameters().getParameterSpec(IvParameterSpec.class).getIV();
+            byte[] encrypted = cipher.doFinal(serializedMessage.getBytes(StandardCharsets.UTF_8));
 
-            return new EncryptionObject(iv, encrypted);
+            return new EncryptionObject(iv, encrypted, keyVersion);
         } catch (Exception e) {
             throw new EncryptionException(String.format(e.getMessage()));
         }
     }
 
     public String decrypt(EncryptionObject encryptedMessage) {
-        if(aesPassword == null || aesSalt == null){
-            throw new EncryptionException("AES password and salt uninitialized on startup. Encryption impossible");
+        SecretKey secret = getDecryptionKey(encryptedMessage.getKeyVersion());
+        try{
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, secret,
+                    new IvParameterSpec(encryptedMessage.getIV()));
+            return new String(cipher.doFinal(encryptedMessage.getEncryptedMessage()),
+                    StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new EncryptionException(String.format(e.getMessage()));
+        }
+
+    }
+
+    /**
+     * Encrypts with AES/GCM, so {@link #open(EncryptionObject)} detects any change to the
+     * encrypted bytes without a separate MAC.
+     */
+    public EncryptionObject seal(byte[] message) {
+        KeyRing keys = keyRing;
+        Optional<String> keyVersion = keys.currentKeyVersion;
+        SecretKey secret = getEncryptionKey(keys);
+        try{
+            byte[] iv = new byte[GCM_IV_BYTES];
+            random.nextBytes(iv);
+            Cipher cipher = authenticatedCiphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, secret, new GCMParameterSpec(GCM_TAG_BITS, iv));
+
+            return new EncryptionObject(iv, cipher.doFinal(message), keyVersion);
+        } catch (Exception e) {
+            throw new EncryptionException(String.format(e.getMessage()));
+        }
+    }
+
+    public byte[] open(EncryptionObject sealedMessage) {
+        SecretKey secret = getDecryptionKey(sealedMessage.getKeyVersion());
+        try{
+            Cipher cipher = authenticatedCiphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, secret,
+                    new GCMParameterSpec(GCM_TAG_BITS, sealedMessage.getIV()));
+            return cipher.doFinal(sealedMessage.getEncryptedMessage());
+        } catch (AEADBadTagException e) {
+            throw new EncryptionException("Message failed its integrity check");
+        } catch (Exception e) {
+            throw new EncryptionException(String.format(e.getMessage()));
         }
-        byte[] iv = encryptedMessage.getIV();
-        byte[] encryptedBody = encryptedMessage.getEncryptedMessage();
+    }
+
+    private SecretKey getEncryptionKey(KeyRing keys) {
+        return keys.currentKeyVersion.isPresent()
+                ? keys.versionedKeys.get(keys.currentKeyVersion.get())
+                : keys.unversionedKey.orElseThrow(() -> new EncryptionException(
+                        "AES password and salt uninitialized on startup. Encryption impossible"));
+    }
+
+    private SecretKey getDecryptionKey(Optional<String> keyVersion) {
+        KeyRing keys = keyRing;
+        Optional<SecretKey> secret = keyVersion.isPresent()
+                ? Optional.ofNullable(keys.versionedKeys.get(keyVersion.get()))
+                : keys.unversionedKey;
+        return secret.orElseThrow(() -> new EncryptionException(keyVersion.isPresent()
+                ? String.format("No key %s to decrypt the message with", keyVersion.get())
+                : "AES password and salt uninitialized on startup. Encryption impossible"));
+    }
+
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new EncryptionException(e.getMessage());
+        }
+    }
+
+    static SecretKey deriveKey(String password, String salt) {
         try{
-            Cipher cipher = initializeCipher(Optional.of(iv));
-            return new String(cipher.doFinal(encryptedBody), "UTF-8");
+            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            KeySpec keySpec = new PBEKeySpec(password.toCharArray(),
+                    salt.getBytes(), DERIVATION_ITERATION_COUNT, ENCRYPTION_BITS);
+            return new SecretKeySpec((factory.generateSecret(keySpec).getEncoded()), "AES");
         } catch (Exception e) {
             throw new EncryptionException(String.format(e.getMessage()));
         }
+    }
+
+    private static class KeyRing {
+
+        private static final KeyRing EMPTY = new KeyRing(Optional.empty(), ImmutableMap.of(),
+                Optional.empty());
 
+        private final Optional<SecretKey> unversionedKey;
+        private final Map<String, SecretKey> versionedKeys;
+        private final Optional<String> currentKeyVersion;
+
+        private KeyRing(Optional<SecretKey> unversionedKey,
+                        Map<String, SecretKey> versionedKeys,
+                        Optional<String> currentKeyVersion) {
+            this.unversionedKey = unversionedKey;
+            this.versionedKeys = versionedKeys;
+            this.currentKeyVersion = currentKeyVersion;
+        }
     }
 
     @SuppressWarnings("unused")
@@ -95,6 +237,8 @@ public class EncryptionManager {
 
         private String password;
         private String salt;
+        private String currentKey;
+        private Map<String, AESValues> keys = ImmutableMap.of();
 
         @JsonProperty
         public String getPassword(){
@@ -105,25 +249,19 @@ public class EncryptionManager {
         public String getSalt(){
             return salt;
         }
-    }
 
-    protected Cipher initializeCipher(Optional<byte[]> iv) {
-        try{
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            KeySpec keySpec = new PBEKeySpec(this.aesPassword.toCharArray(),
-                    this.aesSalt.getBytes(), DERIVATION_ITERATION_COUNT, ENCRYPTION_BITS);
-            SecretKey secret = new SecretKeySpec((factory.generateSecret(keySpec).getEncoded()), "AES");
-
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            if(iv.isPresent()){
-                cipher.init(Cipher.DECRYPT_MODE, secret, new IvParameterSpec(iv.get()));
-            }
-            else {
-                cipher.init(Cipher.ENCRYPT_MODE, secret);
-            }
-            return cipher;
-        } catch (Exception e) {
-            throw new EncryptionException(String.format(e.getMessage()));
+        /**
+         * @return the version of the key to encrypt with, unset encrypts with the unversioned
+         * password and salt
+         */
+        @JsonProperty
+        public String getCurrentKey(){
+            return currentKey;
+        }
+
+        @JsonProperty
+        public Map<String, AESValues> getKeys(){
+            return keys;
         }
     }
 }
@@ -1,13 +1,21 @@
 package com.jivesoftware.data.impl.message_serializer;
 
+import java.util.Optional;
+
 public class EncryptionObject {
 
     private byte[] iv;
     private byte[] encryptedMessage;
+    private Optional<String> keyVersion;
 
     public EncryptionObject(byte[] iv, byte[] encryptedMessage){
+        this(iv, encryptedMessage, Optional.empty());
+    }
+
+    public EncryptionObject(byte[] iv, byte[] encryptedMessage, Optional<String> keyVersion){
         this.iv = iv;
         this.encryptedMessage = encryptedMessage;
+        this.keyVersion = keyVersion;
     }
 
     public byte[] getIV() {
@@ -17,4 +25,11 @@ public class EncryptionObject {
     public byte[] getEncryptedMessage() {
         return encryptedMessage;
     }
+
+    /**
+     * @return the version of the key the message is encrypted with, empty for the unversioned key
+     */
+    public Optional<String> getKeyVersion() {
+        return keyVersion;
+    }
 }
@@ -0,0 +1,28 @@
+package com.jivesoftware.data.impl.message_serializer;
+
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+
+import javax.inject.Inject;
+import java.io.PrintWriter;
+
+/**
+ * Admin task rereading the AES file after a key rotation, so the new current key is used without
+ * a restart. POST to /tasks/reload-encryption-keys on the admin port.
+ */
+public class ReloadEncryptionKeysTask extends Task {
+
+    private final EncryptionManager encryptionManager;
+
+    @Inject
+    public ReloadEncryptionKeysTask(EncryptionManager encryptionManager) {
+        super("reload-encryption-keys");
+        this.encryptionManager = encryptionManager;
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) {
+        encryptionManager.reload();
+        output.println("Encryption keys reloaded");
+    }
+}
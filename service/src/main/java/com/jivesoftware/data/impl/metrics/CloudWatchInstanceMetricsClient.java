@@ -0,0 +1,146 @@
+package com.jivesoftware.data.impl.metrics;
+
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchClient;
+import com.amazonaws.services.cloudwatch.model.*;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.jivesoftware.data.DBaaSConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.*;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Fetches CPU, connection count and free storage of many instances with GetMetricData, so a
+ * refresh costs one request per hundred queries instead of one GetMetricStatistics per instance.
+ */
+public class CloudWatchInstanceMetricsClient implements InstanceMetricsClient {
+
+    private final static Logger logger = LoggerFactory.getLogger(CloudWatchInstanceMetricsClient.class);
+
+    private static final String NAMESPACE = "AWS/RDS";
+    private static final String INSTANCE_DIMENSION = "DBInstanceIdentifier";
+    private static final String CPU_STATISTICS_NAME = "CPUUtilization";
+    private static final String CONNECTIONS_STATISTICS_NAME = "DatabaseConnections";
+    private static final String FREE_STORAGE_STATISTICS_NAME = "FreeStorageSpace";
+    private static final String MAXIMUM = "Maximum";
+    private static final String MINIMUM = "Minimum";
+    private static final String CPU_QUERY = "cpu_%d";
+    private static final String CONNECTIONS_QUERY = "connections_%d";
+    private static final String FREE_STORAGE_QUERY = "storage_%d";
+    // GetMetricData accepts at most 100 queries per request
+    private static final int MAX_QUERIES_PER_REQUEST = 100;
+
+    private final AmazonCloudWatchClient amazonCloudWatchClient;
+    private final DBaaSConfiguration.InstanceMetricsConfiguration metricsConfiguration;
+    private final Timer fetchTimer;
+    private final Meter requestMeter;
+
+    @Inject
+    public CloudWatchInstanceMetricsClient(AmazonCloudWatchClient amazonCloudWatchClient,
+                                           DBaaSConfiguration dBaaSConfiguration,
+                                           MetricRegistry metricRegistry) {
+        this.amazonCloudWatchClient = amazonCloudWatchClient;
+        this.metricsConfiguration = dBaaSConfiguration.getInstanceMetrics();
+        this.fetchTimer = metricRegistry.timer(name(CloudWatchInstanceMetricsClient.class, "fetch"));
+        this.requestMeter = metricRegistry.meter(name(CloudWatchInstanceMetricsClient.class,
+                "requests"));
+    }
+
+    @Override
+    public Map<String, InstanceMetrics> fetchMetrics(Collection<String> instanceIdentifiers) {
+
+        if (instanceIdentifiers.isEmpty()) {
+            return ImmutableMap.of();
+        }
+
+        List<String> instances = new ArrayList<>(instanceIdentifiers);
+        List<MetricDataQuery> queries = new ArrayList<>();
+        for (int i = 0; i < instances.size(); i++) {
+            String instanceId = instances.get(i);
+            queries.add(query(String.format(CPU_QUERY, i), instanceId, CPU_STATISTICS_NAME, MAXIMUM));
+            if (metricsConfiguration.isIncludeConnections()) {
+                queries.add(query(String.format(CONNECTIONS_QUERY, i), instanceId,
+                        CONNECTIONS_STATISTICS_NAME, MAXIMUM));
+            }
+            if (metricsConfiguration.isIncludeFreeStorage()) {
+                queries.add(query(String.format(FREE_STORAGE_QUERY, i), instanceId,
+                        FREE_STORAGE_STATISTICS_NAME, MINIMUM));
+            }
+        }
+
+        Date endTime = new Date();
+        Date startTime = new Date(endTime.getTime() - metricsConfiguration.getWindowSeconds() * 1000L);
+        Map<String, Double> values = new HashMap<>();
+
+        final Timer.Context context = fetchTimer.time();
+        try {
+            for (List<MetricDataQuery> batch : Lists.partition(queries, MAX_QUERIES_PER_REQUEST)) {
+                GetMetricDataRequest request = new GetMetricDataRequest()
+                        .withMetricDataQueries(batch)
+                        .withStartTime(startTime)
+                        .withEndTime(endTime);
+                GetMetricDataResult result;
+                do {
+                    requestMeter.mark();
+                    result = amazonCloudWatchClient.getMetricData(request);
+                    for (MetricDataResult dataResult : result.getMetricDataResults()) {
+                        collect(values, dataResult);
+                    }
+                    request.setNextToken(result.getNextToken());
+                } while (result.getNextToken() != null);
+            }
+        } finally {
+            context.stop();
+        }
+
+        Map<String, InstanceMetrics> metrics = new HashMap<>();
+        for (int i = 0; i < instances.size(); i++) {
+            metrics.put(instances.get(i), new InstanceMetrics(
+                    Optional.ofNullable(values.get(String.format(CPU_QUERY, i))),
+                    Optional.ofNullable(values.get(String.format(CONNECTIONS_QUERY, i))),
+                    Optional.ofNullable(values.get(String.format(FREE_STORAGE_QUERY, i)))));
+        }
+        logger.debug(String.format("Fetched metrics for %d instances with %d queries",
+                instances.size(), queries.size()));
+        return metrics;
+    }
+
+    private void collect(Map<String, Double> values, MetricDataResult dataResult) {
+        if (dataResult.getValues() == null || dataResult.getValues().isEmpty()) {
+            return;
+        }
+        // Free storage is scored on its low point, everything else on its peak. Paginated results
+        // can return more datapoints for a query already seen so merge with what we have.
+        boolean lowest = dataResult.getId().startsWith("storage_");
+        for (Double value : dataResult.getValues()) {
+            Double previous = values.get(dataResult.getId());
+            if (previous == null) {
+                values.put(dataResult.getId(), value);
+            } else {
+                values.put(dataResult.getId(),
+                        lowest ? Math.min(previous, value) : Math.max(previous, value));
+            }
+        }
+    }
+
+    private MetricDataQuery query(String id, String instanceId, String metricName, String statistic) {
+        return new MetricDataQuery()
+                .withId(id)
+                .withReturnData(true)
+                .withMetricStat(new MetricStat()
+                        .withMetric(new Metric()
+                                .withNamespace(NAMESPACE)
+                                .withMetricName(metricName)
+                                .withDimensions(new Dimension().withName(INSTANCE_DIMENSION)
+                                        .withValue(instanceId)))
+                        .withPeriod(metricsConfiguration.getPeriodSeconds())
+                        .withStat(statistic));
+    }
+}
@@ -0,0 +1,40 @@
+package com.jivesoftware.data.impl.metrics;
+
+import java.util.Optional;
+
+/**
+ * Recent CloudWatch statistics of a single RDS instance. Any of the values may be missing when
+ * CloudWatch had no datapoints for the window or the metric was not requested.
+ */
+public class InstanceMetrics {
+
+    public static final InstanceMetrics EMPTY =
+            new InstanceMetrics(Optional.empty(), Optional.empty(), Optional.empty());
+
+    private final Optional<Double> cpuMaximum;
+    private final Optional<Double> connectionsMaximum;
+    private final Optional<Double> freeStorageMinimum;
+
+    public InstanceMetrics(Optional<Double> cpuMaximum,
+                           Optional<Double> connectionsMaximum,
+                           Optional<Double> freeStorageMinimum) {
+        this.cpuMaximum = cpuMaximum;
+        this.connectionsMaximum = connectionsMaximum;
+        this.freeStorageMinimum = freeStorageMinimum;
+    }
+
+    public Optional<Double> getCpuMaximum() {
+        return cpuMaximum;
+    }
+
+    public Optional<Double> getConnectionsMaximum() {
+        return connectionsMaximum;
+    }
+
+    /**
+     * @return the lowest free storage seen in the window, in bytes
+     */
+    public Optional<Double> getFreeStorageMinimum() {
+        return freeStorageMinimum;
+    }
+}
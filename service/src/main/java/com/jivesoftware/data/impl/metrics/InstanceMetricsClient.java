@@ -0,0 +1,18 @@
+package com.jivesoftware.data.impl.metrics;
+
+import java.util.Collection;
+import java.util.Map;
+
+public interface InstanceMetricsClient {
+
+    /**
+     * Fetches the recent statistics of all the given instances in as few round trips as the
+     * backing service allows.
+     *
+     * @param instanceIdentifiers RDS instance identifiers
+     * @return metrics keyed by instance identifier; instances without data map to
+     *  {@link InstanceMetrics#EMPTY}
+     */
+    Map<String, InstanceMetrics> fetchMetrics(Collection<String> instanceIdentifiers);
+
+}
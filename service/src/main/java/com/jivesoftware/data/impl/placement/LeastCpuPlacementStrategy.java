@@ -0,0 +1,19 @@
+package com.jivesoftware.data.impl.placement;
+
+import com.jivesoftware.data.impl.SharedInstanceEntry;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Places on the instance with the lowest recent CPU maximum, the historical behaviour.
+ */
+public class LeastCpuPlacementStrategy implements PlacementStrategy {
+
+    @Override
+    public Optional<SharedInstanceEntry> choose(List<SharedInstanceEntry> candidates) {
+        return candidates.stream()
+                .min(Comparator.comparingInt(entry -> entry.getCpuMaximum().orElse(0d).intValue()));
+    }
+}
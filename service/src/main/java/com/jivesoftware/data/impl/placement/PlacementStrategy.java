@@ -0,0 +1,18 @@
+package com.jivesoftware.data.impl.placement;
+
+import com.jivesoftware.data.impl.SharedInstanceEntry;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Decides which shared instance a new shared schema is placed on.
+ */
+public interface PlacementStrategy {
+
+    /**
+     * @param candidates the ready, default tagged shared instances of this deploy color
+     * @return the instance to place the schema on, empty if there is no candidate
+     */
+    Optional<SharedInstanceEntry> choose(List<SharedInstanceEntry> candidates);
+}
@@ -0,0 +1,71 @@
+package com.jivesoftware.data.impl.placement;
+
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.impl.SharedInstanceEntry;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Scores every candidate on CPU, the number of schemas it already holds, used storage and
+ * connections, each normalized to 0..1, and places on the lowest weighted sum. CPU and storage are
+ * normalized against their absolute capacity, schema and connection counts against the busiest
+ * candidate. Missing metrics score as idle, ties go to the lowest instance identifier so the choice
+ * is deterministic.
+ */
+public class WeightedPlacementStrategy implements PlacementStrategy {
+
+    private static final double BYTES_PER_GIB = 1024d * 1024d * 1024d;
+
+    private final double cpuWeight;
+    private final double schemaCountWeight;
+    private final double storageWeight;
+    private final double connectionsWeight;
+
+    public WeightedPlacementStrategy(DBaaSConfiguration.PlacementConfiguration placementConfiguration) {
+        this.cpuWeight = placementConfiguration.getCpuWeight();
+        this.schemaCountWeight = placementConfiguration.getSchemaCountWeight();
+        this.storageWeight = placementConfiguration.getStorageWeight();
+        this.connectionsWeight = placementConfiguration.getConnectionsWeight();
+    }
+
+    @Override
+    public Optional<SharedInstanceEntry> choose(List<SharedInstanceEntry> candidates) {
+        int mostSchemas = candidates.stream()
+                .mapToInt(SharedInstanceEntry::getSchemaCount).max().orElse(0);
+        double mostConnections = candidates.stream()
+                .mapToDouble(entry -> entry.getMetrics().getConnectionsMaximum().orElse(0d))
+                .max().orElse(0d);
+
+        return candidates.stream()
+                .min(Comparator.<SharedInstanceEntry>comparingDouble(
+                        entry -> score(entry, mostSchemas, mostConnections))
+                        .thenComparing(SharedInstanceEntry::getInstanceIdentifier));
+    }
+
+    double score(SharedInstanceEntry entry, int mostSchemas, double mostConnections) {
+        double cpu = clamp(entry.getCpuMaximum().orElse(0d) / 100d);
+        double schemas = mostSchemas == 0 ? 0d : (double) entry.getSchemaCount() / mostSchemas;
+        double connections = mostConnections == 0d ? 0d :
+                entry.getMetrics().getConnectionsMaximum().orElse(0d) / mostConnections;
+
+        return cpuWeight * cpu
+                + schemaCountWeight * schemas
+                + storageWeight * usedStorage(entry)
+                + connectionsWeight * connections;
+    }
+
+    private double usedStorage(SharedInstanceEntry entry) {
+        Integer allocatedStorage = entry.getDbInstance().getAllocatedStorage();
+        Optional<Double> freeStorage = entry.getMetrics().getFreeStorageMinimum();
+        if (allocatedStorage == null || allocatedStorage <= 0 || !freeStorage.isPresent()) {
+            return 0d;
+        }
+        return clamp(1d - freeStorage.get() / (allocatedStorage * BYTES_PER_GIB));
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0d, Math.min(1d, value));
+    }
+}
@@ -16,6 +16,8 @@ import io.swagger.annotations.*;
 import javax.inject.Inject;
 import javax.validation.Valid;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.net.URI;
@@ -23,6 +25,7 @@ import java.text.Format;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.Date;
+import java.util.Set;
 
 @Api(value = "database", description = "Operations on databases")
 @Path("v1/databases")
@@ -95,6 +98,57 @@ public class DatabaseResource {
         return Response.ok().entity(databaseManager.getDatabaseStatus(databaseId)).build();
     }
 
+    @ApiOperation(value = "Wait for the status of a database",
+            notes = "Long poll that answers as soon as the database reaches one of the waitFor " +
+                    "statuses, or any other status than the current one when none are given. " +
+                    "After timeout seconds, at most 60, it answers with the latest status, " +
+                    "check it before watching again.",
+            response = DatabaseStatus.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "The status waited for, or the latest status at " +
+                    "the timeout", response = DatabaseStatus.class),
+            @ApiResponse(code = 404, message = "The database with specified id does not exist"),
+            @ApiResponse(code = 503, message = "Too many watches are waiting, poll the status instead")
+    })
+    @Path("{databaseId}/status/watch")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public void watchDatabaseStatus(@PathParam("databaseId") String databaseId,
+                                    @QueryParam("waitFor") Set<DatabaseStatus.Status> waitFor,
+                                    @QueryParam("timeout") Integer timeoutSeconds,
+                                    @Suspended AsyncResponse asyncResponse) {
+        databaseManager.watchDatabaseStatus(databaseId, waitFor, timeoutSeconds)
+                .whenComplete((status, error) -> {
+                    if (error != null) {
+                        asyncResponse.resume(error);
+                    } else {
+                        asyncResponse.resume(Response.ok().entity(status).build());
+                    }
+                });
+    }
+
+    @ApiOperation(value = "Status of several databases",
+            notes = "Request to get the status of up to 500 databases at once, keyed by database " +
+                    "id. Databases that don't exist are left out of the response.",
+            response = DatabaseStatus.class, responseContainer = "Map")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully retrieved the statuses"),
+            @ApiResponse(code = 422, message = "No database ids or more than 500 were given"),
+            @ApiResponse(code = 503, message = "DynamoDB throttled the lookup, retry later")
+    })
+    @Path("status")
+    @POST
+    @Timed
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response getDatabaseStatuses(@Valid
+                                        @ApiParam(value = "DatabaseStatusesRequest object",
+                                                required = true)
+                                        DatabaseStatusesRequest databaseStatusesRequest) {
+        return Response.ok().entity(databaseManager.getDatabaseStatuses(
+                databaseStatusesRequest.getDatabaseIds())).build();
+    }
+
     @ApiOperation(value = "Responds with 200",
             notes = "Used as status check by JCX")
     @ApiResponses(value = {
@@ -158,14 +212,22 @@ public class DatabaseResource {
         return Response.status(200).entity(databaseManager.createUser(userCreateRequest.getDatabaseId())).build();
     }
 
-    @ApiOperation(value = "Hard delete all soft deleted DBs", hidden = true)
+    @ApiOperation(value = "Start a pass hard deleting all soft deleted DBs", hidden = true)
     @Path("/harddelete")
     @DELETE
     @Timed
     @Produces(MediaType.APPLICATION_JSON)
     public Response hardDelete(@HeaderParam("token") String token) {
-        databaseManager.hardDeleteDatabase(token);
-        return Response.status(204).build();
+        return Response.status(202).entity(databaseManager.hardDeleteDatabase(token)).build();
+    }
+
+    @ApiOperation(value = "Progress of the current or last hard delete pass", hidden = true)
+    @Path("/harddelete")
+    @GET
+    @Timed
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response hardDeleteProgress(@HeaderParam("token") String token) {
+        return Response.ok().entity(databaseManager.getHardDeleteProgress(token)).build();
     }
 
     @ApiOperation(value = "Return list of available instance types",
@@ -20,7 +20,7 @@ public class RuntimeExceptionMapper implements ExceptionMapper<RuntimeException>
     @Override
     public Response toResponse(RuntimeException runtime) {
 
-        if (runtime instanceof NoCapacityException) {
+        if (runtime instanceof NoCapacityException || runtime instanceof StatusLookupException) {
             return Response
                     .status(Response.Status.SERVICE_UNAVAILABLE)
                     .entity(new ErrorInfo(runtime.getMessage()))
@@ -2,6 +2,7 @@ package com.jivesoftware.data.resources.entities;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.jivesoftware.data.resources.entities.jersey_validators.ValidMinimumStorage;
 import com.jivesoftware.data.resources.entities.jersey_validators.ClassValue;
@@ -28,6 +29,7 @@ public class DatabaseCreationRequest {
     private final String serviceComponentTag;
     private final Optional<String> sourceDatabaseId;
     private final Boolean highlyAvailable;
+    private final Optional<CloneEngine> cloneEngine;
 
     @ClassValue(message = "This is not a valid RDS class type")
     private final Optional<String> instanceClass;
@@ -53,7 +55,8 @@ public class DatabaseCreationRequest {
                                    @JsonProperty("serviceTag") String serviceTag,
                                    @JsonProperty("serviceComponentTag") String serviceComponentTag,
                                    @JsonProperty("sourceDatabaseId") String sourceDatabaseId,
-                                   @JsonProperty("highlyAvailable") Boolean highlyAvailable) {
+                                   @JsonProperty("highlyAvailable") Boolean highlyAvailable,
+                                   @JsonProperty("cloneEngine") CloneEngine cloneEngine) {
         this.category = category;
         this.tenancyType = tenancyType;
         this.instanceClass = Optional.ofNullable(instanceClass);
@@ -63,6 +66,7 @@ public class DatabaseCreationRequest {
         this.serviceComponentTag = serviceComponentTag;
         this.sourceDatabaseId = Optional.ofNullable(sourceDatabaseId);
         this.highlyAvailable = highlyAvailable;
+        this.cloneEngine = Optional.ofNullable(cloneEngine);
     }
 
     @JsonProperty(required = true)
@@ -96,6 +100,23 @@ public class DatabaseCreationRequest {
         return sourceDatabaseId;
     }
 
+    // left out when not set, so nodes that don't know the field can still read the message
+    @JsonProperty(required = false)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @ApiModelProperty(value = "How a clone copies the source database - DUMP for pg_dump and " +
+            "pg_restore, COPY for streaming the tables in parallel, PARALLEL for pg_dump and " +
+            "pg_restore with several jobs, STORAGE for restoring a dedicated source's whole instance. " +
+            "The service default when not set", required = false,
+            dataType = "string")
+    public CloneEngine getCloneEngine() {
+        return cloneEngine.orElse(null);
+    }
+
+    @JsonIgnore
+    public Optional<CloneEngine> getCloneEngineOptional() {
+        return cloneEngine;
+    }
+
     @JsonProperty(required = false, defaultValue = "m4.large")
     @ApiModelProperty(value = "The class of dedicated instance to create- " +
             "Check endpoint /allowedClasses to see specifics", required = false, dataType = "string")
@@ -164,4 +185,21 @@ public class DatabaseCreationRequest {
         }
     }
 
+    public enum CloneEngine {
+        DUMP, COPY, PARALLEL, STORAGE;
+
+        @JsonCreator
+        @SuppressWarnings("unused")
+        public static CloneEngine create(String val) {
+            CloneEngine[] engines = CloneEngine.values();
+            for (CloneEngine engine : engines) {
+                if (engine.name().equalsIgnoreCase(val)) {
+                    return engine;
+                }
+            }
+            // unknown engines are left to the service default
+            return null;
+        }
+    }
+
 }
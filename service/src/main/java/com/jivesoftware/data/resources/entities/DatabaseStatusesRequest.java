@@ -0,0 +1,30 @@
+package com.jivesoftware.data.resources.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@ApiModel(description = "A request for the status of several databases")
+public class DatabaseStatusesRequest {
+
+    public static final int MAX_DATABASE_IDS = 500;
+
+    private final List<String> databaseIds;
+
+    @JsonCreator
+    public DatabaseStatusesRequest(@JsonProperty("databaseIds") List<String> databaseIds) {
+        this.databaseIds = databaseIds;
+    }
+
+    @NotNull
+    @Size(min = 1, max = MAX_DATABASE_IDS)
+    @JsonProperty(required = true)
+    @ApiModelProperty(value = "The ids of the databases, at most 500", required = true)
+    public List<String> getDatabaseIds() {return databaseIds;}
+
+}
@@ -0,0 +1,81 @@
+package com.jivesoftware.data.resources.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+@ApiModel(description = "Progress of the current or last hard delete pass")
+public class HardDeleteProgress {
+
+    private final boolean running;
+    private final Long startedAt;
+    private final Long finishedAt;
+    private final long pages;
+    private final long reaped;
+    private final long failed;
+    private final boolean leaseHeldElsewhere;
+
+    @JsonCreator
+    public HardDeleteProgress(@JsonProperty("running") boolean running,
+                              @JsonProperty("startedAt") Long startedAt,
+                              @JsonProperty("finishedAt") Long finishedAt,
+                              @JsonProperty("pages") long pages,
+                              @JsonProperty("reaped") long reaped,
+                              @JsonProperty("failed") long failed,
+                              @JsonProperty("leaseHeldElsewhere") boolean leaseHeldElsewhere) {
+        this.running = running;
+        this.startedAt = startedAt;
+        this.finishedAt = finishedAt;
+        this.pages = pages;
+        this.reaped = reaped;
+        this.failed = failed;
+        this.leaseHeldElsewhere = leaseHeldElsewhere;
+    }
+
+    @JsonProperty(required = true)
+    @ApiModelProperty(value = "Whether a pass is running now", required = true)
+    public boolean isRunning() {
+        return running;
+    }
+
+    @JsonProperty(required = false)
+    @ApiModelProperty(value = "Epoch millis the pass started, absent before the first pass",
+            required = false)
+    public Long getStartedAt() {
+        return startedAt;
+    }
+
+    @JsonProperty(required = false)
+    @ApiModelProperty(value = "Epoch millis the pass finished, absent while it runs",
+            required = false)
+    public Long getFinishedAt() {
+        return finishedAt;
+    }
+
+    @JsonProperty(required = true)
+    @ApiModelProperty(value = "Pages of deleted databases read by the pass", required = true)
+    public long getPages() {
+        return pages;
+    }
+
+    @JsonProperty(required = true)
+    @ApiModelProperty(value = "Databases dropped and removed by the pass", required = true)
+    public long getReaped() {
+        return reaped;
+    }
+
+    @JsonProperty(required = true)
+    @ApiModelProperty(value = "Databases the pass failed to drop, retried on the next pass",
+            required = true)
+    public long getFailed() {
+        return failed;
+    }
+
+    @JsonProperty(required = true)
+    @ApiModelProperty(value = "Whether the pass was skipped because another node holds the hard " +
+            "delete lease and runs the passes", required = true)
+    public boolean isLeaseHeldElsewhere() {
+        return leaseHeldElsewhere;
+    }
+}
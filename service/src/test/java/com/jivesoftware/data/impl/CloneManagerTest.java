@@ -4,6 +4,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableMap;
 import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.CloneException;
+import com.jivesoftware.data.exceptions.SchemaOperationException;
 import com.jivesoftware.data.resources.entities.Database;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecuteResultHandler;
@@ -12,15 +13,22 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.anyString;
 
 @RunWith(MockitoJUnitRunner.class)
 public class CloneManagerTest {
@@ -41,6 +49,12 @@ public class CloneManagerTest {
     @Mock
     private com.codahale.metrics.Timer timer;
 
+    @Mock
+    private SchemaManager schemaManager;
+
+    @Mock
+    private DatabaseDAO databaseDAO;
+
     @Mock
     private MasterDatabase sourceDatabase;
 
@@ -82,6 +96,7 @@ public class CloneManagerTest {
         when(targetDatabase.getHost()).thenReturn("target_host");
         when(targetDatabase.getPort()).thenReturn(5432);
         when(targetDatabase.getSchema()).thenReturn("target_schema");
+        when(targetDatabase.getId()).thenReturn("targetId");
 
         //when(immutableMap.builder()).thenReturn(immutableMapBuilder);
         when(immutableMapBuilder.build()).thenReturn(immutableMap);
@@ -91,7 +106,8 @@ public class CloneManagerTest {
                         "${source_password} ${source_host} ${source_port} ${source_schema} " +
                         "${target_user} ${target_password} ${target_host} ${target_port} " +
                         "${target_schema}");
-        cloneManager = new CloneManager(dBaaSConfiguration, metricRegistry);
+        cloneManager = new CloneManager(dBaaSConfiguration, metricRegistry, schemaManager,
+                databaseDAO);
         cloneManagerSpy = spy(cloneManager);
         doReturn(resultHandler).when(cloneManagerSpy).getNewResultHandler();
         doReturn(executor).when(cloneManagerSpy).getNewExecutor();
@@ -119,6 +135,83 @@ public class CloneManagerTest {
         assertEquals(commandLineArgumentCaptor.getValue().toString(), expectedCommand);
     }
 
+    @Test
+    public void cloneSectionTest() throws Exception {
+
+        when(cloneConfiguration.getSectionCommand())
+                .thenReturn("../docker/app/cloneschema-section.sh ${source_user} " +
+                        "${source_password} ${source_host} ${source_port} ${source_schema} " +
+                        "${target_user} ${target_password} ${target_host} ${target_port} " +
+                        "${target_schema} ${section}");
+        String expectedCommand = "[../docker/app/cloneschema-section.sh, source_user, " +
+                "source_password, source_host, 5432, sourceSchema, target_user, targetPassword, " +
+                "target_host, 5432, target_schema, pre-data]";
+
+        ArgumentCaptor<CommandLine> commandLineArgumentCaptor =
+                ArgumentCaptor.forClass(CommandLine.class);
+
+        when(resultHandler.getException()).thenReturn(null);
+        when(resultHandler.getExitValue()).thenReturn(0);
+        when(resultHandler.hasResult()).thenReturn(true);
+
+        cloneManagerSpy.cloneSection(sourceDatabase, "sourceSchema", targetDatabase,
+                "targetPassword", "pre-data");
+
+        verify(executor).execute(commandLineArgumentCaptor.capture(), any());
+        assertEquals(commandLineArgumentCaptor.getValue().toString(), expectedCommand);
+    }
+
+    @Test
+    public void cloneSameHostTest() {
+        assertTrue(cloneManager.cloneSameHost(sourceDatabase, "sourceId", "sourceSchema",
+                "sourceUser", targetDatabase));
+
+        InOrder inOrder = inOrder(databaseDAO, schemaManager);
+        inOrder.verify(databaseDAO).addFence("sourceId/targetId");
+        inOrder.verify(schemaManager).cloneSchemaFromTemplate(sourceDatabase, "sourceSchema",
+                "sourceUser", "target_schema", "target_user");
+        inOrder.verify(databaseDAO).removeFence("sourceId/targetId");
+    }
+
+    @Test
+    public void cloneSameHostFailureTest() {
+        doThrow(new SchemaOperationException("intended exception")).when(schemaManager)
+                .cloneSchemaFromTemplate(sourceDatabase, "sourceSchema", "sourceUser",
+                        "target_schema", "target_user");
+
+        assertFalse(cloneManager.cloneSameHost(sourceDatabase, "sourceId", "sourceSchema",
+                "sourceUser", targetDatabase));
+
+        verify(schemaManager).allowConnections(sourceDatabase, "sourceSchema");
+        verify(databaseDAO).removeFence("sourceId/targetId");
+    }
+
+    @Test
+    public void cloneSameHostStillFencedTest() {
+        doThrow(new SchemaOperationException("intended exception")).when(schemaManager)
+                .cloneSchemaFromTemplate(sourceDatabase, "sourceSchema", "sourceUser",
+                        "target_schema", "target_user");
+        doThrow(new SchemaOperationException("intended exception")).when(schemaManager)
+                .allowConnections(sourceDatabase, "sourceSchema");
+
+        assertFalse(cloneManager.cloneSameHost(sourceDatabase, "sourceId", "sourceSchema",
+                "sourceUser", targetDatabase));
+
+        verify(databaseDAO, never()).removeFence(anyString());
+    }
+
+    @Test
+    public void cloneSameHostUnrecordedFenceTest() {
+        doThrow(new RuntimeException("intended exception")).when(databaseDAO)
+                .addFence(anyString());
+
+        assertFalse(cloneManager.cloneSameHost(sourceDatabase, "sourceId", "sourceSchema",
+                "sourceUser", targetDatabase));
+
+        verify(schemaManager, never()).cloneSchemaFromTemplate(any(), anyString(), anyString(),
+                anyString(), anyString());
+    }
+
     @Test(expected = CloneException.class)
     public void cloneExceptionTest() throws Exception {
 
@@ -2,6 +2,7 @@ package com.jivesoftware.data.impl;
 
 import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.Endpoint;
+import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.CloneException;
 import com.jivesoftware.data.exceptions.DatabaseNotFoundException;
 import com.jivesoftware.data.resources.entities.Database;
@@ -18,8 +19,10 @@ import java.util.Optional;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 
@@ -43,6 +46,18 @@ public class CloneProcessorTest {
     @Mock
     private PasswordManager passwordManager;
 
+    @Mock
+    private CopyCloneManager copyCloneManager;
+
+    @Mock
+    private ParallelCloneManager parallelCloneManager;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.CloneConfiguration cloneConfiguration;
+
     @Mock
     private DatabaseInfo targetDatabaseInfo;
 
@@ -85,8 +100,12 @@ public class CloneProcessorTest {
 
     @Before
     public void setup(){
+        when(dBaaSConfiguration.getCloneConfiguration()).thenReturn(cloneConfiguration);
+        when(cloneConfiguration.getEngine()).thenReturn(DatabaseCreationRequest.CloneEngine.DUMP);
+        when(databaseCreationRequest.getCloneEngineOptional()).thenReturn(Optional.empty());
         cloneProcessor = new CloneProcessor(instanceManager, databaseDAO,
-                databaseIDHelper, cloneManager, passwordManager);
+                databaseIDHelper, cloneManager, passwordManager, copyCloneManager,
+                parallelCloneManager, dBaaSConfiguration);
 
         when(targetDatabaseInfo.getInstanceId()).thenReturn("instanceId");
         when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
@@ -160,6 +179,76 @@ public class CloneProcessorTest {
         assertEquals(sourceMasterDatabaseCaptor.getValue().getUsername(), "masterUsername");
     }
 
+    @Test
+    public void cloneCreationSameHostTemplateTest(){
+        when(cloneConfiguration.getSameHostTemplate()).thenReturn(true);
+        when(databaseCreationRequest.getSourceDatabaseIdOptional())
+                .thenReturn(Optional.of("sourceDatabaseId"));
+        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(targetDatabaseInfo));
+        when(databaseDAO.getDatabaseInfo("sourceDatabaseId"))
+                .thenReturn(Optional.of(sourceDatabaseInfo));
+        when(sourceDatabase.getHost()).thenReturn("address");
+        when(sourceDatabase.getSchema()).thenReturn("schema");
+        when(sourceDatabase.getUser()).thenReturn("user");
+        when(targetDatabaseInfo.getDatabase()).thenReturn(targetDatabase);
+        when(cloneManager.cloneSameHost(any(), eq("sourceDatabaseId"), eq("schema"), eq("user"),
+                eq(targetDatabase)))
+                .thenReturn(true);
+
+        assertEquals(cloneProcessor.process("databaseId", "password", databaseCreationRequest),
+                Optional.empty());
+        verify(cloneManager, never()).clone(any(), any(), any(), any());
+
+        when(cloneManager.cloneSameHost(any(), eq("sourceDatabaseId"), eq("schema"), eq("user"),
+                eq(targetDatabase)))
+                .thenReturn(false);
+
+        assertEquals(cloneProcessor.process("databaseId", "password", databaseCreationRequest),
+                Optional.empty());
+        verify(cloneManager).clone(any(), eq("schema"), eq(targetDatabase), eq("password"));
+    }
+
+    @Test
+    public void cloneCreationCopyEngineTest(){
+        when(databaseCreationRequest.getSourceDatabaseIdOptional())
+                .thenReturn(Optional.of("sourceDatabaseId"));
+        when(databaseCreationRequest.getCloneEngineOptional())
+                .thenReturn(Optional.of(DatabaseCreationRequest.CloneEngine.COPY));
+        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(targetDatabaseInfo));
+        when(databaseDAO.getDatabaseInfo("sourceDatabaseId"))
+                .thenReturn(Optional.of(sourceDatabaseInfo));
+        when(sourceDatabase.getHost()).thenReturn("address");
+        when(sourceDatabase.getSchema()).thenReturn("schema");
+        when(targetDatabaseInfo.getDatabase()).thenReturn(targetDatabase);
+
+        assertEquals(cloneProcessor.process("databaseId", "password", databaseCreationRequest),
+                Optional.empty());
+        verify(copyCloneManager).clone(eq("databaseId"), any(), eq("schema"),
+                eq(targetDatabase), eq("password"));
+        verify(cloneManager, never()).clone(any(), any(), any(), any());
+    }
+
+    @Test
+    public void cloneCreationParallelEngineTest(){
+        when(cloneConfiguration.getEngine())
+                .thenReturn(DatabaseCreationRequest.CloneEngine.PARALLEL);
+        when(databaseCreationRequest.getSourceDatabaseIdOptional())
+                .thenReturn(Optional.of("sourceDatabaseId"));
+        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(targetDatabaseInfo));
+        when(databaseDAO.getDatabaseInfo("sourceDatabaseId"))
+                .thenReturn(Optional.of(sourceDatabaseInfo));
+        when(sourceDatabase.getHost()).thenReturn("address");
+        when(sourceDatabase.getSchema()).thenReturn("schema");
+        when(targetDatabaseInfo.getDatabase()).thenReturn(targetDatabase);
+        when(targetDBInstance.getDBInstanceClass()).thenReturn("db.m4.large");
+
+        assertEquals(cloneProcessor.process("databaseId", "password", databaseCreationRequest),
+                Optional.empty());
+        verify(parallelCloneManager).clone(any(), eq("schema"), eq("db.m4.large"),
+                eq(targetDatabase), eq("password"), eq("db.m4.large"));
+        verify(cloneManager, never()).clone(any(), any(), any(), any());
+    }
+
     @Test
     public void cloneCreationDifferentHostTest(){
         when(databaseCreationRequest.getSourceDatabaseIdOptional())
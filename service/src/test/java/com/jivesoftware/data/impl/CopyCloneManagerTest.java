@@ -0,0 +1,168 @@
+package com.jivesoftware.data.impl;
+
+import com.codahale.metrics.MetricRegistry;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.CloneException;
+import com.jivesoftware.data.resources.entities.Database;
+import com.jivesoftware.data.resources.entities.DatabaseStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOut;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CopyCloneManagerTest {
+
+    private CopyCloneManager copyCloneManager;
+
+    @Mock
+    private CloneManager cloneManager;
+
+    @Mock
+    private DatabaseDAO databaseDAO;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.CloneConfiguration cloneConfiguration;
+
+    @Mock
+    private MasterDatabase sourceDatabase;
+
+    @Mock
+    private Database targetDatabase;
+
+    @Mock
+    private Connection connection;
+
+    @Mock
+    private Statement statement;
+
+    @Mock
+    private PreparedStatement preparedStatement;
+
+    @Mock
+    private ResultSet snapshotResult;
+
+    @Mock
+    private ResultSet tablesResult;
+
+    @Mock
+    private ResultSet sequencesResult;
+
+    @Mock
+    private CopyManager copyManager;
+
+    @Mock
+    private CopyOut copyOut;
+
+    @Mock
+    private CopyIn copyIn;
+
+    @Before
+    public void setUp() throws Exception {
+        when(dBaaSConfiguration.getCloneConfiguration()).thenReturn(cloneConfiguration);
+        when(cloneConfiguration.getCopyThreads()).thenReturn(1);
+        when(cloneConfiguration.getExecutionTimeout()).thenReturn(10000L);
+        when(cloneConfiguration.getProgressIntervalSeconds()).thenReturn(10);
+        when(sourceDatabase.getHost()).thenReturn("source_host");
+        when(sourceDatabase.getUsername()).thenReturn("source_user");
+        when(sourceDatabase.getPassword()).thenReturn("source_password");
+        when(sourceDatabase.getPort()).thenReturn(5432);
+        when(targetDatabase.getHost()).thenReturn("target_host");
+        when(targetDatabase.getUser()).thenReturn("target_user");
+        when(targetDatabase.getPort()).thenReturn(5432);
+        when(targetDatabase.getSchema()).thenReturn("target_schema");
+
+        when(connection.createStatement()).thenReturn(statement);
+        when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+        when(statement.executeQuery(startsWith("SELECT pg_export_snapshot")))
+                .thenReturn(snapshotResult);
+        when(snapshotResult.next()).thenReturn(true, false);
+        when(snapshotResult.getString(1)).thenReturn("snapshot");
+        when(statement.executeQuery(contains("relkind = 'r'"))).thenReturn(tablesResult);
+        when(tablesResult.next()).thenReturn(true, true, false);
+        when(tablesResult.getString(1)).thenReturn("big_table", "small_table");
+        when(statement.executeQuery(contains("relkind = 'S'"))).thenReturn(sequencesResult);
+        when(sequencesResult.next()).thenReturn(false);
+
+        when(copyManager.copyOut(anyString())).thenReturn(copyOut);
+        when(copyManager.copyIn(anyString())).thenReturn(copyIn);
+        when(copyOut.readFromCopy()).thenReturn(new byte[10], null, new byte[5], null);
+        when(copyIn.endCopy()).thenReturn(3L, 4L);
+
+        copyCloneManager = spy(new CopyCloneManager(cloneManager, databaseDAO, dBaaSConfiguration,
+                new MetricRegistry()));
+        doReturn(connection).when(copyCloneManager).getConnection(any(MasterDatabase.class));
+        doReturn(copyManager).when(copyCloneManager).getCopyManager(connection);
+    }
+
+    @Test
+    public void cloneTest() throws Exception {
+        copyCloneManager.clone("databaseId", sourceDatabase, "source_schema", targetDatabase,
+                "targetPassword");
+
+        InOrder order = inOrder(cloneManager, copyManager);
+        order.verify(cloneManager).cloneSection(sourceDatabase, "source_schema", targetDatabase,
+                "targetPassword", CopyCloneManager.PRE_DATA);
+        order.verify(copyManager).copyOut("COPY public.big_table TO STDOUT (FORMAT binary)");
+        order.verify(copyManager).copyOut("COPY public.small_table TO STDOUT (FORMAT binary)");
+        order.verify(cloneManager).cloneSection(sourceDatabase, "source_schema", targetDatabase,
+                "targetPassword", CopyCloneManager.POST_DATA);
+
+        verify(statement, times(2)).execute("SET TRANSACTION SNAPSHOT 'snapshot';");
+        verify(copyIn, times(2)).writeToCopy(any(byte[].class), eq(0), anyInt());
+
+        ArgumentCaptor<DatabaseStatus> statusCaptor = ArgumentCaptor.forClass(DatabaseStatus.class);
+        verify(databaseDAO, atLeastOnce()).updateStatus(statusCaptor.capture());
+        assertEquals(DatabaseStatus.Status.CREATING, statusCaptor.getValue().getStatus());
+        assertEquals("Cloning: 2 of 2 tables copied, 0 MB and 7 rows so far",
+                statusCaptor.getValue().getMessage());
+    }
+
+    @Test(expected = CloneException.class)
+    public void copyFailureTest() throws Exception {
+        doThrow(new SQLException("intended exception")).when(copyIn)
+                .writeToCopy(any(byte[].class), anyInt(), anyInt());
+        when(copyIn.isActive()).thenReturn(true);
+
+        try {
+            copyCloneManager.clone("databaseId", sourceDatabase, "source_schema", targetDatabase,
+                    "targetPassword");
+        } finally {
+            verify(copyIn, atLeastOnce()).cancelCopy();
+            verify(cloneManager, never()).cloneSection(any(), any(), any(), any(),
+                    eq(CopyCloneManager.POST_DATA));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.jivesoftware.data.exceptions.DatabaseNotFoundException;
+import com.jivesoftware.data.resources.entities.Database;
+import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CredentialsProcessorTest {
+
+    private CredentialsProcessor credentialsProcessor;
+
+    @Mock
+    private InstanceManager instanceManager;
+
+    @Mock
+    private DatabaseDAO databaseDAO;
+
+    @Mock
+    private DatabaseIDHelper databaseIDHelper;
+
+    @Mock
+    private SchemaManager schemaManager;
+
+    @Mock
+    private DatabaseCreationRequest databaseCreationRequest;
+
+    @Mock
+    private DatabaseInfo databaseInfo;
+
+    @Mock
+    private DatabaseInfo sourceDatabaseInfo;
+
+    @Mock
+    private Database sourceDatabase;
+
+    @Mock
+    private DBInstance dbInstance;
+
+    @Mock
+    private Endpoint endpoint;
+
+    @Before
+    public void setup() {
+        credentialsProcessor = new CredentialsProcessor(instanceManager, databaseDAO,
+                databaseIDHelper, schemaManager);
+        when(databaseCreationRequest.getSourceDatabaseIdOptional())
+                .thenReturn(Optional.of("sourceId"));
+        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
+        when(databaseDAO.getDatabaseInfo("sourceId")).thenReturn(Optional.of(sourceDatabaseInfo));
+        when(sourceDatabaseInfo.getDatabase()).thenReturn(sourceDatabase);
+        when(sourceDatabase.getSchema()).thenReturn("sourceId");
+        when(sourceDatabase.getUser()).thenReturn("sourceId");
+        when(databaseInfo.getInstanceId()).thenReturn("instanceId");
+        when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbaas-instanceId");
+        when(databaseIDHelper.getDatabaseInstanceId(dbInstance)).thenReturn("instanceId");
+        when(instanceManager.getDBInstance("dbaas-instanceId")).thenReturn(Optional.of(dbInstance));
+        when(instanceManager.isReady(dbInstance)).thenReturn(true);
+        when(dbInstance.getMasterUsername()).thenReturn("postgres");
+        when(dbInstance.getEndpoint()).thenReturn(endpoint);
+        when(endpoint.getAddress()).thenReturn("address");
+        when(endpoint.getPort()).thenReturn(5432);
+    }
+
+    @Test
+    public void credentialsTest() {
+        when(schemaManager.acceptsPassword(any(MasterDatabase.class))).thenReturn(true);
+
+        assertEquals(Optional.empty(), credentialsProcessor.process("databaseId", "password",
+                databaseCreationRequest));
+
+        verify(schemaManager).renameRestoredSchema(any(MasterDatabase.class), eq("sourceId"),
+                eq("sourceId"), eq("databaseId"), eq("databaseId"), eq("password"));
+        ArgumentCaptor<Database> database = ArgumentCaptor.forClass(Database.class);
+        verify(databaseDAO).putDatabase(eq("databaseId"), eq("instanceId"), database.capture(),
+                any(), any(), any());
+        assertEquals("databaseId", database.getValue().getUser());
+        assertEquals("databaseId", database.getValue().getSchema());
+        assertEquals("address", database.getValue().getHost());
+    }
+
+    @Test
+    public void masterPasswordPendingTest() {
+        when(instanceManager.isMasterPasswordPending(dbInstance)).thenReturn(true);
+
+        assertEquals(Optional.of(CreationStep.CREDENTIALS), credentialsProcessor.process(
+                "databaseId", "password", databaseCreationRequest));
+
+        verify(schemaManager, never()).acceptsPassword(any(MasterDatabase.class));
+    }
+
+    @Test
+    public void oldPasswordStillSetTest() {
+        when(schemaManager.acceptsPassword(any(MasterDatabase.class))).thenReturn(false);
+
+        assertEquals(Optional.of(CreationStep.CREDENTIALS), credentialsProcessor.process(
+                "databaseId", "password", databaseCreationRequest));
+
+        verify(schemaManager, never()).renameRestoredSchema(any(), anyString(), anyString(),
+                anyString(), anyString(), anyString());
+    }
+
+    @Test(expected = DatabaseNotFoundException.class)
+    public void noInstanceFoundInRDSTest() {
+        when(instanceManager.getDBInstance("dbaas-instanceId")).thenReturn(Optional.empty());
+
+        credentialsProcessor.process("databaseId", "password", databaseCreationRequest);
+    }
+}
@@ -2,12 +2,17 @@ package com.jivesoftware.data.impl;
 
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.*;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
 import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.EncryptionException;
 import com.jivesoftware.data.exceptions.QueueSendingException;
 import com.jivesoftware.data.exceptions.SchemaOperationException;
+import com.jivesoftware.data.impl.deletion.InstanceDeleteRequestProcessor;
 import com.jivesoftware.data.impl.message_serializer.CreationMessageSerializer;
 import com.jivesoftware.data.impl.message_serializer.EncryptionManager;
 import com.jivesoftware.data.impl.message_serializer.EncryptionObject;
@@ -29,8 +34,10 @@ import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -99,6 +106,11 @@ public class DatabaseCreateRequestProcessorTest {
     @Mock
     private CreationMessageSerializer creationMessageSerializer;
 
+    @Mock
+    private DBaaSConfiguration.CreationWorkersConfiguration workersConfiguration;
+
+    private MetricRegistry metricRegistry;
+
     private List<Message> messageList;
 
     byte[] ivArray = new byte[10];
@@ -121,8 +133,16 @@ public class DatabaseCreateRequestProcessorTest {
     public void setUp(){
 
         when(dBaaSConfiguration.getCreationQueue()).thenReturn(createQueue);
+        when(dBaaSConfiguration.getCreationMessageVersion()).thenReturn("v1");
+        when(dBaaSConfiguration.getCreationWorkers())
+                .thenReturn(new DBaaSConfiguration.CreationWorkersConfiguration());
+        when(dBaaSConfiguration.getPollingBackoff())
+                .thenReturn(new DBaaSConfiguration.PollingBackoffConfiguration());
         when(createQueue.getQueueName()).thenReturn("queueName");
         when(sqs.getQueueUrl("queueName")).thenReturn(queueUrlResult);
+        when(sqs.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenReturn(new DeleteMessageBatchResult());
+        metricRegistry = new MetricRegistry();
         databaseCreateRequestProcessor = defaultTestConstructor(sqs);
 
         messageList = ImmutableList.of(message);
@@ -136,6 +156,7 @@ public class DatabaseCreateRequestProcessorTest {
 
         when(encryptionObject.getIV()).thenReturn(ivArray);
         when(encryptionObject.getEncryptedMessage()).thenReturn(messageArray);
+        when(encryptionObject.getKeyVersion()).thenReturn(Optional.empty());
 
         stringBody = new String(messageArray, Charset.forName("UTF-8"));
         when(message.getBody()).thenReturn("dummyBody");
@@ -154,18 +175,52 @@ public class DatabaseCreateRequestProcessorTest {
         return new DatabaseCreateRequestProcessor(
                 sqs, dBaaSConfiguration, databaseDAO, databaseIDHelper,
                 passwordManager, stepProcessorFactory, encryptionManager,
-                creationMessageSerializer);
+                creationMessageSerializer, metricRegistry);
     }
 
     @Test
     public void createQueueTest(){
 
         doThrow(QueueDoesNotExistException.class).when(sqs).getQueueUrl("queueName");
+        when(sqs.createQueue(any(CreateQueueRequest.class)))
+                .thenReturn(new CreateQueueResult().withQueueUrl("url"));
         defaultTestConstructor(this.sqs);
 
         verify(sqs).createQueue(any(CreateQueueRequest.class));
     }
 
+    @Test
+    public void singleInstancePerInjectorTest() {
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(MetricRegistry.class).toInstance(new MetricRegistry());
+                bind(AmazonSQS.class).toInstance(sqs);
+                bind(DBaaSConfiguration.class).toInstance(dBaaSConfiguration);
+                bind(DatabaseDAO.class).toInstance(databaseDAO);
+                bind(DatabaseIDHelper.class).toInstance(databaseIDHelper);
+                bind(PasswordManager.class).toInstance(passwordManager);
+                bind(StepProcessorFactory.class).toInstance(stepProcessorFactory);
+                bind(EncryptionManager.class).toInstance(encryptionManager);
+                bind(CreationMessageSerializer.class).toInstance(creationMessageSerializer);
+                bind(SchemaManager.class).toInstance(mock(SchemaManager.class));
+                bind(InstanceManager.class).toInstance(mock(InstanceManager.class));
+                bind(PermissionManager.class).toInstance(mock(PermissionManager.class));
+                bind(InstanceDeleteRequestProcessor.class)
+                        .toInstance(mock(InstanceDeleteRequestProcessor.class));
+                bind(DefaultInstanceLoader.class).toInstance(mock(DefaultInstanceLoader.class));
+                bind(StatusWatcher.class).toInstance(mock(StatusWatcher.class));
+                bind(HardDeleteReaper.class).toInstance(mock(HardDeleteReaper.class));
+                bind(WarmSchemaPool.class).toInstance(mock(WarmSchemaPool.class));
+            }
+        });
+
+        injector.getInstance(DatabaseManager.class);
+        assertSame(injector.getInstance(DatabaseCreateRequestProcessor.class),
+                injector.getInstance(DatabaseCreateRequestProcessor.class));
+    }
+
     @Test
     public void requestDatabaseInstanceCreationTest() {
 
@@ -263,6 +318,7 @@ public class DatabaseCreateRequestProcessorTest {
         when(encryptionManager.encrypt(any())).thenReturn(encryptionObject);
 
         databaseCreateRequestProcessor.runOneIteration();
+        databaseCreateRequestProcessor.drain(5000);
 
         verify(sqs).sendMessage(messageRequestArgumentCaptor.capture());
 
@@ -274,7 +330,79 @@ public class DatabaseCreateRequestProcessorTest {
 
         when(message.getReceiptHandle()).thenReturn("receiptHandle");
 
-        verify(sqs).deleteMessage(any());
+        verify(sqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+    }
+
+    @Test
+    public void keyVersionCarriedInVersionTest() throws Exception{
+        when(queueUrlResult.getQueueUrl()).thenReturn("url");
+
+        responseMap = ImmutableMap.of("version", new MessageAttributeValue().withStringValue("v1.k2"),
+                "iv", ivAttribute, "createRequest", messageAttribute);
+
+        when(message.getMessageAttributes()).thenReturn(responseMap);
+
+        when(encryptionManager.decrypt(any())).thenReturn("decryptedJSONObject");
+
+        when(creationRequestMessage.getCreationStep()).thenReturn(CreationStep.INSTANCE);
+
+        when(stepProcessorFactory.getStep(CreationStep.INSTANCE))
+                .thenReturn(instanceCreationProcessor);
+        when(instanceCreationProcessor.process("databaseId", "password", databaseCreationRequest))
+                .thenReturn(Optional.of(CreationStep.INSTANCE_READY));
+
+        when(encryptionObject.getKeyVersion()).thenReturn(Optional.of("k3"));
+        when(encryptionManager.encrypt(any())).thenReturn(encryptionObject);
+
+        databaseCreateRequestProcessor.runOneIteration();
+        databaseCreateRequestProcessor.drain(5000);
+
+        ArgumentCaptor<EncryptionObject> encryptionObjectCaptor =
+                ArgumentCaptor.forClass(EncryptionObject.class);
+        verify(encryptionManager).decrypt(encryptionObjectCaptor.capture());
+        assertEquals(Optional.of("k2"), encryptionObjectCaptor.getValue().getKeyVersion());
+
+        verify(sqs).sendMessage(messageRequestArgumentCaptor.capture());
+        assertEquals("v1.k3", messageRequestArgumentCaptor.getValue().getMessageAttributes()
+                .get("version").getStringValue());
+    }
+
+    @Test
+    public void binaryMessageStepTest() throws Exception{
+        when(dBaaSConfiguration.getCreationMessageVersion()).thenReturn("v2");
+        databaseCreateRequestProcessor = defaultTestConstructor(sqs);
+        when(queueUrlResult.getQueueUrl()).thenReturn("url");
+
+        responseMap = ImmutableMap.of("version", new MessageAttributeValue().withStringValue("v2"),
+                "iv", ivAttribute, "createRequest", messageAttribute);
+
+        when(message.getMessageAttributes()).thenReturn(responseMap);
+
+        byte[] binaryMessage = new byte[] {1, 2, 3};
+        when(encryptionManager.open(any())).thenReturn(binaryMessage);
+        when(creationMessageSerializer.deserializeBinary(binaryMessage, CreationRequestMessage.class))
+                .thenReturn(creationRequestMessage);
+
+        when(creationRequestMessage.getCreationStep()).thenReturn(CreationStep.INSTANCE);
+
+        when(stepProcessorFactory.getStep(CreationStep.INSTANCE))
+                .thenReturn(instanceCreationProcessor);
+        when(instanceCreationProcessor.process("databaseId", "password", databaseCreationRequest))
+                .thenReturn(Optional.of(CreationStep.INSTANCE_READY));
+
+        when(encryptionManager.seal(any())).thenReturn(encryptionObject);
+
+        databaseCreateRequestProcessor.runOneIteration();
+        databaseCreateRequestProcessor.drain(5000);
+
+        verify(encryptionManager, never()).decrypt(any());
+        verify(encryptionManager, never()).encrypt(any());
+        verify(creationMessageSerializer).serializeBinary(any());
+
+        verify(sqs).sendMessage(messageRequestArgumentCaptor.capture());
+        assertEquals("v2", messageRequestArgumentCaptor.getValue().getMessageAttributes()
+                .get("version").getStringValue());
+        verify(sqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
     }
 
     @Test
@@ -297,7 +425,7 @@ public class DatabaseCreateRequestProcessorTest {
 
         when(message.getReceiptHandle()).thenReturn("receiptHandle");
 
-        verify(sqs).deleteMessage(any());
+        verify(sqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
     }
 
     @Test
@@ -318,7 +446,7 @@ public class DatabaseCreateRequestProcessorTest {
 
         when(message.getReceiptHandle()).thenReturn("receiptHandle");
 
-        verify(sqs).deleteMessage(any());
+        verify(sqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
     }
 
     @Test
@@ -334,7 +462,7 @@ public class DatabaseCreateRequestProcessorTest {
 
         when(message.getReceiptHandle()).thenReturn("receiptHandle");
 
-        verify(sqs, times(0)).deleteMessage(any());
+        verify(sqs, times(0)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
     }
 
     @Test
@@ -358,6 +486,7 @@ public class DatabaseCreateRequestProcessorTest {
         when(encryptionManager.encrypt(any())).thenReturn(encryptionObject);
 
         databaseCreateRequestProcessor.runOneIteration();
+        databaseCreateRequestProcessor.drain(5000);
 
         verify(sqs).sendMessage(messageRequestArgumentCaptor.capture());
 
@@ -369,7 +498,7 @@ public class DatabaseCreateRequestProcessorTest {
 
         when(message.getReceiptHandle()).thenReturn("receiptHandle");
 
-        verify(sqs).deleteMessage(any());
+        verify(sqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
 
     }
 
@@ -391,6 +520,7 @@ public class DatabaseCreateRequestProcessorTest {
                 .thenReturn(Optional.empty());
 
         databaseCreateRequestProcessor.runOneIteration();
+        databaseCreateRequestProcessor.drain(5000);
 
         ArgumentCaptor<DatabaseStatus> statusArgumentCaptor =
                 ArgumentCaptor.forClass(DatabaseStatus.class);
@@ -402,7 +532,7 @@ public class DatabaseCreateRequestProcessorTest {
 
         when(message.getReceiptHandle()).thenReturn("receiptHandle");
 
-        verify(sqs).deleteMessage(any());
+        verify(sqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
     }
 
     @Test
@@ -426,6 +556,7 @@ public class DatabaseCreateRequestProcessorTest {
         when(encryptionManager.encrypt(any())).thenReturn(encryptionObject);
 
         databaseCreateRequestProcessor.runOneIteration();
+        databaseCreateRequestProcessor.drain(5000);
 
         verify(sqs).sendMessage(messageRequestArgumentCaptor.capture());
 
@@ -437,7 +568,74 @@ public class DatabaseCreateRequestProcessorTest {
 
         when(message.getReceiptHandle()).thenReturn("receiptHandle");
 
-        verify(sqs).deleteMessage(any());
+        verify(sqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+    }
+
+    @Test
+    public void readyNotDoneRequeuedWithDelayTest() throws Exception{
+        when(queueUrlResult.getQueueUrl()).thenReturn("url");
+
+        responseMap = ImmutableMap.of("version", version, "iv", ivAttribute,
+                "createRequest", messageAttribute);
+
+        when(message.getMessageAttributes()).thenReturn(responseMap);
+
+        when(encryptionManager.decrypt(any())).thenReturn("decryptedJSONObject");
+
+        when(creationRequestMessage.getCreationStep()).thenReturn(CreationStep.INSTANCE_READY);
+        when(creationRequestMessage.getAttempt()).thenReturn(2);
+
+        when(stepProcessorFactory.getStep(CreationStep.INSTANCE_READY))
+                .thenReturn(readyProcessor);
+        when(readyProcessor.process("databaseId", "password", databaseCreationRequest))
+                .thenReturn(Optional.of(CreationStep.INSTANCE_READY));
+
+        when(encryptionManager.encrypt(any())).thenReturn(encryptionObject);
+
+        databaseCreateRequestProcessor.runOneIteration();
+        databaseCreateRequestProcessor.drain(5000);
+
+        ArgumentCaptor<CreationRequestMessage> creationMessageCaptor =
+                ArgumentCaptor.forClass(CreationRequestMessage.class);
+        verify(creationMessageSerializer).serialize(creationMessageCaptor.capture());
+        assertEquals(Integer.valueOf(3), creationMessageCaptor.getValue().getAttempt());
+
+        verify(sqs).sendMessage(messageRequestArgumentCaptor.capture());
+        assertEquals(Integer.valueOf(20), messageRequestArgumentCaptor.getValue().getDelaySeconds());
+        verify(databaseDAO, never()).updateStatus(any());
+        verify(sqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+    }
+
+    @Test
+    public void readyNotDoneGivesUpAfterMaxAttemptsTest() throws Exception{
+        when(queueUrlResult.getQueueUrl()).thenReturn("url");
+
+        responseMap = ImmutableMap.of("version", version, "iv", ivAttribute,
+                "createRequest", messageAttribute);
+
+        when(message.getMessageAttributes()).thenReturn(responseMap);
+
+        when(encryptionManager.decrypt(any())).thenReturn("decryptedJSONObject");
+
+        when(creationRequestMessage.getCreationStep()).thenReturn(CreationStep.INSTANCE_READY);
+        when(creationRequestMessage.getAttempt()).thenReturn(
+                new DBaaSConfiguration.PollingBackoffConfiguration().getMaxAttempts());
+
+        when(stepProcessorFactory.getStep(CreationStep.INSTANCE_READY))
+                .thenReturn(readyProcessor);
+        when(readyProcessor.process("databaseId", "password", databaseCreationRequest))
+                .thenReturn(Optional.of(CreationStep.INSTANCE_READY));
+
+        databaseCreateRequestProcessor.runOneIteration();
+        databaseCreateRequestProcessor.drain(5000);
+
+        ArgumentCaptor<DatabaseStatus> statusArgumentCaptor =
+                ArgumentCaptor.forClass(DatabaseStatus.class);
+
+        verify(sqs, never()).sendMessage(any());
+        verify(databaseDAO).updateStatus(statusArgumentCaptor.capture());
+        assertEquals(statusArgumentCaptor.getValue().getStatus(), DatabaseStatus.Status.ERROR);
+        verify(sqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
     }
 
     @Test
@@ -459,6 +657,7 @@ public class DatabaseCreateRequestProcessorTest {
                 .process("databaseId", "password", databaseCreationRequest);
 
         databaseCreateRequestProcessor.runOneIteration();
+        databaseCreateRequestProcessor.drain(5000);
 
         ArgumentCaptor<DatabaseStatus> statusArgumentCaptor =
                 ArgumentCaptor.forClass(DatabaseStatus.class);
@@ -487,4 +686,140 @@ public class DatabaseCreateRequestProcessorTest {
         assertEquals(statusArgumentCaptor.getValue().getStatus(), DatabaseStatus.Status.ERROR);
     }
 
+    @Test
+    public void batchReceiveAckedTogetherTest() throws Exception {
+        when(queueUrlResult.getQueueUrl()).thenReturn("url");
+        when(createQueue.getMaxNumberOfMessages()).thenReturn(10);
+        when(createQueue.getWaitTimeSeconds()).thenReturn(20);
+
+        Message second = new Message().withReceiptHandle("receiptHandle2")
+                .withMessageAttributes(ImmutableMap.of("version", version));
+        when(message.getReceiptHandle()).thenReturn("receiptHandle1");
+        when(message.getAttributes()).thenReturn(ImmutableMap.of("SentTimestamp",
+                String.valueOf(System.currentTimeMillis() - 1000)));
+        when(message.getMessageAttributes()).thenReturn(ImmutableMap.of("version", version));
+        when(receiveMessageResult.getMessages()).thenReturn(ImmutableList.of(message, second));
+
+        databaseCreateRequestProcessor.runOneIteration();
+        databaseCreateRequestProcessor.runOneIteration();
+
+        ArgumentCaptor<ReceiveMessageRequest> receiveCaptor =
+                ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+        verify(sqs, times(2)).receiveMessage(receiveCaptor.capture());
+        assertEquals(Integer.valueOf(10), receiveCaptor.getValue().getMaxNumberOfMessages());
+        assertEquals(Integer.valueOf(20), receiveCaptor.getValue().getWaitTimeSeconds());
+        assertTrue(receiveCaptor.getValue().getAttributeNames().contains("SentTimestamp"));
+
+        // one lookup by the constructor, one by the first poll and none by the second
+        verify(sqs, times(2)).getQueueUrl("queueName");
+
+        ArgumentCaptor<DeleteMessageBatchRequest> deleteCaptor =
+                ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(sqs, times(2)).deleteMessageBatch(deleteCaptor.capture());
+        assertEquals(2, deleteCaptor.getValue().getEntries().size());
+        assertEquals("receiptHandle2",
+                deleteCaptor.getValue().getEntries().get(1).getReceiptHandle());
+        verify(sqs, never()).deleteMessage(any());
+
+        assertEquals(4, metricRegistry.histogram(MetricRegistry.name(
+                DatabaseCreateRequestProcessor.class, "receiveToAckMillis")).getCount());
+        assertEquals(2, metricRegistry.histogram(MetricRegistry.name(
+                DatabaseCreateRequestProcessor.class, "sentToAckMillis")).getCount());
+        assertTrue(metricRegistry.histogram(MetricRegistry.name(
+                DatabaseCreateRequestProcessor.class, "sentToAckMillis"))
+                .getSnapshot().getMin() >= 1000);
+    }
+
+    @Test
+    public void stepAtLimitReturnedToQueueTest() throws Exception {
+        CountDownLatch cloneRunning = new CountDownLatch(1);
+        CountDownLatch finishClone = new CountDownLatch(1);
+        databaseCreateRequestProcessor = limitedWorkersProcessor(4, 1);
+        blockingClone(cloneRunning, finishClone);
+
+        Message second = new Message().withReceiptHandle("receiptHandle2")
+                .withMessageAttributes(responseMap);
+        when(receiveMessageResult.getMessages()).thenReturn(ImmutableList.of(message, second));
+
+        databaseCreateRequestProcessor.runOneIteration();
+        cloneRunning.await();
+
+        // the second clone is over the limit and goes back to the queue, the first keeps its lease
+        verify(sqs).changeMessageVisibility("url", "receiptHandle2", 30);
+        databaseCreateRequestProcessor.extendVisibility();
+
+        ArgumentCaptor<ChangeMessageVisibilityBatchRequest> visibilityCaptor =
+                ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+        verify(sqs).changeMessageVisibilityBatch(visibilityCaptor.capture());
+        assertEquals(1, visibilityCaptor.getValue().getEntries().size());
+        assertEquals("receiptHandle1",
+                visibilityCaptor.getValue().getEntries().get(0).getReceiptHandle());
+        assertEquals(Integer.valueOf(300),
+                visibilityCaptor.getValue().getEntries().get(0).getVisibilityTimeout());
+        verify(sqs, never()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+
+        finishClone.countDown();
+        databaseCreateRequestProcessor.drain(5000);
+
+        ArgumentCaptor<DeleteMessageBatchRequest> deleteCaptor =
+                ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(sqs).deleteMessageBatch(deleteCaptor.capture());
+        assertEquals(1, deleteCaptor.getValue().getEntries().size());
+        assertEquals("receiptHandle1",
+                deleteCaptor.getValue().getEntries().get(0).getReceiptHandle());
+    }
+
+    @Test
+    public void busyWorkersSkipReceiveTest() throws Exception {
+        CountDownLatch cloneRunning = new CountDownLatch(1);
+        CountDownLatch finishClone = new CountDownLatch(1);
+        databaseCreateRequestProcessor = limitedWorkersProcessor(1, 1);
+        blockingClone(cloneRunning, finishClone);
+
+        databaseCreateRequestProcessor.runOneIteration();
+        cloneRunning.await();
+        databaseCreateRequestProcessor.runOneIteration();
+
+        verify(sqs, times(1)).receiveMessage(any(ReceiveMessageRequest.class));
+
+        finishClone.countDown();
+        databaseCreateRequestProcessor.drain(5000);
+        databaseCreateRequestProcessor.extendVisibility();
+
+        verify(sqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        verify(sqs, never()).changeMessageVisibilityBatch(
+                any(ChangeMessageVisibilityBatchRequest.class));
+        assertEquals(0, metricRegistry.getGauges().get(MetricRegistry.name(
+                DatabaseCreateRequestProcessor.class, "busyWorkers")).getValue());
+    }
+
+    private DatabaseCreateRequestProcessor limitedWorkersProcessor(int threads, int cloneLimit) {
+        when(dBaaSConfiguration.getCreationWorkers()).thenReturn(workersConfiguration);
+        when(workersConfiguration.getThreads()).thenReturn(threads);
+        when(workersConfiguration.getStepConcurrency())
+                .thenReturn(ImmutableMap.of("CLONE", cloneLimit));
+        when(workersConfiguration.getVisibilityTimeoutSeconds()).thenReturn(300);
+        when(workersConfiguration.getBusyRetrySeconds()).thenReturn(30);
+        when(sqs.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+                .thenReturn(new ChangeMessageVisibilityBatchResult());
+        metricRegistry = new MetricRegistry();
+        return defaultTestConstructor(sqs);
+    }
+
+    private void blockingClone(CountDownLatch cloneRunning, CountDownLatch finishClone) {
+        when(queueUrlResult.getQueueUrl()).thenReturn("url");
+        responseMap = ImmutableMap.of("version", version, "iv", ivAttribute,
+                "createRequest", messageAttribute);
+        when(message.getMessageAttributes()).thenReturn(responseMap);
+        when(message.getReceiptHandle()).thenReturn("receiptHandle1");
+        when(encryptionManager.decrypt(any())).thenReturn("decryptedJSONObject");
+        when(creationRequestMessage.getCreationStep()).thenReturn(CreationStep.CLONE);
+        when(stepProcessorFactory.getStep(CreationStep.CLONE)).thenReturn(cloneProcessor);
+        when(cloneProcessor.process("databaseId", "password", databaseCreationRequest))
+                .thenAnswer(invocation -> {
+                    cloneRunning.countDown();
+                    finishClone.await();
+                    return Optional.empty();
+                });
+    }
 }
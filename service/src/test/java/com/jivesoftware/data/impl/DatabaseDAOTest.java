@@ -0,0 +1,345 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Index;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemCollection;
+import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.internal.PageIterable;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ListTagsOfResourceRequest;
+import com.amazonaws.services.dynamodbv2.model.ListTagsOfResourceResult;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.StatusLookupException;
+import com.jivesoftware.data.resources.entities.Database;
+import com.jivesoftware.data.resources.entities.DatabaseStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DatabaseDAOTest {
+
+    private DatabaseDAO databaseDAO;
+
+    private MetricRegistry metricRegistry;
+
+    @Mock
+    private AmazonDynamoDBClient client;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.DatabaseDaoConfiguration databaseDaoConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.DatabaseCacheConfiguration databaseCacheConfiguration;
+
+    @Mock
+    private DynamoDB dynamoDB;
+
+    @Mock
+    private Table table;
+
+    @Mock
+    private TableDescription tableDescription;
+
+    @Mock
+    private Index statusIndex;
+
+    @Mock
+    private ItemCollection<QueryOutcome> deletedItems;
+
+    @Mock
+    private PageIterable<Item, QueryOutcome> deletedPages;
+
+    private Item readyItem = new Item()
+            .withString("dbStatus", "READY")
+            .withString("message", "message")
+            .withString("host", "host")
+            .withString("username", "username")
+            .withInt("port", 5432)
+            .withString("schemaName", "schemaName")
+            .withString("instanceId", "instanceId")
+            .withString("tenancyType", "SHARED")
+            .withString("dataLocality", "US");
+
+    @Before
+    public void setUp() {
+        when(dBaaSConfiguration.getDatabaseDaoConfiguration()).thenReturn(databaseDaoConfiguration);
+        when(dBaaSConfiguration.getDatabaseCache()).thenReturn(databaseCacheConfiguration);
+        when(databaseDaoConfiguration.getTableName()).thenReturn("databases");
+        when(databaseCacheConfiguration.getMaximumSize()).thenReturn(100L);
+        when(databaseCacheConfiguration.getPendingTtlSeconds()).thenReturn(60);
+        when(databaseCacheConfiguration.getSettledTtlSeconds()).thenReturn(60);
+
+        when(dynamoDB.createTable(any(CreateTableRequest.class))).thenReturn(table);
+        when(dynamoDB.getTable("databases")).thenReturn(table);
+        when(table.getDescription()).thenReturn(tableDescription);
+        when(tableDescription.getTableArn()).thenReturn("arn");
+        when(client.listTagsOfResource(any(ListTagsOfResourceRequest.class)))
+                .thenReturn(new ListTagsOfResourceResult().withTags(new ArrayList<>()));
+        when(client.describeTable(anyString())).thenReturn(new DescribeTableResult()
+                .withTable(new TableDescription().withGlobalSecondaryIndexes(
+                        new GlobalSecondaryIndexDescription().withIndexName("dbStatusUpdateTime"))));
+        when(table.getIndex("dbStatusUpdateTime")).thenReturn(statusIndex);
+
+        metricRegistry = new MetricRegistry();
+    }
+
+    @Test
+    public void recordReadOnceTest() {
+        databaseDAO = testDAO();
+        when(table.getItem(any(GetItemSpec.class))).thenReturn(readyItem);
+
+        DatabaseRecord record = databaseDAO.getDatabaseRecord("databaseId").get();
+
+        assertEquals(DatabaseStatus.Status.READY, record.getStatus().get().getStatus());
+        assertEquals(Integer.valueOf(5432), record.getInfo().get().getDatabase().getPort());
+        assertEquals("instanceId", record.getInfo().get().getInstanceId());
+        verify(table, times(1)).getItem(any(GetItemSpec.class));
+    }
+
+    @Test
+    public void recordWithoutConnectionInfoTest() {
+        databaseDAO = testDAO();
+        when(table.getItem(any(GetItemSpec.class))).thenReturn(new Item()
+                .withString("dbStatus", "CREATING"));
+
+        DatabaseRecord record = databaseDAO.getDatabaseRecord("databaseId").get();
+
+        assertEquals(DatabaseStatus.Status.CREATING, record.getStatus().get().getStatus());
+        assertFalse(record.getInfo().isPresent());
+        assertFalse(databaseDAO.getDatabaseInfo("databaseId").isPresent());
+    }
+
+    @Test
+    public void settledRecordServedFromCacheTest() {
+        databaseDAO = testDAO();
+        when(table.getItem(any(GetItemSpec.class))).thenReturn(readyItem);
+
+        databaseDAO.getCachedDatabaseRecord("databaseId");
+        Optional<DatabaseRecord> record = databaseDAO.getCachedDatabaseRecord("databaseId");
+
+        assertEquals(DatabaseStatus.Status.READY, record.get().getStatus().get().getStatus());
+        verify(table, times(1)).getItem(any(GetItemSpec.class));
+        assertEquals(1, metricRegistry.meter(
+                MetricRegistry.name(DatabaseDAO.class, "cache", "hits")).getCount());
+        assertEquals(1, metricRegistry.meter(
+                MetricRegistry.name(DatabaseDAO.class, "cache", "misses")).getCount());
+    }
+
+    @Test
+    public void pendingRecordReadAgainTest() {
+        when(databaseCacheConfiguration.getPendingTtlSeconds()).thenReturn(0);
+        databaseDAO = testDAO();
+        when(table.getItem(any(GetItemSpec.class))).thenReturn(new Item()
+                .withString("dbStatus", "CREATING"));
+
+        databaseDAO.getCachedDatabaseRecord("databaseId");
+        databaseDAO.getCachedDatabaseRecord("databaseId");
+
+        verify(table, times(2)).getItem(any(GetItemSpec.class));
+    }
+
+    @Test
+    public void missingRecordNotCachedTest() {
+        databaseDAO = testDAO();
+
+        assertFalse(databaseDAO.getCachedDatabaseRecord("databaseId").isPresent());
+        assertFalse(databaseDAO.getCachedDatabaseRecord("databaseId").isPresent());
+
+        verify(table, times(2)).getItem(any(GetItemSpec.class));
+    }
+
+    @Test
+    public void updateStatusInvalidatesTest() {
+        databaseDAO = testDAO();
+        when(table.getItem(any(GetItemSpec.class))).thenReturn(readyItem);
+
+        databaseDAO.getCachedDatabaseRecord("databaseId");
+        databaseDAO.updateStatus(new DatabaseStatus(DatabaseStatus.Status.DELETED, null,
+                "databaseId"));
+        databaseDAO.getCachedDatabaseRecord("databaseId");
+
+        verify(table).updateItem(any(UpdateItemSpec.class));
+        verify(table, times(2)).getItem(any(GetItemSpec.class));
+    }
+
+    @Test
+    public void deleteRecordInvalidatesTest() {
+        databaseDAO = testDAO();
+        when(table.getItem(any(GetItemSpec.class))).thenReturn(readyItem);
+
+        databaseDAO.getCachedDatabaseRecord("databaseId");
+        databaseDAO.deleteDatabaseRecord("databaseId");
+        databaseDAO.getCachedDatabaseRecord("databaseId");
+
+        verify(table).deleteItem("databaseId", "databaseId");
+        verify(table, times(2)).getItem(any(GetItemSpec.class));
+    }
+
+    @Test
+    public void statusesReadInBatchTest() {
+        databaseDAO = testDAO();
+        when(dynamoDB.batchGetItem(any(TableKeysAndAttributes.class))).thenReturn(batchOutcome(
+                ImmutableList.of(statusItem("db-1", "READY"), statusItem("db-2", "CREATING")),
+                ImmutableList.of()));
+
+        Map<String, DatabaseStatus> statuses = databaseDAO.getDatabaseStatuses(
+                ImmutableList.of("db-1", "db-2", "db-3"));
+
+        assertEquals(2, statuses.size());
+        assertEquals(DatabaseStatus.Status.READY, statuses.get("db-1").getStatus());
+        assertEquals(DatabaseStatus.Status.CREATING, statuses.get("db-2").getStatus());
+        assertFalse(statuses.containsKey("db-3"));
+        verify(dynamoDB, times(1)).batchGetItem(any(TableKeysAndAttributes.class));
+    }
+
+    @Test
+    public void unprocessedStatusesRetriedTest() {
+        databaseDAO = testDAO();
+        when(dynamoDB.batchGetItem(any(TableKeysAndAttributes.class))).thenReturn(batchOutcome(
+                ImmutableList.of(statusItem("db-1", "READY")), ImmutableList.of("db-2")));
+        when(dynamoDB.batchGetItemUnprocessed(any())).thenReturn(batchOutcome(
+                ImmutableList.of(statusItem("db-2", "ERROR")), ImmutableList.of()));
+
+        Map<String, DatabaseStatus> statuses = databaseDAO.getDatabaseStatuses(
+                ImmutableList.of("db-1", "db-2"));
+
+        assertEquals(DatabaseStatus.Status.READY, statuses.get("db-1").getStatus());
+        assertEquals(DatabaseStatus.Status.ERROR, statuses.get("db-2").getStatus());
+        verify(dynamoDB, times(1)).batchGetItemUnprocessed(any());
+    }
+
+    @Test(expected = StatusLookupException.class)
+    public void unprocessedStatusesGiveUpTest() {
+        databaseDAO = testDAO();
+        BatchGetItemOutcome throttled = batchOutcome(ImmutableList.of(), ImmutableList.of("db-1"));
+        when(dynamoDB.batchGetItem(any(TableKeysAndAttributes.class))).thenReturn(throttled);
+        when(dynamoDB.batchGetItemUnprocessed(any())).thenReturn(throttled);
+
+        databaseDAO.getDatabaseStatuses(ImmutableList.of("db-1"));
+    }
+
+    @Test
+    public void cachedStatusesNotReadAgainTest() {
+        databaseDAO = testDAO();
+        when(table.getItem(any(GetItemSpec.class))).thenReturn(readyItem);
+        databaseDAO.getCachedDatabaseRecord("databaseId");
+
+        Map<String, DatabaseStatus> statuses = databaseDAO.getDatabaseStatuses(
+                ImmutableList.of("databaseId"));
+
+        assertEquals(DatabaseStatus.Status.READY, statuses.get("databaseId").getStatus());
+        verify(dynamoDB, never()).batchGetItem(any(TableKeysAndAttributes.class));
+    }
+
+    @Test
+    public void deletedQueryCutsOffByAgeTest() {
+        databaseDAO = testDAO();
+        when(dBaaSConfiguration.getHardDeleteDelay()).thenReturn(900000L);
+        when(statusIndex.query(any(QuerySpec.class))).thenReturn(deletedItems);
+        when(deletedItems.pages()).thenReturn(deletedPages);
+        long before = System.currentTimeMillis();
+
+        databaseDAO.getDeletedDatabasePages();
+
+        ArgumentCaptor<QuerySpec> spec = ArgumentCaptor.forClass(QuerySpec.class);
+        verify(statusIndex).query(spec.capture());
+        assertEquals("dbStatus = :deleted AND updateTime < :deletedBefore",
+                spec.getValue().getKeyConditionExpression());
+        assertEquals("DELETED", spec.getValue().getValueMap().get(":deleted"));
+        long deletedBefore = (Long) spec.getValue().getValueMap().get(":deletedBefore");
+        assertTrue(deletedBefore >= before - 900000L);
+        assertTrue(deletedBefore <= System.currentTimeMillis() - 900000L);
+        assertEquals(Integer.valueOf(100), spec.getValue().getMaxPageSize());
+    }
+
+    @Test
+    public void deletedPageReadTest() {
+        databaseDAO = testDAO();
+
+        List<Database> page = databaseDAO.readDeletedPage(ImmutableList.of(
+                new Item().withString("databaseId", "first")
+                        .withString("username", "username")
+                        .withString("host", "host")
+                        .withInt("port", 5432)
+                        .withString("schemaName", "firstSchema"),
+                new Item().withString("databaseId", "second")
+                        .withString("username", "username")
+                        .withString("host", "host")
+                        .withInt("port", 5432)
+                        .withString("schemaName", "secondSchema")));
+
+        assertEquals(2, page.size());
+        assertEquals("first", page.get(0).getId());
+        assertEquals("secondSchema", page.get(1).getSchema());
+        assertEquals(2, metricRegistry.meter("com.jivesoftware.data.impl.DatabaseDAO.deleted" +
+                ".candidates").getCount());
+    }
+
+    private Map<String, AttributeValue> statusItem(String databaseId, String status) {
+        return ImmutableMap.of("databaseId", new AttributeValue(databaseId),
+                "dbStatus", new AttributeValue(status));
+    }
+
+    private BatchGetItemOutcome batchOutcome(List<Map<String, AttributeValue>> items,
+                                             List<String> unprocessedIds) {
+        BatchGetItemResult result = new BatchGetItemResult()
+                .withResponses(ImmutableMap.of("databases", items));
+        if (!unprocessedIds.isEmpty()) {
+            List<Map<String, AttributeValue>> keys = new ArrayList<>();
+            for (String databaseId : unprocessedIds) {
+                keys.add(ImmutableMap.of("databaseId", new AttributeValue(databaseId)));
+            }
+            result.withUnprocessedKeys(ImmutableMap.of("databases",
+                    new KeysAndAttributes().withKeys(keys)));
+        }
+        return new BatchGetItemOutcome(result);
+    }
+
+    private DatabaseDAO testDAO() {
+        return new DatabaseDAO(client, dBaaSConfiguration, metricRegistry) {
+            @Override
+            DynamoDB makeDynamo() {
+                return dynamoDB;
+            }
+        };
+    }
+}
@@ -5,12 +5,16 @@ import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.Endpoint;
 import com.amazonaws.services.sqs.model.GetQueueUrlResult;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.*;
 import com.jivesoftware.data.impl.deletion.InstanceDeleteRequestProcessor;
 import com.jivesoftware.data.resources.entities.Database;
+import com.jivesoftware.data.resources.entities.DatabaseCreateResponse;
 import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
 import com.jivesoftware.data.resources.entities.DatabaseStatus;
+import com.jivesoftware.data.resources.entities.HardDeleteProgress;
 import com.jivesoftware.data.resources.entities.UserCreateResponse;
 import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
 import io.dropwizard.setup.Environment;
@@ -21,8 +25,10 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.OptionalInt;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
@@ -98,6 +104,15 @@ public class DatabaseManagerTest {
     @Mock
     private DatabaseInfo databaseInfo;
 
+    @Mock
+    private StatusWatcher statusWatcher;
+
+    @Mock
+    private HardDeleteReaper hardDeleteReaper;
+
+    @Mock
+    private WarmSchemaPool warmSchemaPool;
+
     @Mock
     private Database database;
 
@@ -144,6 +159,7 @@ public class DatabaseManagerTest {
         when(dbInstance.getMasterUsername()).thenReturn("masterUser");
         when(dbInstance.getDBName()).thenReturn("testName");
         when(databaseIDHelper.getDatabaseInstanceId(dbInstance)).thenReturn("instanceId");
+        when(warmSchemaPool.claim(any())).thenReturn(Optional.empty());
     }
 
     private void additonalSetUp() {
@@ -153,7 +169,8 @@ public class DatabaseManagerTest {
                 .thenReturn(Optional.of(dbInstance));
         databaseManager = new DatabaseManager(dBaaSConfiguration, databaseIDHelper, schemaManager,
                 databaseDAO, passwordManager, instanceManager, databaseCreateRequestProcessor,
-                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer);
+                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer,
+                statusWatcher, hardDeleteReaper, warmSchemaPool);
     }
 
     @Test
@@ -164,7 +181,8 @@ public class DatabaseManagerTest {
                 .thenReturn(Optional.of(passwordManagerInstance));
         databaseManager = new DatabaseManager(dBaaSConfiguration, databaseIDHelper, schemaManager,
                 databaseDAO, passwordManager, instanceManager, databaseCreateRequestProcessor,
-                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer);
+                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer,
+                statusWatcher, hardDeleteReaper, warmSchemaPool);
         verify(instanceManager).createSharedInstance("data-dbaas2-local-dev-red-testInstance",
                 "testUser", "testPassword", "testName");
     }
@@ -176,7 +194,8 @@ public class DatabaseManagerTest {
         when(passwordManager.getInstance("red-testInstance")).thenReturn(Optional.empty());
         databaseManager = new DatabaseManager(dBaaSConfiguration, databaseIDHelper, schemaManager,
                 databaseDAO, passwordManager, instanceManager, databaseCreateRequestProcessor,
-                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer);
+                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer,
+                statusWatcher, hardDeleteReaper, warmSchemaPool);
     }
 
     @Test(expected = InstanceCreationException.class)
@@ -189,7 +208,8 @@ public class DatabaseManagerTest {
                 .thenThrow(InstanceCreationException.class);
         databaseManager = new DatabaseManager(dBaaSConfiguration, databaseIDHelper, schemaManager,
                 databaseDAO, passwordManager, instanceManager, databaseCreateRequestProcessor,
-                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer);
+                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer,
+                statusWatcher, hardDeleteReaper, warmSchemaPool);
     }
 
     @Test
@@ -200,7 +220,8 @@ public class DatabaseManagerTest {
 
         databaseManager = new DatabaseManager(dBaaSConfiguration, databaseIDHelper, schemaManager,
                 databaseDAO, passwordManager, instanceManager, databaseCreateRequestProcessor,
-                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer);
+                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer,
+                statusWatcher, hardDeleteReaper, warmSchemaPool);
     }
 
     @Test
@@ -212,7 +233,8 @@ public class DatabaseManagerTest {
 
         databaseManager = new DatabaseManager(dBaaSConfiguration, databaseIDHelper, schemaManager,
                 databaseDAO, passwordManager, instanceManager, databaseCreateRequestProcessor,
-                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer);
+                permissionManager, instanceDeleteRequestProcessor, defaultInstanceDeserializer,
+                statusWatcher, hardDeleteReaper, warmSchemaPool);
     }
 
     @Test
@@ -220,7 +242,7 @@ public class DatabaseManagerTest {
         additonalSetUp();
         when(databaseCreationRequest.getSourceDatabaseIdOptional())
                 .thenReturn(Optional.of("sourceDBId"));
-        when(databaseDAO.getDatabaseInfo("sourceDBId")).thenReturn(Optional.of(databaseInfo));
+        stubRecord("sourceDBId", Optional.empty(), Optional.of(databaseInfo));
         databaseManager.createDatabase(databaseCreationRequest);
 
         verify(databaseCreateRequestProcessor).requestDatabaseCreation(databaseCreationRequest);
@@ -231,10 +253,23 @@ public class DatabaseManagerTest {
         additonalSetUp();
         when(databaseCreationRequest.getSourceDatabaseIdOptional())
                 .thenReturn(Optional.of("sourceDBId"));
-        when(databaseDAO.getDatabaseInfo("sourceDBId")).thenReturn(Optional.empty());
+        stubRecord("sourceDBId", Optional.empty(), Optional.empty());
         databaseManager.createDatabase(databaseCreationRequest);
     }
 
+    @Test
+    public void createDatabaseFromWarmPoolTest() {
+        additonalSetUp();
+        when(databaseCreationRequest.getSourceDatabaseIdOptional())
+                .thenReturn(Optional.empty());
+        DatabaseCreateResponse warmResponse = new DatabaseCreateResponse("databaseId", "password");
+        when(warmSchemaPool.claim(databaseCreationRequest)).thenReturn(Optional.of(warmResponse));
+
+        assertEquals(warmResponse, databaseManager.createDatabase(databaseCreationRequest));
+
+        verify(databaseCreateRequestProcessor, never()).requestDatabaseCreation(any());
+    }
+
     @Test
     public void createInstanceTest() {
         additonalSetUp();
@@ -270,37 +305,84 @@ public class DatabaseManagerTest {
     @Test
     public void getDatabaseStatusTest() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.of(databaseStatus));
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.empty());
         assertEquals(databaseManager.getDatabaseStatus("databaseId"), databaseStatus);
     }
 
+    @Test
+    public void watchDatabaseStatusTimeoutCappedTest() {
+        additonalSetUp();
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.empty());
+        when(dBaaSConfiguration.getStatusWatch())
+                .thenReturn(new DBaaSConfiguration.StatusWatchConfiguration());
+        Set<DatabaseStatus.Status> waitFor = ImmutableSet.of(DatabaseStatus.Status.READY);
+
+        databaseManager.watchDatabaseStatus("databaseId", waitFor, 600);
+        databaseManager.watchDatabaseStatus("databaseId", waitFor, null);
+
+        verify(statusWatcher).watch(databaseStatus, waitFor, 60);
+        verify(statusWatcher).watch(databaseStatus, waitFor, 30);
+    }
+
+    @Test(expected = DatabaseNotFoundException.class)
+    public void watchDatabaseStatusNotFoundTest() {
+        additonalSetUp();
+        stubRecord("databaseId", Optional.empty(), Optional.empty());
+        when(dBaaSConfiguration.getStatusWatch())
+                .thenReturn(new DBaaSConfiguration.StatusWatchConfiguration());
+
+        databaseManager.watchDatabaseStatus("databaseId", ImmutableSet.of(), 10);
+    }
+
+    @Test
+    public void getDatabaseStatusesTest() {
+        additonalSetUp();
+        List<String> databaseIds = ImmutableList.of("databaseId", "otherDatabaseId");
+        when(databaseDAO.getDatabaseStatuses(databaseIds))
+                .thenReturn(ImmutableMap.of("databaseId", databaseStatus));
+
+        assertEquals(ImmutableMap.of("databaseId", databaseStatus),
+                databaseManager.getDatabaseStatuses(databaseIds));
+    }
+
+    @Test
+    public void getDatabaseStatusReadsCacheTest() {
+        additonalSetUp();
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.empty());
+
+        databaseManager.getDatabaseStatus("databaseId");
+
+        verify(databaseDAO).getCachedDatabaseRecord("databaseId");
+        verify(databaseDAO, never()).getDatabaseRecord(any());
+        verify(databaseDAO, never()).getDatabaseStatus(any());
+    }
+
     @Test(expected = DatabaseNotFoundException.class)
     public void getDatabaseStatusExceptionTest() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.empty());
+        stubRecord("databaseId", Optional.empty(), Optional.empty());
         databaseManager.getDatabaseStatus("databaseId");
     }
 
     @Test
     public void getDatabaseTest() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.of(databaseStatus));
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.of(databaseInfo));
         when(databaseStatus.getStatus()).thenReturn(DatabaseStatus.Status.READY);
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
         assertEquals(databaseManager.getDatabase("databaseId"), database);
     }
 
     @Test(expected = DatabaseNotFoundException.class)
     public void getDatabaseNotPresentTest() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.empty());
+        stubRecord("databaseId", Optional.empty(), Optional.empty());
         databaseManager.getDatabase("databaseId");
     }
 
     @Test(expected = DatabaseNotFoundException.class)
     public void getDatabaseNotReadyTest() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.of(databaseStatus));
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.empty());
         when(databaseStatus.getStatus()).thenReturn(DatabaseStatus.Status.CREATING);
         databaseManager.getDatabase("databaseId");
     }
@@ -308,9 +390,8 @@ public class DatabaseManagerTest {
     @Test
     public void softDeleteSharedDatabaseTest() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.of(databaseInfo));
         when(databaseInfo.getTenancyType()).thenReturn(DatabaseCreationRequest.TenancyType.SHARED);
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.of(databaseStatus));
 
         ArgumentCaptor<MasterDatabase> masterDatabaseCaptor =
                 ArgumentCaptor.forClass(MasterDatabase.class);
@@ -335,9 +416,8 @@ public class DatabaseManagerTest {
     @Test(expected = DatabaseDeletionException.class)
     public void softDeleteSharedExceptionTest() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.of(databaseInfo));
         when(databaseInfo.getTenancyType()).thenReturn(DatabaseCreationRequest.TenancyType.SHARED);
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.of(databaseStatus));
         doThrow(SchemaOperationException.class).when(schemaManager)
                 .changeSchemaPassword(any(), anyString(), anyString(), anyString());
 
@@ -347,10 +427,9 @@ public class DatabaseManagerTest {
     @Test
     public void softDeleteDedicatedDatabaseTest() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.of(databaseInfo));
         when(databaseInfo.getTenancyType())
                 .thenReturn(DatabaseCreationRequest.TenancyType.DEDICATED);
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.of(databaseStatus));
 
         databaseManager.deleteDatabase("databaseId");
         verify(instanceDeleteRequestProcessor).requestSoftDelete("databaseId");
@@ -359,8 +438,7 @@ public class DatabaseManagerTest {
     @Test(expected = DatabaseDeletionException.class)
     public void softDeleteDedicatedDatabaseQueueExceptionTest() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.of(databaseStatus));
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.of(databaseInfo));
         when(databaseInfo.getTenancyType())
                 .thenReturn(DatabaseCreationRequest.TenancyType.DEDICATED);
 
@@ -372,7 +450,7 @@ public class DatabaseManagerTest {
     @Test(expected = Exception.class)
     public void softDeleteDedicatedDatabaseStatusExceptionTest() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
+        stubRecord("databaseId", Optional.empty(), Optional.of(databaseInfo));
         when(databaseInfo.getTenancyType())
                 .thenReturn(DatabaseCreationRequest.TenancyType.DEDICATED);
 
@@ -384,8 +462,7 @@ public class DatabaseManagerTest {
     @Test
     public void softDeleteAlreadyDeletedTest() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.of(databaseStatus));
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.of(databaseInfo));
         when(databaseStatus.getStatus()).thenReturn(DatabaseStatus.Status.DELETED);
 
         databaseManager.deleteDatabase("databaseId");
@@ -396,8 +473,7 @@ public class DatabaseManagerTest {
     @Test(expected = DatabaseNotFoundException.class)
     public void softDeleteNoRecordExists() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.empty());
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.of(databaseStatus));
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.empty());
 
         databaseManager.deleteDatabase("databaseId");
     }
@@ -405,8 +481,7 @@ public class DatabaseManagerTest {
     @Test
     public void softDeleteInstanceMissing() {
         additonalSetUp();
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
-        when(databaseDAO.getDatabaseStatus("databaseId")).thenReturn(Optional.of(databaseStatus));
+        stubRecord("databaseId", Optional.of(databaseStatus), Optional.of(databaseInfo));
         when(instanceManager.getDBInstance("data-dbaas2-local-dev-testInstance"))
                 .thenReturn(Optional.empty());
 
@@ -427,170 +502,30 @@ public class DatabaseManagerTest {
     }
 
     @Test
-    public void hardDeleteSchemaExceptionTest() {
-        additonalSetUp();
-        DatabaseManager databaseManagerSpy = spy(databaseManager);
-        when(permissionManager.isAllowed(any())).thenReturn(true);
-        when(databaseDAO.getDeletedDatabases()).thenReturn(ImmutableList.of(database));
-        when(database.getId()).thenReturn("databaseId");
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
-        when(databaseInfo.getInstanceId()).thenReturn("instanceId");
-        when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
-        when(instanceManager.getDBInstance("dbInstanceId")).thenReturn(Optional.of(dbInstance));
-        when(databaseInfo.getDatabase()).thenReturn(database);
-        when(database.getSchema()).thenReturn("schema");
-        when(databaseInfo.getTenancyType()).thenReturn(DatabaseCreationRequest.TenancyType.SHARED);
-        doReturn(masterDatabase).when(databaseManagerSpy).getMasterDatabase(dbInstance,
-                DatabaseCreationRequest.TenancyType.SHARED);
-        when(schemaManager.isSchemaExists(masterDatabase, "schema")).thenReturn(true);
-        when(database.getUser()).thenReturn("user");
-        doThrow(SchemaOperationException.class).when(schemaManager).hardDeleteSchema(masterDatabase,
-                "user", "schema");
-
-        databaseManagerSpy.hardDeleteDatabase("token");
-
-        verify(databaseDAO, times(0)).deleteDatabaseRecord(any());
-
-    }
-
-    @Test
-    public void hardDeleteOtherExceptionTest() {
-        additonalSetUp();
-        DatabaseManager databaseManagerSpy = spy(databaseManager);
-        when(permissionManager.isAllowed(any())).thenReturn(true);
-        when(databaseDAO.getDeletedDatabases()).thenReturn(ImmutableList.of(database));
-        when(database.getId()).thenReturn("databaseId");
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
-        when(databaseInfo.getInstanceId()).thenReturn("instanceId");
-        when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
-        when(instanceManager.getDBInstance("dbInstanceId")).thenReturn(Optional.of(dbInstance));
-        when(databaseInfo.getDatabase()).thenReturn(database);
-        when(database.getSchema()).thenReturn("schema");
-        when(databaseInfo.getTenancyType()).thenReturn(DatabaseCreationRequest.TenancyType.SHARED);
-        doReturn(masterDatabase).when(databaseManagerSpy).getMasterDatabase(dbInstance,
-                DatabaseCreationRequest.TenancyType.SHARED);
-        when(schemaManager.isSchemaExists(masterDatabase, "schema")).thenReturn(true);
-        when(database.getUser()).thenReturn("user");
-        doThrow(Exception.class).when(databaseDAO).deleteDatabaseRecord("databaseId");
-
-        databaseManagerSpy.hardDeleteDatabase("token");
-    }
-
-    @Test
-    public void hardDeleteSchemaDoesntExistTest() {
+    public void hardDeleteTriggersReaperTest() {
         additonalSetUp();
-        DatabaseManager databaseManagerSpy = spy(databaseManager);
-        when(permissionManager.isAllowed(any())).thenReturn(true);
-        when(databaseDAO.getDeletedDatabases()).thenReturn(ImmutableList.of(database));
-        when(database.getId()).thenReturn("databaseId");
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
-        when(databaseInfo.getInstanceId()).thenReturn("instanceId");
-        when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
-        when(instanceManager.getDBInstance("dbInstanceId")).thenReturn(Optional.of(dbInstance));
-        when(databaseInfo.getDatabase()).thenReturn(database);
-        when(database.getSchema()).thenReturn("schema");
-        when(databaseInfo.getTenancyType()).thenReturn(DatabaseCreationRequest.TenancyType.SHARED);
-        doReturn(masterDatabase).when(databaseManagerSpy).getMasterDatabase(dbInstance,
-                DatabaseCreationRequest.TenancyType.SHARED);
-        when(schemaManager.isSchemaExists(masterDatabase, "schema")).thenReturn(false);
-        databaseManagerSpy.hardDeleteDatabase("token");
-        verify(databaseDAO).deleteDatabaseRecord("databaseId");
-
-    }
-
-    @Test
-    public void hardDeleteInstanceNotFoundTest() {
-        additonalSetUp();
-        when(permissionManager.isAllowed(any())).thenReturn(true);
-        when(databaseDAO.getDeletedDatabases()).thenReturn(ImmutableList.of(database));
-        when(database.getId()).thenReturn("databaseId");
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
-        when(databaseInfo.getInstanceId()).thenReturn("instanceId");
-        when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
-        when(instanceManager.getDBInstance("dbInstanceId")).thenReturn(Optional.empty());
-        databaseManager.hardDeleteDatabase("token");
-        verify(databaseDAO).deleteDatabaseRecord("databaseId");
-
-    }
-
-    @Test
-    public void hardDeleteInstanceDeletionExceptionTest() {
-        additonalSetUp();
-        DatabaseManager databaseManagerSpy = spy(databaseManager);
-        when(permissionManager.isAllowed(any())).thenReturn(true);
-        when(databaseDAO.getDeletedDatabases()).thenReturn(ImmutableList.of(database));
-        when(database.getId()).thenReturn("databaseId");
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
-        when(databaseInfo.getInstanceId()).thenReturn("instanceId");
-        when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
-        when(instanceManager.getDBInstance("dbInstanceId")).thenReturn(Optional.of(dbInstance));
-        when(databaseInfo.getDatabase()).thenReturn(database);
-        when(database.getSchema()).thenReturn("schema");
-        when(databaseInfo.getTenancyType()).thenReturn(
-                DatabaseCreationRequest.TenancyType.DEDICATED);
-        doReturn(masterDatabase).when(databaseManagerSpy).getMasterDatabase(dbInstance,
-                DatabaseCreationRequest.TenancyType.DEDICATED);
-        when(schemaManager.isSchemaExists(masterDatabase, "schema")).thenReturn(false);
-        doThrow(DatabaseDeletionException.class).when(instanceManager).deleteInstance(anyString());
-
-        databaseManager.hardDeleteDatabase("token");
-        verify(databaseDAO, times(0)).deleteDatabaseRecord(any());
-    }
-
-    @Test
-    public void hardDeleteDedicatedAllSuccessTest() {
-        additonalSetUp();
-        DatabaseManager databaseManagerSpy = spy(databaseManager);
-        when(permissionManager.isAllowed(any())).thenReturn(true);
-        when(databaseDAO.getDeletedDatabases()).thenReturn(ImmutableList.of(database));
-        when(database.getId()).thenReturn("databaseId");
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
-        when(databaseInfo.getInstanceId()).thenReturn("instanceId");
-        when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
-        when(instanceManager.getDBInstance("dbInstanceId")).thenReturn(Optional.of(dbInstance));
-        when(databaseInfo.getDatabase()).thenReturn(database);
-        when(database.getSchema()).thenReturn("schema");
-        when(databaseInfo.getTenancyType()).thenReturn(DatabaseCreationRequest.TenancyType.DEDICATED);
-        doReturn(masterDatabase).when(databaseManagerSpy).getMasterDatabase(dbInstance,
-                DatabaseCreationRequest.TenancyType.DEDICATED);
-        when(schemaManager.isSchemaExists(masterDatabase, "schema")).thenReturn(true);
-        when(database.getUser()).thenReturn("user");
-
-        databaseManagerSpy.hardDeleteDatabase("token");
-
-        verify(instanceManager).deleteInstance("instanceId");
-        verify(databaseDAO).deleteDatabaseRecord("databaseId");
+        when(permissionManager.isAllowed("token")).thenReturn(true);
+        HardDeleteProgress progress = new HardDeleteProgress(true, 1L, null, 0, 0, 0, false);
+        when(hardDeleteReaper.trigger()).thenReturn(true);
+        when(hardDeleteReaper.getProgress()).thenReturn(progress);
 
+        assertEquals(progress, databaseManager.hardDeleteDatabase("token"));
+        verify(hardDeleteReaper).trigger();
+        verify(databaseDAO, never()).getDeletedDatabasePages();
     }
 
-    @Test
-    public void hardDeleteSharedAllSuccessTest() {
+    @Test(expected = TokenNotAuthorizedException.class)
+    public void hardDeleteProgressNotAuthTest() {
         additonalSetUp();
-        DatabaseManager databaseManagerSpy = spy(databaseManager);
-        when(permissionManager.isAllowed(any())).thenReturn(true);
-        when(databaseDAO.getDeletedDatabases()).thenReturn(ImmutableList.of(database));
-        when(database.getId()).thenReturn("databaseId");
-        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
-        when(databaseInfo.getInstanceId()).thenReturn("instanceId");
-        when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
-        when(instanceManager.getDBInstance("dbInstanceId")).thenReturn(Optional.of(dbInstance));
-        when(databaseInfo.getDatabase()).thenReturn(database);
-        when(database.getSchema()).thenReturn("schema");
-        when(databaseInfo.getTenancyType()).thenReturn(DatabaseCreationRequest.TenancyType.SHARED);
-        doReturn(masterDatabase).when(databaseManagerSpy).getMasterDatabase(dbInstance,
-                DatabaseCreationRequest.TenancyType.SHARED);
-        when(schemaManager.isSchemaExists(masterDatabase, "schema")).thenReturn(true);
-        when(database.getUser()).thenReturn("user");
-
-        databaseManagerSpy.hardDeleteDatabase("token");
+        when(permissionManager.isAllowed(any())).thenReturn(false);
+        databaseManager.getHardDeleteProgress("anything");
     }
 
     @Test(expected = DatabaseNotFoundException.class)
     public void createUserDatabaseRecordMissingTest() {
         additonalSetUp();
         when(passwordManager.generatePassword()).thenReturn("password");
-        when(databaseDAO.getDatabaseInfo("username")).thenReturn(Optional.empty());
-        when(databaseDAO.getDatabaseStatus(any())).thenReturn(Optional.of(databaseStatus));
+        stubRecord("username", Optional.of(databaseStatus), Optional.empty());
 
         databaseManager.createUser("username");
     }
@@ -599,8 +534,7 @@ public class DatabaseManagerTest {
     public void createUserInvalidStatusTest() {
         additonalSetUp();
         when(passwordManager.generatePassword()).thenReturn("password");
-        when(databaseDAO.getDatabaseInfo("username")).thenReturn(Optional.of(databaseInfo));
-        when(databaseDAO.getDatabaseStatus(any())).thenReturn(Optional.of(databaseStatus));
+        stubRecord("username", Optional.of(databaseStatus), Optional.of(databaseInfo));
         when(databaseStatus.getStatus()).thenReturn(DatabaseStatus.Status.CREATING);
 
         databaseManager.createUser("username");
@@ -610,8 +544,7 @@ public class DatabaseManagerTest {
     public void createUserSchemaExceptionTest() {
         additonalSetUp();
         when(passwordManager.generatePassword()).thenReturn("password");
-        when(databaseDAO.getDatabaseInfo("username")).thenReturn(Optional.of(databaseInfo));
-        when(databaseDAO.getDatabaseStatus(any())).thenReturn(Optional.of(databaseStatus));
+        stubRecord("username", Optional.of(databaseStatus), Optional.of(databaseInfo));
         when(databaseStatus.getStatus()).thenReturn(DatabaseStatus.Status.READY);
         when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
 
@@ -626,8 +559,7 @@ public class DatabaseManagerTest {
     public void createUserTest() {
         additonalSetUp();
         when(passwordManager.generatePassword()).thenReturn("password");
-        when(databaseDAO.getDatabaseInfo("username")).thenReturn(Optional.of(databaseInfo));
-        when(databaseDAO.getDatabaseStatus(any())).thenReturn(Optional.of(databaseStatus));
+        stubRecord("username", Optional.of(databaseStatus), Optional.of(databaseInfo));
         when(databaseStatus.getStatus()).thenReturn(DatabaseStatus.Status.READY);
         when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
 
@@ -639,26 +571,10 @@ public class DatabaseManagerTest {
         verify(schemaManager).createUser(any(), any(), any(), any());
     }
 
+    private void stubRecord(String databaseId, Optional<DatabaseStatus> status,
+                            Optional<DatabaseInfo> info) {
+        Optional<DatabaseRecord> record = Optional.of(new DatabaseRecord(status, info));
+        when(databaseDAO.getDatabaseRecord(databaseId)).thenReturn(record);
+        when(databaseDAO.getCachedDatabaseRecord(databaseId)).thenReturn(record);
+    }
 }
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
@@ -0,0 +1,165 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.codahale.metrics.MetricRegistry;
+import com.jivesoftware.data.DBaaSConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DumpCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private DumpCache dumpCache;
+
+    private File directory;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.DumpCacheConfiguration cacheConfiguration;
+
+    @Mock
+    private AmazonS3 amazonS3;
+
+    @Mock
+    private MasterDatabase sourceDatabase;
+
+    @Before
+    public void setUp() {
+        directory = new File(temporaryFolder.getRoot(), "cache");
+        when(dBaaSConfiguration.getDumpCache()).thenReturn(cacheConfiguration);
+        when(cacheConfiguration.getEnabled()).thenReturn(true);
+        when(cacheConfiguration.getDirectory()).thenReturn(directory.getPath());
+        when(cacheConfiguration.getMaxBytes()).thenReturn(250L);
+        when(sourceDatabase.getHost()).thenReturn("source_host");
+        when(sourceDatabase.getPort()).thenReturn(5432);
+
+        dumpCache = new DumpCache(dBaaSConfiguration, amazonS3, new MetricRegistry());
+    }
+
+    @Test
+    public void getKeyTest() {
+        String key = dumpCache.getKey(sourceDatabase, "source_schema", "1:2:3", "dump");
+
+        assertEquals(key, dumpCache.getKey(sourceDatabase, "source_schema", "1:2:3", "dump"));
+        assertNotEquals(key, dumpCache.getKey(sourceDatabase, "source_schema", "1:2:4", "dump"));
+        assertNotEquals(key, dumpCache.getKey(sourceDatabase, "other_schema", "1:2:3", "dump"));
+    }
+
+    @Test
+    public void putAndAcquireTest() throws Exception {
+        assertFalse(dumpCache.acquire("key").isPresent());
+        assertTrue(dumpCache.put("key", newDump("dump", 100)));
+
+        Optional<DumpCache.Lease> lease = dumpCache.acquire("key");
+        assertTrue(lease.isPresent());
+        assertEquals(100, lease.get().getBytes());
+        assertTrue(new File(lease.get().getDirectory(), DumpCache.TOC_FILE).exists());
+        lease.get().close();
+
+        assertEquals(100, dumpCache.getCachedBytes());
+        verifyZeroInteractions(amazonS3);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedTest() throws Exception {
+        dumpCache.put("first", newDump("first", 100));
+        dumpCache.put("second", newDump("second", 100));
+        dumpCache.acquire("first").get().close();
+
+        dumpCache.put("third", newDump("third", 100));
+
+        assertTrue(dumpCache.acquire("first").isPresent());
+        assertFalse(dumpCache.acquire("second").isPresent());
+        assertFalse(new File(directory, "second").exists());
+        assertEquals(200, dumpCache.getCachedBytes());
+    }
+
+    @Test
+    public void leasedDumpIsNotEvictedTest() throws Exception {
+        dumpCache.put("first", newDump("first", 100));
+        DumpCache.Lease lease = dumpCache.acquire("first").get();
+        dumpCache.put("second", newDump("second", 100));
+
+        dumpCache.put("third", newDump("third", 100));
+
+        assertTrue(new File(lease.getDirectory(), DumpCache.TOC_FILE).exists());
+        assertFalse(new File(directory, "second").exists());
+        assertTrue(dumpCache.acquire("third").isPresent());
+        lease.close();
+    }
+
+    @Test
+    public void loadsDumpsOnStartTest() throws Exception {
+        dumpCache.put("key", newDump("dump", 100));
+        Files.createDirectories(new File(directory, ".partial-leftover").toPath());
+
+        DumpCache restarted = new DumpCache(dBaaSConfiguration, amazonS3, new MetricRegistry());
+
+        assertTrue(restarted.acquire("key").isPresent());
+        assertEquals(100, restarted.getCachedBytes());
+        assertFalse(new File(directory, ".partial-leftover").exists());
+    }
+
+    @Test
+    public void uploadEncryptedTest() throws Exception {
+        when(cacheConfiguration.getBucket()).thenReturn("bucket");
+        when(cacheConfiguration.getPrefix()).thenReturn("dump-cache/");
+
+        dumpCache.put("key", newDump("dump", 100));
+
+        ArgumentCaptor<PutObjectRequest> request = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(amazonS3, timeout(5000)).putObject(request.capture());
+        assertEquals("dump-cache/key/" + DumpCache.TOC_FILE, request.getValue().getKey());
+        assertEquals(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION,
+                request.getValue().getMetadata().getSSEAlgorithm());
+        assertNull(request.getValue().getSSEAwsKeyManagementParams());
+    }
+
+    @Test
+    public void uploadKmsEncryptedTest() throws Exception {
+        when(cacheConfiguration.getBucket()).thenReturn("bucket");
+        when(cacheConfiguration.getPrefix()).thenReturn("dump-cache/");
+        when(cacheConfiguration.getKmsKeyId()).thenReturn("kmsKeyId");
+
+        dumpCache.put("key", newDump("dump", 100));
+
+        ArgumentCaptor<PutObjectRequest> request = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(amazonS3, timeout(5000)).putObject(request.capture());
+        assertEquals("kmsKeyId",
+                request.getValue().getSSEAwsKeyManagementParams().getAwsKmsKeyId());
+    }
+
+    private File newDump(String name, int bytes) throws IOException {
+        File dump = temporaryFolder.newFolder(name);
+        Files.write(new File(dump, DumpCache.TOC_FILE).toPath(), new byte[bytes]);
+        return dump;
+    }
+}
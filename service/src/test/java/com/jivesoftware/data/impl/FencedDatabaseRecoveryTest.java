@@ -0,0 +1,112 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.google.common.collect.ImmutableSet;
+import com.jivesoftware.data.exceptions.SchemaOperationException;
+import com.jivesoftware.data.resources.entities.Database;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FencedDatabaseRecoveryTest {
+
+    private FencedDatabaseRecovery fencedDatabaseRecovery;
+
+    @Mock
+    private DatabaseDAO databaseDAO;
+
+    @Mock
+    private DatabaseIDHelper databaseIDHelper;
+
+    @Mock
+    private InstanceManager instanceManager;
+
+    @Mock
+    private SchemaManager schemaManager;
+
+    @Mock
+    private PasswordManager passwordManager;
+
+    @Mock
+    private PasswordManager.Instance passwordManagerInstance;
+
+    @Mock
+    private DatabaseInfo databaseInfo;
+
+    @Mock
+    private DBInstance dbInstance;
+
+    @Mock
+    private Endpoint endpoint;
+
+    @Before
+    public void setUp() {
+        when(databaseDAO.getFences()).thenReturn(ImmutableSet.of("sourceId/targetId"));
+        when(databaseDAO.getDatabaseInfo("sourceId")).thenReturn(Optional.of(databaseInfo));
+        when(databaseInfo.getInstanceId()).thenReturn("instanceId");
+        when(databaseInfo.getDatabase()).thenReturn(
+                new Database("sourceId", "sourceUser", "host", 5432, "sourceSchema"));
+        when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
+        when(instanceManager.getDBInstance("dbInstanceId")).thenReturn(Optional.of(dbInstance));
+        when(databaseIDHelper.getDatabaseInstanceId(dbInstance)).thenReturn("instanceId");
+        when(passwordManager.getInstance("instanceId"))
+                .thenReturn(Optional.of(passwordManagerInstance));
+        when(passwordManagerInstance.getPassword()).thenReturn("password");
+        when(dbInstance.getEndpoint()).thenReturn(endpoint);
+        when(endpoint.getAddress()).thenReturn("host");
+        when(endpoint.getPort()).thenReturn(5432);
+        when(dbInstance.getMasterUsername()).thenReturn("postgres");
+        when(dbInstance.getDBName()).thenReturn("postgres");
+
+        fencedDatabaseRecovery = new FencedDatabaseRecovery(databaseDAO, databaseIDHelper,
+                instanceManager, schemaManager, passwordManager);
+    }
+
+    @Test
+    public void getFenceTest() {
+        assertEquals("sourceId/targetId", FencedDatabaseRecovery.getFence("sourceId", "targetId"));
+    }
+
+    @Test
+    public void opensFencedDatabaseTest() throws Exception {
+        fencedDatabaseRecovery.start();
+
+        verify(schemaManager).allowConnections(any(MasterDatabase.class), eq("sourceSchema"));
+        verify(databaseDAO).removeFence("sourceId/targetId");
+    }
+
+    @Test
+    public void deletedSourceFenceRemovedTest() throws Exception {
+        when(databaseDAO.getDatabaseInfo("sourceId")).thenReturn(Optional.empty());
+
+        fencedDatabaseRecovery.start();
+
+        verify(schemaManager, never()).allowConnections(any(), anyString());
+        verify(databaseDAO).removeFence("sourceId/targetId");
+    }
+
+    @Test
+    public void openFailureKeepsFenceTest() throws Exception {
+        doThrow(new SchemaOperationException("intended exception")).when(schemaManager)
+                .allowConnections(any(MasterDatabase.class), anyString());
+
+        fencedDatabaseRecovery.start();
+
+        verify(databaseDAO, never()).removeFence(anyString());
+    }
+}
@@ -0,0 +1,280 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.DatabaseDeletionException;
+import com.jivesoftware.data.exceptions.SchemaOperationException;
+import com.jivesoftware.data.resources.entities.Database;
+import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
+import com.jivesoftware.data.resources.entities.HardDeleteProgress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HardDeleteReaperTest {
+
+    private HardDeleteReaper hardDeleteReaper;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.HardDeleteConfiguration hardDeleteConfiguration;
+
+    @Mock
+    private DatabaseDAO databaseDAO;
+
+    @Mock
+    private DatabaseIDHelper databaseIDHelper;
+
+    @Mock
+    private InstanceManager instanceManager;
+
+    @Mock
+    private SchemaManager schemaManager;
+
+    @Mock
+    private PasswordManager passwordManager;
+
+    @Mock
+    private PasswordManager.Instance passwordManagerInstance;
+
+    @Mock
+    private DatabaseInfo databaseInfo;
+
+    @Mock
+    private DBInstance dbInstance;
+
+    @Mock
+    private Endpoint endpoint;
+
+    private Database deleted = new Database("databaseId", "user", "host", 5432, "schema");
+
+    @Before
+    public void setUp() {
+        when(dBaaSConfiguration.getHardDelete()).thenReturn(hardDeleteConfiguration);
+        when(hardDeleteConfiguration.getThreads()).thenReturn(4);
+        when(hardDeleteConfiguration.getHostConcurrency()).thenReturn(2);
+        when(hardDeleteConfiguration.getDeletesPerSecond()).thenReturn(1000.0);
+        when(hardDeleteConfiguration.getIntervalSeconds()).thenReturn(300);
+
+        when(databaseDAO.tryHardDeleteLease(anyString(), anyLong())).thenReturn(true);
+        when(databaseDAO.getDeletedDatabasePages()).thenReturn(
+                ImmutableList.of(ImmutableList.of(deleted)));
+        when(databaseDAO.getDatabaseInfo(anyString())).thenReturn(Optional.of(databaseInfo));
+        when(databaseInfo.getInstanceId()).thenReturn("instanceId");
+        when(databaseInfo.getDatabase()).thenReturn(deleted);
+        when(databaseInfo.getTenancyType()).thenReturn(DatabaseCreationRequest.TenancyType.SHARED);
+        when(databaseIDHelper.getDBInstanceId("instanceId")).thenReturn("dbInstanceId");
+        when(instanceManager.getDBInstance("dbInstanceId")).thenReturn(Optional.of(dbInstance));
+        when(databaseIDHelper.getDatabaseInstanceId(dbInstance)).thenReturn("instanceId");
+        when(passwordManager.getInstance("instanceId"))
+                .thenReturn(Optional.of(passwordManagerInstance));
+        when(passwordManagerInstance.getPassword()).thenReturn("password");
+        when(dbInstance.getEndpoint()).thenReturn(endpoint);
+        when(endpoint.getAddress()).thenReturn("host");
+        when(endpoint.getPort()).thenReturn(5432);
+        when(dbInstance.getMasterUsername()).thenReturn("postgres");
+        when(dbInstance.getDBName()).thenReturn("postgres");
+
+        hardDeleteReaper = new HardDeleteReaper(dBaaSConfiguration, databaseDAO, databaseIDHelper,
+                instanceManager, schemaManager, passwordManager, new MetricRegistry());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        hardDeleteReaper.shutDown();
+    }
+
+    @Test
+    public void sharedSchemaDroppedTest() {
+        when(schemaManager.isSchemaExists(any(), anyString())).thenReturn(true);
+
+        hardDeleteReaper.reap();
+
+        verify(schemaManager).hardDeleteSchema(any(MasterDatabase.class), anyString(), anyString());
+        verify(databaseDAO).deleteDatabaseRecord("databaseId");
+        HardDeleteProgress progress = hardDeleteReaper.getProgress();
+        assertFalse(progress.isRunning());
+        assertNotNull(progress.getFinishedAt());
+        assertEquals(1, progress.getPages());
+        assertEquals(1, progress.getReaped());
+        assertEquals(0, progress.getFailed());
+        assertFalse(progress.isLeaseHeldElsewhere());
+    }
+
+    @Test
+    public void schemaDoesntExistTest() {
+        when(schemaManager.isSchemaExists(any(), anyString())).thenReturn(false);
+
+        hardDeleteReaper.reap();
+
+        verify(schemaManager, never()).hardDeleteSchema(any(), anyString(), anyString());
+        verify(databaseDAO).deleteDatabaseRecord("databaseId");
+    }
+
+    @Test
+    public void schemaExceptionKeepsRecordTest() {
+        when(schemaManager.isSchemaExists(any(), anyString())).thenReturn(true);
+        doThrow(SchemaOperationException.class).when(schemaManager)
+                .hardDeleteSchema(any(), anyString(), anyString());
+
+        hardDeleteReaper.reap();
+
+        verify(databaseDAO, never()).deleteDatabaseRecord(any());
+        assertEquals(1, hardDeleteReaper.getProgress().getFailed());
+    }
+
+    @Test
+    public void dedicatedInstanceDeletedTest() {
+        when(databaseInfo.getTenancyType())
+                .thenReturn(DatabaseCreationRequest.TenancyType.DEDICATED);
+
+        hardDeleteReaper.reap();
+
+        verify(instanceManager).deleteInstance("instanceId");
+        verify(schemaManager, never()).isSchemaExists(any(), anyString());
+        verify(databaseDAO).deleteDatabaseRecord("databaseId");
+    }
+
+    @Test
+    public void instanceDeletionExceptionKeepsRecordTest() {
+        when(databaseInfo.getTenancyType())
+                .thenReturn(DatabaseCreationRequest.TenancyType.DEDICATED);
+        doThrow(DatabaseDeletionException.class).when(instanceManager).deleteInstance(anyString());
+
+        hardDeleteReaper.reap();
+
+        verify(databaseDAO, never()).deleteDatabaseRecord(any());
+        assertEquals(1, hardDeleteReaper.getProgress().getFailed());
+    }
+
+    @Test
+    public void instanceNotFoundTest() {
+        when(instanceManager.getDBInstance("dbInstanceId")).thenReturn(Optional.empty());
+
+        hardDeleteReaper.reap();
+
+        verify(databaseDAO).deleteDatabaseRecord("databaseId");
+    }
+
+    @Test
+    public void instanceLookedUpOncePerPassTest() {
+        Database other = new Database("otherId", "otherUser", "host", 5432, "otherSchema");
+        when(databaseDAO.getDeletedDatabasePages()).thenReturn(ImmutableList.of(
+                ImmutableList.of(deleted), ImmutableList.of(other)));
+
+        hardDeleteReaper.reap();
+
+        verify(instanceManager, times(1)).getDBInstance("dbInstanceId");
+        verify(databaseDAO).deleteDatabaseRecord("databaseId");
+        verify(databaseDAO).deleteDatabaseRecord("otherId");
+        assertEquals(2, hardDeleteReaper.getProgress().getPages());
+    }
+
+    @Test
+    public void hostConcurrencyCappedTest() {
+        when(hardDeleteConfiguration.getHostConcurrency()).thenReturn(1);
+        when(databaseDAO.getDeletedDatabasePages()).thenReturn(ImmutableList.of(ImmutableList.of(
+                new Database("first", "user", "host", 5432, "first"),
+                new Database("second", "user", "host", 5432, "second"),
+                new Database("third", "user", "host", 5432, "third"))));
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger mostActive = new AtomicInteger();
+        when(schemaManager.isSchemaExists(any(), anyString())).thenAnswer(invocation -> {
+            mostActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            active.decrementAndGet();
+            return false;
+        });
+
+        hardDeleteReaper.reap();
+
+        assertEquals(1, mostActive.get());
+        assertEquals(3, hardDeleteReaper.getProgress().getReaped());
+    }
+
+    @Test
+    public void leaseHeldElsewhereTest() {
+        when(databaseDAO.tryHardDeleteLease(anyString(), anyLong())).thenReturn(false);
+
+        hardDeleteReaper.reap();
+
+        verify(databaseDAO, never()).getDeletedDatabasePages();
+        verify(databaseDAO, never()).deleteDatabaseRecord(anyString());
+        assertFalse(hardDeleteReaper.getProgress().isRunning());
+        assertNotNull(hardDeleteReaper.getProgress().getFinishedAt());
+        assertTrue(hardDeleteReaper.getProgress().isLeaseHeldElsewhere());
+    }
+
+    @Test
+    public void triggeredLeaseHeldElsewhereTest() {
+        when(databaseDAO.tryHardDeleteLease(anyString(), anyLong())).thenReturn(false);
+
+        assertTrue(hardDeleteReaper.trigger());
+
+        HardDeleteProgress progress = hardDeleteReaper.getProgress();
+        assertFalse(progress.isRunning());
+        assertTrue(progress.isLeaseHeldElsewhere());
+        assertNotNull(progress.getFinishedAt());
+        verify(databaseDAO, never()).getDeletedDatabasePages();
+    }
+
+    @Test
+    public void leaseLostStopsPassTest() {
+        Database other = new Database("otherId", "otherUser", "host", 5432, "otherSchema");
+        when(databaseDAO.getDeletedDatabasePages()).thenReturn(ImmutableList.of(
+                ImmutableList.of(deleted), ImmutableList.of(other)));
+        when(databaseDAO.tryHardDeleteLease(anyString(), anyLong())).thenReturn(true, false);
+
+        hardDeleteReaper.reap();
+
+        verify(databaseDAO).deleteDatabaseRecord("databaseId");
+        verify(databaseDAO, never()).deleteDatabaseRecord("otherId");
+        assertEquals(1, hardDeleteReaper.getProgress().getPages());
+    }
+
+    @Test
+    public void triggeredPassReadsAsRunningTest() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(databaseDAO.getDeletedDatabasePages()).thenAnswer(invocation -> {
+            reading.countDown();
+            release.await();
+            return ImmutableList.of();
+        });
+
+        assertTrue(hardDeleteReaper.trigger());
+        assertTrue(hardDeleteReaper.getProgress().isRunning());
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        assertFalse(hardDeleteReaper.trigger());
+        release.countDown();
+
+        verify(databaseDAO, times(1)).getDeletedDatabasePages();
+    }
+}
@@ -18,6 +18,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -49,10 +51,19 @@ public class InstanceCreationProcessorTest {
     @Mock
     private DBaaSConfiguration.InstanceTemplate instanceTemplate;
 
+    @Mock
+    private WarmInstancePool warmInstancePool;
+
+    @Mock
+    private StorageCloneManager storageCloneManager;
+
     @Before
     public void setup() {
         instanceCreationProcessor = new InstanceCreationProcessor(
-                databaseIDHelper, instanceManager, databaseDAO, dBaaSConfiguration);
+                databaseIDHelper, instanceManager, databaseDAO, dBaaSConfiguration, warmInstancePool,
+                storageCloneManager);
+        when(warmInstancePool.claim(any(), any(), any(), any(), any(), any()))
+                .thenReturn(Optional.empty());
         when(databaseIDHelper.getDBInstanceId("databaseId")).thenReturn("test_databaseId");
         when(databaseCreationRequest.getServiceTag()).thenReturn("serviceTag");
         when(databaseCreationRequest.getServiceComponentTag()).thenReturn("serviceComponentTag");
@@ -131,4 +142,40 @@ public class InstanceCreationProcessorTest {
         assertTrue(databaseCreated.getValue().getPort() == -1);
         assertEquals("dbName", databaseCreated.getValue().getSchema());
     }
+
+    @Test
+    public void warmInstanceClaimedTest() throws Exception {
+        when(databaseCreationRequest.getInstanceClassOptional()).thenReturn(Optional.of("m4.large"));
+        when(databaseCreationRequest.getInstanceStorageOptional()).thenReturn(Optional.of(100));
+        when(warmInstancePool.claim("databaseId", "db.m4.large", 100, "serviceTag",
+                "serviceComponentTag", "password")).thenReturn(Optional.of(dbInstance));
+
+        assertEquals(instanceCreationProcessor
+                        .process("databaseId", "password", databaseCreationRequest),
+                Optional.of(CreationStep.INSTANCE_READY));
+
+        verify(instanceManager, never()).createDedicatedInstance(any(), any(), any(), any(),
+                any(), any());
+        verify(databaseDAO).putDatabase(eq("databaseId"), eq("instanceId"), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void storageCloneRestoresInstanceTest() throws Exception {
+        when(databaseCreationRequest.getInstanceClassOptional()).thenReturn(Optional.of("m4.large"));
+        when(databaseCreationRequest.getInstanceStorageOptional()).thenReturn(Optional.of(100));
+        when(storageCloneManager.isStorageClone(databaseCreationRequest)).thenReturn(true);
+        when(storageCloneManager.restoreInstance("test-databaseId", "db.m4.large",
+                databaseCreationRequest)).thenReturn(dbInstance);
+
+        assertEquals(instanceCreationProcessor
+                        .process("databaseId", "password", databaseCreationRequest),
+                Optional.of(CreationStep.INSTANCE_READY));
+
+        verify(warmInstancePool, never()).claim(any(), any(), any(), any(), any(), any());
+        verify(instanceManager, never()).createDedicatedInstance(any(), any(), any(), any(),
+                any(), any());
+        verify(databaseDAO).putDatabase(eq("databaseId"), eq("instanceId"), any(), any(), any(),
+                any());
+    }
 }
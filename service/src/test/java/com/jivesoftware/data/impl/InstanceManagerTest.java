@@ -2,19 +2,19 @@ package com.jivesoftware.data.impl;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.regions.Regions;
-import com.amazonaws.services.cloudwatch.AmazonCloudWatchClient;
-import com.amazonaws.services.cloudwatch.model.Datapoint;
-import com.amazonaws.services.cloudwatch.model.GetMetricStatisticsResult;
 import com.amazonaws.services.rds.AmazonRDSClient;
 import com.amazonaws.services.rds.model.*;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.ConfigUpdateException;
 import com.jivesoftware.data.exceptions.DatabaseDeletionException;
 import com.jivesoftware.data.exceptions.InstanceClassNotFoundException;
 import com.jivesoftware.data.exceptions.InstanceNotFoundException;
+import com.jivesoftware.data.impl.metrics.InstanceMetrics;
+import com.jivesoftware.data.impl.metrics.InstanceMetricsClient;
 import com.jivesoftware.data.resources.entities.Instance;
 import org.junit.*;
 import org.junit.runner.RunWith;
@@ -39,7 +39,7 @@ public class InstanceManagerTest {
     private InstanceManager instanceManager;
 
     @Mock
-    private AmazonCloudWatchClient amazonCloudWatchClient;
+    private InstanceMetricsClient instanceMetricsClient;
 
     @Mock
     private DBaaSConfiguration dBaaSConfiguration;
@@ -74,18 +74,6 @@ public class InstanceManagerTest {
     @Mock
     private ListTagsForResourceResult listTagsForResourceResult;
 
-    @Mock
-    private GetMetricStatisticsResult getMetricStatisticsResult1;
-
-    @Mock
-    private GetMetricStatisticsResult getMetricStatisticsResult2;
-
-    @Mock
-    private Datapoint datapoint1;
-
-    @Mock
-    private Datapoint datapoint2;
-
     @Mock
     private List dbInstanceList;
 
@@ -119,7 +107,10 @@ public class InstanceManagerTest {
         when(dBaaSConfiguration.getMakoEnvironment()).thenReturn("local-dev");
         when(dBaaSConfiguration.getAwsRegion()).thenReturn(com.amazonaws.regions.Region.getRegion(Regions.US_WEST_2));
         when(dBaaSConfiguration.getAwsAccountNumber()).thenReturn("072535113705");
-        instanceManager = new InstanceManager(rdsClient, dBaaSConfiguration, metricRegistry, amazonCloudWatchClient);
+        when(dBaaSConfiguration.getInstanceTags())
+                .thenReturn(new DBaaSConfiguration.InstanceTagsConfiguration());
+        instanceManager = new InstanceManager(rdsClient, dBaaSConfiguration, metricRegistry,
+                instanceMetricsClient, new InstanceTagCache(dBaaSConfiguration, new MetricRegistry()));
 
         when(instanceTemplate.getAllocatedStorage()).thenReturn(100);
         when(instanceTemplate.getDbInstanceClass()).thenReturn("testClass");
@@ -259,6 +250,42 @@ public class InstanceManagerTest {
                 .contains(new Tag().withKey("mako-environment").withValue("local-dev")));
     }
 
+    @Test
+    public void testRestoreInstanceToPointInTime() {
+        ArgumentCaptor<RestoreDBInstanceToPointInTimeRequest> restoreCaptor =
+                ArgumentCaptor.forClass(RestoreDBInstanceToPointInTimeRequest.class);
+        when(rdsClient.restoreDBInstanceToPointInTime(restoreCaptor.capture()))
+                .thenReturn(dbInstance);
+
+        DBInstance restoredInstance = instanceManager.restoreInstanceToPointInTime(
+                "source", "test", "db.m4.large", "dedicatedTest", "dbaas");
+
+        RestoreDBInstanceToPointInTimeRequest restoreRequest = restoreCaptor.getValue();
+        assertEquals("test", restoredInstance.getDBInstanceIdentifier());
+        assertEquals("source", restoreRequest.getSourceDBInstanceIdentifier());
+        assertEquals("test", restoreRequest.getTargetDBInstanceIdentifier());
+        assertEquals("db.m4.large", restoreRequest.getDBInstanceClass());
+        assertTrue(restoreRequest.getUseLatestRestorableTime());
+        assertTrue(restoreRequest.getTags()
+                .contains(new Tag().withKey("jive_service").withValue("dedicatedTest")));
+    }
+
+    @Test
+    public void testModifyRestoredInstance() {
+        ArgumentCaptor<ModifyDBInstanceRequest> modifyCaptor =
+                ArgumentCaptor.forClass(ModifyDBInstanceRequest.class);
+        when(instanceTemplate.getSecurityGroup()).thenReturn("aws_security_group_id");
+
+        instanceManager.modifyRestoredInstance(dbInstance, "newPassword");
+
+        verify(rdsClient).modifyDBInstance(modifyCaptor.capture());
+        assertEquals("test", modifyCaptor.getValue().getDBInstanceIdentifier());
+        assertEquals("newPassword", modifyCaptor.getValue().getMasterUserPassword());
+        assertEquals(ImmutableList.of("aws_security_group_id"),
+                modifyCaptor.getValue().getVpcSecurityGroupIds());
+        assertTrue(modifyCaptor.getValue().getApplyImmediately());
+    }
+
     @Test
     public void testCreateDedicatedInstanceNullSecurityGroup() {
         ArgumentCaptor<CreateDBInstanceRequest> createInstanceCaptor = ArgumentCaptor.forClass(CreateDBInstanceRequest.class);
@@ -357,22 +384,10 @@ public class InstanceManagerTest {
         when(dbInstance.getDBInstanceStatus()).thenReturn("available");
         when(dbInstanceLessConnections.getDBInstanceStatus()).thenReturn("available");
 
-        when(amazonCloudWatchClient.getMetricStatistics(any())).thenAnswer((invocation)->{
-            Object[] args = invocation.getArguments();
-            for (Object arg : args) {
-                //idToUsage.getOrDefault(arg.toString(), 0);
-                if(arg.toString().contains("test1")){
-                    return getMetricStatisticsResult1;
-                }
-                if(arg.toString().contains("test2")){
-                    return getMetricStatisticsResult2;
-                }
-            }
-            throw new RuntimeException("Seeded values not found in test, what'd you do?");});
-        when(getMetricStatisticsResult1.getDatapoints()).thenReturn(ImmutableList.of(datapoint1));
-        when(getMetricStatisticsResult2.getDatapoints()).thenReturn(ImmutableList.of(datapoint2));
-        when(datapoint1.getMaximum()).thenReturn(10.0);
-        when(datapoint2.getMaximum()).thenReturn(8.0);
+        when(instanceMetricsClient.fetchMetrics(any())).thenReturn(ImmutableMap.of(
+                "red-test1", new InstanceMetrics(Optional.of(10.0), Optional.empty(), Optional.empty()),
+                "red-test2", new InstanceMetrics(Optional.of(8.0), Optional.empty(), Optional.empty()),
+                "black-test2", new InstanceMetrics(Optional.of(8.0), Optional.empty(), Optional.empty())));
 
         when(rdsClient.describeDBInstances(any())).thenReturn(describeDBInstancesResult);
         when(describeDBInstancesResult.getDBInstances()).thenReturn(ImmutableList.of(dbInstance, dbInstanceLessConnections));
@@ -406,22 +421,10 @@ public class InstanceManagerTest {
         when(dbInstance.getDBInstanceStatus()).thenReturn("available");
         when(dbInstanceLessConnections.getDBInstanceStatus()).thenReturn("available");
 
-        when(amazonCloudWatchClient.getMetricStatistics(any())).thenAnswer((invocation)->{
-            Object[] args = invocation.getArguments();
-            for (Object arg : args) {
-                //idToUsage.getOrDefault(arg.toString(), 0);
-                if(arg.toString().contains("test1")){
-                    return getMetricStatisticsResult1;
-                }
-                if(arg.toString().contains("test2")){
-                    return getMetricStatisticsResult2;
-                }
-            }
-            throw new RuntimeException("Seeded values not found in test, what'd you do?");});
-        when(getMetricStatisticsResult1.getDatapoints()).thenReturn(ImmutableList.of(datapoint1));
-        when(getMetricStatisticsResult2.getDatapoints()).thenReturn(ImmutableList.of(datapoint2));
-        when(datapoint1.getMaximum()).thenReturn(10.0);
-        when(datapoint2.getMaximum()).thenReturn(8.0);
+        when(instanceMetricsClient.fetchMetrics(any())).thenReturn(ImmutableMap.of(
+                "red-test1", new InstanceMetrics(Optional.of(10.0), Optional.empty(), Optional.empty()),
+                "red-test2", new InstanceMetrics(Optional.of(8.0), Optional.empty(), Optional.empty()),
+                "black-test2", new InstanceMetrics(Optional.of(8.0), Optional.empty(), Optional.empty())));
 
         when(rdsClient.describeDBInstances(any())).thenReturn(describeDBInstancesResult);
         when(describeDBInstancesResult.getDBInstances()).thenReturn(ImmutableList.of(dbInstance, dbInstanceLessConnections));
@@ -0,0 +1,115 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.Tag;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.jivesoftware.data.DBaaSConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class InstanceTagCacheTest {
+
+    private InstanceTagCache instanceTagCache;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    private List<Tag> tags = ImmutableList.of(new Tag().withKey("default_by_service")
+            .withValue("data-dbaas"));
+
+    @Before
+    public void setUp() {
+        when(dBaaSConfiguration.getInstanceTags())
+                .thenReturn(new DBaaSConfiguration.InstanceTagsConfiguration());
+        instanceTagCache = new InstanceTagCache(dBaaSConfiguration, new MetricRegistry());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        instanceTagCache.stop();
+    }
+
+    @Test
+    public void cachedTagsNotLookedUpAgainTest() {
+        AtomicInteger lookups = new AtomicInteger();
+        Function<String, List<Tag>> loader = arn -> {
+            lookups.incrementAndGet();
+            return tags;
+        };
+
+        instanceTagCache.getTags(ImmutableList.of("arn-1", "arn-2"), loader);
+        Map<String, List<Tag>> found = instanceTagCache.getTags(
+                ImmutableList.of("arn-1", "arn-2"), loader);
+
+        assertEquals(2, lookups.get());
+        assertEquals(tags, found.get("arn-1"));
+        assertEquals(tags, found.get("arn-2"));
+    }
+
+    @Test
+    public void lookupsRunConcurrentlyTest() {
+        // both lookups only finish once the other one has started
+        CountDownLatch started = new CountDownLatch(2);
+        Map<String, List<Tag>> found = instanceTagCache.getTags(
+                ImmutableList.of("arn-1", "arn-2"), arn -> {
+                    started.countDown();
+                    try {
+                        started.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return tags;
+                });
+
+        assertEquals(2, found.size());
+    }
+
+    @Test
+    public void failedLookupLeftOutAndRetriedTest() {
+        AtomicInteger lookups = new AtomicInteger();
+        Function<String, List<Tag>> loader = arn -> {
+            lookups.incrementAndGet();
+            if (arn.equals("arn-bad")) {
+                throw new IllegalStateException("throttled");
+            }
+            return tags;
+        };
+
+        Map<String, List<Tag>> found = instanceTagCache.getTags(
+                ImmutableList.of("arn-good", "arn-bad"), loader);
+        assertEquals(1, found.size());
+        assertTrue(found.containsKey("arn-good"));
+
+        instanceTagCache.getTags(ImmutableList.of("arn-good", "arn-bad"), loader);
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    public void invalidatedTagsLookedUpAgainTest() {
+        AtomicInteger lookups = new AtomicInteger();
+        Function<String, List<Tag>> loader = arn -> {
+            lookups.incrementAndGet();
+            return tags;
+        };
+
+        instanceTagCache.getTags(ImmutableList.of("arn-1"), loader);
+        instanceTagCache.invalidate("arn-1");
+        instanceTagCache.getTags(ImmutableList.of("arn-1"), loader);
+
+        assertEquals(2, lookups.get());
+    }
+}
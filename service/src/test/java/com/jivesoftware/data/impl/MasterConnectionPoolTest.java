@@ -0,0 +1,118 @@
+package com.jivesoftware.data.impl;
+
+import com.codahale.metrics.MetricRegistry;
+import com.jivesoftware.data.DBaaSConfiguration;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MasterConnectionPoolTest {
+
+    private MasterConnectionPool masterConnectionPool;
+
+    private MetricRegistry metricRegistry;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.ConnectionPoolConfiguration poolConfiguration;
+
+    // nothing listens on port 1, every connection attempt is refused right away
+    private MasterDatabase masterDatabase =
+            new MasterDatabase("127.0.0.1", "postgres", "password", 1, "postgres");
+
+    @Before
+    public void setUp() {
+        when(dBaaSConfiguration.getConnectionPool()).thenReturn(poolConfiguration);
+        when(poolConfiguration.getMaxPerHost()).thenReturn(4);
+        when(poolConfiguration.getMaxIdlePerHost()).thenReturn(2);
+        when(poolConfiguration.getMaxWaitMillis()).thenReturn(1000);
+        when(poolConfiguration.getIdleEvictSeconds()).thenReturn(300);
+        when(poolConfiguration.getEvictionIntervalSeconds()).thenReturn(60);
+        when(poolConfiguration.getValidationIntervalSeconds()).thenReturn(30);
+        when(poolConfiguration.getUnusedPoolEvictSeconds()).thenReturn(900);
+
+        metricRegistry = new MetricRegistry();
+        masterConnectionPool = new MasterConnectionPool(dBaaSConfiguration, metricRegistry);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        masterConnectionPool.stop();
+    }
+
+    @Test
+    public void poolPerHostTest() {
+        MasterDatabase otherUser = new MasterDatabase("127.0.0.1", "other", "password", 1,
+                "postgres");
+
+        connect(masterDatabase);
+        connect(masterDatabase);
+        connect(otherUser);
+
+        DataSource dataSource = masterConnectionPool.getDataSource(masterDatabase);
+        assertEquals(4, dataSource.getPoolProperties().getMaxActive());
+        assertTrue(dataSource.getPoolProperties().isTestOnBorrow());
+        assertNotSame(dataSource, masterConnectionPool.getDataSource(otherUser));
+        assertTrue(metricRegistry.getGauges().containsKey(
+                "com.jivesoftware.data.impl.MasterConnectionPool.postgres@127.0.0.1:1/postgres.active"));
+    }
+
+    @Test
+    public void rotatedPasswordUsedTest() {
+        connect(masterDatabase);
+        DataSource dataSource = masterConnectionPool.getDataSource(masterDatabase);
+
+        connect(new MasterDatabase("127.0.0.1", "postgres", "rotated", 1, "postgres"));
+
+        assertSame(dataSource, masterConnectionPool.getDataSource(masterDatabase));
+        assertEquals("rotated", dataSource.getPoolProperties().getPassword());
+    }
+
+    @Test
+    public void unusedPoolEvictedTest() {
+        String activeGauge =
+                "com.jivesoftware.data.impl.MasterConnectionPool.postgres@127.0.0.1:1/postgres.active";
+        connect(masterDatabase);
+
+        masterConnectionPool.evictUnused(System.currentTimeMillis());
+        DataSource dataSource = masterConnectionPool.getDataSource(masterDatabase);
+        assertNotNull(dataSource);
+
+        masterConnectionPool.evictUnused(System.currentTimeMillis() + 901000);
+        assertNull(masterConnectionPool.getDataSource(masterDatabase));
+        assertFalse(metricRegistry.getGauges().containsKey(activeGauge));
+
+        // used again, the host gets a new pool and gauges
+        connect(masterDatabase);
+        assertNotSame(dataSource, masterConnectionPool.getDataSource(masterDatabase));
+        assertTrue(metricRegistry.getGauges().containsKey(activeGauge));
+    }
+
+    private void connect(MasterDatabase database) {
+        try {
+            masterConnectionPool.getConnection(database).close();
+            fail("Nothing should be listening");
+        } catch (SQLException e) {
+            // expected, the pool is made before the first connection is tried
+        }
+    }
+}
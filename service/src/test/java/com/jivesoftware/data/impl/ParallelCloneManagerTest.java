@@ -0,0 +1,227 @@
+package com.jivesoftware.data.impl;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.CloneException;
+import com.jivesoftware.data.resources.entities.Database;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ParallelCloneManagerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ParallelCloneManager parallelCloneManager;
+
+    private File scratch;
+
+    private MetricRegistry metricRegistry;
+
+    @Mock
+    private CloneManager cloneManager;
+
+    @Mock
+    private SchemaManager schemaManager;
+
+    @Mock
+    private DumpCache dumpCache;
+
+    @Mock
+    private DumpCache.Lease cachedDump;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.CloneConfiguration cloneConfiguration;
+
+    @Mock
+    private MasterDatabase sourceDatabase;
+
+    @Mock
+    private Database targetDatabase;
+
+    @Before
+    public void setUp() throws Exception {
+        scratch = new File(temporaryFolder.getRoot(), "scratch");
+        when(dBaaSConfiguration.getCloneConfiguration()).thenReturn(cloneConfiguration);
+        when(dBaaSConfiguration.getInstanceTypes()).thenReturn(ImmutableList.of(
+                new DBaaSConfiguration.InstanceType("m4.large", 8, 2, true, true, true),
+                new DBaaSConfiguration.InstanceType("r3.2xlarge", 61, 8, true, true, true)));
+        when(cloneConfiguration.getScratchDirectory()).thenReturn(scratch.getPath());
+        when(cloneConfiguration.getScratchQuotaBytes()).thenReturn(10000L);
+        when(cloneConfiguration.getMaxJobs()).thenReturn(8);
+        when(schemaManager.getSchemaSize(sourceDatabase, "source_schema")).thenReturn(1000L);
+        when(targetDatabase.getSchema()).thenReturn("target_schema");
+
+        metricRegistry = new MetricRegistry();
+        parallelCloneManager = new ParallelCloneManager(cloneManager, schemaManager, dumpCache,
+                dBaaSConfiguration, metricRegistry);
+    }
+
+    @Test
+    public void cloneTest() throws Exception {
+        parallelCloneManager.clone(sourceDatabase, "source_schema", "db.r3.2xlarge",
+                targetDatabase, "targetPassword", "db.m4.large");
+
+        String directory = new File(scratch, "target_schema-").getPath();
+        verify(cloneManager).dumpDirectory(eq(sourceDatabase), eq("source_schema"),
+                eq(targetDatabase), eq("targetPassword"), startsWith(directory), eq(2));
+        verify(cloneManager).restoreDirectory(eq(sourceDatabase), eq("source_schema"),
+                eq(targetDatabase), eq("targetPassword"), startsWith(directory), eq(2));
+        verify(cloneManager, never()).clone(any(), anyString(), any(), anyString());
+        assertEquals(0, parallelCloneManager.getReservedBytes());
+    }
+
+    @Test
+    public void overQuotaFallsBackTest() throws Exception {
+        when(cloneConfiguration.getScratchQuotaBytes()).thenReturn(999L);
+
+        parallelCloneManager.clone(sourceDatabase, "source_schema", "db.r3.2xlarge",
+                targetDatabase, "targetPassword", "db.m4.large");
+
+        verify(cloneManager).clone(sourceDatabase, "source_schema", targetDatabase,
+                "targetPassword");
+        verify(cloneManager, never()).dumpDirectory(any(), anyString(), any(), anyString(),
+                anyString(), anyInt());
+    }
+
+    @Test
+    public void failureCleansUpTest() throws Exception {
+        doAnswer(invocation -> {
+            File directory = new File((String) invocation.getArguments()[4]);
+            Files.createDirectories(directory.toPath());
+            Files.write(new File(directory, "toc.dat").toPath(), new byte[100]);
+            throw new CloneException("intended exception");
+        }).when(cloneManager).dumpDirectory(any(), anyString(), any(), anyString(), anyString(),
+                anyInt());
+
+        try {
+            parallelCloneManager.clone(sourceDatabase, "source_schema", "db.r3.2xlarge",
+                    targetDatabase, "targetPassword", "db.m4.large");
+            fail("Expected the clone to fail");
+        } catch (CloneException e) {
+            assertEquals(0, scratch.listFiles().length);
+            assertEquals(0, parallelCloneManager.getReservedBytes());
+        }
+    }
+
+    @Test
+    public void cachedDumpTest() throws Exception {
+        File cached = new File(temporaryFolder.getRoot(), "cached");
+        when(dumpCache.isEnabled()).thenReturn(true);
+        when(schemaManager.getChangeMarker(sourceDatabase, "source_schema")).thenReturn("1:2:3");
+        when(dumpCache.getKey(eq(sourceDatabase), eq("source_schema"), eq("1:2:3"), any()))
+                .thenReturn("key");
+        when(dumpCache.acquire("key")).thenReturn(Optional.of(cachedDump));
+        when(cachedDump.getDirectory()).thenReturn(cached);
+
+        parallelCloneManager.clone(sourceDatabase, "source_schema", "db.r3.2xlarge",
+                targetDatabase, "targetPassword", "db.m4.large");
+
+        verify(cloneManager, never()).dumpDirectory(any(), anyString(), any(), anyString(),
+                anyString(), anyInt());
+        verify(cloneManager).restoreDirectory(sourceDatabase, "source_schema", targetDatabase,
+                "targetPassword", cached.getPath(), 2);
+        verify(cachedDump).close();
+        assertEquals(0, parallelCloneManager.getReservedBytes());
+    }
+
+    @Test
+    public void uncachedDumpIsCachedTest() throws Exception {
+        when(dumpCache.isEnabled()).thenReturn(true);
+        when(schemaManager.getChangeMarker(sourceDatabase, "source_schema")).thenReturn("1:2:3");
+        when(dumpCache.getKey(eq(sourceDatabase), eq("source_schema"), eq("1:2:3"), any()))
+                .thenReturn("key");
+        when(dumpCache.acquire("key")).thenReturn(Optional.empty());
+        when(dumpCache.put(eq("key"), any(File.class))).thenReturn(true);
+
+        parallelCloneManager.clone(sourceDatabase, "source_schema", "db.r3.2xlarge",
+                targetDatabase, "targetPassword", "db.m4.large");
+
+        String directory = new File(scratch, "target_schema-").getPath();
+        verify(cloneManager).dumpDirectory(eq(sourceDatabase), eq("source_schema"),
+                eq(targetDatabase), eq("targetPassword"), startsWith(directory), eq(2));
+        verify(dumpCache).put(eq("key"), any(File.class));
+        assertEquals(0, parallelCloneManager.getReservedBytes());
+    }
+
+    @Test
+    public void fanOutTest() throws Exception {
+        when(cloneConfiguration.getFanOut()).thenReturn(true);
+        when(cloneConfiguration.getExecutionTimeout()).thenReturn(10000L);
+        CountDownLatch dumping = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            dumping.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(cloneManager).dumpDirectory(any(), anyString(), any(), anyString(), anyString(),
+                anyInt());
+
+        Thread first = new Thread(() -> parallelCloneManager.clone(sourceDatabase,
+                "source_schema", "db.r3.2xlarge", targetDatabase, "targetPassword",
+                "db.m4.large"));
+        first.start();
+        dumping.await(10, TimeUnit.SECONDS);
+        // let the dump finish once the second clone waits on it
+        Meter fanOut = metricRegistry.meter(name(ParallelCloneManager.class, "fanOut"));
+        new Thread(() -> {
+            while (fanOut.getCount() == 0) {
+                Thread.yield();
+            }
+            release.countDown();
+        }).start();
+        parallelCloneManager.clone(sourceDatabase, "source_schema", "db.r3.2xlarge",
+                targetDatabase, "targetPassword", "db.m4.large");
+        first.join(10000);
+
+        verify(cloneManager, times(1)).dumpDirectory(any(), anyString(), any(), anyString(),
+                anyString(), anyInt());
+        verify(cloneManager, times(2)).restoreDirectory(any(), anyString(), any(), anyString(),
+                anyString(), anyInt());
+        assertEquals(1, fanOut.getCount());
+        assertEquals(0, parallelCloneManager.getReservedBytes());
+        assertEquals(0, scratch.listFiles().length);
+    }
+
+    @Test
+    public void getJobsTest() {
+        assertEquals(8, parallelCloneManager.getJobs("db.r3.2xlarge", "db.r3.2xlarge"));
+        assertEquals(2, parallelCloneManager.getJobs("db.r3.2xlarge", "db.m4.large"));
+        assertEquals(1, parallelCloneManager.getJobs("db.x1.32xlarge", "db.r3.2xlarge"));
+
+        when(cloneConfiguration.getMaxJobs()).thenReturn(4);
+        assertEquals(4, parallelCloneManager.getJobs("db.r3.2xlarge", "db.r3.2xlarge"));
+    }
+}
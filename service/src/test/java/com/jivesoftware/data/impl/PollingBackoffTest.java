@@ -0,0 +1,57 @@
+package com.jivesoftware.data.impl;
+
+import com.jivesoftware.data.DBaaSConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PollingBackoffTest {
+
+    private PollingBackoff pollingBackoff;
+
+    @Mock
+    private DBaaSConfiguration.PollingBackoffConfiguration configuration;
+
+    @Before
+    public void setUp() {
+        when(configuration.getInitialDelaySeconds()).thenReturn(5);
+        when(configuration.getMaxDelaySeconds()).thenReturn(120);
+        when(configuration.getMultiplier()).thenReturn(2.0);
+        when(configuration.getMaxAttempts()).thenReturn(10);
+        pollingBackoff = new PollingBackoff(configuration);
+    }
+
+    @Test
+    public void firstAttemptNotDelayedTest() {
+        assertEquals(0, pollingBackoff.getDelaySeconds(0));
+    }
+
+    @Test
+    public void delayGrowsUpToCapTest() {
+        assertEquals(5, pollingBackoff.getDelaySeconds(1));
+        assertEquals(10, pollingBackoff.getDelaySeconds(2));
+        assertEquals(80, pollingBackoff.getDelaySeconds(5));
+        assertEquals(120, pollingBackoff.getDelaySeconds(6));
+        assertEquals(120, pollingBackoff.getDelaySeconds(40));
+    }
+
+    @Test
+    public void delayNeverAboveSqsLimitTest() {
+        when(configuration.getMaxDelaySeconds()).thenReturn(3600);
+        assertEquals(PollingBackoff.MAX_SQS_DELAY_SECONDS, pollingBackoff.getDelaySeconds(20));
+    }
+
+    @Test
+    public void exhaustedAfterMaxAttemptsTest() {
+        assertFalse(pollingBackoff.isExhausted(10));
+        assertTrue(pollingBackoff.isExhausted(11));
+    }
+}
@@ -41,9 +41,16 @@ public class ReadyProcessorTest {
     @Mock
     private Endpoint endpoint;
 
+    @Mock
+    private StorageCloneManager storageCloneManager;
+
+    @Mock
+    private SchemaManager schemaManager;
+
     @Before
     public void setup(){
-        readyProcessor = new ReadyProcessor(instanceManager, databaseDAO, databaseIDHelper);
+        readyProcessor = new ReadyProcessor(instanceManager, databaseDAO, databaseIDHelper,
+                storageCloneManager, schemaManager);
         when(databaseCreationRequest.getServiceTag()).thenReturn("serviceTag");
         when(databaseInfo.getInstanceId()).thenReturn("instanceID");
         when(databaseCreationRequest.getDataLocality()).thenReturn(
@@ -54,6 +61,7 @@ public class ReadyProcessorTest {
         when(endpoint.getPort()).thenReturn(5432);
         when(dbInstance.getDBName()).thenReturn("dbName");
         when(databaseIDHelper.getDBInstanceId("instanceID")).thenReturn("instanceID");
+        when(schemaManager.acceptsPassword(any(MasterDatabase.class))).thenReturn(true);
     }
 
     @Test(expected = DatabaseNotFoundException.class)
@@ -88,4 +96,35 @@ public class ReadyProcessorTest {
         when(instanceManager.isReady(dbInstance)).thenReturn(true);
         assertEquals(readyProcessor.process("databaseId", "password", databaseCreationRequest), Optional.of(CreationStep.SCHEMA));
     }
+
+    @Test
+    public void storageCloneReadyTest(){
+        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
+        when(instanceManager.getDBInstance("instanceID")).thenReturn(Optional.of(dbInstance));
+        when(instanceManager.isReady(dbInstance)).thenReturn(true);
+        when(storageCloneManager.isStorageClone(databaseCreationRequest)).thenReturn(true);
+        assertEquals(readyProcessor.process("databaseId", "password", databaseCreationRequest), Optional.of(CreationStep.CREDENTIALS));
+        verify(instanceManager).modifyRestoredInstance(dbInstance, "password");
+        verify(schemaManager, never()).acceptsPassword(any(MasterDatabase.class));
+    }
+
+    @Test
+    public void masterPasswordPendingTest(){
+        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
+        when(instanceManager.getDBInstance("instanceID")).thenReturn(Optional.of(dbInstance));
+        when(instanceManager.isReady(dbInstance)).thenReturn(true);
+        when(instanceManager.isMasterPasswordPending(dbInstance)).thenReturn(true);
+        assertEquals(readyProcessor.process("databaseId", "password", databaseCreationRequest), Optional.of(CreationStep.INSTANCE_READY));
+        verify(databaseDAO, times(0)).putDatabase(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void oldPasswordStillSetTest(){
+        when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.of(databaseInfo));
+        when(instanceManager.getDBInstance("instanceID")).thenReturn(Optional.of(dbInstance));
+        when(instanceManager.isReady(dbInstance)).thenReturn(true);
+        when(schemaManager.acceptsPassword(any(MasterDatabase.class))).thenReturn(false);
+        assertEquals(readyProcessor.process("databaseId", "password", databaseCreationRequest), Optional.of(CreationStep.INSTANCE_READY));
+        verify(databaseDAO, times(0)).putDatabase(any(), any(), any(), any(), any(), any());
+    }
 }
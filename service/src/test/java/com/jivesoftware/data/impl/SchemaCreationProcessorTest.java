@@ -3,6 +3,7 @@ package com.jivesoftware.data.impl;
 import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.Endpoint;
 import com.jivesoftware.data.exceptions.SchemaOperationException;
+import com.jivesoftware.data.impl.placement.PlacementStrategy;
 import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
 import org.junit.Before;
 import org.junit.Test;
@@ -17,6 +18,7 @@ import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
 
 @RunWith(MockitoJUnitRunner.class)
 public class SchemaCreationProcessorTest {
@@ -26,6 +28,12 @@ public class SchemaCreationProcessorTest {
     @Mock
     private InstanceManager instanceManager;
 
+    @Mock
+    private SharedInstanceIndex sharedInstanceIndex;
+
+    @Mock
+    private PlacementStrategy placementStrategy;
+
     @Mock
     private DatabaseDAO databaseDAO;
 
@@ -67,6 +75,7 @@ public class SchemaCreationProcessorTest {
         when(dbInstance.getMasterUsername()).thenReturn("MasterUser");
         when(endpoint.getPort()).thenReturn(5432);
         when(dbInstance.getDBName()).thenReturn("DBName");
+        when(dbInstance.getDBInstanceIdentifier()).thenReturn("dbaas-InstanceId");
         when(databaseCreationRequest.getDataLocality()).thenReturn(
                 DatabaseCreationRequest.DataLocality.US);
         when(databaseCreationRequest.getServiceTag()).thenReturn("ServiceTag");
@@ -75,13 +84,15 @@ public class SchemaCreationProcessorTest {
         schemaCreationProcessor = new SchemaCreationProcessor(instanceManager, databaseDAO,
                 databaseIDHelper,
                 schemaManager,
-                passwordManager);
+                passwordManager,
+                sharedInstanceIndex,
+                placementStrategy);
     }
 
     @Test(expected = SchemaOperationException.class)
     public void noSharedInstanceTest() throws Exception {
         when(databaseCreationRequest.getTenancyType()).thenReturn(DatabaseCreationRequest.TenancyType.SHARED);
-        when(instanceManager.findSharedInstance()).thenReturn(Optional.empty());
+        when(sharedInstanceIndex.findSharedInstance(placementStrategy)).thenReturn(Optional.empty());
 
         schemaCreationProcessor.process("databaseId", "password", databaseCreationRequest);
         verify(instanceManager, times(0)).getDBInstance(any());
@@ -90,7 +101,7 @@ public class SchemaCreationProcessorTest {
     @Test
     public void sharedInstanceCloneTest() throws Exception {
         when(databaseCreationRequest.getTenancyType()).thenReturn(DatabaseCreationRequest.TenancyType.SHARED);
-        when(instanceManager.findSharedInstance()).thenReturn(Optional.of(dbInstance));
+        when(sharedInstanceIndex.findSharedInstance(placementStrategy)).thenReturn(Optional.of(dbInstance));
         when(databaseCreationRequest.getSourceDatabaseIdOptional()).thenReturn(Optional.of("SourceDBIDExistsforCloning"));
 
         assertEquals(schemaCreationProcessor.process("databaseId", "password", databaseCreationRequest), Optional.of(CreationStep.CLONE));
@@ -100,7 +111,7 @@ public class SchemaCreationProcessorTest {
     @Test
     public void sharedInstanceSoloTest() throws Exception {
         when(databaseCreationRequest.getTenancyType()).thenReturn(DatabaseCreationRequest.TenancyType.SHARED);
-        when(instanceManager.findSharedInstance()).thenReturn(Optional.of(dbInstance));
+        when(sharedInstanceIndex.findSharedInstance(placementStrategy)).thenReturn(Optional.of(dbInstance));
         when(databaseCreationRequest.getDataLocality()).thenReturn(
                 DatabaseCreationRequest.DataLocality.US);
         when(databaseCreationRequest.getServiceTag()).thenReturn("ServiceTag");
@@ -108,6 +119,9 @@ public class SchemaCreationProcessorTest {
 
         assertEquals(schemaCreationProcessor.process("databaseId", "password", databaseCreationRequest), Optional.empty());
         verify(instanceManager, times(0)).getDBInstance(any());
+        verify(sharedInstanceIndex).recordPlacement("dbaas-InstanceId");
+        verify(schemaManager).createSchema(any(), eq("databaseId"), eq("databaseId"),
+                eq("password"), eq(true));
     }
 
     @Test(expected = SchemaOperationException.class)
@@ -116,7 +130,7 @@ public class SchemaCreationProcessorTest {
         when(databaseDAO.getDatabaseInfo("databaseId")).thenReturn(Optional.empty());
 
         schemaCreationProcessor.process("databaseId", "password", databaseCreationRequest);
-        verify(instanceManager, times(0)).findSharedInstance();
+        verify(sharedInstanceIndex, times(0)).findSharedInstance(any());
     }
 
     @Test
@@ -130,7 +144,7 @@ public class SchemaCreationProcessorTest {
         when(databaseCreationRequest.getSourceDatabaseIdOptional()).thenReturn(Optional.of("SourceDBIDExistsforCloning"));
 
         assertEquals(schemaCreationProcessor.process("databaseId", "password", databaseCreationRequest), Optional.of(CreationStep.CLONE));
-        verify(instanceManager, times(0)).findSharedInstance();
+        verify(sharedInstanceIndex, times(0)).findSharedInstance(any());
     }
 
     @Test
@@ -144,7 +158,10 @@ public class SchemaCreationProcessorTest {
         when(databaseCreationRequest.getSourceDatabaseIdOptional()).thenReturn(Optional.empty());
 
         assertEquals(schemaCreationProcessor.process("databaseId", "password", databaseCreationRequest), Optional.empty());
-        verify(instanceManager, times(0)).findSharedInstance();
+        verify(sharedInstanceIndex, times(0)).findSharedInstance(any());
+        verify(sharedInstanceIndex, times(0)).recordPlacement(any());
+        verify(schemaManager).createSchema(any(), eq("databaseId"), eq("databaseId"),
+                eq("password"), eq(false));
     }
 
 }
@@ -1,9 +1,12 @@
 package com.jivesoftware.data.impl;
 
+import com.google.common.collect.ImmutableList;
+import com.jivesoftware.data.DBaaSConfiguration;
 import com.jivesoftware.data.exceptions.SchemaOperationException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
@@ -13,16 +16,40 @@ import java.util.Properties;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.startsWith;
 
 @RunWith(MockitoJUnitRunner.class)
 public class SchemaManagerTest {
 
-    private SchemaManager schemaManager = new SchemaManager();
+    private MasterConnectionPool masterConnectionPool = mock(MasterConnectionPool.class);
 
-    final SchemaManager mockSchemaManager = spy(schemaManager);
+    private DBaaSConfiguration.SchemaTemplateConfiguration templateConfiguration =
+            new DBaaSConfiguration.SchemaTemplateConfiguration();
+
+    private SchemaManager schemaManager;
+
+    private SchemaManager mockSchemaManager;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.SchemaTemplateConfiguration enabledTemplateConfiguration;
+
+    @Mock
+    private Connection templateConnection;
+
+    @Mock
+    private Statement templateStatement;
 
     @Mock
     private MasterDatabase masterDatabase;
@@ -52,6 +79,10 @@ public class SchemaManagerTest {
     @Before
     public void setUp() throws SQLException {
 
+        when(dBaaSConfiguration.getSchemaTemplate()).thenReturn(templateConfiguration);
+        schemaManager = new SchemaManager(masterConnectionPool, dBaaSConfiguration);
+        mockSchemaManager = spy(schemaManager);
+
         when(masterDatabase.getUsername()).thenReturn("username");
         when(masterDatabase.getPassword()).thenReturn("password");
         when(masterDatabase.getHost()).thenReturn("host");
@@ -68,7 +99,7 @@ public class SchemaManagerTest {
 
         when(superConnection.createStatement()).thenReturn(superStatement);
         when(directConnection.createStatement()).thenReturn(directStatement);
-        mockSchemaManager.createSchema(masterDatabase, "schemaName", "username", "password");
+        mockSchemaManager.createSchema(masterDatabase, "schemaName", "username", "password", false);
         verify(superConnection).close();
         verify(superStatement).close();
         verify(superStatement).executeUpdate("CREATE USER username CREATEDB;");
@@ -84,6 +115,108 @@ public class SchemaManagerTest {
         verify(directStatement).executeUpdate("CREATE EXTENSION IF NOT EXISTS pg_stat_statements;");
     }
 
+    @Test
+    public void cloneSchemaFromTemplateTest() throws SQLException {
+
+        when(superConnection.createStatement()).thenReturn(superStatement);
+        when(directConnection.createStatement()).thenReturn(directStatement);
+        doReturn(directConnection).when(mockSchemaManager)
+                .getConnection(masterDatabase, "schemaName_clone");
+        mockSchemaManager.cloneSchemaFromTemplate(masterDatabase, "sourceName", "sourceUser",
+                "schemaName", "username");
+
+        InOrder inOrder = inOrder(superStatement, directStatement, directConnection);
+        inOrder.verify(superStatement).executeUpdate("DROP DATABASE IF EXISTS schemaName_clone;");
+        inOrder.verify(superStatement)
+                .executeUpdate("ALTER DATABASE sourceName ALLOW_CONNECTIONS false;");
+        inOrder.verify(superStatement).execute(startsWith("SELECT pg_terminate_backend(pid)"));
+        inOrder.verify(superStatement).executeUpdate(
+                "CREATE DATABASE schemaName_clone TEMPLATE sourceName OWNER = username;");
+        inOrder.verify(superStatement)
+                .executeUpdate("ALTER DATABASE sourceName ALLOW_CONNECTIONS true;");
+        inOrder.verify(directStatement).executeUpdate("REASSIGN OWNED BY sourceUser TO username;");
+        inOrder.verify(directStatement).executeUpdate("DROP OWNED BY sourceUser;");
+        inOrder.verify(directStatement)
+                .executeUpdate("ALTER DATABASE sourceName OWNER TO sourceUser;");
+        inOrder.verify(directConnection).commit();
+        inOrder.verify(directConnection).close();
+        inOrder.verify(superStatement).executeUpdate("DROP DATABASE schemaName;");
+        inOrder.verify(superStatement)
+                .executeUpdate("ALTER DATABASE schemaName_clone RENAME TO schemaName;");
+    }
+
+    @Test
+    public void renameSchemaTest() throws SQLException {
+
+        when(superConnection.createStatement()).thenReturn(superStatement);
+        mockSchemaManager.renameSchema(masterDatabase, "sourceName", "sourceUser", "schemaName",
+                "username", "password");
+
+        InOrder inOrder = inOrder(superStatement, superConnection);
+        inOrder.verify(superConnection).setAutoCommit(false);
+        inOrder.verify(superStatement).executeUpdate("ALTER DATABASE sourceName RENAME TO schemaName;");
+        inOrder.verify(superStatement).executeUpdate("ALTER USER sourceUser RENAME TO username;");
+        inOrder.verify(superStatement).executeUpdate("ALTER USER username PASSWORD 'password';");
+        verify(superStatement, never()).executeUpdate(contains("mq2user"));
+        inOrder.verify(superConnection).commit();
+        inOrder.verify(superConnection).setAutoCommit(true);
+    }
+
+    @Test
+    public void renameRestoredSchemaTest() throws SQLException {
+
+        when(superConnection.createStatement()).thenReturn(superStatement);
+        mockSchemaManager.renameRestoredSchema(masterDatabase, "sourceName", "sourceUser",
+                "schemaName", "username", "password");
+
+        InOrder inOrder = inOrder(superStatement, superConnection);
+        inOrder.verify(superConnection).setAutoCommit(false);
+        inOrder.verify(superStatement).executeUpdate("ALTER DATABASE sourceName RENAME TO schemaName;");
+        inOrder.verify(superStatement).executeUpdate("ALTER USER sourceUser RENAME TO username;");
+        inOrder.verify(superStatement).executeUpdate("ALTER USER username PASSWORD 'password';");
+        inOrder.verify(superStatement).executeUpdate(contains("ALTER ROLE mq2user NOLOGIN PASSWORD NULL;"));
+        inOrder.verify(superConnection).commit();
+        inOrder.verify(superConnection).setAutoCommit(true);
+    }
+
+    @Test
+    public void acceptsPasswordTest() throws SQLException {
+
+        assertTrue(mockSchemaManager.acceptsPassword(masterDatabase));
+
+        doThrow(new SQLException("password authentication failed", "28P01")).when(mockSchemaManager)
+                .getConnection(masterDatabase, "masterDB");
+        assertFalse(mockSchemaManager.acceptsPassword(masterDatabase));
+    }
+
+    @Test
+    public void cloneSchemaFromTemplateFailureTest() throws SQLException {
+
+        when(superConnection.createStatement()).thenReturn(superStatement);
+        when(superStatement.executeUpdate(
+                "CREATE DATABASE schemaName_clone TEMPLATE sourceName OWNER = username;"))
+                .thenThrow(new SQLException("source database is being accessed by other users"));
+
+        try {
+            mockSchemaManager.cloneSchemaFromTemplate(masterDatabase, "sourceName", "sourceUser",
+                    "schemaName", "username");
+            fail("Expected the copy to fail");
+        } catch (SchemaOperationException e) {
+            verify(superStatement)
+                    .executeUpdate("ALTER DATABASE sourceName ALLOW_CONNECTIONS true;");
+            verify(superStatement, never()).executeUpdate("DROP DATABASE schemaName;");
+        }
+    }
+
+    @Test
+    public void allowConnectionsTest() throws SQLException {
+
+        when(superConnection.createStatement()).thenReturn(superStatement);
+        mockSchemaManager.allowConnections(masterDatabase, "sourceName");
+        verify(superStatement).executeUpdate("ALTER DATABASE sourceName ALLOW_CONNECTIONS true;");
+        verify(superConnection).close();
+    }
+
     @Test
     public void createUserTest() throws SQLException {
 
@@ -151,7 +284,7 @@ public class SchemaManagerTest {
     public void createSchemaExceptionTest() throws SQLException {
 
         when(superConnection.createStatement()).thenThrow(SQLException.class);
-        mockSchemaManager.createSchema(masterDatabase, "schemaName", "username", "password");
+        mockSchemaManager.createSchema(masterDatabase, "schemaName", "username", "password", false);
 
     }
 
@@ -188,10 +321,143 @@ public class SchemaManagerTest {
 
 
     }
-}
 
+    @Test
+    public void masterConnectionFromPoolTest() throws SQLException {
 
+        when(masterConnectionPool.getConnection(masterDatabase)).thenReturn(superConnection);
+        when(superConnection.createStatement()).thenReturn(superStatement);
+        when(superStatement.executeQuery(
+                "SELECT EXISTS(SELECT datname FROM pg_database WHERE datname = 'schemaName')"))
+                .thenReturn(resultSet);
 
+        schemaManager.isSchemaExists(masterDatabase, "schemaName");
 
+        verify(masterConnectionPool).getConnection(masterDatabase);
+        verify(superConnection).close();
+    }
 
+    @Test
+    public void createSchemaFromTemplateTest() throws SQLException {
+
+        SchemaManager templateSchemaManager = templateSchemaManager();
+        when(superConnection.createStatement()).thenReturn(superStatement);
+        when(superStatement.executeQuery(
+                "SELECT shobj_description(oid, 'pg_database') FROM pg_database WHERE datname = 'dbaas_template'"))
+                .thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getString(1)).thenReturn("dbaas-template-1:hstore,postgres_fdw");
+
+        templateSchemaManager.createSchema(masterDatabase, "schemaName", "username", "password", true);
+        templateSchemaManager.createSchema(masterDatabase, "schemaName", "username", "password", true);
+
+        verify(superStatement, times(2)).executeUpdate(
+                "CREATE USER username CREATEDB PASSWORD 'password';");
+        verify(superStatement, times(2)).executeUpdate(
+                "CREATE DATABASE schemaName TEMPLATE dbaas_template OWNER = username;");
+        verify(superStatement, never()).executeUpdate("DROP DATABASE IF EXISTS dbaas_template;");
+        // the version is only read the first time
+        verify(superStatement, times(1)).executeQuery(any());
+        verify(templateSchemaManager, never()).getConnection(masterDatabase, "schemaName");
+    }
+
+    @Test
+    public void templateRebuiltForNewExtensionsTest() throws SQLException {
+
+        SchemaManager templateSchemaManager = templateSchemaManager();
+        when(superConnection.createStatement()).thenReturn(superStatement);
+        when(superStatement.executeQuery(any())).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getString(1)).thenReturn("dbaas-template-1:hstore");
+        when(templateConnection.createStatement()).thenReturn(templateStatement);
+
+        templateSchemaManager.createSchema(masterDatabase, "schemaName", "username", "password", true);
+
+        verify(superStatement).execute("SELECT pg_advisory_lock(4207151)");
+        verify(superStatement).executeUpdate("DROP DATABASE IF EXISTS dbaas_template;");
+        verify(superStatement).executeUpdate("CREATE DATABASE dbaas_template;");
+        verify(templateStatement).executeUpdate("CREATE EXTENSION IF NOT EXISTS hstore;");
+        verify(templateStatement).executeUpdate("CREATE EXTENSION IF NOT EXISTS postgres_fdw;");
+        verify(templateConnection).close();
+        verify(superStatement).executeUpdate(
+                "COMMENT ON DATABASE dbaas_template IS 'dbaas-template-1:hstore,postgres_fdw';");
+        verify(superStatement).execute("SELECT pg_advisory_unlock(4207151)");
+        verify(superStatement).executeUpdate(
+                "CREATE DATABASE schemaName TEMPLATE dbaas_template OWNER = username;");
+    }
+
+    @Test
+    public void templateFailureFallsBackTest() throws SQLException {
+
+        SchemaManager templateSchemaManager = templateSchemaManager();
+        when(superConnection.createStatement()).thenReturn(superStatement);
+        when(directConnection.createStatement()).thenReturn(directStatement);
+        when(superStatement.executeQuery(any())).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(false);
+        when(templateConnection.createStatement()).thenThrow(SQLException.class);
+
+        templateSchemaManager.createSchema(masterDatabase, "schemaName", "username", "password", true);
+
+        verify(superStatement).execute("SELECT pg_advisory_unlock(4207151)");
+        verify(superStatement).executeUpdate("CREATE DATABASE schemaName OWNER = username;");
+        verify(directStatement).executeUpdate("CREATE EXTENSION IF NOT EXISTS hstore;");
+    }
+
+    @Test
+    public void dedicatedInstanceSkipsTemplateTest() throws SQLException {
+
+        SchemaManager templateSchemaManager = templateSchemaManager();
+        when(superConnection.createStatement()).thenReturn(superStatement);
+        when(directConnection.createStatement()).thenReturn(directStatement);
+
+        templateSchemaManager.createSchema(masterDatabase, "schemaName", "username", "password", false);
+
+        verify(superStatement, never()).executeQuery(any());
+        verify(superStatement, never()).execute("SELECT pg_advisory_lock(4207151)");
+        verify(superStatement).executeUpdate("CREATE DATABASE schemaName OWNER = username;");
+        verify(directStatement).executeUpdate("CREATE EXTENSION IF NOT EXISTS hstore;");
+    }
+
+    @Test
+    public void templateCopyFailureFallsBackTest() throws SQLException {
+
+        SchemaManager templateSchemaManager = templateSchemaManager();
+        when(superConnection.createStatement()).thenReturn(superStatement);
+        when(directConnection.createStatement()).thenReturn(directStatement);
+        when(superStatement.executeQuery(any())).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getString(1)).thenReturn("dbaas-template-1:hstore,postgres_fdw");
+        when(superStatement.executeUpdate(
+                "CREATE DATABASE schemaName TEMPLATE dbaas_template OWNER = username;"))
+                .thenThrow(SQLException.class).thenReturn(0);
+
+        templateSchemaManager.createSchema(masterDatabase, "schemaName", "username", "password", true);
+
+        InOrder inOrder = inOrder(superStatement, directStatement);
+        inOrder.verify(superStatement).executeUpdate("DROP USER username;");
+        inOrder.verify(superStatement).executeUpdate("CREATE USER username CREATEDB;");
+        inOrder.verify(superStatement).executeUpdate("CREATE DATABASE schemaName OWNER = username;");
+        inOrder.verify(directStatement).executeUpdate("CREATE EXTENSION IF NOT EXISTS hstore;");
+
+        // the host is checked again instead of trusting the cached version
+        templateSchemaManager.createSchema(masterDatabase, "schemaName", "username", "password", true);
+        verify(superStatement, times(2)).executeQuery(any());
+    }
 
+    private SchemaManager templateSchemaManager() throws SQLException {
+        when(dBaaSConfiguration.getSchemaTemplate()).thenReturn(enabledTemplateConfiguration);
+        when(enabledTemplateConfiguration.getEnabled()).thenReturn(true);
+        when(enabledTemplateConfiguration.getTemplateName()).thenReturn("dbaas_template");
+        when(enabledTemplateConfiguration.getExtensions())
+                .thenReturn(ImmutableList.of("hstore", "postgres_fdw"));
+        SchemaManager templateSchemaManager =
+                spy(new SchemaManager(masterConnectionPool, dBaaSConfiguration));
+        doReturn(superConnection).when(templateSchemaManager)
+                .getConnection(masterDatabase, "masterDB");
+        doReturn(directConnection).when(templateSchemaManager)
+                .getConnection(masterDatabase, "schemaName");
+        doReturn(templateConnection).when(templateSchemaManager)
+                .getConnection(masterDatabase, "dbaas_template");
+        return templateSchemaManager;
+    }
+}
@@ -0,0 +1,207 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.impl.metrics.InstanceMetrics;
+import com.jivesoftware.data.impl.placement.LeastCpuPlacementStrategy;
+import com.jivesoftware.data.impl.placement.PlacementStrategy;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SharedInstanceIndexTest {
+
+    private SharedInstanceIndex sharedInstanceIndex;
+
+    @Mock
+    private InstanceManager instanceManager;
+
+    @Mock
+    private DatabaseDAO databaseDAO;
+
+    @Mock
+    private DatabaseIDHelper databaseIDHelper;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private MetricRegistry metricRegistry;
+
+    @Mock
+    private Timer timer;
+
+    @Mock
+    private Timer.Context context;
+
+    @Mock
+    private DBInstance busyInstance;
+
+    @Mock
+    private DBInstance quietInstance;
+
+    private PlacementStrategy leastCpu = new LeastCpuPlacementStrategy();
+
+    private List<Tag> defaultTags = ImmutableList.of(
+            new Tag().withKey("default_by_service").withValue("data-dbaas"));
+
+    @Before
+    public void setUp() {
+        when(dBaaSConfiguration.getSharedInstanceIndex())
+                .thenReturn(new DBaaSConfiguration.SharedInstanceIndexConfiguration());
+        when(dBaaSConfiguration.getPlacement())
+                .thenReturn(new DBaaSConfiguration.PlacementConfiguration());
+        when(metricRegistry.timer(anyString())).thenReturn(timer);
+        when(timer.time()).thenReturn(context);
+
+        when(busyInstance.getDBInstanceIdentifier()).thenReturn("red-busy");
+        when(quietInstance.getDBInstanceIdentifier()).thenReturn("red-quiet");
+        when(instanceManager.isReady(any())).thenReturn(true);
+        when(instanceManager.isSharedDefault(defaultTags)).thenReturn(true);
+        when(instanceManager.getTagsByInstance(any())).thenAnswer(invocation -> tagsOf(
+                (Collection<DBInstance>) invocation.getArguments()[0], defaultTags));
+        when(instanceManager.getInstanceMetrics(any())).thenReturn(ImmutableMap.of(
+                "red-busy", new InstanceMetrics(Optional.of(60d), Optional.empty(), Optional.empty()),
+                "red-quiet", new InstanceMetrics(Optional.of(5d), Optional.empty(), Optional.empty())));
+
+        sharedInstanceIndex = new SharedInstanceIndex(instanceManager, databaseDAO,
+                databaseIDHelper, dBaaSConfiguration, metricRegistry);
+    }
+
+    @Test
+    public void unpopulatedIndexFallsBackToScanTest() {
+        when(instanceManager.findSharedInstance()).thenReturn(Optional.of(busyInstance));
+
+        assertFalse(sharedInstanceIndex.isPopulated());
+        assertEquals(-1, sharedInstanceIndex.getStalenessMillis());
+        assertEquals(Optional.of(busyInstance), sharedInstanceIndex.findSharedInstance(leastCpu));
+        verify(instanceManager).findSharedInstance();
+    }
+
+    @Test
+    public void leastCpuFromIndexTest() {
+        when(instanceManager.describeDeployColorInstances())
+                .thenReturn(ImmutableList.of(busyInstance, quietInstance));
+
+        sharedInstanceIndex.refresh();
+
+        verify(instanceManager, times(1)).getInstanceMetrics(any());
+        assertTrue(sharedInstanceIndex.isFresh());
+        assertEquals(Optional.of(quietInstance), sharedInstanceIndex.findSharedInstance(leastCpu));
+        assertEquals(2, sharedInstanceIndex.getEntries().size());
+        verify(instanceManager, never()).findSharedInstance();
+    }
+
+    @Test
+    public void tagsReusedBetweenRefreshesTest() {
+        when(instanceManager.describeDeployColorInstances())
+                .thenReturn(ImmutableList.of(quietInstance));
+
+        sharedInstanceIndex.refresh();
+        sharedInstanceIndex.refresh();
+
+        verify(instanceManager, times(1)).getTagsByInstance(ImmutableList.of(quietInstance));
+        verify(instanceManager, times(2)).getInstanceMetrics(any());
+    }
+
+    @Test
+    public void vanishedInstanceDroppedTest() {
+        when(instanceManager.describeDeployColorInstances())
+                .thenReturn(ImmutableList.of(busyInstance, quietInstance))
+                .thenReturn(ImmutableList.of(busyInstance));
+
+        sharedInstanceIndex.refresh();
+        sharedInstanceIndex.refresh();
+
+        assertEquals(1, sharedInstanceIndex.getEntries().size());
+        assertEquals(Optional.of(busyInstance), sharedInstanceIndex.findSharedInstance(leastCpu));
+    }
+
+    @Test
+    public void untaggedInstanceNotEligibleTest() {
+        when(instanceManager.describeDeployColorInstances())
+                .thenReturn(ImmutableList.of(quietInstance));
+        when(instanceManager.getTagsByInstance(any())).thenAnswer(invocation -> tagsOf(
+                (Collection<DBInstance>) invocation.getArguments()[0], ImmutableList.of()));
+
+        sharedInstanceIndex.refresh();
+
+        assertFalse(sharedInstanceIndex.findSharedInstance(leastCpu).isPresent());
+        verify(instanceManager, never()).getInstanceMetrics(any());
+    }
+
+    @Test
+    public void schemaCountsRescannedOnIntervalTest() {
+        when(instanceManager.describeDeployColorInstances())
+                .thenReturn(ImmutableList.of(busyInstance, quietInstance));
+        when(databaseDAO.getSchemaCountsByInstance()).thenReturn(ImmutableMap.of("quiet", 12));
+        when(databaseIDHelper.getDBInstanceId("quiet")).thenReturn("red-quiet");
+
+        sharedInstanceIndex.refresh();
+        sharedInstanceIndex.recordPlacement("red-quiet");
+        sharedInstanceIndex.refresh();
+
+        verify(databaseDAO, times(1)).getSchemaCountsByInstance();
+        for (SharedInstanceEntry entry : sharedInstanceIndex.getEntries()) {
+            assertEquals(entry.getInstanceIdentifier().equals("red-quiet") ? 13 : 0,
+                    entry.getSchemaCount());
+        }
+    }
+
+    @Test
+    public void failedSchemaCountKeepsIndexUsableTest() {
+        when(instanceManager.describeDeployColorInstances())
+                .thenReturn(ImmutableList.of(quietInstance));
+        when(databaseDAO.getSchemaCountsByInstance()).thenThrow(new RuntimeException("throttled"));
+
+        sharedInstanceIndex.refresh();
+
+        assertTrue(sharedInstanceIndex.isFresh());
+        assertEquals(Optional.of(quietInstance), sharedInstanceIndex.findSharedInstance(leastCpu));
+    }
+
+    @Test
+    public void failedTagLookupRetriedTest() {
+        when(instanceManager.describeDeployColorInstances())
+                .thenReturn(ImmutableList.of(quietInstance));
+        when(instanceManager.getTagsByInstance(any()))
+                .thenReturn(ImmutableMap.of())
+                .thenAnswer(invocation -> tagsOf(
+                        (Collection<DBInstance>) invocation.getArguments()[0], defaultTags));
+
+        sharedInstanceIndex.refresh();
+        assertFalse(sharedInstanceIndex.findSharedInstance(leastCpu).isPresent());
+
+        sharedInstanceIndex.refresh();
+        assertEquals(Optional.of(quietInstance), sharedInstanceIndex.findSharedInstance(leastCpu));
+        verify(instanceManager, times(2)).getTagsByInstance(ImmutableList.of(quietInstance));
+    }
+
+    private static Map<String, List<Tag>> tagsOf(Collection<DBInstance> dbInstances,
+                                                 List<Tag> tags) {
+        Map<String, List<Tag>> instanceTags = new HashMap<>();
+        for (DBInstance dbInstance : dbInstances) {
+            instanceTags.put(dbInstance.getDBInstanceIdentifier(), tags);
+        }
+        return instanceTags;
+    }
+}
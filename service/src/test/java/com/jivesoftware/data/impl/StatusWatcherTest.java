@@ -0,0 +1,163 @@
+package com.jivesoftware.data.impl;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.DatabaseNotFoundException;
+import com.jivesoftware.data.exceptions.StatusLookupException;
+import com.jivesoftware.data.resources.entities.DatabaseStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StatusWatcherTest {
+
+    private StatusWatcher statusWatcher;
+
+    private Consumer<DatabaseStatus> statusListener;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.StatusWatchConfiguration statusWatchConfiguration;
+
+    @Mock
+    private DatabaseDAO databaseDAO;
+
+    private DatabaseStatus creating = new DatabaseStatus(DatabaseStatus.Status.CREATING, null,
+            "databaseId");
+
+    private DatabaseStatus ready = new DatabaseStatus(DatabaseStatus.Status.READY, null,
+            "databaseId");
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        when(dBaaSConfiguration.getStatusWatch()).thenReturn(statusWatchConfiguration);
+        when(statusWatchConfiguration.getPollSeconds()).thenReturn(60);
+        when(statusWatchConfiguration.getMaxWatches()).thenReturn(2);
+        when(databaseDAO.getCachedDatabaseRecord("databaseId")).thenReturn(Optional.of(
+                new DatabaseRecord(Optional.of(creating), Optional.empty())));
+
+        statusWatcher = new StatusWatcher(dBaaSConfiguration, databaseDAO, new MetricRegistry());
+
+        ArgumentCaptor<Consumer> listenerCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(databaseDAO).addStatusListener(listenerCaptor.capture());
+        statusListener = listenerCaptor.getValue();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        statusWatcher.stop();
+    }
+
+    @Test
+    public void alreadyInStatusTest() throws Exception {
+        CompletableFuture<DatabaseStatus> watch = statusWatcher.watch(ready,
+                ImmutableSet.of(DatabaseStatus.Status.READY), 30);
+
+        assertEquals(ready, watch.getNow(null));
+    }
+
+    @Test
+    public void notifiedByStatusWriteTest() throws Exception {
+        CompletableFuture<DatabaseStatus> watch = statusWatcher.watch(creating,
+                ImmutableSet.of(DatabaseStatus.Status.READY, DatabaseStatus.Status.ERROR), 30);
+        assertFalse(watch.isDone());
+
+        statusListener.accept(new DatabaseStatus(DatabaseStatus.Status.CREATING, "still",
+                "databaseId"));
+        assertFalse(watch.isDone());
+
+        statusListener.accept(ready);
+        assertEquals(ready, watch.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void anyChangeTest() throws Exception {
+        CompletableFuture<DatabaseStatus> watch = statusWatcher.watch(creating,
+                ImmutableSet.of(), 30);
+
+        DatabaseStatus error = new DatabaseStatus(DatabaseStatus.Status.ERROR, "failed",
+                "databaseId");
+        statusListener.accept(error);
+
+        assertEquals(error, watch.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void pollPicksUpOtherNodesWriteTest() throws Exception {
+        CompletableFuture<DatabaseStatus> watch = statusWatcher.watch(creating,
+                ImmutableSet.of(DatabaseStatus.Status.READY), 30);
+        when(databaseDAO.getDatabaseStatuses(any())).thenReturn(ImmutableMap.of("databaseId",
+                ready));
+
+        statusWatcher.poll();
+
+        assertEquals(ready, watch.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void timeoutAnswersLatestStatusTest() throws Exception {
+        CompletableFuture<DatabaseStatus> watch = statusWatcher.watch(creating,
+                ImmutableSet.of(DatabaseStatus.Status.READY), 1);
+
+        assertEquals(DatabaseStatus.Status.CREATING,
+                watch.get(5, TimeUnit.SECONDS).getStatus());
+    }
+
+    @Test
+    public void removedRecordTest() throws Exception {
+        CompletableFuture<DatabaseStatus> watch = statusWatcher.watch(creating,
+                ImmutableSet.of(DatabaseStatus.Status.READY), 30);
+        when(databaseDAO.getDatabaseStatuses(any())).thenReturn(ImmutableMap.of());
+
+        statusWatcher.poll();
+
+        try {
+            watch.get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DatabaseNotFoundException);
+            return;
+        }
+        throw new AssertionError("Watch of a removed database should fail");
+    }
+
+    @Test(expected = StatusLookupException.class)
+    public void tooManyWatchesTest() {
+        statusWatcher.watch(creating, ImmutableSet.of(DatabaseStatus.Status.READY), 30);
+        statusWatcher.watch(creating, ImmutableSet.of(DatabaseStatus.Status.READY), 30);
+        statusWatcher.watch(creating, ImmutableSet.of(DatabaseStatus.Status.READY), 30);
+    }
+
+    @Test
+    public void finishedWatchesReleasedTest() {
+        statusWatcher.watch(creating, ImmutableSet.of(DatabaseStatus.Status.READY), 30);
+        statusWatcher.watch(creating, ImmutableSet.of(DatabaseStatus.Status.READY), 30);
+        statusListener.accept(ready);
+
+        // both slots are free again
+        statusWatcher.watch(creating, ImmutableSet.of(DatabaseStatus.Status.READY), 30);
+        statusWatcher.watch(creating, ImmutableSet.of(DatabaseStatus.Status.READY), 30);
+    }
+}
@@ -0,0 +1,187 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.DatabaseDeletionException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WarmInstancePoolTest {
+
+    private static final String INSTANCE_CLASS = "db.m4.large";
+
+    private WarmInstancePool warmInstancePool;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.WarmInstancePoolConfiguration poolConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.InstanceTemplate instanceTemplate;
+
+    @Mock
+    private WarmInstanceDAO warmInstanceDAO;
+
+    @Mock
+    private InstanceManager instanceManager;
+
+    @Mock
+    private DatabaseIDHelper databaseIDHelper;
+
+    @Mock
+    private PasswordManager passwordManager;
+
+    @Mock
+    private DBInstance dbInstance;
+
+    private final long now = System.currentTimeMillis();
+
+    @Before
+    public void setUp() {
+        when(dBaaSConfiguration.getWarmInstancePool()).thenReturn(poolConfiguration);
+        when(dBaaSConfiguration.getInstanceTemplate()).thenReturn(instanceTemplate);
+        when(instanceTemplate.getAllocatedStorage()).thenReturn(100);
+        when(poolConfiguration.getEnabled()).thenReturn(true);
+        when(poolConfiguration.getInstanceClasses()).thenReturn(ImmutableList.of("m4.large"));
+        when(poolConfiguration.getMinPerClass()).thenReturn(0);
+        when(poolConfiguration.getMaxPerClass()).thenReturn(2);
+        when(poolConfiguration.getForecastWindowHours()).thenReturn(1);
+        when(poolConfiguration.getLeadTimeMinutes()).thenReturn(30);
+        when(poolConfiguration.getIdleReclaimHours()).thenReturn(24);
+        when(poolConfiguration.getRefillIntervalSeconds()).thenReturn(300);
+        when(poolConfiguration.getMaxCreatesPerRefill()).thenReturn(2);
+        when(poolConfiguration.getHourlyCost()).thenReturn(ImmutableMap.of("m4.large", 0.5));
+
+        when(warmInstanceDAO.tryRefillLease(anyString(), anyLong())).thenReturn(true);
+        when(warmInstanceDAO.claimWarmInstance(INSTANCE_CLASS))
+                .thenReturn(Optional.of("prefix-warm-abc"));
+        when(instanceManager.getDBInstance("prefix-warm-abc")).thenReturn(Optional.of(dbInstance));
+        when(instanceManager.isAvailable(dbInstance)).thenReturn(true);
+        when(dbInstance.getDBInstanceIdentifier()).thenReturn("prefix-warm-abc");
+        when(databaseIDHelper.getDatabaseInstanceId(dbInstance)).thenReturn("warm-abc");
+        when(databaseIDHelper.getDBInstanceId(startsWith("warm-"))).thenReturn("prefix-warm-new");
+        when(passwordManager.generatePassword()).thenReturn("placeholder");
+
+        warmInstancePool = new WarmInstancePool(dBaaSConfiguration, warmInstanceDAO,
+                instanceManager, databaseIDHelper, passwordManager, new MetricRegistry());
+    }
+
+    @Test
+    public void claimTest() {
+        Optional<DBInstance> claimed = warmInstancePool.claim("databaseId", INSTANCE_CLASS, 100,
+                "serviceTag", "componentTag", "password");
+
+        assertSame(dbInstance, claimed.get());
+        verify(warmInstanceDAO).recordDemand(INSTANCE_CLASS, "databaseId");
+        verify(instanceManager).modifyMasterPassword(dbInstance, "password");
+        verify(instanceManager).retagInstance(dbInstance, "serviceTag", "componentTag");
+    }
+
+    @Test
+    public void unpooledClassTest() {
+        assertFalse(warmInstancePool.claim("databaseId", "db.r3.8xlarge", 100, "serviceTag",
+                "componentTag", "password").isPresent());
+
+        verify(warmInstanceDAO, never()).recordDemand(anyString(), anyString());
+        verify(warmInstanceDAO, never()).claimWarmInstance(anyString());
+    }
+
+    @Test
+    public void otherStorageRecordsDemandOnlyTest() {
+        assertFalse(warmInstancePool.claim("databaseId", INSTANCE_CLASS, 500, "serviceTag",
+                "componentTag", "password").isPresent());
+
+        verify(warmInstanceDAO).recordDemand(INSTANCE_CLASS, "databaseId");
+        verify(warmInstanceDAO, never()).claimWarmInstance(anyString());
+    }
+
+    @Test
+    public void passwordFailureDeletesInstanceTest() {
+        doThrow(DatabaseDeletionException.class).when(instanceManager)
+                .modifyMasterPassword(dbInstance, "password");
+
+        assertFalse(warmInstancePool.claim("databaseId", INSTANCE_CLASS, 100, "serviceTag",
+                "componentTag", "password").isPresent());
+
+        verify(instanceManager).deleteInstance("warm-abc");
+    }
+
+    @Test
+    public void forecastTest() {
+        // 5 creates in the last hour, 2.5 expected over a 30 minute lead time
+        when(warmInstanceDAO.countDemand(eq(INSTANCE_CLASS), anyLong())).thenReturn(5);
+        assertEquals(2, warmInstancePool.forecast(INSTANCE_CLASS, now));
+
+        when(warmInstanceDAO.countDemand(eq(INSTANCE_CLASS), anyLong())).thenReturn(1);
+        assertEquals(1, warmInstancePool.forecast(INSTANCE_CLASS, now));
+
+        when(warmInstanceDAO.countDemand(eq(INSTANCE_CLASS), anyLong())).thenReturn(0);
+        assertEquals(0, warmInstancePool.forecast(INSTANCE_CLASS, now));
+    }
+
+    @Test
+    public void refillCreatesForecastTest() throws Exception {
+        when(warmInstanceDAO.countDemand(eq(INSTANCE_CLASS), anyLong())).thenReturn(4);
+        when(warmInstanceDAO.getWarmInstances(INSTANCE_CLASS)).thenReturn(ImmutableList.of(
+                new WarmInstance("prefix-warm-abc", now, Optional.empty())));
+
+        warmInstancePool.runOneIteration();
+
+        verify(warmInstanceDAO).markReady(INSTANCE_CLASS, "prefix-warm-abc");
+        verify(instanceManager, times(1)).createWarmInstance("prefix-warm-new", "placeholder",
+                INSTANCE_CLASS, 100);
+        verify(warmInstanceDAO).putWarmInstance(INSTANCE_CLASS, "prefix-warm-new");
+        assertEquals(0.5, warmInstancePool.getIdleHourlyCost(), 0.001);
+    }
+
+    @Test
+    public void refillReclaimsIdleTest() throws Exception {
+        long longAgo = now - TimeUnit.HOURS.toMillis(48);
+        when(warmInstanceDAO.countDemand(eq(INSTANCE_CLASS), anyLong())).thenReturn(0);
+        when(warmInstanceDAO.getWarmInstances(INSTANCE_CLASS)).thenReturn(ImmutableList.of(
+                new WarmInstance("prefix-warm-abc", longAgo, Optional.of(longAgo))));
+        when(warmInstanceDAO.removeWarmInstance(INSTANCE_CLASS, "prefix-warm-abc"))
+                .thenReturn(true);
+
+        warmInstancePool.runOneIteration();
+
+        verify(instanceManager).deleteInstance("warm-abc");
+        verify(instanceManager, never()).createWarmInstance(anyString(), anyString(),
+                anyString(), eq(100));
+        assertEquals(0.0, warmInstancePool.getIdleHourlyCost(), 0.001);
+    }
+
+    @Test
+    public void refillWithoutLeaseTest() throws Exception {
+        when(warmInstanceDAO.tryRefillLease(anyString(), anyLong())).thenReturn(false);
+
+        warmInstancePool.runOneIteration();
+
+        verify(warmInstanceDAO, never()).getWarmInstances(anyString());
+    }
+}
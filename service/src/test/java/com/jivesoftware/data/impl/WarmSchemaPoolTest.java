@@ -0,0 +1,249 @@
+package com.jivesoftware.data.impl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.SchemaOperationException;
+import com.jivesoftware.data.impl.placement.PlacementStrategy;
+import com.jivesoftware.data.resources.entities.Database;
+import com.jivesoftware.data.resources.entities.DatabaseCreateResponse;
+import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
+import com.jivesoftware.data.resources.entities.DatabaseStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WarmSchemaPoolTest {
+
+    private WarmSchemaPool warmSchemaPool;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private DBaaSConfiguration.WarmPoolConfiguration warmPoolConfiguration;
+
+    @Mock
+    private WarmSchemaDAO warmSchemaDAO;
+
+    @Mock
+    private DatabaseDAO databaseDAO;
+
+    @Mock
+    private DatabaseIDHelper databaseIDHelper;
+
+    @Mock
+    private SchemaManager schemaManager;
+
+    @Mock
+    private PasswordManager passwordManager;
+
+    @Mock
+    private PasswordManager.Instance passwordManagerInstance;
+
+    @Mock
+    private SharedInstanceIndex sharedInstanceIndex;
+
+    @Mock
+    private SharedInstanceEntry sharedInstanceEntry;
+
+    @Mock
+    private PlacementStrategy placementStrategy;
+
+    @Mock
+    private DatabaseCreationRequest databaseCreationRequest;
+
+    @Mock
+    private DBInstance dbInstance;
+
+    @Mock
+    private Endpoint endpoint;
+
+    @Before
+    public void setUp() {
+        when(dBaaSConfiguration.getWarmPool()).thenReturn(warmPoolConfiguration);
+        when(warmPoolConfiguration.getEnabled()).thenReturn(true);
+        when(warmPoolConfiguration.getPerInstance()).thenReturn(3);
+        when(warmPoolConfiguration.getMaxCreatesPerRefill()).thenReturn(10);
+        when(warmPoolConfiguration.getRefillIntervalSeconds()).thenReturn(60);
+
+        when(databaseCreationRequest.getTenancyType())
+                .thenReturn(DatabaseCreationRequest.TenancyType.SHARED);
+        when(databaseCreationRequest.getSourceDatabaseIdOptional()).thenReturn(Optional.empty());
+        when(databaseCreationRequest.getCategory()).thenReturn("category");
+        when(databaseCreationRequest.getDataLocality())
+                .thenReturn(DatabaseCreationRequest.DataLocality.US);
+        when(databaseCreationRequest.getServiceTag()).thenReturn("serviceTag");
+
+        when(sharedInstanceIndex.findSharedInstance(placementStrategy))
+                .thenReturn(Optional.of(dbInstance));
+        when(sharedInstanceEntry.getDbInstance()).thenReturn(dbInstance);
+        when(databaseIDHelper.getDatabaseInstanceId(dbInstance)).thenReturn("instanceId");
+        when(databaseIDHelper.generateDatabaseId("category")).thenReturn("databaseId");
+        when(passwordManager.generatePassword()).thenReturn("password");
+        when(passwordManager.getInstance("instanceId"))
+                .thenReturn(Optional.of(passwordManagerInstance));
+        when(passwordManagerInstance.getPassword()).thenReturn("masterPassword");
+        when(dbInstance.getEndpoint()).thenReturn(endpoint);
+        when(dbInstance.getDBInstanceIdentifier()).thenReturn("dbInstanceId");
+        when(dbInstance.getMasterUsername()).thenReturn("postgres");
+        when(dbInstance.getDBName()).thenReturn("postgres");
+        when(endpoint.getAddress()).thenReturn("host");
+        when(endpoint.getPort()).thenReturn(5432);
+        when(warmSchemaDAO.claimWarmSchema("instanceId")).thenReturn(Optional.of("warm_schema"));
+        when(warmSchemaDAO.tryRefillLease(anyString(), anyLong())).thenReturn(true);
+
+        warmSchemaPool = new WarmSchemaPool(dBaaSConfiguration, warmSchemaDAO, databaseDAO,
+                databaseIDHelper, schemaManager, passwordManager, sharedInstanceIndex,
+                placementStrategy, new MetricRegistry());
+    }
+
+    @Test
+    public void claimTest() {
+        Optional<DatabaseCreateResponse> response = warmSchemaPool.claim(databaseCreationRequest);
+
+        assertTrue(response.isPresent());
+        assertEquals("databaseId", response.get().getDatabaseId());
+        assertEquals("password", response.get().getPassword());
+        verify(schemaManager).renameSchema(any(MasterDatabase.class), eq("warm_schema"),
+                eq("warm_schema"), eq("databaseId"), eq("databaseId"), eq("password"));
+        ArgumentCaptor<Database> databaseCaptor = ArgumentCaptor.forClass(Database.class);
+        verify(databaseDAO).putDatabase(eq("databaseId"), eq("instanceId"),
+                databaseCaptor.capture(), eq(DatabaseCreationRequest.DataLocality.US),
+                eq(DatabaseCreationRequest.TenancyType.SHARED), eq("serviceTag"));
+        assertEquals("databaseId", databaseCaptor.getValue().getSchema());
+        assertEquals("databaseId", databaseCaptor.getValue().getUser());
+        assertEquals("host", databaseCaptor.getValue().getHost());
+        ArgumentCaptor<DatabaseStatus> statusCaptor = ArgumentCaptor.forClass(DatabaseStatus.class);
+        verify(databaseDAO).updateStatus(statusCaptor.capture());
+        assertEquals(DatabaseStatus.Status.READY, statusCaptor.getValue().getStatus());
+        verify(sharedInstanceIndex).recordPlacement("dbInstanceId");
+    }
+
+    @Test
+    public void noWarmSchemaLeftTest() {
+        when(warmSchemaDAO.claimWarmSchema("instanceId")).thenReturn(Optional.empty());
+
+        assertFalse(warmSchemaPool.claim(databaseCreationRequest).isPresent());
+        verify(databaseDAO, never()).putDatabase(anyString(), anyString(), any(), any(), any(),
+                anyString());
+    }
+
+    @Test
+    public void disabledTest() {
+        when(warmPoolConfiguration.getEnabled()).thenReturn(false);
+
+        assertFalse(warmSchemaPool.claim(databaseCreationRequest).isPresent());
+        verify(warmSchemaDAO, never()).claimWarmSchema(anyString());
+    }
+
+    @Test
+    public void cloneAndDedicatedSkipPoolTest() {
+        when(databaseCreationRequest.getSourceDatabaseIdOptional())
+                .thenReturn(Optional.of("sourceId"));
+        assertFalse(warmSchemaPool.claim(databaseCreationRequest).isPresent());
+
+        when(databaseCreationRequest.getSourceDatabaseIdOptional()).thenReturn(Optional.empty());
+        when(databaseCreationRequest.getTenancyType())
+                .thenReturn(DatabaseCreationRequest.TenancyType.DEDICATED);
+        assertFalse(warmSchemaPool.claim(databaseCreationRequest).isPresent());
+
+        verify(warmSchemaDAO, never()).claimWarmSchema(anyString());
+    }
+
+    @Test
+    public void renameFailureDropsSchemaTest() {
+        doThrow(SchemaOperationException.class).when(schemaManager).renameSchema(any(),
+                anyString(), anyString(), anyString(), anyString(), anyString());
+
+        assertFalse(warmSchemaPool.claim(databaseCreationRequest).isPresent());
+        verify(schemaManager).hardDeleteSchema(any(MasterDatabase.class), eq("warm_schema"),
+                eq("warm_schema"));
+        verify(databaseDAO, never()).updateStatus(any());
+    }
+
+    @Test
+    public void recordFailureDropsRenamedSchemaTest() {
+        doThrow(RuntimeException.class).when(databaseDAO).putDatabase(anyString(), anyString(),
+                any(), any(), any(), anyString());
+
+        assertFalse(warmSchemaPool.claim(databaseCreationRequest).isPresent());
+        verify(schemaManager).hardDeleteSchema(any(MasterDatabase.class), eq("databaseId"),
+                eq("databaseId"));
+    }
+
+    @Test
+    public void refillTopsUpInstanceTest() throws Exception {
+        when(sharedInstanceIndex.getEligibleEntries())
+                .thenReturn(ImmutableList.of(sharedInstanceEntry));
+        when(warmSchemaDAO.getWarmSchemas("instanceId"))
+                .thenReturn(ImmutableList.of("warm_existing"));
+
+        warmSchemaPool.runOneIteration();
+
+        verify(schemaManager, times(2)).createSchema(any(MasterDatabase.class),
+                startsWith("warm_"), startsWith("warm_"), eq("password"), eq(true));
+        verify(warmSchemaDAO, times(2)).putWarmSchema(eq("instanceId"), startsWith("warm_"));
+    }
+
+    @Test
+    public void refillBudgetTest() throws Exception {
+        when(warmPoolConfiguration.getMaxCreatesPerRefill()).thenReturn(1);
+        when(sharedInstanceIndex.getEligibleEntries())
+                .thenReturn(ImmutableList.of(sharedInstanceEntry, sharedInstanceEntry));
+        when(warmSchemaDAO.getWarmSchemas("instanceId")).thenReturn(ImmutableList.of());
+
+        warmSchemaPool.runOneIteration();
+
+        verify(warmSchemaDAO, times(1)).putWarmSchema(eq("instanceId"), anyString());
+    }
+
+    @Test
+    public void refillLeaseHeldElsewhereTest() throws Exception {
+        when(warmSchemaDAO.tryRefillLease(anyString(), anyLong())).thenReturn(false);
+        when(sharedInstanceIndex.getEligibleEntries())
+                .thenReturn(ImmutableList.of(sharedInstanceEntry));
+
+        warmSchemaPool.runOneIteration();
+
+        verify(schemaManager, never()).createSchema(any(), anyString(), anyString(), anyString(),
+                anyBoolean());
+        verify(warmSchemaDAO, never()).putWarmSchema(anyString(), anyString());
+    }
+
+    @Test
+    public void refillLeaseLostStopsRefillTest() throws Exception {
+        when(warmSchemaDAO.tryRefillLease(anyString(), anyLong())).thenReturn(true, false);
+        when(sharedInstanceIndex.getEligibleEntries())
+                .thenReturn(ImmutableList.of(sharedInstanceEntry, sharedInstanceEntry));
+        when(warmSchemaDAO.getWarmSchemas("instanceId")).thenReturn(ImmutableList.of());
+
+        warmSchemaPool.runOneIteration();
+
+        verify(warmSchemaDAO, times(1)).putWarmSchema(eq("instanceId"), startsWith("warm_"));
+        verify(warmSchemaDAO, times(1)).getWarmSchemas("instanceId");
+    }
+}
@@ -68,6 +68,8 @@ public class InstanceDeleteRequestProcessorTest {
     @Before
     public void setUp() {
         when(dBaaSConfiguration.getDeletionQueue()).thenReturn(deleteQueue);
+        when(dBaaSConfiguration.getPollingBackoff())
+                .thenReturn(new DBaaSConfiguration.PollingBackoffConfiguration());
         when(deleteQueue.getQueueName()).thenReturn("deleteQueueName");
         when(environment.lifecycle()).thenReturn(lifecycleEnvironment);
         when(sqs.getQueueUrl("deleteQueueName")).thenReturn(getQueueUrlResult);
@@ -206,5 +208,58 @@ public class InstanceDeleteRequestProcessorTest {
         verify(sqs).deleteMessage(any());
     }
 
+    @Test
+    public void notDoneStepRequeuedWithDelayTest() throws Exception{
+        setUp();
+        when(receiveMessageResult.getMessages()).thenReturn(ImmutableList.of(message));
+        when(message.getBody()).thenReturn("databaseId");
+        ImmutableMap<String, MessageAttributeValue> messageMap =
+                ImmutableMap.<String, MessageAttributeValue>builder()
+                        .put("step", new MessageAttributeValue().withStringValue("PREPARING"))
+                        .put("password", new MessageAttributeValue().withStringValue("password"))
+                        .put("attempt", new MessageAttributeValue().withStringValue("1"))
+                        .build();
+        when(message.getMessageAttributes()).thenReturn(messageMap);
+        when(deletionStepProcessorFactory.getStep(DeletionStep.PREPARING))
+                .thenReturn(deleteCommandProcessor);
+        when(deleteCommandProcessor.process("databaseId", "password"))
+                .thenReturn(Optional.of(DeletionStep.PREPARING));
+        instanceDeleteRequestProcessor.runOneIteration();
+
+        ArgumentCaptor<SendMessageRequest> messageRequestCaptor =
+                ArgumentCaptor.forClass(SendMessageRequest.class);
+        verify(sqs).sendMessage(messageRequestCaptor.capture());
+        assertEquals(Integer.valueOf(10), messageRequestCaptor.getValue().getDelaySeconds());
+        assertEquals("2", messageRequestCaptor.getValue().getMessageAttributes()
+                .get("attempt").getStringValue());
+        verify(databaseDAO, never()).updateStatus(any());
+        verify(sqs).deleteMessage(any());
+    }
+
+    @Test
+    public void notDoneStepGivesUpAfterMaxAttemptsTest() throws Exception{
+        setUp();
+        when(receiveMessageResult.getMessages()).thenReturn(ImmutableList.of(message));
+        when(message.getBody()).thenReturn("databaseId");
+        ImmutableMap<String, MessageAttributeValue> messageMap =
+                ImmutableMap.<String, MessageAttributeValue>builder()
+                        .put("step", new MessageAttributeValue().withStringValue("RESETTING_PASSWORD"))
+                        .put("password", new MessageAttributeValue().withStringValue("password"))
+                        .put("attempt", new MessageAttributeValue().withStringValue("60"))
+                        .build();
+        when(message.getMessageAttributes()).thenReturn(messageMap);
+        when(deletionStepProcessorFactory.getStep(DeletionStep.RESETTING_PASSWORD))
+                .thenReturn(deleteCommandProcessor);
+        when(deleteCommandProcessor.process("databaseId", "password"))
+                .thenReturn(Optional.of(DeletionStep.RESETTING_PASSWORD));
+        ArgumentCaptor<DatabaseStatus> statusArgumentCaptor =
+                ArgumentCaptor.forClass(DatabaseStatus.class);
 
+        instanceDeleteRequestProcessor.runOneIteration();
+
+        verify(sqs, times(0)).sendMessage(any());
+        verify(databaseDAO).updateStatus(statusArgumentCaptor.capture());
+        assertEquals(statusArgumentCaptor.getValue().getStatus(), DatabaseStatus.Status.ERROR);
+        verify(sqs).deleteMessage(any());
+    }
 }
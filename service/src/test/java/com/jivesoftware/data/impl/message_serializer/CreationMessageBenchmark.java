@@ -0,0 +1,85 @@
+package com.jivesoftware.data.impl.message_serializer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jivesoftware.data.impl.CreationRequestMessage;
+import com.jivesoftware.data.impl.CreationStep;
+import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the v1 creation message format, JSON encrypted with AES/CBC, against v2, binary Ion
+ * sealed with AES/GCM. The main method prints the encoded sizes before running the benchmarks,
+ * run it from the service directory after a test compile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CreationMessageBenchmark {
+
+    private static final String AES_FILE = "src/test/resources/aes-test.yaml";
+
+    private CreationMessageSerializer creationMessageSerializer;
+    private EncryptionManager encryptionManager;
+    private CreationRequestMessage message;
+    private EncryptionObject jsonMessage;
+    private EncryptionObject binaryMessage;
+
+    @Setup
+    public void setUp() {
+        creationMessageSerializer = new CreationMessageSerializer(new ObjectMapper());
+        encryptionManager = new EncryptionManager(AES_FILE);
+        message = new CreationRequestMessage("category-0a1b2c3d4e5f", "3dXk9qLm2VbN8wRt",
+                CreationStep.INSTANCE_READY,
+                new DatabaseCreationRequest("category", DatabaseCreationRequest.TenancyType.SHARED,
+                        "m4.large", 100, DatabaseCreationRequest.DataLocality.US, "service",
+                        "component", null, false, null),
+                4);
+        jsonMessage = encodeJson();
+        binaryMessage = encodeBinary();
+    }
+
+    @Benchmark
+    public EncryptionObject encodeJson() {
+        return encryptionManager.encrypt(creationMessageSerializer.serialize(message));
+    }
+
+    @Benchmark
+    public EncryptionObject encodeBinary() {
+        return encryptionManager.seal(creationMessageSerializer.serializeBinary(message));
+    }
+
+    @Benchmark
+    public CreationRequestMessage decodeJson() {
+        return creationMessageSerializer.deserialize(encryptionManager.decrypt(jsonMessage),
+                CreationRequestMessage.class);
+    }
+
+    @Benchmark
+    public CreationRequestMessage decodeBinary() {
+        return creationMessageSerializer.deserializeBinary(encryptionManager.open(binaryMessage),
+                CreationRequestMessage.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        CreationMessageBenchmark sizes = new CreationMessageBenchmark();
+        sizes.setUp();
+        System.out.println(String.format("v1 json %d bytes, encrypted %d bytes with iv",
+                sizes.creationMessageSerializer.serialize(sizes.message).length(),
+                sizes.jsonMessage.getEncryptedMessage().length + sizes.jsonMessage.getIV().length));
+        System.out.println(String.format("v2 ion %d bytes, sealed %d bytes with iv",
+                sizes.creationMessageSerializer.serializeBinary(sizes.message).length,
+                sizes.binaryMessage.getEncryptedMessage().length + sizes.binaryMessage.getIV().length));
+
+        new Runner(new OptionsBuilder()
+                .include(CreationMessageBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
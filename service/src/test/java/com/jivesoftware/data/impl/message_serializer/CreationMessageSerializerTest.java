@@ -0,0 +1,123 @@
+package com.jivesoftware.data.impl.message_serializer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jivesoftware.data.exceptions.EncryptionException;
+import com.jivesoftware.data.impl.CreationRequestMessage;
+import com.jivesoftware.data.impl.CreationStep;
+import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.ion.IonSystem;
+import software.amazon.ion.IonWriter;
+import software.amazon.ion.system.IonSystemBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CreationMessageSerializerTest {
+
+    private CreationMessageSerializer creationMessageSerializer;
+
+    private CreationRequestMessage creationRequestMessage;
+
+    @Before
+    public void setUp() {
+        creationMessageSerializer = new CreationMessageSerializer(new ObjectMapper());
+        creationRequestMessage = new CreationRequestMessage("category-0a1b2c3d", "password",
+                CreationStep.INSTANCE_READY,
+                new DatabaseCreationRequest("category", DatabaseCreationRequest.TenancyType.DEDICATED,
+                        "m4.large", 200, DatabaseCreationRequest.DataLocality.EU, "serviceTag",
+                        "serviceComponentTag", null, true, null),
+                3);
+    }
+
+    @Test
+    public void binaryRoundTripTest() {
+        byte[] binary = creationMessageSerializer.serializeBinary(creationRequestMessage);
+
+        CreationRequestMessage received = creationMessageSerializer.deserializeBinary(binary,
+                CreationRequestMessage.class);
+
+        assertEquals(creationMessageSerializer.serialize(creationRequestMessage),
+                creationMessageSerializer.serialize(received));
+        assertEquals(CreationStep.INSTANCE_READY, received.getCreationStep());
+        assertEquals(Integer.valueOf(3), received.getAttempt());
+        assertEquals(Integer.valueOf(200),
+                received.getDatabaseCreationRequest().getInstanceStorage());
+        assertNull(received.getDatabaseCreationRequest().getSourceDatabaseId());
+    }
+
+    @Test
+    public void binarySmallerThanJsonTest() {
+        byte[] binary = creationMessageSerializer.serializeBinary(creationRequestMessage);
+        byte[] json = creationMessageSerializer.serialize(creationRequestMessage)
+                .getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(binary.length < json.length);
+    }
+
+    @Test
+    public void jsonWithoutAttemptTest() {
+        CreationRequestMessage firstAttempt = new CreationRequestMessage("category-0a1b2c3d",
+                "password", CreationStep.SCHEMA, creationRequestMessage.getDatabaseCreationRequest(),
+                null);
+
+        String json = creationMessageSerializer.serialize(firstAttempt);
+
+        assertTrue(!json.contains("attempt"));
+        assertNull(creationMessageSerializer.deserialize(json, CreationRequestMessage.class)
+                .getAttempt());
+    }
+
+    @Test
+    public void cloneEngineAndStepAreSymbolsTest() {
+        CreationRequestMessage storageClone = new CreationRequestMessage("category-0a1b2c3d",
+                "password", CreationStep.CREDENTIALS,
+                new DatabaseCreationRequest("category", DatabaseCreationRequest.TenancyType.DEDICATED,
+                        "m4.large", 200, DatabaseCreationRequest.DataLocality.US, "serviceTag",
+                        "serviceComponentTag", "sourceId", false,
+                        DatabaseCreationRequest.CloneEngine.STORAGE),
+                null);
+
+        byte[] binary = creationMessageSerializer.serializeBinary(storageClone);
+        String text = new String(binary, StandardCharsets.ISO_8859_1);
+
+        assertFalse(text.contains("cloneEngine"));
+        assertFalse(text.contains("STORAGE"));
+        assertFalse(text.contains("CREDENTIALS"));
+        CreationRequestMessage received = creationMessageSerializer.deserializeBinary(binary,
+                CreationRequestMessage.class);
+        assertEquals(CreationStep.CREDENTIALS, received.getCreationStep());
+        assertEquals(DatabaseCreationRequest.CloneEngine.STORAGE,
+                received.getDatabaseCreationRequest().getCloneEngineOptional().get());
+    }
+
+    @Test
+    public void previousSymbolTableVersionTest() throws Exception {
+        IonSystem ionSystem = IonSystemBuilder.standard().build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (IonWriter writer = ionSystem.newBinaryWriter(out, ionSystem.newSharedSymbolTable(
+                CreationMessageSerializer.SYMBOL_TABLE_NAME, 1,
+                CreationMessageSerializer.SYMBOLS_V1.iterator()))) {
+            writer.writeValues(ionSystem.newReader(
+                    creationMessageSerializer.serialize(creationRequestMessage)));
+        }
+
+        CreationRequestMessage received = creationMessageSerializer.deserializeBinary(
+                out.toByteArray(), CreationRequestMessage.class);
+
+        assertEquals(creationMessageSerializer.serialize(creationRequestMessage),
+                creationMessageSerializer.serialize(received));
+    }
+
+    @Test(expected = EncryptionException.class)
+    public void binaryGarbageTest() {
+        creationMessageSerializer.deserializeBinary(new byte[] {1, 2, 3},
+                CreationRequestMessage.class);
+    }
+}
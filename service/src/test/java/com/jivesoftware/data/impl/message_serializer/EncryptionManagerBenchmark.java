@@ -0,0 +1,67 @@
+package com.jivesoftware.data.impl.message_serializer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a creation message encrypt and decrypt round trip with the keys derived once against
+ * deriving the key and looking up a cipher on every call, as the manager used to. Run the main
+ * method from the service directory after a test compile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EncryptionManagerBenchmark {
+
+    private static final String AES_FILE = "src/test/resources/aes-test.yaml";
+    private static final String PASSWORD =
+            "F358529E503A14EF80C8574FAD409F638844C5284FAC5802840CF020107C376A";
+    private static final String SALT = "F392641DD9B236BAE6BBF19E966193CD";
+    private static final String MESSAGE = "{\"databaseId\":\"category-0a1b2c3d4e5f\"," +
+            "\"password\":\"3dXk9qLm2VbN8wRt\",\"creationStep\":\"INSTANCE_READY\"," +
+            "\"databaseCreationRequest\":{\"category\":\"category\",\"tenancyType\":\"SHARED\"," +
+            "\"dataLocality\":\"US\",\"serviceTag\":\"service\"}}";
+
+    private EncryptionManager encryptionManager;
+
+    @Setup
+    public void setUp() {
+        encryptionManager = new EncryptionManager(AES_FILE);
+    }
+
+    @Benchmark
+    public String derivedOnce() {
+        return encryptionManager.decrypt(encryptionManager.encrypt(MESSAGE));
+    }
+
+    @Benchmark
+    public String derivedPerCall() throws Exception {
+        SecretKey encryptKey = EncryptionManager.deriveKey(PASSWORD, SALT);
+        Cipher encryptCipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+        encryptCipher.init(Cipher.ENCRYPT_MODE, encryptKey);
+        byte[] iv = encryptCipher.getParameters().getParameterSpec(IvParameterSpec.class).getIV();
+        byte[] encrypted = encryptCipher.doFinal(MESSAGE.getBytes(StandardCharsets.UTF_8));
+
+        SecretKey decryptKey = EncryptionManager.deriveKey(PASSWORD, SALT);
+        Cipher decryptCipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+        decryptCipher.init(Cipher.DECRYPT_MODE, decryptKey, new IvParameterSpec(iv));
+        return new String(decryptCipher.doFinal(encrypted), StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EncryptionManagerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -1,16 +1,26 @@
 package com.jivesoftware.data.impl.message_serializer;
 
 import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.exceptions.EncryptionException;
 import com.jivesoftware.data.impl.CreationRequestMessage;
 import com.tngtech.java.junit.dataprovider.DataProvider;
 import com.tngtech.java.junit.dataprovider.DataProviderRunner;
 import com.tngtech.java.junit.dataprovider.UseDataProvider;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
 
@@ -27,6 +37,9 @@ public class EncryptionManagerTest {
     @Mock
     private DBaaSConfiguration dBaaSConfiguration;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private boolean mockInitialized = false;
 
     byte[] ivBytes;
@@ -71,4 +84,85 @@ public class EncryptionManagerTest {
         EncryptionObject testEncrypted = encryptionManager.encrypt(original);
         assertEquals(encryptionManager.decrypt(testEncrypted), control);
     }
+
+    @Test
+    public void versionedKeyTest() throws Exception {
+        EncryptionManager versionedManager =
+                new EncryptionManager("src/test/resources/aes-versioned-test.yaml");
+
+        EncryptionObject testEncrypted = versionedManager.encrypt("simpleString");
+
+        assertEquals(Optional.of("k2"), testEncrypted.getKeyVersion());
+        assertEquals("simpleString", versionedManager.decrypt(testEncrypted));
+    }
+
+    @Test
+    public void messageFromBeforeRotationTest() throws Exception {
+        EncryptionObject testEncrypted = encryptionManager.encrypt("simpleString");
+        assertEquals(Optional.empty(), testEncrypted.getKeyVersion());
+
+        EncryptionManager versionedManager =
+                new EncryptionManager("src/test/resources/aes-versioned-test.yaml");
+
+        assertEquals("simpleString", versionedManager.decrypt(testEncrypted));
+    }
+
+    @Test(expected = EncryptionException.class)
+    public void unknownKeyVersionTest() throws Exception {
+        EncryptionObject testEncrypted = encryptionManager.encrypt("simpleString");
+
+        encryptionManager.decrypt(new EncryptionObject(testEncrypted.getIV(),
+                testEncrypted.getEncryptedMessage(), Optional.of("k9")));
+    }
+
+    @Test
+    public void reloadPicksUpRotatedKeyTest() throws Exception {
+        File aesFile = temporaryFolder.newFile("aes.yaml");
+        Files.copy(Paths.get("src/test/resources/aes-test.yaml"), aesFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        EncryptionManager reloadingManager = new EncryptionManager(aesFile.getPath());
+        EncryptionObject beforeRotation = reloadingManager.encrypt("simpleString");
+
+        Files.copy(Paths.get("src/test/resources/aes-versioned-test.yaml"), aesFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        reloadingManager.reload();
+
+        assertEquals(Optional.of("k2"), reloadingManager.encrypt("simpleString").getKeyVersion());
+        assertEquals("simpleString", reloadingManager.decrypt(beforeRotation));
+    }
+
+    @Test
+    public void failedReloadKeepsKeysTest() throws Exception {
+        File aesFile = temporaryFolder.newFile("aes.yaml");
+        Files.copy(Paths.get("src/test/resources/aes-test.yaml"), aesFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        EncryptionManager reloadingManager = new EncryptionManager(aesFile.getPath());
+
+        Files.write(aesFile.toPath(), "currentKey: missing\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            reloadingManager.reload();
+        } catch (EncryptionException expected) {
+            // the file names a key it doesn't hold
+        }
+
+        EncryptionObject testEncrypted = reloadingManager.encrypt("simpleString");
+        assertEquals(Optional.empty(), testEncrypted.getKeyVersion());
+        assertEquals("simpleString", reloadingManager.decrypt(testEncrypted));
+    }
+
+    @Test
+    @UseDataProvider("data")
+    public void sealTest(final String original, final String control) throws Exception {
+        EncryptionObject testSealed = encryptionManager.seal(original.getBytes(StandardCharsets.UTF_8));
+        assertEquals(new String(encryptionManager.open(testSealed), StandardCharsets.UTF_8), control);
+    }
+
+    @Test(expected = EncryptionException.class)
+    public void tamperedSealTest() throws Exception {
+        EncryptionObject testSealed = encryptionManager.seal(
+                "simpleString".getBytes(StandardCharsets.UTF_8));
+        testSealed.getEncryptedMessage()[0] ^= 1;
+
+        encryptionManager.open(testSealed);
+    }
 }
@@ -0,0 +1,109 @@
+package com.jivesoftware.data.impl.metrics;
+
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchClient;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.MetricDataResult;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.jivesoftware.data.DBaaSConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CloudWatchInstanceMetricsClientTest {
+
+    private CloudWatchInstanceMetricsClient metricsClient;
+
+    @Mock
+    private AmazonCloudWatchClient amazonCloudWatchClient;
+
+    @Mock
+    private DBaaSConfiguration dBaaSConfiguration;
+
+    @Mock
+    private MetricRegistry metricRegistry;
+
+    @Mock
+    private Timer timer;
+
+    @Mock
+    private Timer.Context context;
+
+    @Mock
+    private Meter meter;
+
+    @Before
+    public void setUp() {
+        when(dBaaSConfiguration.getInstanceMetrics())
+                .thenReturn(new DBaaSConfiguration.InstanceMetricsConfiguration());
+        when(metricRegistry.timer(anyString())).thenReturn(timer);
+        when(metricRegistry.meter(anyString())).thenReturn(meter);
+        when(timer.time()).thenReturn(context);
+
+        metricsClient = new CloudWatchInstanceMetricsClient(amazonCloudWatchClient,
+                dBaaSConfiguration, metricRegistry);
+    }
+
+    @Test
+    public void singleRequestForManyInstancesTest() {
+        when(amazonCloudWatchClient.getMetricData(any())).thenReturn(new GetMetricDataResult()
+                .withMetricDataResults(
+                        new MetricDataResult().withId("cpu_0").withValues(12.0, 40.0),
+                        new MetricDataResult().withId("connections_0").withValues(7.0),
+                        new MetricDataResult().withId("storage_0").withValues(500.0, 300.0),
+                        new MetricDataResult().withId("cpu_1").withValues(3.0)));
+
+        Map<String, InstanceMetrics> metrics = metricsClient.fetchMetrics(
+                ImmutableList.of("red-test1", "red-test2"));
+
+        ArgumentCaptor<GetMetricDataRequest> captor =
+                ArgumentCaptor.forClass(GetMetricDataRequest.class);
+        verify(amazonCloudWatchClient, times(1)).getMetricData(captor.capture());
+        assertEquals(6, captor.getValue().getMetricDataQueries().size());
+
+        assertEquals(Optional.of(40.0), metrics.get("red-test1").getCpuMaximum());
+        assertEquals(Optional.of(7.0), metrics.get("red-test1").getConnectionsMaximum());
+        assertEquals(Optional.of(300.0), metrics.get("red-test1").getFreeStorageMinimum());
+        assertEquals(Optional.of(3.0), metrics.get("red-test2").getCpuMaximum());
+        assertFalse(metrics.get("red-test2").getFreeStorageMinimum().isPresent());
+    }
+
+    @Test
+    public void queriesChunkedPerRequestTest() {
+        when(amazonCloudWatchClient.getMetricData(any())).thenReturn(new GetMetricDataResult());
+
+        List<String> instances = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            instances.add("red-test" + i);
+        }
+        Map<String, InstanceMetrics> metrics = metricsClient.fetchMetrics(instances);
+
+        // three queries per instance, 120 queries in two requests
+        verify(amazonCloudWatchClient, times(2)).getMetricData(any());
+        assertEquals(40, metrics.size());
+        assertFalse(metrics.get("red-test0").getCpuMaximum().isPresent());
+    }
+
+    @Test
+    public void noInstancesNoRequestTest() {
+        assertTrue(metricsClient.fetchMetrics(ImmutableList.of()).isEmpty());
+        verifyZeroInteractions(amazonCloudWatchClient);
+    }
+}
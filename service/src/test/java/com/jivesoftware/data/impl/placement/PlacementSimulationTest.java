@@ -0,0 +1,43 @@
+package com.jivesoftware.data.impl.placement;
+
+import com.jivesoftware.data.DBaaSConfiguration;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PlacementSimulationTest {
+
+    private final static Logger logger = LoggerFactory.getLogger(PlacementSimulationTest.class);
+
+    private static final int PLACEMENTS = 1000;
+
+    private PlacementSimulator simulator = new PlacementSimulator(42L, 8, 20);
+
+    @Test
+    public void weightedSpreadsHotSpotTest() {
+        PlacementSimulator.Report leastCpu = simulator.run(new LeastCpuPlacementStrategy(),
+                PLACEMENTS);
+        PlacementSimulator.Report weighted = simulator.run(new WeightedPlacementStrategy(
+                new DBaaSConfiguration.PlacementConfiguration()), PLACEMENTS);
+
+        logger.info(String.format("Least CPU placement:%n%s", leastCpu));
+        logger.info(String.format("Weighted placement:%n%s", weighted));
+
+        assertTrue(weighted.getMaxSchemas() < leastCpu.getMaxSchemas());
+        assertTrue(weighted.getSchemaStdDev() < leastCpu.getSchemaStdDev());
+        // the hot spot keeps collecting schemas under least CPU placement
+        assertTrue(leastCpu.getSchemas().get(0) > weighted.getSchemas().get(0));
+    }
+
+    @Test
+    public void sameSeedSameDistributionTest() {
+        PlacementStrategy weighted = new WeightedPlacementStrategy(
+                new DBaaSConfiguration.PlacementConfiguration());
+
+        assertEquals(simulator.run(weighted, PLACEMENTS).getSchemas(),
+                simulator.run(weighted, PLACEMENTS).getSchemas());
+    }
+}
@@ -0,0 +1,160 @@
+package com.jivesoftware.data.impl.placement;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.google.common.collect.ImmutableList;
+import com.jivesoftware.data.impl.SharedInstanceEntry;
+import com.jivesoftware.data.impl.metrics.InstanceMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Replays schema placements against a synthetic shared fleet so placement strategies can be
+ * compared without RDS. Everything is drawn from a seeded {@link Random}, the same seed and
+ * strategy always give the same distribution.
+ *
+ * The first instance of the fleet is a hot spot: the lowest CPU of the fleet while already holding
+ * far more schemas than any other. Like the index, strategies see live schema counts but CPU,
+ * storage and connections only as of the last metrics refresh.
+ */
+public class PlacementSimulator {
+
+    private static final double BYTES_PER_GIB = 1024d * 1024d * 1024d;
+    private static final int ALLOCATED_STORAGE_GIB = 500;
+    private static final int HOT_SPOT_SCHEMAS = 400;
+    private static final double HOT_SPOT_CPU = 3d;
+
+    private final long seed;
+    private final int instances;
+    private final int metricsRefreshEvery;
+
+    public PlacementSimulator(long seed, int instances, int metricsRefreshEvery) {
+        this.seed = seed;
+        this.instances = instances;
+        this.metricsRefreshEvery = metricsRefreshEvery;
+    }
+
+    public Report run(PlacementStrategy placementStrategy, int placements) {
+        Random random = new Random(seed);
+        List<SimulatedInstance> fleet = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            int schemas = i == 0 ? HOT_SPOT_SCHEMAS : 20 + random.nextInt(180);
+            double cpu = i == 0 ? HOT_SPOT_CPU : 5d + random.nextDouble() * 50d;
+            fleet.add(new SimulatedInstance(String.format("red-shared-%02d", i), schemas, cpu,
+                    schemas * 0.8d, schemas * 0.5d));
+        }
+
+        List<InstanceMetrics> metrics = snapshot(fleet);
+        for (int placement = 0; placement < placements; placement++) {
+            if (placement % metricsRefreshEvery == 0) {
+                metrics = snapshot(fleet);
+            }
+            List<SharedInstanceEntry> candidates = new ArrayList<>();
+            for (int i = 0; i < fleet.size(); i++) {
+                candidates.add(fleet.get(i).toEntry(metrics.get(i)));
+            }
+            String chosen = placementStrategy.choose(candidates).get().getInstanceIdentifier();
+            for (SimulatedInstance instance : fleet) {
+                if (instance.id.equals(chosen)) {
+                    instance.place(random);
+                }
+            }
+        }
+        return new Report(fleet);
+    }
+
+    private static List<InstanceMetrics> snapshot(List<SimulatedInstance> fleet) {
+        List<InstanceMetrics> metrics = new ArrayList<>();
+        for (SimulatedInstance instance : fleet) {
+            metrics.add(new InstanceMetrics(Optional.of(instance.cpu),
+                    Optional.of(instance.connections),
+                    Optional.of((ALLOCATED_STORAGE_GIB - instance.usedStorageGib) * BYTES_PER_GIB)));
+        }
+        return metrics;
+    }
+
+    private static class SimulatedInstance {
+
+        private final String id;
+        private int schemas;
+        private double cpu;
+        private double usedStorageGib;
+        private double connections;
+
+        private SimulatedInstance(String id, int schemas, double cpu, double usedStorageGib,
+                                  double connections) {
+            this.id = id;
+            this.schemas = schemas;
+            this.cpu = cpu;
+            this.usedStorageGib = usedStorageGib;
+            this.connections = connections;
+        }
+
+        private void place(Random random) {
+            schemas++;
+            cpu = Math.min(100d, cpu + 0.1d + random.nextDouble() * 0.1d);
+            usedStorageGib += 0.5d + random.nextDouble();
+            connections += random.nextDouble() * 2d;
+        }
+
+        private SharedInstanceEntry toEntry(InstanceMetrics metrics) {
+            DBInstance dbInstance = new DBInstance()
+                    .withDBInstanceIdentifier(id)
+                    .withAllocatedStorage(ALLOCATED_STORAGE_GIB);
+            return new SharedInstanceEntry(dbInstance, ImmutableList.of(), 0L, metrics, schemas, 0L);
+        }
+    }
+
+    public static class Report {
+
+        private final List<String> ids = new ArrayList<>();
+        private final List<Integer> schemas = new ArrayList<>();
+        private final List<Double> cpu = new ArrayList<>();
+        private final List<Double> usedStorageGib = new ArrayList<>();
+
+        private Report(List<SimulatedInstance> fleet) {
+            for (SimulatedInstance instance : fleet) {
+                ids.add(instance.id);
+                schemas.add(instance.schemas);
+                cpu.add(instance.cpu);
+                usedStorageGib.add(instance.usedStorageGib);
+            }
+        }
+
+        public List<Integer> getSchemas() {
+            return schemas;
+        }
+
+        public int getMaxSchemas() {
+            return schemas.stream().mapToInt(Integer::intValue).max().orElse(0);
+        }
+
+        public int getMinSchemas() {
+            return schemas.stream().mapToInt(Integer::intValue).min().orElse(0);
+        }
+
+        public double getSchemaStdDev() {
+            double mean = schemas.stream().mapToInt(Integer::intValue).average().orElse(0d);
+            return Math.sqrt(schemas.stream()
+                    .mapToDouble(count -> (count - mean) * (count - mean)).average().orElse(0d));
+        }
+
+        public double getMaxCpu() {
+            return cpu.stream().mapToDouble(Double::doubleValue).max().orElse(0d);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format(
+                    "schemas min %d max %d stddev %.1f, cpu max %.1f%n",
+                    getMinSchemas(), getMaxSchemas(), getSchemaStdDev(), getMaxCpu()));
+            for (int i = 0; i < ids.size(); i++) {
+                report.append(String.format("  %s schemas %4d cpu %5.1f storage %6.1f GiB%n",
+                        ids.get(i), schemas.get(i), cpu.get(i), usedStorageGib.get(i)));
+            }
+            return report.toString();
+        }
+    }
+}
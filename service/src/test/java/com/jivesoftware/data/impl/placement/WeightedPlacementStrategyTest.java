@@ -0,0 +1,66 @@
+package com.jivesoftware.data.impl.placement;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.google.common.collect.ImmutableList;
+import com.jivesoftware.data.DBaaSConfiguration;
+import com.jivesoftware.data.impl.SharedInstanceEntry;
+import com.jivesoftware.data.impl.metrics.InstanceMetrics;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class WeightedPlacementStrategyTest {
+
+    private static final double GIB = 1024d * 1024d * 1024d;
+
+    private WeightedPlacementStrategy strategy = new WeightedPlacementStrategy(
+            new DBaaSConfiguration.PlacementConfiguration());
+
+    @Test
+    public void crowdedInstanceLosesToBusierCpuTest() {
+        SharedInstanceEntry crowded = entry("red-crowded", 2d, 400, 400d);
+        SharedInstanceEntry spare = entry("red-spare", 20d, 40, 400d);
+
+        assertEquals(Optional.of(spare), strategy.choose(ImmutableList.of(crowded, spare)));
+        assertEquals(Optional.of(crowded),
+                new LeastCpuPlacementStrategy().choose(ImmutableList.of(crowded, spare)));
+    }
+
+    @Test
+    public void fullStorageLosesTest() {
+        SharedInstanceEntry full = entry("red-full", 10d, 100, 5d);
+        SharedInstanceEntry roomy = entry("red-roomy", 10d, 100, 450d);
+
+        assertEquals(Optional.of(roomy), strategy.choose(ImmutableList.of(full, roomy)));
+    }
+
+    @Test
+    public void missingMetricsTieOnIdentifierTest() {
+        SharedInstanceEntry second = new SharedInstanceEntry(
+                new DBInstance().withDBInstanceIdentifier("red-b"), ImmutableList.of(), 0L,
+                InstanceMetrics.EMPTY, 0, 0L);
+        SharedInstanceEntry first = new SharedInstanceEntry(
+                new DBInstance().withDBInstanceIdentifier("red-a"), ImmutableList.of(), 0L,
+                InstanceMetrics.EMPTY, 0, 0L);
+
+        assertEquals(Optional.of(first), strategy.choose(ImmutableList.of(second, first)));
+    }
+
+    @Test
+    public void noCandidatesTest() {
+        assertFalse(strategy.choose(ImmutableList.of()).isPresent());
+    }
+
+    private SharedInstanceEntry entry(String identifier, double cpu, int schemas,
+                                      double freeStorageGib) {
+        return new SharedInstanceEntry(
+                new DBInstance().withDBInstanceIdentifier(identifier).withAllocatedStorage(500),
+                ImmutableList.of(), 0L,
+                new InstanceMetrics(Optional.of(cpu), Optional.of(schemas / 2d),
+                        Optional.of(freeStorageGib * GIB)),
+                schemas, 0L);
+    }
+}
@@ -8,6 +8,7 @@ import com.jivesoftware.data.resources.entities.Database;
 import com.jivesoftware.data.resources.entities.DatabaseCreateResponse;
 import com.jivesoftware.data.resources.entities.DatabaseCreationRequest;
 import com.jivesoftware.data.resources.entities.DatabaseStatus;
+import com.jivesoftware.data.resources.entities.HardDeleteProgress;
 import com.jivesoftware.data.DBaaSConfiguration.InstanceType;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -142,7 +143,7 @@ public class DBaaSResourceIT {
                         100,
                         DatabaseCreationRequest.DataLocality.US,
                         "testServiceTag", "testServiceComponentTag",
-                        "randomId", false);
+                        "randomId", false, null);
 
         final RequestSpecification request = given().contentType(ContentType.JSON)
                 .body(databaseCreationRequest).accept(ContentType.JSON);
@@ -323,8 +324,7 @@ public class DBaaSResourceIT {
             Assert.assertNull(connection);
         }
 
-        given().header("token", "token").delete(serviceHost + "/v1/databases/harddelete").then()
-                .statusCode(javax.ws.rs.core.Response.Status.NO_CONTENT.getStatusCode());
+        waitUntilHardDeleted(databaseId);
 
 //        Database masterDatabase = new Database(database.getId(), "postgres", database.getHost(),
 //                database.getPort(), database.getSchema());
@@ -411,7 +411,7 @@ public class DBaaSResourceIT {
                         100,
                         DatabaseCreationRequest.DataLocality.US,
                         "testServiceTag", "testServiceComponentTag",
-                        cloneFrom, false);
+                        cloneFrom, false, null);
 
         final RequestSpecification createRequest = given().contentType(ContentType.JSON)
                 .body(databaseCreationRequest).accept(ContentType.JSON);
@@ -464,6 +464,44 @@ public class DBaaSResourceIT {
         }
     }
 
+    /**
+     * Triggers hard delete passes until one has removed the database. A trigger can land while a
+     * pass that read its page before the database was deleted is still running, so a single pass
+     * finishing proves nothing.
+     */
+    private void waitUntilHardDeleted(String databaseId) throws Exception {
+
+        long waitTime = 300000;
+        while (waitTime > 0) {
+
+            Response response = given().header("token", "token")
+                    .delete(serviceHost + "/v1/databases/harddelete");
+            Assert.assertEquals(javax.ws.rs.core.Response.Status.ACCEPTED.getStatusCode(),
+                    response.getStatusCode());
+            HardDeleteProgress triggered = response.as(HardDeleteProgress.class);
+            Assert.assertFalse(triggered.isLeaseHeldElsewhere());
+            Assert.assertTrue(triggered.isRunning());
+
+            HardDeleteProgress progress = triggered;
+            while ((progress.isRunning() || progress.getFinishedAt() == null
+                    || progress.getFinishedAt() < triggered.getStartedAt()) && waitTime > 0) {
+
+                Thread.sleep(3000);
+
+                waitTime = waitTime - 3000;
+                progress = given().header("token", "token")
+                        .get(serviceHost + "/v1/databases/harddelete").as(HardDeleteProgress.class);
+            }
+
+            if (given().get(serviceHost + "/v1/databases/" + databaseId + "/status")
+                    .getStatusCode() == 404) {
+                return;
+            }
+            Thread.sleep(3000);
+            waitTime = waitTime - 3000;
+        }
+    }
+
     @Test
     public void testAvailableInstances() throws IOException {
 